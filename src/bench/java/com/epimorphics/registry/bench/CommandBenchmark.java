@@ -0,0 +1,117 @@
+/******************************************************************
+ * File:        CommandBenchmark.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.Response;
+
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.mgt.DefaultSecurityManager;
+import org.glassfish.jersey.uri.UriComponent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.epimorphics.registry.core.Command;
+import com.epimorphics.registry.core.Command.Operation;
+import com.epimorphics.registry.core.Registry;
+import com.epimorphics.registry.store.StoreBaseImpl;
+
+/**
+ * Benchmarks for reading pages of a register through the command layer,
+ * excluding the HTTP stack and response serialization.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandBenchmark {
+
+    @Param({"2"})
+    int registers;
+
+    @Param({"1000"})
+    int items;
+
+    @Param({"100"})
+    int pageSize;
+
+    SyntheticRegistry synthetic;
+    StoreBaseImpl store;
+    Registry registry;
+    Random random = new Random(42);
+
+    @Setup
+    public void setup() {
+        synthetic = new SyntheticRegistry(registers, items);
+        store = synthetic.getStore();
+
+        registry = new Registry();
+        registry.setBaseURI( SyntheticRegistry.ROOT_REGISTER );
+        registry.setStore(store);
+        registry.setPageSize(pageSize);
+
+        // Anonymous access, so visibility checks are included
+        SecurityUtils.setSecurityManager( new DefaultSecurityManager() );
+    }
+
+    private Response read(String params) {
+        Command command = registry.make(Operation.Read, synthetic.registerName(random.nextInt(registers)), UriComponent.decodeQuery(params, true));
+        store.beginRead();
+        try {
+            return command.doExecute();
+        } finally {
+            store.end();
+        }
+    }
+
+    private int randomPage() {
+        return random.nextInt( Math.max(1, items / pageSize) );
+    }
+
+    @Benchmark
+    public Response registerPage() {
+        return read("status=any&_page=" + randomPage());
+    }
+
+    @Benchmark
+    public Response registerPageWithMetadata() {
+        return read("status=any&_view=with_metadata&_page=" + randomPage());
+    }
+
+    @Benchmark
+    public Response registerFirstPage() {
+        return read("status=any&firstPage");
+    }
+
+}
@@ -0,0 +1,133 @@
+/******************************************************************
+ * File:        FlattenBenchmark.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.sparql.util.Closure;
+import org.apache.jena.vocabulary.DCTerms;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.epimorphics.registry.core.Description;
+import com.epimorphics.registry.store.StoreBaseImpl;
+import com.epimorphics.registry.util.VersionUtil;
+import com.epimorphics.registry.vocab.Version;
+
+/**
+ * Compares the direct flattened read of item descriptions with the
+ * original closure, copy and rename implementation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlattenBenchmark {
+
+    @Param({"1000"})
+    int items;
+
+    SyntheticRegistry registry;
+    StoreBaseImpl store;
+    Model base;
+    Random random = new Random(42);
+
+    @Setup
+    public void setup() {
+        registry = new SyntheticRegistry(1, items);
+        store = registry.getStore();
+        base = registry.getBaseStore().asDataset().getDefaultModel();
+    }
+
+    private String randomItem() {
+        return registry.itemURI(0, random.nextInt(items));
+    }
+
+    // Every other item has a prior version
+    private String randomPriorVersion() {
+        return registry.itemURI(0, 2 * random.nextInt(items / 2)) + ":1";
+    }
+
+    @Benchmark
+    public Description currentVersion() {
+        store.beginRead();
+        try {
+            return store.getCurrentVersion( randomItem() );
+        } finally {
+            store.end();
+        }
+    }
+
+    @Benchmark
+    public Model currentVersionRenamed() {
+        store.beginRead();
+        try {
+            Resource root = base.getResource( randomItem() );
+            Model m = Closure.closure(root, false);
+            Resource version = root.getPropertyResourceValue(Version.currentVersion);
+            Closure.closure(version, false, m);
+            VersionUtil.flatten(root.inModel(m), version.inModel(m));
+            return m;
+        } finally {
+            store.end();
+        }
+    }
+
+    @Benchmark
+    public Description priorVersion() {
+        store.beginRead();
+        try {
+            return store.getVersion( randomPriorVersion(), false );
+        } finally {
+            store.end();
+        }
+    }
+
+    @Benchmark
+    public Model priorVersionRenamed() {
+        store.beginRead();
+        try {
+            Resource version = base.getResource( randomPriorVersion() );
+            Model m = Closure.closure(version, false);
+            Resource root = version.getPropertyResourceValue(DCTerms.isVersionOf);
+            Closure.closure(root, false, m);
+            VersionUtil.flatten(root.inModel(m), version.inModel(m));
+            return m;
+        } finally {
+            store.end();
+        }
+    }
+
+}
@@ -0,0 +1,175 @@
+/******************************************************************
+ * File:        StoreBenchmark.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.bench;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.sparql.core.Quad;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.epimorphics.registry.core.Register;
+import com.epimorphics.registry.core.RegisterItem;
+import com.epimorphics.registry.store.EntityInfo;
+import com.epimorphics.registry.store.RegisterEntryInfo;
+import com.epimorphics.registry.store.SearchRequest;
+import com.epimorphics.registry.store.StoreBaseImpl;
+
+/**
+ * Benchmarks for the main store operations over a synthetic registry.
+ * The registry size can be varied from the JMH command line, for example
+ * <code>-p items=10000</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoreBenchmark {
+
+    @Param({"4"})
+    int registers;
+
+    @Param({"1000"})
+    int items;
+
+    @Param({"100"})
+    int pageSize;
+
+    SyntheticRegistry registry;
+    StoreBaseImpl store;
+    Random random = new Random(42);
+    int added = 0;
+
+    @Setup
+    public void setup() {
+        registry = new SyntheticRegistry(registers, items);
+        store = registry.getStore();
+    }
+
+    @Benchmark
+    public RegisterItem getItem() {
+        store.beginRead();
+        try {
+            return store.getItem( registry.itemURI(random.nextInt(registers), random.nextInt(items)), true );
+        } finally {
+            store.end();
+        }
+    }
+
+    @Benchmark
+    public List<RegisterEntryInfo> listMembers() {
+        store.beginRead();
+        try {
+            Register reg = store.getCurrentVersion( registry.registerURI(random.nextInt(registers)) ).asRegister();
+            return store.listMembers(reg);
+        } finally {
+            store.end();
+        }
+    }
+
+    @Benchmark
+    public List<RegisterItem> fetchAll() {
+        store.beginRead();
+        try {
+            int start = random.nextInt( Math.max(1, items - pageSize) );
+            return store.fetchAll( registry.itemURIs(random.nextInt(registers), start, pageSize), true );
+        } finally {
+            store.end();
+        }
+    }
+
+    @Benchmark
+    public List<String> search() {
+        store.beginRead();
+        try {
+            SearchRequest request = new SearchRequest( "\"" + registry.label(random.nextInt(registers), random.nextInt(items)) + "\"" );
+            request.setLimit(pageSize);
+            return store.search(request);
+        } finally {
+            store.end();
+        }
+    }
+
+    @Benchmark
+    public List<EntityInfo> listEntityOccurences() {
+        store.beginRead();
+        try {
+            return store.listEntityOccurences( registry.entityURI(random.nextInt(registers), random.nextInt(items)) );
+        } finally {
+            store.end();
+        }
+    }
+
+    /**
+     * Each call adds a new item, so the registry slowly grows during the measurement.
+     */
+    @Benchmark
+    public void addToRegister() {
+        store.beginWrite();
+        try {
+            int r = random.nextInt(registers);
+            Register reg = store.getCurrentVersion( registry.registerURI(r) ).asRegister();
+            registry.add(reg, registry.makeEntity(r, items + added++));
+            store.commit();
+        } finally {
+            store.end();
+        }
+    }
+
+    @Benchmark
+    public void exportTree(final Blackhole bh) {
+        store.beginRead();
+        try {
+            StreamRDF out = new StreamRDFBase() {
+                @Override
+                public void triple(Triple triple) {
+                    bh.consume(triple);
+                }
+
+                @Override
+                public void quad(Quad quad) {
+                    bh.consume(quad);
+                }
+            };
+            store.exportTree( registry.registerURI(random.nextInt(registers)), out );
+        } finally {
+            store.end();
+        }
+    }
+
+}
@@ -0,0 +1,193 @@
+/******************************************************************
+ * File:        SyntheticRegistry.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.bench;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.DCTerms;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+import com.epimorphics.registry.core.Register;
+import com.epimorphics.registry.core.RegisterItem;
+import com.epimorphics.registry.store.StoreBaseImpl;
+import com.epimorphics.registry.store.impl.TDBStore;
+import com.epimorphics.registry.vocab.RegistryVocab;
+import com.epimorphics.vocabs.SKOS;
+
+/**
+ * Builds a synthetic registry in an in-memory TDB store for use by the benchmarks.
+ * The root register has a number of sub-registers each containing the same
+ * number of simple concept items. Every other item has a second version, and
+ * every tenth entity is also registered in the following register so that
+ * entities can have more than one occurrence.
+ */
+public class SyntheticRegistry {
+    public static final String BOOTSTRAP_FILE = "src/test/webapp/WEB-INF/root-register.ttl";
+    public static final String ROOT_REGISTER = "http://location.data.gov.uk/";
+
+    protected TDBStore basestore;
+    protected StoreBaseImpl store;
+    protected int registers;
+    protected int items;
+
+    /**
+     * Create and populate the registry
+     * @param registers number of sub-registers of the root register
+     * @param items number of items in each sub-register
+     */
+    public SyntheticRegistry(int registers, int items) {
+        this.registers = registers;
+        this.items = items;
+
+        basestore = new TDBStore();
+        basestore.setTextIndex("default");
+        basestore.startup(null);
+        store = new StoreBaseImpl();
+        store.setStore(basestore);
+        store.loadBootstrap(BOOTSTRAP_FILE);
+
+        store.beginWrite();
+        try {
+            Register root = store.getCurrentVersion(ROOT_REGISTER).asRegister();
+            for (int r = 0; r < registers; r++) {
+                add(root, makeRegister(r));
+            }
+            for (int r = 0; r < registers; r++) {
+                Register reg = store.getCurrentVersion(registerURI(r)).asRegister();
+                for (int i = 0; i < items; i++) {
+                    add(reg, makeEntity(r, i));
+                }
+                if (r > 0) {
+                    for (int i = 0; i < items; i += 10) {
+                        add(reg, makeEntity(r - 1, i));
+                    }
+                }
+            }
+            for (int r = 0; r < registers; r++) {
+                for (int i = 0; i < items; i += 2) {
+                    RegisterItem ri = store.getItem(itemURI(r, i), true);
+                    ri.getEntity().removeAll(RDFS.label).addProperty(RDFS.label, label(r, i) + " revised");
+                    Calendar now = Calendar.getInstance();
+                    ri.updateForEntity(false, now);
+                    store.update(ri, true, now);
+                }
+            }
+            store.commit();
+        } finally {
+            store.end();
+        }
+    }
+
+    public StoreBaseImpl getStore() {
+        return store;
+    }
+
+    public TDBStore getBaseStore() {
+        return basestore;
+    }
+
+    public int getRegisters() {
+        return registers;
+    }
+
+    public int getItems() {
+        return items;
+    }
+
+    /**
+     * Return the notation of a register. These are fixed width so that no register
+     * URI is a string prefix of another, which would confuse notation and subtree checks.
+     */
+    public String registerName(int r) {
+        return String.format("reg%05d", r);
+    }
+
+    public String registerURI(int r) {
+        return ROOT_REGISTER + registerName(r);
+    }
+
+    public String entityURI(int r, int i) {
+        return registerURI(r) + "/item" + i;
+    }
+
+    public String itemURI(int r, int i) {
+        return registerURI(r) + "/_item" + i;
+    }
+
+    /**
+     * Return the URIs of a contiguous run of items in a register
+     */
+    public List<String> itemURIs(int r, int start, int length) {
+        List<String> uris = new ArrayList<>(length);
+        for (int i = start; i < start + length && i < items; i++) {
+            uris.add( itemURI(r, i) );
+        }
+        return uris;
+    }
+
+    public String label(int r, int i) {
+        return "item " + r + "-" + i;
+    }
+
+    /**
+     * Construct a new item entity, suitable for adding to the given register
+     */
+    public Resource makeEntity(int r, int i) {
+        Model m = ModelFactory.createDefaultModel();
+        Resource entity = m.createResource( entityURI(r, i) )
+                .addProperty(RDF.type, SKOS.Concept)
+                .addProperty(RDFS.label, label(r, i))
+                .addProperty(SKOS.prefLabel, "Item " + r + "-" + i, "en")
+                .addProperty(SKOS.notation, Integer.toString(i))
+                .addProperty(DCTerms.description, "Synthetic item number " + i + " of register " + r);
+        entity.addProperty(DCTerms.source, m.createResource()
+                .addProperty(RDFS.label, "source of " + i)
+                .addProperty(RDFS.seeAlso, m.createResource("http://example.com/source/" + r + "/" + i)));
+        return entity;
+    }
+
+    protected Resource makeRegister(int r) {
+        Model m = ModelFactory.createDefaultModel();
+        return m.createResource( registerURI(r) )
+                .addProperty(RDF.type, RegistryVocab.Register)
+                .addProperty(RDF.type, SKOS.Collection)
+                .addProperty(RDFS.label, "register " + r, "en")
+                .addProperty(DCTerms.description, "Synthetic register " + r, "en");
+    }
+
+    /**
+     * Register an entity in the given register, must be called within a write transaction
+     */
+    public void add(Register parent, Resource entity) {
+        Calendar now = Calendar.getInstance();
+        String target = parent.getRoot().getURI();
+        if (target.endsWith("/")) {
+            target = target.substring(0, target.length() - 1);
+        }
+        store.addToRegister(parent, RegisterItem.fromEntityRequest(entity, target, true, now), now);
+    }
+}
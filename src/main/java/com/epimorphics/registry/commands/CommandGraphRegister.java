@@ -36,6 +36,7 @@ import com.epimorphics.registry.core.Description;
 import com.epimorphics.registry.core.Register;
 import com.epimorphics.registry.core.RegisterItem;
 import com.epimorphics.registry.core.ValidationResponse;
+import com.epimorphics.registry.message.Message;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.vocabulary.RDF;
 import org.apache.jena.vocabulary.RDFS;
@@ -92,11 +93,15 @@ public class CommandGraphRegister extends CommandRegister {
                 item.updateForEntity(false, Calendar.getInstance());
                 String versionURI = store.update(item, true);
                 store.commit();
+                notify( new Message(this, item) );
                 return Response.noContent().location(new URI(versionURI)).build();
 
             } else {
                 Resource location = register(parentRegister, root, false, true);
                 store.commit();
+                for (RegisterItem ri : notifications) {
+                    notify( new Message(this, ri) );
+                }
                 return Response.created(new URI(location.getURI())).build();
 
             }
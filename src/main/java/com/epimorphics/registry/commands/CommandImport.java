@@ -26,6 +26,7 @@ import org.apache.jena.riot.RDFDataMgr;
 import org.apache.jena.riot.system.StreamRDF;
 
 import com.epimorphics.registry.core.Command;
+import com.epimorphics.registry.message.Message;
 import com.epimorphics.registry.security.RegAction;
 import com.epimorphics.registry.security.RegPermission;
 
@@ -49,6 +50,7 @@ public class CommandImport extends Command {
             StreamRDF stream = store.importTree(target);
             RDFDataMgr.parse(stream, payloadStream, Lang.NQUADS);
             store.commit();
+            notify( new Message(this) );
             
             return Response.noContent().location(new URI(path)).build();
         } catch (URISyntaxException e) {
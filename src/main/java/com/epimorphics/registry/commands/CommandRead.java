@@ -31,11 +31,15 @@ import static com.epimorphics.registry.webapi.Parameters.WITH_METADATA;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Objects;
 import java.util.function.Supplier;
 
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 
 import com.epimorphics.appbase.webapi.WebApiException;
 import com.epimorphics.rdfutil.RDFUtil;
@@ -44,12 +48,16 @@ import com.epimorphics.registry.core.DelegationRecord;
 import com.epimorphics.registry.core.Description;
 import com.epimorphics.registry.core.Register;
 import com.epimorphics.registry.core.RegisterItem;
+import com.epimorphics.registry.core.RegisterViewStream;
 import com.epimorphics.registry.core.Registry;
 import com.epimorphics.registry.core.Status;
 import com.epimorphics.registry.csv.RDFCSVUtil;
 import com.epimorphics.registry.store.EntityInfo;
 import com.epimorphics.registry.store.FilterSpec;
+import com.epimorphics.registry.store.MemberWindow;
+import com.epimorphics.registry.store.RegisterEntryInfo;
 import com.epimorphics.registry.store.VersionInfo;
+import com.epimorphics.registry.util.Prefixes;
 import com.epimorphics.registry.util.Util;
 import com.epimorphics.registry.vocab.RegistryVocab;
 import com.epimorphics.registry.vocab.Version;
@@ -81,6 +89,7 @@ public class CommandRead extends Command {
     boolean entityLookup;
     boolean tagRetieval;
     private Status statusFilter;
+    private long lastModified = -1;
     List<FilterSpec> filters = new ArrayList<>();
 
     public void init(Operation operation, String target,
@@ -131,6 +140,85 @@ public class CommandRead extends Command {
         if (entityLookup) {
             return entityLookup();
         }
+
+        EntityTag etag = currentEntityTag();
+        if (etag == null) {
+            return readDescription();
+        }
+        Date modified = lastModified == -1 ? null : new Date(lastModified);
+        if (request != null) {
+            ResponseBuilder notModified = (modified == null) ? request.evaluatePreconditions(etag) : request.evaluatePreconditions(modified, etag);
+            if (notModified != null) {
+                return notModified.header("Vary", "Accept").build();
+            }
+        }
+        Response response = readDescription();
+        if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+            return response;
+        }
+        ResponseBuilder builder = Response.fromResponse(response).tag(etag);
+        if (modified != null) {
+            builder.lastModified(modified);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Compute a strong entity tag for a read of the current state of an item, entity or register,
+     * or return null if the request can't be validated cheaply. The tag is built from the current
+     * version numbers of the item and, for registers, of the register and its membership, so that
+     * a conditional request can be answered without building the response.
+     * Sets lastModified to the start of the latest of those versions.
+     */
+    private EntityTag currentEntityTag() {
+        lastModified = -1;
+        if (versioned || delegation != null
+                || parameters.containsKey(Parameters.ANNOTATION) || parameters.containsKey(VERSION_AT)) {
+            return null;
+        }
+        boolean isItem = lastSegment.startsWith("_");
+        String entityURI = isItem ? parent + "/" + lastSegment.substring(1) : target;
+        String itemURI = isItem ? target : parent + "/_" + lastSegment;
+        VersionInfo item = store.getCurrentVersionInfo(itemURI);
+        VersionInfo register = store.getCurrentVersionInfo(entityURI);
+        if (item == null && register == null) {
+            return null;
+        }
+
+        StringBuilder tag = new StringBuilder();
+        long modified = -1;
+        if (item != null) {
+            tag.append( item.getVersion() );
+            modified = item.getFromTime();
+        }
+        if (register != null) {
+            // Registers are the only versioned entities, the view may include the members
+            tag.append( "." + register.getVersion() );
+            modified = Math.max(modified, register.getFromTime());
+            if (!parameters.containsKey(COLLECTION_METADATA_ONLY)) {
+                long stamp = store.getMembershipChangeStamp(entityURI);
+                if (stamp == -1) {
+                    return null;
+                }
+                tag.append( "." + Long.toString(stamp, 36) );
+                modified = Math.max(modified, stamp);
+            }
+        }
+        // Distinguish the negotiated representations of the same state
+        tag.append( "-" + Integer.toHexString( Objects.hash(getMediaType(), isAuthenticated()) ) );
+        lastModified = modified;
+        return new EntityTag( tag.toString() );
+    }
+
+    private boolean isAuthenticated() {
+        try {
+            return SecurityUtils.getSubject().isAuthenticated();
+        } catch (UnavailableSecurityManagerException usme) {
+            return false;
+        }
+    }
+
+    private Response readDescription() {
         Description d = null;
         boolean entityWithMetadata = false;
         boolean graphEntity = false;
@@ -228,13 +316,13 @@ public class CommandRead extends Command {
             throw new WebApiException(Response.Status.INTERNAL_SERVER_ERROR, "Failed to reconstruct description, possible damaged repository");
         }
         
+        Register register = null;
         if (d instanceof Register) {
-            // add this way round so as not to put members in the cached copy of the register description
-            m = registerRead(d.asRegister(), members).add(m);
+            register = d.asRegister();
         } else if (d instanceof RegisterItem) {
             Resource entity = d.asRegisterItem().getEntity();
             if (entity != null && entity.hasProperty(RDF.type, RegistryVocab.Register)) {
-                m.add( registerRead( Description.descriptionFrom(entity, store).asRegister(), members ) );
+                register = Description.descriptionFrom(entity, store).asRegister();
             } else {
                 members.add( entity );
             }
@@ -242,6 +330,19 @@ public class CommandRead extends Command {
             members.add( d.getRoot() );
         }
 
+        if (register != null) {
+            MemberWindow window = selectStreamableWindow(register);
+            if (window != null && window.getMembers().size() > registry.getStreamingThreshold()) {
+                return streamRegisterRead(register, m, d.getRoot().getURI());
+            }
+            if (d instanceof Register) {
+                // add this way round so as not to put members in the cached copy of the register description
+                m = registerRead(register, members, window).add(m);
+            } else {
+                m.add( registerRead(register, members, window) );
+            }
+        }
+
         if (RDFCSVUtil.MEDIA_TYPE.equals(getMediaType())) {
             // Special case serialization for CSVs, doesn't handle arbitrary models
             for (int i = 0; i < members.size(); i++) {
@@ -331,14 +432,91 @@ public class CommandRead extends Command {
         }
     }
 
+    /**
+     * Select the window of members for a register read which could be streamed.
+     * Returns null if the read can't be streamed, because of the requested media type
+     * or because it is a delegated, historical or metadata only view.
+     */
+    private MemberWindow selectStreamableWindow(Register register) {
+        if (registry.getStreamingThreshold() < 0
+                || !RegisterViewStream.isStreamable(getMediaType())
+                || parameters.containsKey(COLLECTION_METADATA_ONLY)
+                || parameters.containsKey(VERSION_AT)
+                || versioned
+                || delegation instanceof DelegationRecord) {
+            return null;
+        }
+        return selectWindow(register);
+    }
+
+    private MemberWindow selectWindow(Register register) {
+        Status status = Status.forString( parameters.getFirst(STATUS), Status.Accepted );
+        if (after != null) {
+            return store.listMembersAfter(register, status, filters, after, length);
+        } else {
+            return store.listMembers(register, status, filters, pagenum * length, length);
+        }
+    }
+
+    /**
+     * Stream the members of a register view rather than building the whole view in memory.
+     * The window is selected again, and the member descriptions fetched, as the response
+     * is written so that they come from the same read transaction as the paging information.
+     */
+    private Response streamRegisterRead(final Register register, final Model description, String location) {
+        RegisterViewStream out = new RegisterViewStream(store, register,
+                () -> selectWindow(register),
+                window -> streamHeader(register, window, description),
+                withMetadata, getMediaType());
+        return returnStream(out, getMediaType(), location);
+    }
+
+    /**
+     * Construct the register description and paging information for a streamed window
+     */
+    private Model streamHeader(Register register, MemberWindow window, Model description) {
+        Model header = ModelFactory.createDefaultModel();
+        header.add( description );
+        header.add( register.getRoot().getModel() );
+        if (paged) {
+            List<Resource> members = new ArrayList<>( window.getMembers().size() );
+            for (RegisterEntryInfo info : window.getMembers()) {
+                members.add( header.createResource( info.getEntityURI() ) );
+            }
+            Resource page = injectPagingInformation(header, register.getRoot(), window.hasMore(), nextCursor(window));
+            page.addProperty(API.items, header.createList(members.iterator()));
+        }
+        header.setNsPrefixes(Prefixes.get());
+        return header;
+    }
+
+    private String nextCursor(MemberWindow window) {
+        if (after == null || window.getMembers().isEmpty()) {
+            return null;
+        }
+        return window.getMembers().get( window.getMembers().size() - 1 ).getCursor();
+    }
+
     Model registerRead(Register register, List<Resource> members) {
+        return registerRead(register, members, null);
+    }
+
+    /**
+     * Construct the view of a register
+     * @param window the window of members to include, if already selected, otherwise null
+     */
+    Model registerRead(Register register, List<Resource> members, MemberWindow window) {
         if (parameters.containsKey(COLLECTION_METADATA_ONLY)) {
             return register.getRoot().getModel();
         } else {
             Model view = ModelFactory.createDefaultModel();
             boolean complete = false;
+            String nextCursor = null;
 
             if (delegation != null && delegation instanceof DelegationRecord) {
+                if (after != null) {
+                    throw new WebApiException(Response.Status.BAD_REQUEST, "Paging by key is not supported for delegated registers");
+                }
                 register.constructDelegatedView(view, (DelegationRecord) delegation, pagenum * length, length, members);
                 if (length == -1 || members.size() < length) {
                     complete = true;
@@ -363,12 +541,24 @@ public class CommandRead extends Command {
                 } else {
                     timestamp = Util.asTimestamp( parameters.getFirst(VERSION_AT) );
                 }
-                complete = register.constructView(view, withMetadata, status, pagenum * length, length, timestamp, filters, members);
+                if (timestamp == -1) {
+                    if (window == null) {
+                        window = selectWindow(register);
+                    }
+                    register.constructView(view, withMetadata, window, members);
+                    complete = !window.hasMore();
+                    nextCursor = nextCursor(window);
+                } else {
+                    if (after != null) {
+                        throw new WebApiException(Response.Status.BAD_REQUEST, "Paging by key is not supported for historical views");
+                    }
+                    complete = register.constructView(view, withMetadata, status, pagenum * length, length, timestamp, filters, members);
+                }
             }
 
             // Paging parameters
             if (paged) {
-                Resource page = injectPagingInformation(view, register.getRoot(), !complete);
+                Resource page = injectPagingInformation(view, register.getRoot(), !complete, nextCursor);
                 page.addProperty(API.items, view.createList(members.iterator()));
             }
             
@@ -197,13 +197,13 @@ public class CommandRegister extends Command {
                 }
             }
         }
-        // Update the register itself only after all the items have been registered
-        // TODO could have consistent date stamp across these if we want
-        store.update(parentRegister);
-        store.commit();
-        
-        for (RegisterItem item : notifications) {
-            notify( new Message(this, item) );
+        if (!batched) {
+            // Update the register itself only after all the items have been registered
+            // TODO could have consistent date stamp across these if we want
+            store.update(parentRegister);
+            store.commit();
+
+            sendNotifications();
         }
 
         try {
@@ -213,6 +213,23 @@ public class CommandRegister extends Command {
         }
     }
 
+    /**
+     * The register into which items are being registered, available once the command has been validated.
+     * A batched command leaves the caller to update this register.
+     */
+    public Register getParentRegister() {
+        return parentRegister;
+    }
+
+    /**
+     * Notify the registration of each item, a batched command leaves this to the caller once the batch is committed.
+     */
+    public void sendNotifications() {
+        for (RegisterItem item : notifications) {
+            notify( new Message(this, item) );
+        }
+    }
+
     private Resource batchRegister(Register parent) {
         ResultSet types = QueryUtil.selectAll(payload, "SELECT DISTINCT ?type WHERE {[] a ?type}");
         Resource type = null;
@@ -22,6 +22,7 @@
 package com.epimorphics.registry.commands;
 
 import static com.epimorphics.registry.webapi.Parameters.FIRST_PAGE;
+import static com.epimorphics.registry.webapi.Parameters.PAGE_AFTER;
 import static com.epimorphics.registry.webapi.Parameters.PAGE_NUMBER;
 import static com.epimorphics.registry.webapi.Parameters.VIEW;
 import static com.epimorphics.registry.webapi.Parameters.WITH_METADATA;
@@ -72,24 +73,23 @@ public class CommandSearch extends Command {
     public Response doExecute() {
         List<String> uris = store.search( extractSearchSpec() );
         Model result = ModelFactory.createDefaultModel();
-        String resultURI = target + "?" + makeParamString(parameters, FIRST_PAGE, PAGE_NUMBER);
+        String resultURI = target + "?" + makeParamString(parameters, FIRST_PAGE, PAGE_NUMBER, PAGE_AFTER);
         Resource root = result.createResource( resultURI );
         RDFNode[] members = new RDFNode[uris.size()];
         int i = 0;
-        for (String uri: uris) {
-            RegisterItem ri = store.getItem(uri, true);
+        // Item metadata is only kept in the result if requested
+        Model itemModel = withMetadata ? result : ModelFactory.createDefaultModel();
+        for (RegisterItem ri : store.fetchAll(uris, itemModel, result)) {
             Resource entity = ri.getEntity();
             if (entity == null) {
                 throw new WebApiException(Status.INTERNAL_SERVER_ERROR, "No entity found for search result " + ri.getRoot());
             }
-            result.add( entity.getModel() );
-            if (withMetadata) {
-                result.add( ri.getRoot().getModel() );
-            }
+            entity = entity.inModel(result);
             root.addProperty(RDFS.member, entity);
             members[i++] = entity;
         }
-        Resource page = injectPagingInformation(result, root, uris.size() == length);
+        String nextCursor = (after != null && !uris.isEmpty()) ? uris.get(uris.size() - 1) : null;
+        Resource page = injectPagingInformation(result, root, uris.size() == length, nextCursor);
         page.addProperty(API.items, result.createList(members));
 
         return returnModel(result, resultURI);
@@ -98,6 +98,9 @@ public class CommandSearch extends Command {
     protected SearchRequest extractSearchSpec() {
         SearchRequest request = new SearchRequest( parameters.getFirst(Parameters.QUERY) );
         request.setLimit(length).setOffset(pagenum * length);
+        if (after != null) {
+            request.setAfter(after);
+        }
         for (String key : parameters.keySet()) {
             if (key.equals(Parameters.QUERY) || key.startsWith("_")) continue;
             String value = parameters.getFirst(key);
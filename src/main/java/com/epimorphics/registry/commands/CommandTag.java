@@ -39,6 +39,7 @@ import com.epimorphics.registry.core.Register;
 import com.epimorphics.registry.core.Registry;
 import com.epimorphics.registry.core.Status;
 import com.epimorphics.registry.core.ValidationResponse;
+import com.epimorphics.registry.message.Message;
 import com.epimorphics.registry.store.RegisterEntryInfo;
 import com.epimorphics.registry.vocab.Prov;
 import com.epimorphics.registry.vocab.RegistryVocab;
@@ -101,6 +102,7 @@ public class CommandTag extends Command {
             register.getRoot().addProperty(RegistryVocab.release, collection);
             store.update(register);
             store.commit();
+            notify( new Message(this) );
             
             return Response.created( new URI(collection.getURI()) ).build();
         } catch (URISyntaxException e) {
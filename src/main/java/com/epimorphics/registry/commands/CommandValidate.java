@@ -24,21 +24,70 @@ package com.epimorphics.registry.commands;
 import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 import static javax.ws.rs.core.Response.Status.NOT_FOUND;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
 
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.jena.atlas.json.io.JSWriter;
 
 import com.epimorphics.registry.core.Command;
 import com.epimorphics.registry.core.Description;
 import com.epimorphics.registry.core.Status;
 import com.epimorphics.registry.core.ValidationResponse;
+import com.epimorphics.registry.csv.CSVBaseWriter;
+import com.epimorphics.registry.csv.RDFCSVUtil;
 import com.epimorphics.registry.store.EntityInfo;
 import com.epimorphics.registry.webapi.Parameters;
 import com.epimorphics.appbase.webapi.WebApiException;
 
-
+/**
+ * Check that a list of entity URIs are each defined by a valid item
+ * somewhere within the target register subtree.
+ * <p>
+ * By default the URIs are checked together and the result is a single
+ * plain text report, with status 400 if any URI fails. For very large lists
+ * a streaming mode is selected by <code>_format=ndjson</code> or <code>_format=csv</code>.
+ * The URIs are then read incrementally from the request body, resolved in batches
+ * within a single read transaction, and one result per URI is streamed back as
+ * it is found. Since the response status has been sent by then, a streamed
+ * response has status 200 and the overall pass/fail is given by the per-URI results
+ * and, for ndjson, by a final summary line of the form
+ * <code>{"count":N,"invalid":M,"valid":false}</code>.
+ * </p>
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
 public class CommandValidate extends Command {
+    public static final String FORMAT_NDJSON = "ndjson";
+    public static final String FORMAT_CSV = "csv";
+    public static final String MIME_NDJSON = "application/x-ndjson";
+
+    /** Number of URIs resolved against the store at a time when streaming */
+    public static final int VALIDATE_BATCH = 1000;
+
+    public static final String RESULT_VALID = "valid";
+    public static final String RESULT_NOT_VALID = "not-valid";
+    public static final String RESULT_NOT_FOUND = "not-found";
+
+    /**
+     * Test if a requested format is one of the streaming validation formats
+     */
+    public static boolean isStreamingFormat(String format) {
+        return FORMAT_NDJSON.equals(format) || FORMAT_CSV.equals(format);
+    }
 
     @Override
     public ValidationResponse validate() {
@@ -51,24 +100,24 @@ public class CommandValidate extends Command {
 
     @Override
     public Response doExecute() {
+        String format = parameters.getFirst(Parameters.FORMAT);
+        if (isStreamingFormat(format)) {
+            return doStreamingValidate(format);
+        }
         StringBuffer msg = new StringBuffer();
         boolean valid = true;
-        List<String> testURIs = parameters.get(Parameters.VALIDATE);
+        List<String> testURIs = requestedURIs();
+        Map<String, List<EntityInfo>> occurrences = store.listEntityOccurences(testURIs);
         int count = 0;
         for (String uri : testURIs) {
-            uri = uri.trim();
-            if (uri.isEmpty()) continue;
             count++;
-            boolean thisValid = false;
-            List<EntityInfo> infos = store.listEntityOccurences(uri);
-            for (EntityInfo info : infos) {
-                if (info.getRegisterURI().startsWith(target) && info.getStatus().isA(Status.Valid)) {
-                    thisValid = true;
-                    msg.append(uri + " is " + info.getItemURI() + "\n");
-                }
+            List<EntityInfo> infos = occurrences.get(uri);
+            List<String> validItems = validItems(infos);
+            for (String item : validItems) {
+                msg.append(uri + " is " + item + "\n");
             }
             // TODO validate in delegated registers as well
-            if (!thisValid) {
+            if (validItems.isEmpty()) {
                 if (infos.isEmpty()) {
                     msg.append("URI not found anywhere: ");
                 } else {
@@ -89,4 +138,168 @@ public class CommandValidate extends Command {
         }
     }
 
+    /**
+     * The URIs given as validate parameters, trimmed and excluding empty values
+     */
+    protected List<String> requestedURIs() {
+        List<String> testURIs = new ArrayList<>();
+        for (String uri : parameters.get(Parameters.VALIDATE)) {
+            uri = uri.trim();
+            if (!uri.isEmpty()) {
+                testURIs.add(uri);
+            }
+        }
+        return testURIs;
+    }
+
+    /**
+     * Return the items which define the entity as valid within the target register subtree
+     */
+    protected List<String> validItems(List<EntityInfo> infos) {
+        List<String> items = new ArrayList<>();
+        for (EntityInfo info : infos) {
+            if (info.getRegisterURI().startsWith(target) && info.getStatus().isA(Status.Valid)) {
+                items.add( info.getItemURI() );
+            }
+        }
+        return items;
+    }
+
+    protected Response doStreamingValidate(final String format) {
+        final List<String> requested = requestedURIs();
+        InputStream body = payloadStream == null ? new ByteArrayInputStream(new byte[0]) : payloadStream;
+        final Scanner uris = new Scanner(body, StandardCharsets.UTF_8.name());
+        if (requested.isEmpty() && !uris.hasNext()) {
+            uris.close();
+            throw new WebApiException(BAD_REQUEST, "Empty validation list");
+        }
+
+        StreamingOutput stream = new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException, WebApplicationException {
+                ResultWriter writer = format.equals(FORMAT_CSV) ? new CSVResultWriter(output) : new NDJSONResultWriter(output);
+                store.beginRead();
+                try {
+                    List<String> batch = new ArrayList<>(requested);
+                    while (uris.hasNext() || !batch.isEmpty()) {
+                        while (uris.hasNext() && batch.size() < VALIDATE_BATCH) {
+                            batch.add( uris.next() );
+                        }
+                        Map<String, List<EntityInfo>> occurrences = store.listEntityOccurences(batch);
+                        for (String uri : batch) {
+                            List<EntityInfo> infos = occurrences.get(uri);
+                            List<String> validItems = validItems(infos);
+                            String result = !validItems.isEmpty() ? RESULT_VALID : infos.isEmpty() ? RESULT_NOT_FOUND : RESULT_NOT_VALID;
+                            writer.writeResult(uri, result, validItems);
+                        }
+                        writer.flush();
+                        batch.clear();
+                    }
+                    writer.finish();
+                } finally {
+                    store.end();
+                    uris.close();
+                }
+            }
+        };
+        String type = format.equals(FORMAT_CSV) ? RDFCSVUtil.MEDIA_TYPE : MIME_NDJSON;
+        return Response.ok().type(type).entity(stream).build();
+    }
+
+    /**
+     * Serializes the per-URI results of a streaming validation
+     */
+    protected static abstract class ResultWriter {
+        protected int count = 0;
+        protected int invalid = 0;
+
+        public void writeResult(String uri, String result, List<String> items) throws IOException {
+            count++;
+            if (!result.equals(RESULT_VALID)) {
+                invalid++;
+            }
+            write(uri, result, items);
+        }
+
+        protected abstract void write(String uri, String result, List<String> items) throws IOException;
+
+        public abstract void flush() throws IOException;
+
+        public abstract void finish() throws IOException;
+    }
+
+    /**
+     * One JSON object per line followed by a summary line
+     */
+    protected static class NDJSONResultWriter extends ResultWriter {
+        protected OutputStream out;
+
+        public NDJSONResultWriter(OutputStream out) {
+            this.out = new BufferedOutputStream(out);
+        }
+
+        @Override
+        protected void write(String uri, String result, List<String> items) throws IOException {
+            StringBuffer line = new StringBuffer();
+            line.append("{\"uri\":").append( JSWriter.outputQuotedString(uri) );
+            line.append(",\"valid\":").append( result.equals(RESULT_VALID) );
+            line.append(",\"result\":\"").append(result).append("\"");
+            line.append(",\"items\":[");
+            for (int i = 0; i < items.size(); i++) {
+                if (i > 0) line.append(",");
+                line.append( JSWriter.outputQuotedString(items.get(i)) );
+            }
+            line.append("]}\n");
+            out.write( line.toString().getBytes(StandardCharsets.UTF_8) );
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            String summary = String.format("{\"count\":%d,\"invalid\":%d,\"valid\":%s}\n", count, invalid, invalid == 0);
+            out.write( summary.getBytes(StandardCharsets.UTF_8) );
+            out.flush();
+        }
+    }
+
+    /**
+     * One CSV row per URI, multiple valid items are separated by "|"
+     */
+    protected static class CSVResultWriter extends ResultWriter {
+        protected OutputStream out;
+        protected CSVBaseWriter writer;
+
+        public CSVResultWriter(OutputStream out) {
+            this.out = new BufferedOutputStream(out);
+            writer = new CSVBaseWriter(this.out);
+            writer.setHeaders( Arrays.asList("uri", "valid", "result", "item") );
+        }
+
+        @Override
+        protected void write(String uri, String result, List<String> items) {
+            writer.startRow();
+            writer.write("uri", uri);
+            writer.write("valid", Boolean.toString( result.equals(RESULT_VALID) ));
+            writer.write("result", result);
+            for (String item : items) {
+                writer.write("item", item);
+            }
+            writer.finishRow();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            out.flush();
+        }
+    }
+
 }
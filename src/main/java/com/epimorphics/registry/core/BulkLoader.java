@@ -0,0 +1,315 @@
+/******************************************************************
+ * File:        BulkLoader.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.core;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.ws.rs.WebApplicationException;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.util.FileUtils;
+import org.apache.jena.vocabulary.RDF;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.epimorphics.registry.commands.CommandRegister;
+import com.epimorphics.registry.core.Command.Operation;
+import com.epimorphics.registry.store.Store;
+import com.epimorphics.registry.store.StoreAPI;
+import com.epimorphics.registry.store.StoreBaseImpl;
+import com.epimorphics.registry.store.impl.TDBStore;
+import com.epimorphics.registry.vocab.RegistryVocab;
+import com.epimorphics.util.EpiException;
+
+/**
+ * Loads an initial register tree, laid out as for the registry's <code>systemBoot</code>
+ * directories, into a fresh store much faster than registering each file in turn.
+ * <p>
+ * The files are parsed in parallel, ahead of the writer. They are then registered in order,
+ * by the same commands as a normal load so the same validation and versioning apply, but
+ * many files share a single write transaction. Each register touched by a batch is
+ * versioned once when the batch commits rather than once per file, and notifications are
+ * sent once the batch has committed. If the underlying store is a {@link TDBStore} then
+ * text indexing is suspended during the load and the index is rebuilt once at the end.
+ * </p><p>
+ * If a file fails to load then the batch containing it is aborted and the load stops,
+ * leaving the earlier batches in place.
+ * </p><p>
+ * Used by the registry at startup if <code>bulkLoad</code> is set, or from the command line
+ * to build a store for a new replica offline:
+ * </p>
+ * <pre>
+ *    BulkLoader baseURI bootSpec bootDirs tdbDir [textIndexDir [textIndexSpec]]
+ * </pre>
+ * where bootSpec and bootDirs may each be a "|" separated list, as for the registry configuration.
+ */
+public class BulkLoader {
+    static final Logger log = LoggerFactory.getLogger( BulkLoader.class );
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /** Number of files which may be parsed ahead of the writer, per parser thread */
+    protected static final int PARSE_AHEAD = 4;
+
+    protected Registry registry;
+    protected StoreAPI store;
+    protected TDBStore indexedStore;
+    protected int threads = Runtime.getRuntime().availableProcessors();
+    protected int batchSize = DEFAULT_BATCH_SIZE;
+
+    public BulkLoader(Registry registry) {
+        this.registry = registry;
+        this.store = registry.getStore();
+    }
+
+    /**
+     * Set the number of threads with which to parse the source files
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Set the number of files to register in each write transaction
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Set the underlying store, if this is a TDB store with a text index then indexing
+     * is suspended during the load. Assumes nothing else is using the store meanwhile.
+     */
+    public void setBaseStore(StoreAPI baseStore) {
+        if (baseStore instanceof StoreBaseImpl) {
+            Store s = ((StoreBaseImpl)baseStore).getStore();
+            if (s instanceof TDBStore) {
+                indexedStore = (TDBStore) s;
+            }
+        }
+    }
+
+    /**
+     * Load a set of register trees, in order.
+     * @return the number of files loaded
+     */
+    public int load(List<File> bootdirs) {
+        List<Source> sources = new ArrayList<>();
+        for (File dir : bootdirs) {
+            if (dir.exists()) {
+                listTree(null, dir, sources);
+            } else {
+                log.warn("Bootstrap directory " + dir.getPath() + " not found");
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        if (indexedStore != null) {
+            indexedStore.suspendTextIndex();
+        }
+        ExecutorService parsers = Executors.newFixedThreadPool(threads);
+        int loaded = 0;
+        try {
+            Deque<Future<Model>> parsed = new ArrayDeque<>();
+            int next = 0;
+            while (loaded < sources.size()) {
+                int end = Math.min(loaded + batchSize, sources.size());
+                List<CommandRegister> batch = new ArrayList<>(end - loaded);
+                Map<String, Register> registers = new LinkedHashMap<>();
+                store.beginWrite();
+                try {
+                    for (int i = loaded; i < end; i++) {
+                        while (next < sources.size() && next < i + threads * PARSE_AHEAD) {
+                            parsed.add( parsers.submit( sources.get(next++) ) );
+                        }
+                        Source source = sources.get(i);
+                        CommandRegister command = register(source, await(parsed.remove(), source));
+                        Register parent = command.getParentRegister();
+                        registers.put(parent.getRoot().getURI(), parent);
+                        batch.add(command);
+                    }
+                    // Version each register once per batch, after all its new items
+                    Calendar now = Calendar.getInstance();
+                    for (Register register : registers.values()) {
+                        store.update(register, now);
+                    }
+                    store.commit();
+                } catch (RuntimeException e) {
+                    store.abort();
+                    throw e;
+                } finally {
+                    store.end();
+                }
+                for (CommandRegister command : batch) {
+                    command.sendNotifications();
+                    command.logResponse(" 201");
+                    if (registry.getRequestLogger() != null) {
+                        try {
+                            registry.getRequestLogger().writeLog(command);
+                        } catch (IOException e) {
+                            log.error("Failed to write log of payload", e);
+                        }
+                    }
+                }
+                loaded = end;
+                log.info("Bulk loaded " + loaded + " of " + sources.size() + " bootstrap files");
+            }
+        } finally {
+            parsers.shutdownNow();
+            if (indexedStore != null) {
+                long count = indexedStore.resumeTextIndex();
+                log.info("Rebuilt text index with " + count + " entries");
+            }
+        }
+        log.info(String.format("Bulk load of %d files took %dms", loaded, System.currentTimeMillis() - start));
+        return loaded;
+    }
+
+    /**
+     * Validate and execute the registration of a parsed file within the current transaction.
+     */
+    protected CommandRegister register(Source source, Model model) {
+        String parameters = "";
+        if ( ! model.contains(null, RDF.type, RegistryVocab.RegisterItem)) {
+            // Simple content so force status update to stable
+            parameters = "update&status=stable";
+        }
+        CommandRegister command = (CommandRegister) registry.make( Operation.Register, source.register, parameters);
+        command.setPayload( model );
+        command.setBatched( true );
+        try {
+            ValidationResponse validity = command.validate();
+            if (!validity.isOk()) {
+                throw new EpiException("Bootstrap error on file " + source.file.getPath() + ": " + validity.getMessage());
+            }
+            command.doExecute();
+        } catch (WebApplicationException e) {
+            throw new EpiException("Bootstrap error on file " + source.file.getPath() + ": " + e.getResponse().getEntity());
+        }
+        return command;
+    }
+
+    protected Model await(Future<Model> parse, Source source) {
+        try {
+            return parse.get();
+        } catch (ExecutionException e) {
+            throw new EpiException("Bootstrap error on file " + source.file.getPath(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EpiException("Interrupted during bulk load", e);
+        }
+    }
+
+    /**
+     * List the files in a register tree in the order in which they should be registered,
+     * the same order as used by the registry for a non-bulk load.
+     */
+    protected void listTree(String parent, File dir, List<Source> sources) {
+        File metadata = new File(dir, Registry.METADATA_FILE);
+        if (metadata.exists() && parent != null) {
+            sources.add( new Source(parent, metadata) );
+        }
+        String register = parent == null ? "" : ((parent.isEmpty() ? "" : parent + "/") + dir.getName());
+        String[] filenames = dir.list();
+        if (filenames == null) {
+            log.warn("Bootstrap directory " + dir.getPath() + " is empty");
+            return;
+        }
+        for (String filename : filenames) {
+            if (filename.equals(Registry.METADATA_FILE)) continue;
+            File file = new File(dir, filename);
+            if (file.isDirectory()) {
+                listTree(register, file, sources);
+            } else {
+                sources.add( new Source(register, file) );
+            }
+        }
+    }
+
+    /**
+     * A source file and the register path into which it should be loaded.
+     */
+    protected class Source implements Callable<Model> {
+        protected final String register;
+        protected final File file;
+
+        Source(String register, File file) {
+            this.register = register;
+            this.file = file;
+        }
+
+        @Override
+        public Model call() throws IOException {
+            String baseURI = registry.getBaseURI() + "/" + (register.isEmpty() ? "" : register + "/");
+            Model model = ModelFactory.createDefaultModel();
+            try (InputStream in = new BufferedInputStream( new FileInputStream(file) )) {
+                model.read(in, baseURI, FileUtils.langTurtle);
+            }
+            return model;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 4 || args.length > 6) {
+            System.err.println("Usage: BulkLoader baseURI bootSpec bootDirs tdbDir [textIndexDir [textIndexSpec]]");
+            System.exit(1);
+        }
+        TDBStore tdb = new TDBStore();
+        tdb.setLocation(args[3]);
+        if (args.length > 4) {
+            tdb.setIndex(args[4]);
+            tdb.setTextIndex(args.length > 5 ? args[5] : "default");
+        }
+        tdb.startup(null);
+        StoreBaseImpl store = new StoreBaseImpl();
+        store.setStore(tdb);
+
+        Registry registry = new Registry();
+        registry.setBaseURI(args[0]);
+        registry.setBootSpec(args[1]);
+        registry.setSystemBoot(args[2]);
+        registry.setBulkLoad(true);
+        registry.setStore(store);
+        try {
+            registry.startup(null);
+        } finally {
+            registry.shutdown();
+            tdb.asDataset().close();
+        }
+    }
+}
@@ -24,6 +24,7 @@ package com.epimorphics.registry.core;
 import static com.epimorphics.rdfutil.RDFUtil.getAPropertyValue;
 import static com.epimorphics.rdfutil.RDFUtil.labelProps;
 import static com.epimorphics.registry.webapi.Parameters.FIRST_PAGE;
+import static com.epimorphics.registry.webapi.Parameters.PAGE_AFTER;
 import static com.epimorphics.registry.webapi.Parameters.PAGE_NUMBER;
 import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 
@@ -48,7 +49,10 @@ import java.util.regex.Pattern;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
 
 import com.epimorphics.registry.commands.*;
 import org.apache.jena.rdf.model.Model;
@@ -81,6 +85,7 @@ import com.epimorphics.registry.util.Prefixes;
 import com.epimorphics.registry.vocab.Ldbp_orig;
 import com.epimorphics.registry.vocab.RegistryVocab;
 import com.epimorphics.registry.webapi.RequestProcessor;
+import com.epimorphics.registry.webapi.ResponseCache;
 import com.epimorphics.util.EpiException;
 import com.epimorphics.util.NameUtils;
 
@@ -160,6 +165,7 @@ public abstract class Command {
     protected Model payload;
     protected InputStream payloadStream;
     protected String mediaType;         // The requested media type, may only be set for specific types like CSV
+    protected Request request;          // The JAX-RS request, if available, used to evaluate conditional requests
 
     protected String requestor;
 
@@ -168,12 +174,15 @@ public abstract class Command {
     protected boolean paged;
     protected int length = -1;
     protected int pagenum = 0;
+    protected String after;             // Cursor for keyset paging, null if paging by page number
 
     protected Registry registry;
     protected StoreAPI store;
 
     protected ForwardingRecord delegation;
 
+    protected boolean batched = false;  // Executed within a write transaction managed by the caller
+
     /**
      * Initialize a command instance
      * @param operation   operation request, as determined by HTTP verb
@@ -200,7 +209,14 @@ public abstract class Command {
         }
 
         // Extract paging parameters, if any
-        if (parameters.containsKey(FIRST_PAGE)) {
+        if (parameters.containsKey(PAGE_AFTER)) {
+            paged = true;
+            length = (int)registry.getPageSize();
+            after = parameters.getFirst(PAGE_AFTER);
+            if (after == null) {
+                after = "";
+            }
+        } else if (parameters.containsKey(FIRST_PAGE)) {
             paged = true;
             length = (int)registry.getPageSize();
         } else if (parameters.containsKey(PAGE_NUMBER)) {
@@ -267,6 +283,24 @@ public abstract class Command {
         this.mediaType = mediaType;
     }
 
+    public void setRequest(Request request) {
+        this.request = request;
+    }
+
+    /**
+     * Mark the command as being executed, via {@link #validate()} and {@link #doExecute()},
+     * within a larger write transaction managed by the caller, as in a bulk load.
+     * Commands which support this leave the commit, and any register updates and notifications
+     * which can be deferred till then, to the caller.
+     */
+    public void setBatched(boolean batched) {
+        this.batched = batched;
+    }
+
+    public boolean isBatched() {
+        return batched;
+    }
+
     @Override
     public String toString() {
         return String.format("Command: %s on %s", operation, target);
@@ -368,12 +402,19 @@ public abstract class Command {
     }
 
     /**
-     * Notify the command event out to message listeners
+     * Notify the command event out to message listeners. Commands call this once
+     * the change has been committed, so any cached responses affected by it are
+     * dropped here, before the response to the update is returned, rather than
+     * waiting for the asynchronous delivery of the message.
      */
     // TODO these will currently go out as actions are performed even it the transaction is subsequently aborted
     // Options include (a) batch up messages until commit happens, (b) include transaction start/abort/commit message, (c) scrap this
     // version of the notification system and rethink
     public void notify(Message message) {
+        ResponseCache cache = registry.getResponseCache();
+        if (cache != null) {
+            cache.invalidate(message);
+        }
         MessagingService ms = registry.getMessagingService();
         if (ms != null) {
             ms.sendMessage(message);
@@ -514,14 +555,59 @@ public abstract class Command {
         return Response.ok().location(uri).entity( m ).header("Vary", "Accept").build();
     }
 
+    /**
+     * Return a streamed response of the given media type.
+     */
+    protected Response returnStream(StreamingOutput out, String type, String location) {
+        URI uri;
+        try {
+            uri = new URI( location );
+        } catch (URISyntaxException e) {
+            throw new WebApplicationException(e);
+        }
+        ResponseBuilder builder = Response.ok(out, type).location(uri).header("Vary", "Accept");
+        if (type.startsWith(RDFCSVUtil.MEDIA_TYPE)) {
+            builder.header(RequestProcessor.CONTENT_DISPOSITION_HEADER, csvDisposition());
+        }
+        return builder.build();
+    }
+
+    private String csvDisposition() {
+        return String.format("attachment; filename=\"%s.csv\"", lastSegment.startsWith("_") ? lastSegment.substring(1) : lastSegment);
+    }
+
     protected Resource injectPagingInformation(Model m, Resource root,  boolean more) {
+        return injectPagingInformation(m, root, more, null);
+    }
+
+    /**
+     * Add ldbp page information to a paged response.
+     * @param more true if there are further results beyond this page
+     * @param nextCursor the key to resume from when keyset paging, the next page
+     * link is by page number if this is null and the request was not itself keyset paged
+     */
+    protected Resource injectPagingInformation(Model m, Resource root,  boolean more, String nextCursor) {
         String url = target + "?" + makeParamString(parameters);
         Resource page = m.createResource(url)
             .addProperty(RDF.type, Ldbp_orig.Page)
             .addProperty(Ldbp_orig.pageOf, root);
+        if (more && nextCursor == null && after != null) {
+            // Never switch to offset paging part way through a keyset sequence
+            log.warn("No cursor for next page of keyset paged request on " + target);
+            more = false;
+        }
         if (more) {
-            String pageParams = "?" + PAGE_NUMBER + "=" + (pagenum+1);
-            String otherParams = makeParamString(parameters, FIRST_PAGE, PAGE_NUMBER);
+            String pageParams;
+            if (nextCursor != null) {
+                try {
+                    pageParams = "?" + PAGE_AFTER + "=" + URLEncoder.encode(nextCursor, "UTF-8");
+                } catch (UnsupportedEncodingException e) {
+                    throw new EpiException(e);  // Can't happen :)
+                }
+            } else {
+                pageParams = "?" + PAGE_NUMBER + "=" + (pagenum+1);
+            }
+            String otherParams = makeParamString(parameters, FIRST_PAGE, PAGE_NUMBER, PAGE_AFTER);
             if (!otherParams.isEmpty()) {
                 pageParams += "&" + otherParams;
             }
@@ -706,7 +792,7 @@ public abstract class Command {
         String csv;
         try {
             csv = out.toString(StandardCharsets.UTF_8.name());
-            String disposition = String.format("attachment; filename=\"%s.csv\"", lastSegment.startsWith("_") ? lastSegment.substring(1) : lastSegment);
+            String disposition = csvDisposition();
             URI uri;
             try {
                 uri = new URI( location );
@@ -0,0 +1,355 @@
+/******************************************************************
+ * File:        DelegationCache.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.core;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.core.Response;
+
+import org.apache.commons.collections.map.LRUMap;
+import org.apache.http.client.HttpClient;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.epimorphics.appbase.core.ComponentBase;
+import com.epimorphics.appbase.core.Shutdown;
+import com.epimorphics.appbase.webapi.WebApiException;
+import com.epimorphics.util.EpiException;
+
+/**
+ * Cache of content fetched from the SPARQL endpoints of delegated registers,
+ * so that viewing a delegated register or looking up an entity need not wait
+ * on a remote query each time.
+ * <p>
+ * Fetches are run on a small pool of threads, sharing a pool of HTTP connections,
+ * and a request thread only waits for a fetch up to the timeout configured for that
+ * endpoint. A fetch which takes longer carries on in the background, up to the fetch
+ * timeout, and fills the cache for later requests. Concurrent requests for the same content share a single fetch.
+ * Entries older than the refresh time are returned as they are and refreshed in the
+ * background, entries older than the time to live are refetched. If a refetch fails
+ * or times out the old entry is returned rather than an error, and failures are never cached.
+ * </p>
+ * Configuration parameters:
+ * <ul>
+ *   <li>ttl - time in seconds after which entries must be refetched, default 600</li>
+ *   <li>refresh - time in seconds after which entries are refreshed in the background, default 300</li>
+ *   <li>size - maximum number of cached entries, default 1000</li>
+ *   <li>threads - maximum number of concurrent fetches, default 4</li>
+ *   <li>queue - maximum number of fetches waiting for a thread, default 100</li>
+ *   <li>timeout - default time in milliseconds to wait for a remote endpoint, default 10000</li>
+ *   <li>endpointTimeouts - timeouts for specific endpoints as a comma separated list of endpoint=milliseconds</li>
+ *   <li>fetchTimeout - time in milliseconds after which a remote query is abandoned, default 60000, never less than the endpoint timeout</li>
+ * </ul>
+ */
+public class DelegationCache extends ComponentBase implements Shutdown {
+    static final Logger log = LoggerFactory.getLogger( DelegationCache.class );
+
+    public static final int DEFAULT_TTL = 600;
+    public static final int DEFAULT_REFRESH = 300;
+    public static final int DEFAULT_SIZE = 1000;
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_QUEUE = 100;
+    public static final int DEFAULT_TIMEOUT = 10000;
+    public static final int DEFAULT_FETCH_TIMEOUT = 60000;
+
+    protected long ttl = DEFAULT_TTL * 1000L;
+    protected long refresh = DEFAULT_REFRESH * 1000L;
+    protected int threads = DEFAULT_THREADS;
+    protected int queue = DEFAULT_QUEUE;
+    protected long timeout = DEFAULT_TIMEOUT;
+    protected long fetchTimeout = DEFAULT_FETCH_TIMEOUT;
+    protected Map<String, Long> endpointTimeouts = new HashMap<>();
+
+    protected LRUMap entries = new LRUMap(DEFAULT_SIZE);
+    protected final Map<String, Future<Object>> inflight = new ConcurrentHashMap<>();
+    protected ThreadPoolExecutor executor;
+    protected CloseableHttpClient httpClient;
+
+    protected final AtomicLong hits = new AtomicLong();
+    protected final AtomicLong misses = new AtomicLong();
+    protected final AtomicLong refreshes = new AtomicLong();
+    protected final AtomicLong staleServed = new AtomicLong();
+    protected final AtomicLong timeouts = new AtomicLong();
+
+    static class Entry {
+        final Object value;
+        final long fetched = System.currentTimeMillis();
+
+        Entry(Object value) {
+            this.value = value;
+        }
+    }
+
+    public void setTtl(long ttl) {
+        this.ttl = ttl * 1000;
+    }
+
+    public void setRefresh(long refresh) {
+        this.refresh = refresh * 1000;
+    }
+
+    public synchronized void setSize(long size) {
+        entries = new LRUMap( (int)size );
+    }
+
+    public void setThreads(long threads) {
+        if (threads < 1) {
+            throw new EpiException("Delegation cache needs at least one fetch thread");
+        }
+        this.threads = (int) threads;
+    }
+
+    public void setQueue(long queue) {
+        this.queue = (int) queue;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public void setFetchTimeout(long fetchTimeout) {
+        this.fetchTimeout = fetchTimeout;
+    }
+
+    public void setEndpointTimeouts(String spec) {
+        for (String pair : spec.split(",")) {
+            pair = pair.trim();
+            if (pair.isEmpty()) continue;
+            int split = pair.lastIndexOf('=');
+            if (split == -1) {
+                throw new EpiException("Badly formed endpoint timeout, expected endpoint=milliseconds: " + pair);
+            }
+            try {
+                endpointTimeouts.put( pair.substring(0, split).trim(), Long.valueOf( pair.substring(split + 1).trim() ) );
+            } catch (NumberFormatException e) {
+                throw new EpiException("Badly formed endpoint timeout, expected endpoint=milliseconds: " + pair);
+            }
+        }
+    }
+
+    /**
+     * Return the time, in milliseconds, to wait for the given endpoint
+     */
+    public long getTimeout(String endpoint) {
+        Long t = endpointTimeouts.get(endpoint);
+        return t == null ? timeout : t;
+    }
+
+    /**
+     * Return the time, in milliseconds, after which a query to the given endpoint is abandoned
+     */
+    public long getFetchTimeout(String endpoint) {
+        return Math.max(fetchTimeout, getTimeout(endpoint));
+    }
+
+    /**
+     * Return a shared, pooled, HTTP client to use for remote queries
+     */
+    public synchronized HttpClient getHttpClient() {
+        if (httpClient == null) {
+            PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+            connections.setMaxTotal(threads * 2);
+            connections.setDefaultMaxPerRoute(threads);
+            httpClient = HttpClients.custom().setConnectionManager(connections).build();
+        }
+        return httpClient;
+    }
+
+    protected synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(queue), new ThreadFactory() {
+                        final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "registry-delegation-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Return the cached value for a key, fetching it if necessary.
+     * @param endpoint the endpoint the value is fetched from, determines the timeout
+     * @param key the cache key, should include the endpoint
+     * @param loader fetches the value, must not return null
+     * @throws WebApiException if the value is not cached and can't be fetched in time
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String endpoint, String key, Callable<T> loader) {
+        Entry entry = lookup(key);
+        long now = System.currentTimeMillis();
+        if (entry != null && now - entry.fetched < ttl) {
+            hits.incrementAndGet();
+            if (now - entry.fetched >= refresh) {
+                try {
+                    fetch(key, loader);
+                    refreshes.incrementAndGet();
+                } catch (RejectedExecutionException e) {
+                    // Busy, try again next time
+                }
+            }
+            return (T) entry.value;
+        }
+
+        misses.incrementAndGet();
+        try {
+            return (T) fetch(key, loader).get( getTimeout(endpoint), TimeUnit.MILLISECONDS );
+        } catch (TimeoutException e) {
+            timeouts.incrementAndGet();
+            if (entry != null) return stale(key, entry);
+            throw new WebApiException(Response.Status.GATEWAY_TIMEOUT, "Timed out waiting for delegated register " + endpoint);
+        } catch (RejectedExecutionException e) {
+            if (entry != null) return stale(key, entry);
+            throw new WebApiException(Response.Status.SERVICE_UNAVAILABLE, "Too many outstanding requests to delegated registers");
+        } catch (ExecutionException e) {
+            if (entry != null) return stale(key, entry);
+            Throwable cause = e.getCause();
+            throw (cause instanceof RuntimeException) ? (RuntimeException) cause : new EpiException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EpiException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T stale(String key, Entry entry) {
+        log.warn("Failed to refresh delegated content, using cached version: " + key);
+        staleServed.incrementAndGet();
+        return (T) entry.value;
+    }
+
+    protected synchronized Entry lookup(String key) {
+        return (Entry) entries.get(key);
+    }
+
+    /**
+     * Start a fetch for the key, or join one that is already in progress
+     */
+    protected Future<Object> fetch(final String key, final Callable<?> loader) {
+        Future<Object> future = inflight.get(key);
+        if (future != null) {
+            return future;
+        }
+        FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                try {
+                    Object value = loader.call();
+                    synchronized (DelegationCache.this) {
+                        entries.put(key, new Entry(value));
+                    }
+                    return value;
+                } catch (Exception e) {
+                    log.warn("Failed to fetch delegated content " + key + ": " + e.getMessage());
+                    throw e;
+                } finally {
+                    inflight.remove(key);
+                }
+            }
+        });
+        future = inflight.putIfAbsent(key, task);
+        if (future != null) {
+            return future;
+        }
+        try {
+            getExecutor().execute(task);
+        } catch (RejectedExecutionException e) {
+            inflight.remove(key);
+            throw e;
+        }
+        return task;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getRefreshes() {
+        return refreshes.get();
+    }
+
+    public long getStaleServed() {
+        return staleServed.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DelegationCache[size=%d, hits=%d, misses=%d, refreshes=%d, stale=%d, timeouts=%d]",
+                size(), getHits(), getMisses(), getRefreshes(), getStaleServed(), getTimeouts());
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        if (httpClient != null) {
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                log.warn("Problem closing delegation HTTP client", e);
+            }
+            httpClient = null;
+        }
+    }
+
+}
@@ -22,7 +22,9 @@
 package com.epimorphics.registry.core;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,9 +33,15 @@ import org.apache.jena.query.QueryExecution;
 import org.apache.jena.query.QueryExecutionFactory;
 import org.apache.jena.query.ResultSet;
 import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Resource;
 
+import com.epimorphics.util.EpiException;
+
 /**
+ * Records a delegated register, whose members are enumerated and described by
+ * queries to a remote SPARQL endpoint. The remote content is normally fetched
+ * through a shared {@link DelegationCache}.
  *
  * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
  */
@@ -43,6 +51,7 @@ public class DelegationRecord extends ForwardingRecord {
     protected Resource subject;
     protected Resource predicate;
     protected Resource object;
+    protected DelegationCache cache;
 
     public DelegationRecord(String location, String target, Type type) {
         super(location, target, type);
@@ -60,40 +69,64 @@ public class DelegationRecord extends ForwardingRecord {
         this.object = object;
     }
 
+    /**
+     * Set the cache through which remote content is fetched, if not set every
+     * request goes to the remote endpoint.
+     */
+    public void setCache(DelegationCache cache) {
+        this.cache = cache;
+    }
+
     /**
      * Enumerate all members of the delegated register
      */
     public List<Resource> listMembers() {
-        log.debug("Fetch delegation members from " + getTarget());
-        String query =
+        final String query =
                 subject == null ?
                         String.format("SELECT ?m WHERE {?m <%s> <%s>}", predicate.getURI(), object.getURI())
                       : String.format("SELECT ?m WHERE {<%s> <%s> ?m}", subject.getURI(), predicate.getURI());
-        QueryExecution exec = QueryExecutionFactory.sparqlService(getTarget(), query + " ORDER BY ?m");
-        try {
-            List<Resource> members = new ArrayList<>();
-            ResultSet results = exec.execSelect();
-            while (results.hasNext()) {
-                members.add( results.next().getResource("m") );
+        return fetch("members " + query, new Callable<List<Resource>>() {
+            @Override
+            public List<Resource> call() {
+                log.debug("Fetch delegation members from " + getTarget());
+                QueryExecution exec = createExecution(query + " ORDER BY ?m");
+                try {
+                    List<Resource> members = new ArrayList<>();
+                    ResultSet results = exec.execSelect();
+                    while (results.hasNext()) {
+                        members.add( results.next().getResource("m") );
+                    }
+                    return Collections.unmodifiableList(members);
+                } finally {
+                    exec.close();
+                }
             }
-            return members;
-        } finally {
-            exec.close();
-        }
+        });
     }
 
     /**
      * Return a description of a single delegated member
      */
-    public Model describeMember(Resource member) {
-        QueryExecution exec = QueryExecutionFactory.sparqlService(getTarget(), "DESCRIBE <"+ member.getURI() + ">");
+    public Model describeMember(final Resource member) {
         try {
-            return exec.execDescribe();
+            Model description = fetch("describe " + member.getURI(), new Callable<Model>() {
+                @Override
+                public Model call() {
+                    QueryExecution exec = createExecution("DESCRIBE <"+ member.getURI() + ">");
+                    try {
+                        // A failure (e.g. a 404/500 from the service) propagates so it is not cached
+                        // and any previously cached description continues to be used
+                        return exec.execDescribe();
+                    } finally {
+                        exec.close();
+                    }
+                }
+            });
+            return ModelFactory.createDefaultModel().add(description);
         } catch (Exception e) {
-            // Assume this is a 404/500 from the service, need some way to check this and log if appropriate
+            // Endpoint failed, too slow or too busy
+            log.debug("Failed to describe delegated member " + member.getURI() + ": " + e.getMessage());
             return null;
-        } finally {
-            exec.close();
         }
     }
 
@@ -101,19 +134,55 @@ public class DelegationRecord extends ForwardingRecord {
      * Add a description of all of the list members to the given model.
      */
     public void fetchMembers(Model model, List<Resource> members) {
-        StringBuffer query = new StringBuffer();
+        final StringBuffer query = new StringBuffer();
         query.append("DESCRIBE ");
         for (Resource member : members) {
             query.append(" <");
             query.append(member.getURI());
             query.append(">");
         }
-        QueryExecution exec = QueryExecutionFactory.sparqlService(getTarget(), query.toString());
-        try {
-            exec.execDescribe(model);
-        } finally {
-            exec.close();
+        model.add( fetch(query.toString(), new Callable<Model>() {
+            @Override
+            public Model call() {
+                QueryExecution exec = createExecution(query.toString());
+                try {
+                    return exec.execDescribe();
+                } finally {
+                    exec.close();
+                }
+            }
+        }) );
+    }
+
+    /**
+     * Fetch content from the remote endpoint, via the cache if there is one.
+     */
+    protected <T> T fetch(String key, Callable<T> loader) {
+        if (cache == null) {
+            try {
+                return loader.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new EpiException(e);
+            }
+        }
+        return cache.get(getTarget(), getTarget() + " " + key, loader);
+    }
+
+    /**
+     * Create an execution of the query against the remote endpoint. Can be overridden for testing.
+     * When cached the query is allowed the cache's fetch timeout, which is longer than the time a
+     * request waits, so that a slow fetch can complete in the background and fill the cache.
+     */
+    protected QueryExecution createExecution(String query) {
+        if (cache == null) {
+            return QueryExecutionFactory.sparqlService(getTarget(), query);
         }
+        QueryExecution exec = QueryExecutionFactory.sparqlService(getTarget(), query, cache.getHttpClient());
+        long timeout = cache.getFetchTimeout( getTarget() );
+        exec.setTimeout(timeout, timeout);
+        return exec;
     }
 
 }
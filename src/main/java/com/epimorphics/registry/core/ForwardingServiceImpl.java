@@ -37,6 +37,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.epimorphics.appbase.core.ComponentBase;
+import com.epimorphics.appbase.core.Shutdown;
 import com.epimorphics.rdfutil.RDFUtil;
 import com.epimorphics.registry.core.ForwardingRecord.Type;
 import com.epimorphics.registry.util.Trie;
@@ -47,16 +48,21 @@ import com.epimorphics.registry.vocab.RegistryVocab;
  * forwarding instructions and passes proxy instructions to a front-end nginx
  * instance.
  * <p>
+ * Matching is on the path of every request so does not lock, the trie publishes
+ * a new immutable version on each registration change.
+ * </p>
+ * <p>
  * Configuration parameters:
  * <ul>
  *   <li><strong>proxyConfDir</strong> the directory in which to generate proxy-foo.conf files for nginx configuration</li>
  *   <li><strong>proxyRestartScript</strong> a script to force ningx instance to reconsult the proxy config files, must be runnable as sudo without a password</li>
+ *   <li><strong>delegationCache</strong> the cache for content fetched from delegated registers, a cache with default settings is used if not set</li>
  * </ul>
  * </p>
  *
  * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
  */
-public class ForwardingServiceImpl extends ComponentBase implements ForwardingService {
+public class ForwardingServiceImpl extends ComponentBase implements ForwardingService, Shutdown {
     static Logger log = LoggerFactory.getLogger(ForwardingServiceImpl.class);
 
     public static final String PROXY_CONF_DIR_PARAM = "proxyConfDir";
@@ -67,9 +73,11 @@ public class ForwardingServiceImpl extends ComponentBase implements ForwardingSe
     protected String confDir;
     protected String script;
 
-    protected Trie<ForwardingRecord> trie = new Trie<ForwardingRecord>();
+    protected final Trie<ForwardingRecord> trie = new Trie<ForwardingRecord>();
     protected Map<String, ForwardingRecord> proxyForwards = new HashMap<String, ForwardingRecord>();
     boolean configUpdateNeeded = false;
+    protected DelegationCache delegationCache = new DelegationCache();
+    protected boolean defaultDelegationCache = true;
     
     public void setProxyRestartScript(String f) {
         script = expandFileLocation(f);
@@ -79,6 +87,25 @@ public class ForwardingServiceImpl extends ComponentBase implements ForwardingSe
         confDir = expandFileLocation(dir);
     }
 
+    public void setDelegationCache(DelegationCache cache) {
+        delegationCache = cache;
+        defaultDelegationCache = false;
+    }
+
+    public DelegationCache getDelegationCache() {
+        return delegationCache;
+    }
+
+    /**
+     * Stop the default delegation cache, a configured cache is a component in its own right and is shut down by the app
+     */
+    @Override
+    public void shutdown() {
+        if (defaultDelegationCache) {
+            delegationCache.shutdown();
+        }
+    }
+
     @Override
     public void update(RegisterItem item) {
         if (item.getStatus().isAccepted()) {
@@ -133,6 +160,9 @@ public class ForwardingServiceImpl extends ComponentBase implements ForwardingSe
             return;
         }
         log.info("Registering delegation path at " + loc + " -> " + record.getTarget() + " [" + record.getForwardingCode() + "]");
+        if (record instanceof DelegationRecord) {
+            ((DelegationRecord)record).setCache(delegationCache);
+        }
         if (record.getForwardingCode() == 200) {
             proxyForwards.put(loc, record);
             configUpdateNeeded = true;
@@ -157,7 +187,7 @@ public class ForwardingServiceImpl extends ComponentBase implements ForwardingSe
     }
 
     @Override
-    public synchronized MatchResult match(String path) {
+    public MatchResult match(String path) {
         Trie.MatchResult<ForwardingRecord> mr = trie.match(path);
         if (mr != null) {
             return new MatchResult(mr.getMatch(), mr.getPathRemainder());
@@ -22,7 +22,9 @@
 package com.epimorphics.registry.core;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
@@ -33,6 +35,7 @@ import org.apache.jena.vocabulary.RDFS;
 
 import com.epimorphics.rdfutil.RDFUtil;
 import com.epimorphics.registry.store.FilterSpec;
+import com.epimorphics.registry.store.MemberWindow;
 import com.epimorphics.registry.store.RegisterEntryInfo;
 import com.epimorphics.registry.store.StoreAPI;
 import com.epimorphics.registry.util.Util;
@@ -44,8 +47,10 @@ import com.epimorphics.registry.vocab.RegistryVocab;
  * Abstraction for access to a Register.
  */
 public class Register extends Description {
+    /** Number of members whose versions are resolved together for a historical view */
+    static final int VERSION_AT_BATCH = 500;
+
     List<RegisterEntryInfo> members;
-    List<Resource> delegatedMembers;
 
     StoreAPI store;
 
@@ -118,54 +123,97 @@ public class Register extends Description {
      */
     // The signature of this method is now out of control, need some refactoring
     public boolean constructView(Model model, boolean withMetadata, Status status, int offset, int length, long timestamp, List<FilterSpec> filters, List<Resource> results) {
-        List<String> itemURIs = new ArrayList<String>( length == -1 ? 50 : length );
-        List<String> entityURIs = new ArrayList<String>( length == -1 ? 50 : length );
+        if (timestamp == -1) {
+            // Current view, the store can select just the window we need
+            MemberWindow window = store.listMembers(this, status, filters, offset, length);
+            constructView(model, withMetadata, window, results);
+            return !window.hasMore();
+        }
 
-        int count = 0;
+        // Historical view, need to check the version of each member valid at the time
+        List<RegisterItem> window = new ArrayList<RegisterItem>( length == -1 ? 50 : length );
+        List<String> entityURIs = new ArrayList<String>( length == -1 ? 50 : length );
         boolean incomplete = false;
+        int count = 0;
         int limit = length == -1 ? Integer.MAX_VALUE : offset + length;
-        for (RegisterEntryInfo info : getMembers(filters)) {
-            boolean valid = (timestamp == -1) ? info.getStatus().isA(status) : true;
-            if (valid) {
-                if (timestamp != -1) {
-                    Description d = store.getVersionAt(info.getItemURI(), timestamp);
-                    if (d != null) {
-                        RegisterItem ri = d.asRegisterItem();
-                        if (ri.getStatus().isA(status)) {
-                            model.add( store.getEntity(ri).getModel() );
-                        } else {
-                            valid = false;
-                        }
-                    } else {
-                        valid = false;
-                    }
+        List<RegisterEntryInfo> members = getMembers(filters);
+        Map<String, Description> versions = Collections.emptyMap();
+        for (int i = 0; i < members.size(); i++) {
+            RegisterEntryInfo info = members.get(i);
+            if (i % VERSION_AT_BATCH == 0) {
+                // Resolve the members in batches so the window can stop early
+                List<String> itemURIs = new ArrayList<>(VERSION_AT_BATCH);
+                for (RegisterEntryInfo next : members.subList(i, Math.min(i + VERSION_AT_BATCH, members.size()))) {
+                    itemURIs.add( next.getItemURI() );
                 }
+                versions = store.getVersionsAt(itemURIs, timestamp);
             }
-            if (valid) {
-                if (count >= offset && count < limit) {
-                    itemURIs.add( info.getItemURI() );
-                    entityURIs.add( info.getEntityURI() );
-                }
-                count++;
-                if (count == limit) {
-                    incomplete = true;
-                }
-                if (count > limit) break;
+            Description d = versions.get(info.getItemURI());
+            if (d == null) continue;
+            RegisterItem ri = d.asRegisterItem();
+            if (!ri.getStatus().isA(status)) continue;
+            if (count >= offset && count < limit) {
+                window.add( ri );
+                entityURIs.add( info.getEntityURI() );
             }
+            count++;
+            if (count == limit) {
+                incomplete = true;
+            }
+            if (count > limit) break;
         }
-        
-        if (timestamp != -1) {
-            // already fetched while checking for valid entries
-        } else if (withMetadata && !itemURIs.isEmpty()) {
-            List<RegisterItem> items = store.fetchAll(itemURIs, true);
-            model.add( items.get(0).getRoot().getModel() );
+
+        // Only the entities in the window are needed
+        store.fetchEntities(window, model);
+        addMembers(model, entityURIs, results);
+        return !incomplete;
+    }
+
+    /**
+     * Construct an RDF view of the current state of a page of members of the register
+     * which follow the given notation, in notation order. Unlike offset based paging,
+     * the cost of each page is independent of how far through the register it is.
+     *
+     * @param model model in which to store the results
+     * @param withMetadata if true then both RegisterItems and the entities are included, if false then just entities are shown
+     * @param status only return members which are specializations of this status, use null as a wildcard
+     * @param after cursor from the last member of the previous page, null or empty to start from the first member
+     * @param length then maximum number of members to return, -1 for no limit
+     * @param filters set of filters to apply to the register view, may be null if no filtering needed
+     * @param results an array in which to return an ordered list of the items, if null if not required
+     * @return the window of member entries included in the view
+     */
+    public MemberWindow constructViewAfter(Model model, boolean withMetadata, Status status, String after, int length, List<FilterSpec> filters, List<Resource> results) {
+        MemberWindow window = store.listMembersAfter(this, status, filters, after, length);
+        constructView(model, withMetadata, window, results);
+        return window;
+    }
+
+    /**
+     * Construct an RDF view of the current state of an already selected window of members.
+     *
+     * @param model model in which to store the results
+     * @param withMetadata if true then both RegisterItems and the entities are included, if false then just entities are shown
+     * @param window the members to include, as selected by the store
+     * @param results an array in which to return an ordered list of the items, if null if not required
+     */
+    public void constructView(Model model, boolean withMetadata, MemberWindow window, List<Resource> results) {
+        List<String> itemURIs = new ArrayList<String>( window.getMembers().size() );
+        List<String> entityURIs = new ArrayList<String>( window.getMembers().size() );
+        for (RegisterEntryInfo info : window.getMembers()) {
+            itemURIs.add( info.getItemURI() );
+            entityURIs.add( info.getEntityURI() );
+        }
+
+        if (withMetadata) {
+            store.fetchAll(itemURIs, model, model);
         } else {
-            for (String uri : entityURIs) {
-                Model d =  store.getCurrentVersion(uri).getRoot().getModel();
-                model.add( d );
-            }
+            store.fetchAllCurrentVersions(entityURIs, model);
         }
+        addMembers(model, entityURIs, results);
+    }
 
+    private void addMembers(Model model, List<String> entityURIs, List<Resource> results) {
         model.add( root.getModel() ); 
         
         List<Resource> entities = results;
@@ -178,8 +226,6 @@ public class Register extends Description {
         }
 
         addMembership(model, entities);
-
-        return !incomplete;
     }
     
     public List<Resource> getAllEntities() {
@@ -229,11 +275,8 @@ public class Register extends Description {
     public void constructDelegatedView(Model view, DelegationRecord delegation,
             int offset, int length, List<Resource> items) {
 
-        if (delegatedMembers == null) {
-            delegatedMembers = delegation.listMembers();
-        }
-
-        List<Resource> windowedMembers = Util.listWindow(delegatedMembers, offset, length);
+        // Cached, and kept up to date, by the delegation itself
+        List<Resource> windowedMembers = Util.listWindow(delegation.listMembers(), offset, length);
         delegation.fetchMembers(view,  windowedMembers);
 
        view.add( root.getModel() );
@@ -32,10 +32,12 @@ import com.epimorphics.appbase.webapi.WebApiException;
 import com.epimorphics.rdfutil.RDFUtil;
 import com.epimorphics.registry.store.StoreAPI;
 import com.epimorphics.registry.vocab.RegistryVocab;
+import org.apache.jena.rdf.model.Literal;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Property;
 import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
 import org.apache.jena.rdf.model.Statement;
 import org.apache.jena.sparql.util.Closure;
 import org.apache.jena.util.ResourceUtils;
@@ -232,12 +234,7 @@ public class RegisterItem extends Description {
         String riURI = makeItemURI(parentURI, notation);
         Resource ri = ModelFactory.createDefaultModel().createResource(riURI)
                 .addProperty(RDF.type, RegistryVocab.RegisterItem);
-        try {
-            int notationInt = Integer.parseInt(notation);
-            ri.addLiteral(RegistryVocab.notation, notationInt);
-        } catch (NumberFormatException ex) {
-            ri.addProperty(RegistryVocab.notation, notation);
-        }
+        ri.addLiteral(RegistryVocab.notation, notationLiteral(notation));
         RegisterItem item = new RegisterItem( ri, parentURI, notation );
         Resource entity = e.inModel( Closure.closure(e, false) );
         item.relocateEntity(entity);
@@ -245,6 +242,19 @@ public class RegisterItem extends Description {
         return item;
     }
 
+    /**
+     * Return the literal used to record the given notation. Notations which
+     * parse as an int are stored as xsd:long so that they sort numerically,
+     * other notations as plain strings.
+     */
+    public static Literal notationLiteral(String notation) {
+        try {
+            return ResourceFactory.createTypedLiteral( Long.valueOf( Integer.parseInt(notation) ) );
+        } catch (NumberFormatException ex) {
+            return ResourceFactory.createPlainLiteral(notation);
+        }
+    }
+
     /**
      * Set the status of the item
      */
@@ -0,0 +1,261 @@
+/******************************************************************
+ * File:        RegisterViewStream.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.system.StreamOps;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.epimorphics.registry.csv.CSVRDFWriter;
+import com.epimorphics.registry.csv.RDFCSVUtil;
+import com.epimorphics.registry.store.MemberWindow;
+import com.epimorphics.registry.store.RegisterEntryInfo;
+import com.epimorphics.registry.store.StoreAPI;
+import com.epimorphics.registry.util.JSONLDSupport;
+import com.github.jsonldjava.utils.JsonUtils;
+
+/**
+ * Streams a view of a window of register members as Turtle, N-Triples, JSON-LD or CSV.
+ * <p>
+ * The window of members to include, and a header model giving the register description
+ * and any paging information, are selected as the response is written, within the same
+ * read transaction as is used to fetch the member descriptions. So the page always agrees
+ * with its own paging links, even if there are commits between processing the request
+ * and writing the response. The member descriptions are fetched from the store in small
+ * chunks and written out as they are fetched, so the memory needed is bounded by the
+ * chunk size rather than the size of the register.
+ * </p>
+ */
+public class RegisterViewStream implements StreamingOutput {
+    static final Logger log = LoggerFactory.getLogger( RegisterViewStream.class );
+
+    public static final String MIME_NTRIPLES = "application/n-triples";
+
+    /** Default number of members to fetch from the store at a time */
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+
+    protected StoreAPI store;
+    protected Register register;
+    protected Supplier<MemberWindow> selector;
+    protected Function<MemberWindow, Model> headerBuilder;
+    protected boolean withMetadata;
+    protected String mediaType;
+    protected int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    // Selected when written
+    protected List<RegisterEntryInfo> members;
+    protected Model header;
+
+    /**
+     * @param store the store to read the members from
+     * @param register the register whose members are being viewed
+     * @param selector selects the window of members to include, called within the read transaction used to write them
+     * @param headerBuilder returns the register description and paging information for the selected window,
+     * also supplies the prefixes to use
+     * @param withMetadata if true include the register items as well as the entities
+     * @param mediaType the media type to write, should satisfy {@link #isStreamable(String)}
+     */
+    public RegisterViewStream(StoreAPI store, Register register, Supplier<MemberWindow> selector,
+            Function<MemberWindow, Model> headerBuilder, boolean withMetadata, String mediaType) {
+        this.store = store;
+        this.register = register;
+        this.selector = selector;
+        this.headerBuilder = headerBuilder;
+        this.withMetadata = withMetadata;
+        this.mediaType = mediaType;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Test if a media type can be streamed
+     */
+    public static boolean isStreamable(String mediaType) {
+        if (mediaType == null) return false;
+        String base = baseType(mediaType);
+        return base.equals("text/turtle") || base.equals(MIME_NTRIPLES)
+                || base.equals(JSONLDSupport.MIME_JSONLD) || base.equals(RDFCSVUtil.MEDIA_TYPE);
+    }
+
+    protected static String baseType(String mediaType) {
+        int split = mediaType.indexOf(';');
+        return (split == -1 ? mediaType : mediaType.substring(0, split)).trim();
+    }
+
+    @Override
+    public void write(OutputStream out) throws IOException, WebApplicationException {
+        store.beginRead();
+        try {
+            MemberWindow window = selector.get();
+            members = window.getMembers();
+            header = headerBuilder.apply(window);
+            String base = baseType(mediaType);
+            if (base.equals(RDFCSVUtil.MEDIA_TYPE)) {
+                writeCSV(out);
+            } else if (base.equals(JSONLDSupport.MIME_JSONLD)) {
+                writeJSONLD(out);
+            } else {
+                writeRDF(out, base.equals(MIME_NTRIPLES) ? RDFFormat.NTRIPLES : RDFFormat.TURTLE_BLOCKS);
+            }
+        } finally {
+            store.end();
+        }
+    }
+
+    protected void writeRDF(OutputStream out, RDFFormat format) {
+        StreamRDF stream = StreamRDFWriter.getWriterStream(out, format);
+        stream.start();
+        StreamOps.sendPrefixesToStream(header, stream);
+        StreamOps.sendTriplesToStream(header.getGraph(), stream);
+        for (int start = 0; start < members.size(); start += chunkSize) {
+            StreamOps.sendTriplesToStream(fetchChunk(start, null).getGraph(), stream);
+        }
+        stream.finish();
+    }
+
+    /**
+     * Writes a single JSON-LD document whose @graph is the concatenation of the
+     * compacted chunks. A resource which spans chunks appears as more than one
+     * node object, which JSON-LD processors will merge.
+     */
+    @SuppressWarnings("unchecked")
+    protected void writeJSONLD(OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        Map<String, Object> top = (Map<String, Object>) JSONLDSupport.toJSONLD(header);
+        writer.write("{\n\"" + JSONLDSupport.CONTEXT_KEY + "\" : ");
+        JsonUtils.write(writer, top.get(JSONLDSupport.CONTEXT_KEY));
+        writer.write(",\n\"@graph\" : [");
+        boolean started = writeNodes(writer, top, false);
+        for (int start = 0; start < members.size(); start += chunkSize) {
+            Map<String, Object> chunk = (Map<String, Object>) JSONLDSupport.toJSONLD( fetchChunk(start, null) );
+            started = writeNodes(writer, chunk, started);
+        }
+        writer.write("\n] }\n");
+        writer.flush();
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean writeNodes(Writer writer, Map<String, Object> compacted, boolean started) throws IOException {
+        compacted.remove(JSONLDSupport.CONTEXT_KEY);
+        List<Object> nodes;
+        Object graph = compacted.get("@graph");
+        if (graph instanceof List<?>) {
+            nodes = (List<Object>) graph;
+        } else if (compacted.isEmpty()) {
+            return started;
+        } else {
+            // Compaction of a single node leaves it at the top level
+            nodes = new ArrayList<>(1);
+            nodes.add(compacted);
+        }
+        for (Object node : nodes) {
+            writer.write(started ? ",\n" : "\n");
+            started = true;
+            JsonUtils.write(writer, node);
+        }
+        return started;
+    }
+
+    /**
+     * CSV headers have to be known before the first row, so make one pass
+     * over the members to find the columns and then a second to write them.
+     */
+    protected void writeCSV(OutputStream out) {
+        CSVRDFWriter writer = new CSVRDFWriter(out, header);
+        if (withMetadata) {
+            writer.addHeader(RDFCSVUtil.STATUS_HEADER);
+            writer.addHeader(RDFCSVUtil.NOTATION_HEADER);
+        }
+        for (int start = 0; start < members.size(); start += chunkSize) {
+            List<Resource> entities = new ArrayList<>(chunkSize);
+            fetchChunk(start, entities);
+            writer.addHeader(entities);
+        }
+        for (int start = 0; start < members.size(); start += chunkSize) {
+            List<Resource> entities = new ArrayList<>(chunkSize);
+            fetchChunk(start, entities);
+            for (int i = 0; i < entities.size(); i++) {
+                writer.write( entities.get(i) );
+                if (withMetadata) {
+                    RegisterEntryInfo info = members.get(start + i);
+                    writer.write(RDFCSVUtil.STATUS_HEADER, info.getStatus().getLabel());
+                    writer.write(RDFCSVUtil.NOTATION_HEADER, info.getNotation());
+                }
+                writer.finishRow();
+            }
+        }
+        writer.close();
+    }
+
+    /**
+     * Fetch the descriptions of a chunk of the members, together with their membership triples.
+     * @param start the index of the first member in the chunk
+     * @param entities if not null the member entities are added to this list, in order
+     */
+    protected Model fetchChunk(int start, List<Resource> entities) {
+        int end = Math.min(start + chunkSize, members.size());
+        List<String> itemURIs = new ArrayList<>(end - start);
+        List<String> entityURIs = new ArrayList<>(end - start);
+        for (RegisterEntryInfo info : members.subList(start, end)) {
+            itemURIs.add( info.getItemURI() );
+            entityURIs.add( info.getEntityURI() );
+        }
+
+        Model chunk = ModelFactory.createDefaultModel();
+        if (withMetadata) {
+            store.fetchAll(itemURIs, chunk, chunk);
+        } else {
+            store.fetchAllCurrentVersions(entityURIs, chunk);
+        }
+        List<Resource> chunkEntities = new ArrayList<>(entityURIs.size());
+        for (String uri : entityURIs) {
+            chunkEntities.add( chunk.getResource(uri) );
+        }
+        register.addMembership(chunk, chunkEntities);
+        if (entities != null) {
+            entities.addAll(chunkEntities);
+        }
+        return chunk;
+    }
+
+}
@@ -39,6 +39,7 @@ import com.epimorphics.registry.store.StoreAPI;
 import com.epimorphics.registry.store.StoreBaseImpl;
 import com.epimorphics.registry.util.Prefixes;
 import com.epimorphics.registry.vocab.RegistryVocab;
+import com.epimorphics.registry.webapi.ResponseCache;
 import com.epimorphics.registry.webapi.facets.FacetService;
 import com.epimorphics.util.EpiException;
 import com.epimorphics.util.FileUtil;
@@ -61,6 +62,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -75,7 +78,15 @@ import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
  *   <li>bootSpec - location of a bootstrap file defining the root register, and system registers</li>
  *   <li>store - named of a configuration service that provides the StoreAPI implementation in which the registry information is stored</li>
  *   <li>cacheSize - size of register cache to use, if not set then no caching is done, typical value 100</li>
+ *   <li>itemCacheSize - number of current item and entity descriptions to cache, if not set then these are not cached, typical value 5000</li>
  *   <li>pageSize - size to use for LDP pages, default 50 </li>
+ *   <li>streamingThreshold - register views with more members than this are streamed, rather than built in memory, when requested as Turtle, N-Triples, JSON-LD or CSV, default 500, -1 to disable streaming</li>
+ *   <li>responseCacheSize - number of rendered GET responses to cache, if not set then responses are not cached, typical value 500</li>
+ *   <li>responseCacheTTL - time in seconds after which cached responses expire even if no change has been notified, default 600, -1 for no expiry</li>
+ *   <li>backupDir - directory in which to write backups, if not set then backups are not supported</li>
+ *   <li>backupThreads - number of threads with which to write the named graphs in a backup, default 1, if more than one full backups are written as a directory of segments</li>
+ *   <li>bulkLoad - if true then the systemBoot register trees are loaded into a fresh store by a {@link BulkLoader}, in large transactions with text indexing deferred, rather than file by file</li>
+ *   <li>bulkLoadThreads - number of threads with which to parse files during a bulk load, defaults to the number of processors</li>
  * <ul>
  * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
  */
@@ -92,6 +103,7 @@ public class Registry extends ComponentBase implements Startup, Shutdown {
     public static final String USERSTORE_PARAM = "userStore";
     public static final String STORE_PARAM = "store";
     public static final String CACHE_SIZE_PARAM = "cacheSize";
+    public static final String ITEM_CACHE_SIZE_PARAM = "itemCacheSize";
     public static final String PAGE_SIZE_PARAM = "pageSize";
     public static final String MESSAGE_SERVICE_PARAM = "messageService";
     public static final String FACET_SERVICE_PARAM = "facetService";
@@ -100,11 +112,18 @@ public class Registry extends ComponentBase implements Startup, Shutdown {
     public static final boolean TEXT_INDEX_INCLUDES_HISTORY = true;
 
     public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int DEFAULT_STREAMING_THRESHOLD = 500;
+    public static final int DEFAULT_RESPONSE_CACHE_TTL = 600;
 
     protected StoreAPI store;
     protected long cacheSize = -1;
+    protected long itemCacheSize = -1;
     protected String baseURI;
     protected long pageSize = DEFAULT_PAGE_SIZE;
+    protected long streamingThreshold = DEFAULT_STREAMING_THRESHOLD;
+    protected long responseCacheSize = -1;
+    protected long responseCacheTTL = DEFAULT_RESPONSE_CACHE_TTL;
+    protected ResponseCache responseCache;
     protected ForwardingService forwarder;
     protected String logDir;
     protected UserStore userStore;
@@ -115,6 +134,9 @@ public class Registry extends ComponentBase implements Startup, Shutdown {
     protected String bootdirs;
     protected VelocityRender velocity;
     protected String backupDir;
+    protected long backupThreads = 1;
+    protected boolean bulkLoad = false;
+    protected long bulkLoadThreads = -1;
     protected boolean redirectToHttpsOnLogin = false;
     protected GenericConfig configExtensions;
     protected RequestLogger requestLogger;
@@ -142,10 +164,26 @@ public class Registry extends ComponentBase implements Startup, Shutdown {
         this.cacheSize = size;
     }
     
+    public void setItemCacheSize(long size) {
+        this.itemCacheSize = size;
+    }
+    
     public void setPageSize(long size) {
         this.pageSize = size;
     }
     
+    public void setStreamingThreshold(long threshold) {
+        this.streamingThreshold = threshold;
+    }
+    
+    public void setResponseCacheSize(long size) {
+        this.responseCacheSize = size;
+    }
+    
+    public void setResponseCacheTTL(long ttl) {
+        this.responseCacheTTL = ttl;
+    }
+    
     public void setMessageService( MessagingService service ) {
         messageService = service;
     }
@@ -182,6 +220,18 @@ public class Registry extends ComponentBase implements Startup, Shutdown {
     public void setBackupDir(String dir) {
         backupDir = expandFileLocation(dir);
     }
+
+    public void setBackupThreads(long threads) {
+        backupThreads = threads;
+    }
+
+    public void setBulkLoad(boolean bulkLoad) {
+        this.bulkLoad = bulkLoad;
+    }
+
+    public void setBulkLoadThreads(long threads) {
+        bulkLoadThreads = threads;
+    }
     
     public void setFacetService(FacetService service) {
         this.facetService = service;
@@ -247,8 +297,8 @@ public class Registry extends ComponentBase implements Startup, Shutdown {
         require(bootFile, BOOT_FILE_PARAM);
         
         StoreAPI baseStore = store;
-        if (cacheSize > 1) {
-            store = new CachingStore(store, (int)cacheSize);
+        if (cacheSize > 1 || itemCacheSize > 1) {
+            store = new CachingStore(store, (int)cacheSize, (int)itemCacheSize);
         }
         registry = this;   // Assumes singleton registry
 
@@ -268,9 +318,13 @@ public class Registry extends ComponentBase implements Startup, Shutdown {
                 store.loadBootstrap( expandFileLocation(bootSrc) );
             }
             if (bootdirs != null) {
-                for (String bootdir : bootdirs.split("\\|")) {
-                    bootdir = expandFileLocation( bootdir );
-                    loadInitialRegisterTree(bootdir);
+                if (bulkLoad) {
+                    bulkLoadInitialRegisterTrees(baseStore);
+                } else {
+                    for (String bootdir : bootdirs.split("\\|")) {
+                        bootdir = expandFileLocation( bootdir );
+                        loadInitialRegisterTree(bootdir);
+                    }
                 }
             }
             log.info("Installed bootstrap root register");
@@ -307,9 +361,19 @@ public class Registry extends ComponentBase implements Startup, Shutdown {
             store.end();
         }
         
+        // Cache rendered responses, invalidated by change notifications
+        if (responseCacheSize > 0) {
+            responseCache = new ResponseCache( (int)responseCacheSize );
+            responseCache.setTTL( responseCacheTTL > 0 ? responseCacheTTL * 1000 : -1 );
+            responseCache.addGlobalTarget( getBaseURI() + Prefixes.PREFIX_REGISTER );
+            responseCache.addGlobalTarget( getBaseURI() + LIFECYCLE_REGISTER );
+            getMessagingService().processMessages( responseCache );
+        }
+        
         // Configure optional backup service
         if (backupDir != null && baseStore != null && baseStore instanceof StoreBaseImpl) {
             backupService = new BackupService(backupDir, ((StoreBaseImpl)baseStore).getStore());
+            backupService.setThreads( (int)backupThreads );
         } else {
             log.warn("No backup service configured");
         }
@@ -337,6 +401,26 @@ public class Registry extends ComponentBase implements Startup, Shutdown {
         }
     }
 
+    /**
+     * Load all the initial register trees using a {@link BulkLoader}
+     */
+    private void bulkLoadInitialRegisterTrees(StoreAPI baseStore) {
+        List<File> dirs = new ArrayList<>();
+        for (String bootdir : bootdirs.split("\\|")) {
+            dirs.add( new File( expandFileLocation(bootdir) ) );
+        }
+        BulkLoader loader = new BulkLoader(this);
+        loader.setBaseStore(baseStore);
+        if (bulkLoadThreads > 0) {
+            loader.setThreads( (int)bulkLoadThreads );
+        }
+        try {
+            loader.load(dirs);
+        } catch (Exception e) {
+            log.error("Failed to load initialization tree", e);
+        }
+    }
+
     private void loadRegisterTree(String parent, File dir) {
         File metadata = new File(dir, METADATA_FILE);
         if (metadata.exists()) {
@@ -359,7 +443,7 @@ public class Registry extends ComponentBase implements Startup, Shutdown {
             }
         }
     }
-    private final static String METADATA_FILE = "metadata.ttl";
+    final static String METADATA_FILE = "metadata.ttl";
 
     private void registerFile(String register, File file)  {
         String baseURI = getBaseURI() + "/" + (register.isEmpty() ? "" : register + "/");
@@ -425,6 +509,20 @@ public class Registry extends ComponentBase implements Startup, Shutdown {
         return pageSize;
     }
 
+    /**
+     * Return the number of members above which register views are streamed, -1 if streaming is disabled
+     */
+    public long getStreamingThreshold() {
+        return streamingThreshold;
+    }
+
+    /**
+     * Return the cache of rendered responses, or null if responses are not cached
+     */
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
     public ForwardingService getForwarder() {
         return forwarder;
     }
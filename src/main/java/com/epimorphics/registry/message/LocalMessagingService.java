@@ -21,56 +21,465 @@
 
 package com.epimorphics.registry.message;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.epimorphics.appbase.core.ComponentBase;
 import com.epimorphics.appbase.core.Shutdown;
+import com.epimorphics.util.EpiException;
 
 /**
- * Trivial, in-process version of a messaging service.
- * Processing is done asychronously on a separate thread.
+ * In-process version of a messaging service.
+ * <p>
+ * Processing is done asynchronously on a pool of threads. Deliveries are queued
+ * in ordered lanes. By default there is one lane per subscriber, so each subscriber
+ * sees the messages in the order they were sent while a slow subscriber doesn't
+ * hold up the others. With ordering set to "target" there is a lane per subscriber
+ * and target URI, so a subscriber may be handed messages for different targets
+ * concurrently and must be thread safe.
+ * </p><p>
+ * The number of queued deliveries is bounded. When the queue is full the overflow
+ * policy determines what happens to a new message. It can block the sender until
+ * there is space, drop the oldest queued delivery from the longest lane, or spill
+ * the delivery to a disk file from which it is reloaded, in order, as the queue drains.
+ * Deliveries from a delivery thread (a subscriber which sends messages) are never blocked.
+ * Spilled deliveries are not retained over a restart.
+ * </p><p>
+ * Optionally, a queued message may be coalesced with a later one for the same target
+ * and operation, so that the subscriber only sees the later one. This loses the
+ * intermediate payloads, so is only appropriate where subscribers just need to know
+ * the latest state.
+ * </p>
+ * Configuration parameters are:
+ * <ul>
+ *   <li>threads - size of the delivery thread pool, default 4, a value of 1 gives the old single threaded behaviour</li>
+ *   <li>ordering - "subscriber" (default) or "target"</li>
+ *   <li>capacity - maximum number of queued deliveries, default 10000</li>
+ *   <li>overflow - "block" (default), "drop-oldest" or "spill"</li>
+ *   <li>spillDir - directory for the spill file, defaults to the system temporary directory</li>
+ *   <li>coalesce - if true coalesce queued messages for the same target and operation, default false</li>
+ * </ul>
  *
  * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
  */
 public class LocalMessagingService extends ComponentBase implements MessagingService, Shutdown {
-    protected ExecutorService executor = Executors.newSingleThreadExecutor();
-//                                 new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
-    List<Process> processors = new ArrayList<>();
+    static final Logger log = LoggerFactory.getLogger( LocalMessagingService.class );
+
+    public static final String ORDER_BY_SUBSCRIBER = "subscriber";
+    public static final String ORDER_BY_TARGET = "target";
+    public static final String OVERFLOW_BLOCK = "block";
+    public static final String OVERFLOW_DROP_OLDEST = "drop-oldest";
+    public static final String OVERFLOW_SPILL = "spill";
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    /** Number of deliveries a lane makes before yielding its thread to other lanes */
+    protected static final int LANE_BATCH = 50;
+
+    protected int threads = DEFAULT_THREADS;
+    protected boolean orderByTarget = false;
+    protected int capacity = DEFAULT_CAPACITY;
+    protected String overflow = OVERFLOW_BLOCK;
+    protected File spillDir;
+    protected boolean coalesce = false;
+    protected ExecutorService executor;
+    protected List<Process> processors = new CopyOnWriteArrayList<>();
+
+    // Lanes with queued or in progress deliveries, the map's lock guards all the queue state
+    protected final Map<Object, Lane> lanes = new HashMap<>();
+    protected int queueDepth = 0;
+    protected int maxQueueDepth = 0;
+    protected int blocked = 0;
+    protected MessageSpill spill;
+
+    protected final AtomicLong delivered = new AtomicLong();
+    protected final AtomicLong failures = new AtomicLong();
+    protected final AtomicLong dropped = new AtomicLong();
+    protected final AtomicLong spilled = new AtomicLong();
+    protected final AtomicLong coalesced = new AtomicLong();
+    protected final AtomicLong totalLatency = new AtomicLong();
+    protected final AtomicLong maxLatency = new AtomicLong();
 
-    static class Task implements Runnable {
+    static class Task {
         Message message;
         Process processor;
+        int subscriber;
+        long queued = System.nanoTime();
 
-        public Task(Message message, Process processor) {
+        public Task(Message message, Process processor, int subscriber) {
             this.message = message;
             this.processor = processor;
+            this.subscriber = subscriber;
+        }
+    }
+
+    static class DeliveryThread extends Thread {
+        DeliveryThread(Runnable r, String name) {
+            super(r, name);
+            setDaemon(true);
+        }
+    }
+
+    /**
+     * Queue of deliveries which must be made in order. A lane is scheduled
+     * on the pool when it is created and removes itself once it is empty.
+     * Tasks are indexed by target and operation when coalescing, otherwise by themselves.
+     */
+    class Lane implements Runnable {
+        final Object key;
+        final LinkedHashMap<Object, Task> tasks = new LinkedHashMap<>();
+
+        Lane(Object key) {
+            this.key = key;
+        }
+
+        Task poll() {
+            Iterator<Task> i = tasks.values().iterator();
+            if (i.hasNext()) {
+                Task task = i.next();
+                i.remove();
+                return task;
+            }
+            return null;
         }
 
         @Override
         public void run() {
-            processor.processMessage(message);
+            for (int i = 0; i < LANE_BATCH; i++) {
+                Task task;
+                synchronized (lanes) {
+                    task = poll();
+                    if (task == null) {
+                        lanes.remove(key);
+                        return;
+                    }
+                }
+                deliver(task);
+            }
+            // Still more to do, requeue to give other lanes a turn
+            getExecutor().execute(this);
+        }
+    }
+
+    public void setThreads(long threads) {
+        if (threads < 1) {
+            throw new EpiException("Messaging service needs at least one thread");
         }
+        this.threads = (int) threads;
+    }
+
+    public void setOrdering(String ordering) {
+        if (ORDER_BY_TARGET.equals(ordering)) {
+            orderByTarget = true;
+        } else if (ORDER_BY_SUBSCRIBER.equals(ordering)) {
+            orderByTarget = false;
+        } else {
+            throw new EpiException("Unrecognized message ordering: " + ordering);
+        }
+    }
+
+    public void setCapacity(long capacity) {
+        if (capacity < 1) {
+            throw new EpiException("Messaging queue capacity must be at least one");
+        }
+        this.capacity = (int) capacity;
+    }
+
+    public void setOverflow(String overflow) {
+        if (!overflow.equals(OVERFLOW_BLOCK) && !overflow.equals(OVERFLOW_DROP_OLDEST) && !overflow.equals(OVERFLOW_SPILL)) {
+            throw new EpiException("Unrecognized message queue overflow policy: " + overflow);
+        }
+        this.overflow = overflow;
+    }
+
+    public void setSpillDir(String dir) {
+        this.spillDir = new File( expandFileLocation(dir) );
+    }
+
+    public void setCoalesce(boolean coalesce) {
+        this.coalesce = coalesce;
+    }
+
+    protected synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new DeliveryThread(r, "registry-messaging-" + count.incrementAndGet());
+                }
+            });
+        }
+        return executor;
     }
 
     @Override
-    public synchronized void sendMessage(Message message) {
+    public void sendMessage(Message message) {
+        int subscriber = 0;
         for (Process p : processors) {
-            executor.execute( new Task(message, p) );
+            enqueue( new Task(message, p, subscriber++) );
+        }
+    }
+
+    protected void enqueue(Task task) {
+        Lane start = null;
+        synchronized (lanes) {
+            if (spill != null && !spill.isEmpty()) {
+                // Keep behind the deliveries which have already been spilled
+                spill(task);
+                return;
+            }
+            if (coalesce(task)) {
+                return;
+            }
+            while (queueDepth >= capacity) {
+                if (overflow.equals(OVERFLOW_SPILL)) {
+                    spill(task);
+                    return;
+                } else if (overflow.equals(OVERFLOW_DROP_OLDEST)) {
+                    if (!dropOldest()) break;
+                } else {
+                    if (Thread.currentThread() instanceof DeliveryThread) break;
+                    try {
+                        blocked++;
+                        lanes.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    } finally {
+                        blocked--;
+                    }
+                }
+            }
+            start = add(task);
+        }
+        if (start != null) {
+            getExecutor().execute(start);
         }
     }
 
+    private Object laneKey(Task task) {
+        return orderByTarget ? Arrays.asList(task.processor, task.message.getTarget()) : task.processor;
+    }
+
+    private Object taskKey(Task task) {
+        return coalesce ? Arrays.asList(task.message.getTarget(), task.message.getOperation()) : task;
+    }
+
+    // Add a task to its lane, returns the lane if it is new and needs scheduling
+    private Lane add(Task task) {
+        Object key = laneKey(task);
+        Lane lane = lanes.get(key);
+        Lane start = null;
+        if (lane == null) {
+            lane = new Lane(key);
+            lanes.put(key, lane);
+            start = lane;
+        }
+        lane.tasks.put(taskKey(task), task);
+        queueDepth++;
+        maxQueueDepth = Math.max(queueDepth, maxQueueDepth);
+        return start;
+    }
+
+    // Replace any queued delivery of an equivalent message, moving it to the back of the lane
+    private boolean coalesce(Task task) {
+        if (coalesce) {
+            Lane lane = lanes.get( laneKey(task) );
+            if (lane != null) {
+                Object key = taskKey(task);
+                Task old = lane.tasks.remove(key);
+                if (old != null) {
+                    task.queued = old.queued;
+                    lane.tasks.put(key, task);
+                    coalesced.incrementAndGet();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean dropOldest() {
+        Lane longest = null;
+        for (Lane lane : lanes.values()) {
+            if (longest == null || lane.tasks.size() > longest.tasks.size()) {
+                longest = lane;
+            }
+        }
+        if (longest == null || longest.tasks.isEmpty()) {
+            // Everything is in progress, nothing to drop
+            return false;
+        }
+        Task task = longest.poll();
+        queueDepth--;
+        if (dropped.incrementAndGet() % 1000 == 1) {
+            log.warn("Message queue overflow, dropped message on " + task.message.getTarget() + " (" + dropped.get() + " dropped in total)");
+        }
+        return true;
+    }
+
+    private void spill(Task task) {
+        if (spill == null) {
+            File dir = spillDir != null ? spillDir : new File( System.getProperty("java.io.tmpdir") );
+            log.info("Message queue overflow, spilling to " + dir);
+            spill = new MessageSpill(dir);
+        }
+        spill.add(task.subscriber, task.message);
+        spilled.incrementAndGet();
+    }
+
+    protected void deliver(Task task) {
+        try {
+            task.processor.processMessage(task.message);
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            log.error("Failed to process message " + task.message.getOperation() + " on " + task.message.getTarget(), e);
+        } finally {
+            long latency = System.nanoTime() - task.queued;
+            delivered.incrementAndGet();
+            totalLatency.addAndGet(latency);
+            maxLatency.accumulateAndGet(latency, Math::max);
+            for (Lane lane : completed()) {
+                getExecutor().execute(lane);
+            }
+        }
+    }
+
+    // Record completion of a delivery, refilling the queue from any spilled deliveries
+    private List<Lane> completed() {
+        List<Lane> start = new ArrayList<>();
+        synchronized (lanes) {
+            queueDepth--;
+            if (blocked > 0) {
+                lanes.notifyAll();
+            }
+            while (spill != null && !spill.isEmpty() && queueDepth < capacity) {
+                MessageSpill.Record record = spill.poll();
+                Task task = new Task(record.message, processors.get(record.subscriber), record.subscriber);
+                if (!coalesce(task)) {
+                    Lane lane = add(task);
+                    if (lane != null) {
+                        start.add(lane);
+                    }
+                }
+            }
+        }
+        return start;
+    }
+
     @Override
-    public synchronized void processMessages(Process process) {
+    public void processMessages(Process process) {
         processors.add(process);
     }
 
-    @Override
-    public void shutdown() {
-        executor.shutdown();
+    /**
+     * Number of deliveries queued or in progress, excluding any spilled to disk
+     */
+    public int getQueueDepth() {
+        synchronized (lanes) {
+            return queueDepth;
+        }
+    }
+
+    /**
+     * Largest number of deliveries that have been queued at one time
+     */
+    public int getMaxQueueDepth() {
+        synchronized (lanes) {
+            return maxQueueDepth;
+        }
+    }
+
+    /**
+     * Number of deliveries currently spilled to disk
+     */
+    public long getSpillDepth() {
+        synchronized (lanes) {
+            return spill == null ? 0 : spill.size();
+        }
+    }
+
+    /**
+     * Number of deliveries completed, including failed ones
+     */
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    /**
+     * Number of deliveries where the subscriber threw an exception
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Number of deliveries dropped due to queue overflow
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Number of deliveries which have been spilled to disk due to queue overflow
+     */
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+    /**
+     * Number of deliveries replaced by a later message for the same target
+     */
+    public long getCoalesced() {
+        return coalesced.get();
     }
 
+    /**
+     * Mean time from a message being sent to a subscriber finishing processing it, in milliseconds
+     */
+    public double getMeanLatency() {
+        long n = delivered.get();
+        return n == 0 ? 0 : totalLatency.get() / (n * 1e6);
+    }
+
+    /**
+     * Largest time from a message being sent to a subscriber finishing processing it, in milliseconds
+     */
+    public double getMaxLatency() {
+        return maxLatency.get() / 1e6;
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        synchronized (lanes) {
+            if (spill != null) {
+                if (!spill.isEmpty()) {
+                    log.warn("Discarding " + spill.size() + " spilled messages on shutdown");
+                }
+                spill.close();
+                spill = null;
+            }
+        }
+    }
 
 }
@@ -0,0 +1,217 @@
+/******************************************************************
+ * File:        MessageSpill.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.message;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.epimorphics.util.EpiException;
+
+/**
+ * Disk backed FIFO of pending message deliveries, used by the LocalMessagingService
+ * to hold deliveries which don't fit in its in-memory queue. Model payloads are
+ * stored as N-Triples. The file is truncated each time the queue empties.
+ * Not thread safe, callers should synchronize.
+ */
+public class MessageSpill {
+    static final Logger log = LoggerFactory.getLogger( MessageSpill.class );
+
+    static final byte NO_PAYLOAD = 0;
+    static final byte STRING_PAYLOAD = 1;
+    static final byte MODEL_PAYLOAD = 2;
+
+    /**
+     * A spilled delivery
+     */
+    public static class Record {
+        public final int subscriber;
+        public final Message message;
+
+        public Record(int subscriber, Message message) {
+            this.subscriber = subscriber;
+            this.message = message;
+        }
+    }
+
+    protected File file;
+    protected DataOutputStream out;
+    protected DataInputStream in;
+    protected long written = 0;
+    protected long read = 0;
+
+    /**
+     * @param dir directory in which to create the spill file
+     */
+    public MessageSpill(File dir) {
+        try {
+            dir.mkdirs();
+            file = File.createTempFile("messages", ".spill", dir);
+            file.deleteOnExit();
+            out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream(file) ) );
+        } catch (IOException e) {
+            throw new EpiException("Failed to create message spill file in " + dir, e);
+        }
+    }
+
+    public boolean isEmpty() {
+        return read == written;
+    }
+
+    /**
+     * Number of deliveries waiting in the spill file
+     */
+    public long size() {
+        return written - read;
+    }
+
+    /**
+     * Append a delivery of the given message to the given subscriber
+     */
+    public void add(int subscriber, Message message) {
+        try {
+            out.writeInt(subscriber);
+            writeString(message.target);
+            writeString(message.entity);
+            writeString(message.operation);
+            String[] types = message.types == null ? new String[0] : message.types;
+            out.writeInt(types.length);
+            for (String type : types) {
+                writeString(type);
+            }
+            if (message.message instanceof Model) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                RDFDataMgr.write(bytes, (Model)message.message, Lang.NTRIPLES);
+                out.writeByte(MODEL_PAYLOAD);
+                writeString( bytes.toString(StandardCharsets.UTF_8.name()) );
+            } else if (message.message instanceof String) {
+                out.writeByte(STRING_PAYLOAD);
+                writeString( (String)message.message );
+            } else {
+                if (message.message != null) {
+                    log.warn("Dropping unsupported payload from spilled message on " + message.target);
+                }
+                out.writeByte(NO_PAYLOAD);
+            }
+            written++;
+        } catch (IOException e) {
+            throw new EpiException("Failed to write to message spill file " + file, e);
+        }
+    }
+
+    /**
+     * Remove and return the oldest delivery, or null if there are none
+     */
+    public Record poll() {
+        if (isEmpty()) {
+            return null;
+        }
+        try {
+            out.flush();
+            if (in == null) {
+                in = new DataInputStream( new BufferedInputStream( new FileInputStream(file) ) );
+            }
+            int subscriber = in.readInt();
+            Message message = new Message();
+            message.target = readString();
+            message.entity = readString();
+            message.operation = readString();
+            message.types = new String[ in.readInt() ];
+            for (int i = 0; i < message.types.length; i++) {
+                message.types[i] = readString();
+            }
+            byte payload = in.readByte();
+            if (payload == MODEL_PAYLOAD) {
+                Model model = ModelFactory.createDefaultModel();
+                RDFDataMgr.read(model, new ByteArrayInputStream( readString().getBytes(StandardCharsets.UTF_8) ), Lang.NTRIPLES);
+                message.message = model;
+            } else if (payload == STRING_PAYLOAD) {
+                message.message = readString();
+            }
+            read++;
+            if (isEmpty()) {
+                reset();
+            }
+            return new Record(subscriber, message);
+        } catch (IOException e) {
+            throw new EpiException("Failed to read from message spill file " + file, e);
+        }
+    }
+
+    /**
+     * Close and remove the spill file
+     */
+    public void close() {
+        try {
+            out.close();
+            if (in != null) {
+                in.close();
+            }
+        } catch (IOException e) {
+            log.warn("Problem closing message spill file", e);
+        }
+        file.delete();
+    }
+
+    private void reset() throws IOException {
+        in.close();
+        in = null;
+        out.close();
+        out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream(file) ) );
+        read = written = 0;
+    }
+
+    // Strings may be whole serialized models so can't use writeUTF
+    private void writeString(String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private String readString() throws IOException {
+        int len = in.readInt();
+        if (len < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,27 +1,33 @@
 package com.epimorphics.registry.notification;
 
 import com.epimorphics.appbase.core.App;
+import com.epimorphics.appbase.core.Shutdown;
 import com.epimorphics.appbase.core.Startup;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.URLEncoder;
-import java.time.Instant;
-import java.util.*;
-
-public class BacklogNotificationAgent implements NotificationAgent, Startup {
+import java.util.Arrays;
+
+/**
+ * Wraps another notification agent, keeping notifications which it fails to send in a
+ * durable backlog. The backlog is drained, in order and in batches, before each
+ * subsequent notification is sent, and survives restarts.
+ */
+public class BacklogNotificationAgent implements NotificationAgent, Startup, Shutdown {
     private final Logger log = LoggerFactory.getLogger(BacklogNotificationAgent.class);
-    private final Queue<String> queue = new LinkedList<>();
     private ObjectMapper mapper = new ObjectMapper();
 
+    static final int DEFAULT_BATCH_SIZE = 100;
+
     private File location = new File("/var/opt/ldregistry/notification/backlog");
     private Long limit;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private boolean sync = false;
     private NotificationAgent agent;
+    private NotificationLog backlog;
 
     public void setLocation(String location) {
         this.location = new File(location);
@@ -31,23 +37,52 @@ public class BacklogNotificationAgent implements NotificationAgent, Startup {
         this.limit = limit;
     }
 
+    public void setBatchSize(Long batchSize) {
+        this.batchSize = batchSize.intValue();
+    }
+
+    /**
+     * If true each backlog entry is forced to disk as it is written
+     */
+    public void setSync(Boolean sync) {
+        this.sync = sync;
+    }
+
     public void setAgent(NotificationAgent agent) {
         this.agent = agent;
     }
 
-    @Override public void startup(App app) {
-        if (location.exists()) {
+    @Override public synchronized void startup(App app) {
+        try {
+            backlog = new NotificationLog(location);
+            backlog.setSync(sync);
+            migrateLegacyBacklog();
+            if (!backlog.isEmpty()) {
+                log.info("Notification backlog contains " + backlog.size() + " notifications.");
+            }
+        } catch (IOException ioe) {
+            log.error("Failed to initialize notification backlog.", ioe);
+        }
+    }
+
+    @Override public synchronized void shutdown() {
+        if (backlog != null) {
             try {
-                FileUtils.cleanDirectory(location);
+                backlog.close();
             } catch (IOException ioe) {
-                log.error("Failed to initialize notification backlog.", ioe);
+                log.error("Failed to close notification backlog.", ioe);
             }
-        } else {
-            location.mkdirs();
         }
     }
 
-    @Override public void send(Notification notification) throws Exception {
+    /**
+     * @return The number of notifications waiting in the backlog.
+     */
+    public synchronized long getBacklogDepth() {
+        return backlog == null ? 0 : backlog.size();
+    }
+
+    @Override public synchronized void send(Notification notification) throws Exception {
         try {
             clearBacklog();
             agent.send(notification);
@@ -59,10 +94,11 @@ public class BacklogNotificationAgent implements NotificationAgent, Startup {
     }
 
     private void addToBacklog(Notification notification) {
-        if (limit == null || queue.size() < limit) {
+        if (backlog == null) {
+            log.error("Failed to add notification to backlog - backlog not initialized!");
+        } else if (limit == null || backlog.size() < limit) {
             try {
-                File file = writeToFile(notification);
-                queue.add(file.getAbsolutePath());
+                backlog.append(notification);
             } catch (Exception e) {
                 log.error("Failed to add notification to backlog.", e);
             }
@@ -71,71 +107,50 @@ public class BacklogNotificationAgent implements NotificationAgent, Startup {
         }
     }
 
-    private File writeToFile(Notification notification) throws Exception {
-        Map<String, String> properties = new HashMap<>();
-        properties.put("topics", String.join(",", notification.getTopics()));
-        properties.put("target", notification.getTarget());
-        properties.put("operation", notification.getOperation());
-        String msg = notification.getMessage();
-        if (msg != null) {
-            properties.put("message", notification.getMessage());
-        }
-
-        File file = new File(location, getFileName(notification));
-        mapper.writeValue(file, properties);
-
-        return file;
-    }
-
-    private String getFileName(Notification notification) throws Exception {
-        String timestamp = Instant.now().toString();
-        String target = URLEncoder.encode(notification.getTarget(), "UTF-8");
-        return timestamp + "_" + target;
-    }
-
-    private synchronized void clearBacklog() throws Exception {
-        while (!queue.isEmpty()) {
-            String next = queue.peek();
-            File file = new File(next);
-            Notification notification;
-            try {
-                notification = readFromFile(file);
-            } catch (IOException ioe) {
+    /**
+     * Send the backlog, a batch at a time, consuming each batch as far as it was sent successfully.
+     */
+    private void clearBacklog() throws Exception {
+        while (backlog != null && !backlog.isEmpty()) {
+            NotificationLog.Batch batch = backlog.read(batchSize);
+            if (batch.notifications.isEmpty()) {
                 log.error("Failed to read notification from backlog.");
                 return;
             }
-
-            agent.send(notification);
-            queue.remove();
-            file.delete();
+            int sent = 0;
+            try {
+                for (Notification notification : batch.notifications) {
+                    agent.send(notification);
+                    sent++;
+                }
+            } finally {
+                if (sent == batch.notifications.size()) {
+                    backlog.consume(batch);
+                } else if (sent > 0) {
+                    backlog.consume( backlog.read(sent) );
+                }
+            }
         }
     }
 
-    private Notification readFromFile(File file) throws IOException {
-        JsonNode json = mapper.readTree(file);
-        return new JsonNotification(json);
-    }
-
-    private static class JsonNotification implements Notification {
-        private final JsonNode json;
-
-        JsonNotification(JsonNode json) {
-            this.json = json;
-        }
-
-        @Override public List<String> getTopics() {
-            String[] values = json.get("topics").asText().split(",");
-            return Arrays.asList(values);
-        }
-
-        @Override public String getMessage() {
-            JsonNode node = json.get("message");
-            if (node != null) {
-                return node.asText();
-            } else return null;
+    /**
+     * Earlier versions kept each backlog entry as a separate JSON file, named so as to sort by time.
+     * Move any such files into the log.
+     */
+    private void migrateLegacyBacklog() throws IOException {
+        File[] files = location.listFiles(f -> f.isFile()
+                && !f.getName().startsWith(NotificationLog.SEGMENT_PREFIX)
+                && !f.getName().startsWith(NotificationLog.CHECKPOINT));
+        if (files == null || files.length == 0) return;
+        Arrays.sort(files);
+        for (File file : files) {
+            try {
+                backlog.append(new NotificationLog.JsonNotification(mapper.readTree(file)));
+                file.delete();
+            } catch (Exception e) {
+                log.error("Failed to migrate notification backlog file " + file, e);
+            }
         }
-
-        @Override public String getTarget() { return json.get("target").asText(); }
-        @Override public String getOperation() { return json.get("operation").asText(); }
+        log.info("Migrated " + files.length + " notifications to the notification backlog log.");
     }
-}
\ No newline at end of file
+}
@@ -1,15 +1,50 @@
 package com.epimorphics.registry.notification;
 
+import com.epimorphics.appbase.core.Shutdown;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.jms.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-public class JmsNotificationAgent implements NotificationAgent {
+/**
+ * Publishes notifications to JMS topics.
+ * <p>
+ * A single long-lived connection is shared by all sends, with a pool of sessions
+ * each of which caches its topic publishers. If a publish fails the connection is
+ * discarded and the publish retried once on a fresh connection.
+ * </p><p>
+ * If batchSize or batchInterval is set then notifications are accumulated and
+ * published in a single transacted session once batchSize have accumulated or
+ * every batchInterval milliseconds, whichever is sooner. A batch which can't be
+ * published is retained and retried with the next one, up to maxPending notifications,
+ * beyond which the oldest are discarded. Batching means that send doesn't report
+ * publication failures, so it should not be combined with the backlog agent.
+ * Notifications sent after shutdown are held in the pending backlog, and so
+ * are not published, rather than failing the sender.
+ * </p>
+ */
+public class JmsNotificationAgent implements NotificationAgent, Shutdown {
     private final Logger log = LoggerFactory.getLogger(JmsNotificationAgent.class);
 
+    static final long DEFAULT_BATCH_INTERVAL = 1000;
+    static final long DEFAULT_MAX_PENDING = 10000;
+
     private TopicConnectionFactory connectionFct;
     private Boolean disableMessageId = true;
+    private long batchSize = 1;
+    private long batchInterval = 0;
+    private long maxPending = DEFAULT_MAX_PENDING;
+
+    private TopicConnection connection;
+    private final Deque<PooledSession> idle = new ArrayDeque<>();
+    private final List<Notification> pending = new ArrayList<>();
+    private ScheduledExecutorService flusher;
+    private boolean stopped = false;
 
     public void setConnectionFactory(TopicConnectionFactory connectionFct) {
         this.connectionFct = connectionFct;
@@ -19,23 +54,238 @@ public class JmsNotificationAgent implements NotificationAgent {
         this.disableMessageId = disableMessageId;
     }
 
+    public void setBatchSize(Long batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setBatchInterval(Long batchInterval) {
+        this.batchInterval = batchInterval;
+    }
+
+    public void setMaxPending(Long maxPending) {
+        this.maxPending = maxPending;
+    }
+
+    private boolean isBatching() {
+        return batchSize > 1 || batchInterval > 0;
+    }
+
     @Override public void send(Notification notification) throws Exception {
         String target = notification.getTarget();
-        String operation = notification.getOperation();
-        String msg = notification.getMessage();
-
         if (connectionFct == null) {
             log.error("Connection factory not configured - unable to send message for target " + target + ".");
+            throw new JMSException("Connection factory not configured");
+        }
+
+        if (isBatching()) {
+            enqueue(notification);
+        } else {
+            try {
+                publish(Collections.singletonList(notification), false);
+            } catch (Exception e) {
+                log.error("Failed to send JMS notification for target: " + target, e);
+                throw e;
+            }
+        }
+    }
+
+    private void enqueue(Notification notification) {
+        boolean full;
+        synchronized (pending) {
+            pending.add(notification);
+            trimPending();
+            full = pending.size() >= batchSize;
+        }
+        ScheduledExecutorService flusher = getFlusher();
+        if (flusher == null) {
+            log.warn("JMS notification agent has been shut down - holding notification for target " + notification.getTarget() + ".");
+        } else if (full) {
+            try {
+                flusher.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                log.warn("JMS notification agent has been shut down - holding notification for target " + notification.getTarget() + ".");
+            }
+        }
+    }
+
+    /**
+     * Return the executor which publishes batches, starting it if need be, or null after shutdown.
+     */
+    private synchronized ScheduledExecutorService getFlusher() {
+        if (stopped) {
+            return null;
+        }
+        if (flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "jms-notification-batch");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = batchInterval > 0 ? batchInterval : DEFAULT_BATCH_INTERVAL;
+            flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        return flusher;
+    }
+
+    private void trimPending() {
+        int excess = (int) (pending.size() - maxPending);
+        if (excess > 0) {
+            log.error("JMS notification backlog is full - discarding " + excess + " notifications.");
+            pending.subList(0, excess).clear();
+        }
+    }
+
+    /**
+     * Publish all accumulated notifications as one transacted batch.
+     * Only called from the flusher thread, or on shutdown once that has stopped, so batches stay in order.
+     */
+    void flush() {
+        List<Notification> batch;
+        synchronized (pending) {
+            if (pending.isEmpty()) return;
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+        try {
+            publish(batch, true);
+            log.debug("Sent batch of " + batch.size() + " JMS notifications");
+        } catch (Exception e) {
+            log.error("Failed to send batch of " + batch.size() + " JMS notifications - will retry.", e);
+            synchronized (pending) {
+                pending.addAll(0, batch);
+                trimPending();
+            }
         }
+    }
 
-        try (TopicConnection connection = connectionFct.createTopicConnection()) {
-            connection.start();
-            TopicSession session = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+    private void publish(List<Notification> notifications, boolean transacted) throws JMSException {
+        try {
+            publishOnce(notifications, transacted);
+        } catch (JMSException e) {
+            log.warn("JMS publish failed, reconnecting: " + e.getMessage());
+            resetConnection();
+            publishOnce(notifications, transacted);
+        }
+    }
 
+    private void publishOnce(List<Notification> notifications, boolean transacted) throws JMSException {
+        PooledSession session = borrowSession(transacted);
+        boolean ok = false;
+        try {
+            for (Notification notification : notifications) {
+                session.publish(notification);
+            }
+            if (transacted) {
+                session.session.commit();
+            }
+            ok = true;
+        } finally {
+            if (ok) {
+                returnSession(session);
+            } else {
+                session.close(transacted);
+            }
+        }
+    }
+
+    private synchronized PooledSession borrowSession(boolean transacted) throws JMSException {
+        PooledSession session = idle.poll();
+        if (session != null) {
+            return session;
+        }
+        if (connection == null) {
+            TopicConnection conn = connectionFct.createTopicConnection();
+            try {
+                conn.setExceptionListener(e -> {
+                    log.warn("JMS connection failed: " + e.getMessage());
+                    resetConnection(conn);
+                });
+                conn.start();
+            } catch (JMSException e) {
+                closeQuietly(conn);
+                throw e;
+            }
+            connection = conn;
+        }
+        int mode = transacted ? Session.SESSION_TRANSACTED : Session.AUTO_ACKNOWLEDGE;
+        return new PooledSession(connection, connection.createTopicSession(transacted, mode));
+    }
+
+    private synchronized void returnSession(PooledSession session) {
+        if (session.connection == connection) {
+            idle.push(session);
+        } else {
+            // Connection has been replaced since this session was created
+            session.close(false);
+        }
+    }
+
+    private synchronized void resetConnection() {
+        resetConnection(connection);
+    }
+
+    private synchronized void resetConnection(TopicConnection failed) {
+        if (failed != null && failed == connection) {
+            idle.clear();
+            closeQuietly(connection);
+            connection = null;
+        }
+    }
+
+    private void closeQuietly(Connection conn) {
+        try {
+            conn.close();
+        } catch (JMSException e) {
+            log.debug("Problem closing JMS connection", e);
+        }
+    }
+
+    @Override public void shutdown() {
+        ScheduledExecutorService f;
+        synchronized (this) {
+            stopped = true;
+            f = flusher;
+        }
+        if (f != null) {
+            f.shutdown();
+            try {
+                f.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flush();
+        }
+        synchronized (this) {
+            if (connection != null) {
+                resetConnection();
+            }
+        }
+    }
+
+    /**
+     * A session together with publishers for each topic it has been used for
+     */
+    private class PooledSession {
+        final TopicConnection connection;
+        final TopicSession session;
+        final Map<String, TopicPublisher> publishers = new HashMap<>();
+
+        PooledSession(TopicConnection connection, TopicSession session) {
+            this.connection = connection;
+            this.session = session;
+        }
+
+        void publish(Notification notification) throws JMSException {
+            String target = notification.getTarget();
+            String operation = notification.getOperation();
+            String msg = notification.getMessage();
             for (String topic: notification.getTopics()) {
-                Topic topicObj = session.createTopic(topic);
-                TopicPublisher producer = session.createPublisher(topicObj);
-                producer.setDisableMessageID(disableMessageId);
+                TopicPublisher producer = publishers.get(topic);
+                if (producer == null) {
+                    producer = session.createPublisher(session.createTopic(topic));
+                    producer.setDisableMessageID(disableMessageId);
+                    publishers.put(topic, producer);
+                }
 
                 Message jmsMsg = session.createTextMessage(msg);
                 jmsMsg.setStringProperty("target", target);
@@ -44,9 +294,17 @@ public class JmsNotificationAgent implements NotificationAgent {
                 log.debug("Sending JMS notification to topic: " + topic + " for target: " + target + ", operation: " + operation + ", message: " + msg);
                 producer.publish(jmsMsg);
             }
-        } catch (Exception e) {
-            log.error("Failed to send JMS notification for target: " + target, e);
-            throw e;
+        }
+
+        void close(boolean rollback) {
+            try {
+                if (rollback) {
+                    session.rollback();
+                }
+                session.close();
+            } catch (JMSException e) {
+                log.debug("Problem closing JMS session", e);
+            }
         }
     }
 }
@@ -27,7 +27,7 @@ public class MonitorRegister implements MonitorConfig, Startup {
     private static final String MONITOR_REGISTER = "/system/monitor"; // relative to base URI
 
     private final Logger log = LoggerFactory.getLogger(MonitorRegister.class);
-    private final List<RegisterMonitor> registers = new ArrayList<>();
+    private volatile PathTrie<RegisterMonitor> monitors = new PathTrie.Builder<RegisterMonitor>().build();
     private List<String> defaultTopics = Collections.emptyList();
     private TopicRegister topicRegister;
 
@@ -50,42 +50,50 @@ public class MonitorRegister implements MonitorConfig, Startup {
     }
 
     @Override public List<String> getTopics(String targetUri) {
-        return registers.stream()
-                .filter(register -> register.monitors(targetUri))
+        return monitors.match(targetUri).stream()
                 .flatMap(register -> register.topics().stream())
                 .distinct()
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Rebuild the monitor index from the monitor register and swap it in, so lookups
+     * in progress continue to see the old configuration.
+     */
     private synchronized void initMonitor(Registry reg) {
-        registers.clear();
+        PathTrie.Builder<RegisterMonitor> builder = new PathTrie.Builder<>();
 
         StoreAPI store = reg.getStore();
         String uri = reg.getBaseURI() + MONITOR_REGISTER;
 
         store.beginSafeRead();
-        Description desc = store.getDescription(uri);
-        if (desc instanceof Register) {
-            Register register = desc.asRegister();
-            List<RegisterEntryInfo> members = register.getMembers();
-            members.forEach(member -> addMonitoredRegister(member, store));
-        } else {
-            log.warn("System register " + uri + " does not exist - unable to monitor changes.");
+        try {
+            Description desc = store.getDescription(uri);
+            if (desc instanceof Register) {
+                Register register = desc.asRegister();
+                List<RegisterEntryInfo> members = register.getMembers();
+                members.forEach(member -> addMonitoredRegister(member, store, builder));
+            } else {
+                log.warn("System register " + uri + " does not exist - unable to monitor changes.");
+            }
+        } finally {
+            store.endSafeRead();
         }
 
-        store.endSafeRead();
+        monitors = builder.build();
     }
 
-    private void addMonitoredRegister(RegisterEntryInfo entry, StoreAPI store) {
+    private void addMonitoredRegister(RegisterEntryInfo entry, StoreAPI store, PathTrie.Builder<RegisterMonitor> builder) {
         Resource root = store.getDescription(entry.getEntityURI()).getRoot();
         if (root.hasProperty(RDF.type, RegistryVocab.MonitorSpec)) {
             String register = getRegisterUri(root);
             if (register != null) {
                 List<String> excludes = getExclusions(root);
                 List<TopicRef> topics = getTopics(root);
-                RegisterMonitor monitor = new RegisterMonitor(register, excludes, topics);
+                RegisterMonitor monitor = new RegisterMonitor(topics);
 
-                registers.add(monitor);
+                builder.include(register, monitor);
+                excludes.forEach(exclude -> builder.exclude(exclude, monitor));
 
                 log.info("Monitoring register: " + register);
             } else {
@@ -138,34 +146,18 @@ public class MonitorRegister implements MonitorConfig, Startup {
     }
 
     private static class RegisterMonitor {
-        private final String register;
-        private final List<String> excludes;
         private final List<TopicRef> topics;
 
-        RegisterMonitor(String register, List<String> excludes, List<TopicRef> topics) {
-            this.register = register;
-            this.excludes = excludes;
+        RegisterMonitor(List<TopicRef> topics) {
             this.topics = topics;
         }
 
-        Boolean monitors(String targetUri) {
-            return isSubRegister(register, targetUri) && !excludes(targetUri);
-        }
-
         List<String> topics() {
             return topics.stream()
                     .map(TopicRef::getName)
                     .filter(Objects::nonNull)
                     .collect(Collectors.toList());
         }
-
-        private Boolean excludes(String targetUri) {
-            return excludes.stream().anyMatch(exclude -> isSubRegister(exclude, targetUri));
-        }
-
-        private Boolean isSubRegister(String parent, String child) {
-            return child.equals(parent) || child.startsWith(parent + "/") || child.replace("/_", "/").equals(parent);
-        }
     }
 
     private interface TopicRef {
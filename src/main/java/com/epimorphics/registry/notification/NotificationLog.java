@@ -0,0 +1,343 @@
+package com.epimorphics.registry.notification;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Durable FIFO log of notifications, stored as a sequence of append-only segment files
+ * together with a checkpoint file recording the position of the oldest unconsumed record.
+ * <p>
+ * Each record is a length, a CRC and a JSON serialization of the notification.
+ * A record which was only partially written when the process stopped is trimmed
+ * from the end of the current segment when the log is reopened. An unreadable record
+ * in an earlier segment is logged and the rest of that segment skipped, with a copy of
+ * the segment kept as a file with a {@value #CORRUPT_SUFFIX} suffix for inspection. Segments are rolled once they exceed the segment size and
+ * deleted once all their records have been consumed. Not thread safe, callers should synchronize.
+ * </p>
+ */
+public class NotificationLog implements Closeable {
+    private final Logger log = LoggerFactory.getLogger(NotificationLog.class);
+
+    static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    static final String SEGMENT_PREFIX = "segment-";
+    static final String SEGMENT_SUFFIX = ".log";
+    static final String CORRUPT_SUFFIX = ".corrupt";
+    static final String CHECKPOINT = "checkpoint";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final File dir;
+    private final long segmentSize;
+    private boolean sync = false;
+
+    private Position head;          // oldest unconsumed record
+    private long writeSegment;
+    private RandomAccessFile writer;
+    private long depth = 0;
+
+    /**
+     * A position within the log
+     */
+    public static class Position {
+        final long segment;
+        final long offset;
+
+        Position(long segment, long offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * A batch of notifications read from the log, together with the position following them
+     */
+    public static class Batch {
+        public final List<Notification> notifications;
+        public final Position next;
+
+        Batch(List<Notification> notifications, Position next) {
+            this.notifications = notifications;
+            this.next = next;
+        }
+    }
+
+    public NotificationLog(File dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public NotificationLog(File dir, long segmentSize) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        dir.mkdirs();
+        open();
+    }
+
+    /**
+     * If true then force each record to disk as it is appended
+     */
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    private void open() throws IOException {
+        List<Long> segments = listSegments();
+        head = readCheckpoint();
+        if (head == null || !segments.contains(head.segment)) {
+            head = new Position(segments.isEmpty() ? 0 : segments.get(0), 0);
+        }
+        for (long segment : segments) {
+            if (segment < head.segment) {
+                // Consumed but not yet deleted when we stopped
+                segmentFile(segment).delete();
+            }
+        }
+        writeSegment = segments.isEmpty() ? head.segment : segments.get(segments.size() - 1);
+
+        // Count the unconsumed records, and trim any partial record from the end of the log
+        for (long segment = head.segment; segment <= writeSegment; segment++) {
+            File file = segmentFile(segment);
+            if (!file.exists()) continue;
+            long offset = segment == head.segment ? head.offset : 0;
+            long length;
+            try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                while (readRecord(in, offset) != null) {
+                    offset = in.getFilePointer();
+                    depth++;
+                }
+                length = in.length();
+            }
+            if (offset < length) {
+                if (segment == writeSegment) {
+                    log.warn("Discarding incomplete record at end of notification backlog segment " + file);
+                    truncate(file, offset);
+                } else {
+                    skipCorrupt(segment, offset);
+                }
+            }
+        }
+        writer = new RandomAccessFile(segmentFile(writeSegment), "rw");
+        writer.seek(writer.length());
+    }
+
+    /**
+     * Number of unconsumed notifications in the log
+     */
+    public long size() {
+        return depth;
+    }
+
+    public boolean isEmpty() {
+        return depth == 0;
+    }
+
+    /**
+     * Append a notification to the end of the log
+     */
+    public void append(Notification notification) throws IOException {
+        byte[] body = mapper.writeValueAsBytes(toJson(notification));
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length + 8);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(body.length);
+        out.writeInt((int) crc.getValue());
+        out.write(body);
+        writer.write(bytes.toByteArray());
+        if (sync) {
+            writer.getFD().sync();
+        }
+        depth++;
+        if (writer.length() >= segmentSize) {
+            writer.close();
+            writeSegment++;
+            writer = new RandomAccessFile(segmentFile(writeSegment), "rw");
+        }
+    }
+
+    /**
+     * Read, but do not consume, up to max notifications from the head of the log
+     */
+    public Batch read(int max) throws IOException {
+        List<Notification> notifications = new ArrayList<>();
+        long segment = head.segment;
+        long offset = head.offset;
+        while (notifications.size() < max && segment <= writeSegment) {
+            File file = segmentFile(segment);
+            if (file.exists()) {
+                try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                    JsonNode record;
+                    while (notifications.size() < max && (record = readRecord(in, offset)) != null) {
+                        notifications.add(new JsonNotification(record));
+                        offset = in.getFilePointer();
+                    }
+                    if (notifications.size() >= max) break;
+                    if (segment != writeSegment && offset < in.length()) {
+                        skipCorrupt(segment, offset);
+                    }
+                }
+            }
+            if (segment == writeSegment) break;
+            segment++;
+            offset = 0;
+        }
+        return new Batch(notifications, new Position(segment, offset));
+    }
+
+    /**
+     * Consume the records in a batch previously returned by {@link #read(int)}, and
+     * checkpoint the new head of the log.
+     */
+    public void consume(Batch batch) throws IOException {
+        if (batch.notifications.isEmpty()) return;
+        Position next = batch.next;
+        writeCheckpoint(next);
+        for (long segment = head.segment; segment < next.segment; segment++) {
+            segmentFile(segment).delete();
+        }
+        head = next;
+        depth -= batch.notifications.size();
+    }
+
+    @Override public void close() throws IOException {
+        writer.close();
+    }
+
+    private JsonNode readRecord(RandomAccessFile in, long offset) throws IOException {
+        long length = in.length();
+        if (offset + 8 > length) return null;
+        in.seek(offset);
+        int size = in.readInt();
+        int check = in.readInt();
+        if (size < 0 || offset + 8 + size > length) return null;
+        byte[] body = new byte[size];
+        in.readFully(body);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != check) {
+            log.error("Corrupt record in notification backlog at offset " + offset);
+            return null;
+        }
+        return mapper.readTree(body);
+    }
+
+    /**
+     * Skip the unreadable remainder of a completed segment, keeping a copy of the segment
+     * so that no data is lost when the segment is deleted after being consumed.
+     */
+    private void skipCorrupt(long segment, long offset) throws IOException {
+        File file = segmentFile(segment);
+        File copy = new File(dir, file.getName() + CORRUPT_SUFFIX);
+        if (!copy.exists()) {
+            log.error("Unreadable record at offset " + offset + " in notification backlog segment " + file
+                    + ", skipping the rest of the segment, a copy is kept in " + copy);
+            Files.copy(file.toPath(), copy.toPath());
+        }
+    }
+
+    private void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(length);
+        }
+    }
+
+    private List<Long> listSegments() {
+        List<Long> segments = new ArrayList<>();
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        log.warn("Ignoring unexpected file in notification backlog: " + name);
+                    }
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private File segmentFile(long segment) {
+        return new File(dir, String.format("%s%016d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private Position readCheckpoint() {
+        File file = new File(dir, CHECKPOINT);
+        if (!file.exists()) return null;
+        try {
+            String[] parts = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim().split(" ");
+            return new Position(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+        } catch (Exception e) {
+            log.error("Unreadable notification backlog checkpoint, replaying from the oldest segment", e);
+            return null;
+        }
+    }
+
+    private void writeCheckpoint(Position position) throws IOException {
+        File tmp = new File(dir, CHECKPOINT + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write((position.segment + " " + position.offset).getBytes(StandardCharsets.UTF_8));
+            if (sync) {
+                out.getFD().sync();
+            }
+        }
+        Files.move(tmp.toPath(), new File(dir, CHECKPOINT).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private ObjectNode toJson(Notification notification) {
+        ObjectNode json = mapper.createObjectNode();
+        ArrayNode topics = json.putArray("topics");
+        for (String topic : notification.getTopics()) {
+            topics.add(topic);
+        }
+        json.put("target", notification.getTarget());
+        json.put("operation", notification.getOperation());
+        String msg = notification.getMessage();
+        if (msg != null) {
+            json.put("message", msg);
+        }
+        return json;
+    }
+
+    static class JsonNotification implements Notification {
+        private final JsonNode json;
+
+        JsonNotification(JsonNode json) {
+            this.json = json;
+        }
+
+        @Override public List<String> getTopics() {
+            JsonNode topics = json.get("topics");
+            if (topics.isArray()) {
+                List<String> values = new ArrayList<>();
+                for (JsonNode topic : topics) {
+                    values.add(topic.asText());
+                }
+                return values;
+            }
+            // Legacy format, comma separated
+            return Arrays.asList(topics.asText().split(","));
+        }
+
+        @Override public String getMessage() {
+            JsonNode node = json.get("message");
+            if (node != null) {
+                return node.asText();
+            } else return null;
+        }
+
+        @Override public String getTarget() { return json.get("target").asText(); }
+        @Override public String getOperation() { return json.get("operation").asText(); }
+    }
+}
@@ -0,0 +1,139 @@
+package com.epimorphics.registry.notification;
+
+import java.util.*;
+
+/**
+ * Immutable index of values associated with URI path prefixes, each of which may also
+ * be excluded from parts of its path. Built once via a {@link Builder} and then safe to
+ * share between threads. Matching a URI costs time proportional to its number of path
+ * segments, plus the number of values found.
+ * <p>
+ * A value matches a URI if the URI is, or is below, one of the value's included paths and
+ * is not, and is not below, any of its excluded paths. A register item URI (last segment
+ * starting with "_") is also treated as equal to the path of the entity it registers.
+ * </p>
+ * @param <T> the type of the values stored
+ */
+public class PathTrie<T> {
+    private final Node root;
+    private final List<T> values;
+
+    private PathTrie(Node root, List<T> values) {
+        this.root = root;
+        this.values = values;
+    }
+
+    /**
+     * @return The values which match the given URI, in the order they were first added to the builder.
+     */
+    public List<T> match(String uri) {
+        BitSet included = new BitSet(values.size());
+        BitSet excluded = new BitSet(values.size());
+
+        Node node = root;
+        for (String segment : segments(uri)) {
+            node = node.children.get(segment);
+            if (node == null) break;
+            node.addTo(included, excluded);
+        }
+
+        // Exact match of the item URI against an entity path
+        String entityUri = uri.replace("/_", "/");
+        if (!entityUri.equals(uri)) {
+            Node exact = find(entityUri);
+            if (exact != null) {
+                exact.addTo(included, excluded);
+            }
+        }
+
+        included.andNot(excluded);
+        List<T> result = new ArrayList<>(included.cardinality());
+        for (int i = included.nextSetBit(0); i >= 0; i = included.nextSetBit(i + 1)) {
+            result.add(values.get(i));
+        }
+        return result;
+    }
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    private Node find(String uri) {
+        Node node = root;
+        for (String segment : segments(uri)) {
+            node = node.children.get(segment);
+            if (node == null) return null;
+        }
+        return node;
+    }
+
+    private static String[] segments(String uri) {
+        return uri.split("/", -1);
+    }
+
+    private static class Node {
+        final Map<String, Node> children = new HashMap<>();
+        int[] includes = new int[0];
+        int[] excludes = new int[0];
+
+        void addTo(BitSet included, BitSet excluded) {
+            for (int i : includes) included.set(i);
+            for (int i : excludes) excluded.set(i);
+        }
+    }
+
+    /**
+     * Accumulates the paths for each value. Not thread safe, and should be discarded after building.
+     */
+    public static class Builder<T> {
+        private final Node root = new Node();
+        private final List<T> values = new ArrayList<>();
+        private final Map<T, Integer> index = new IdentityHashMap<>();
+
+        /**
+         * Associate a value with the given path and everything below it.
+         */
+        public Builder<T> include(String path, T value) {
+            Node node = node(path);
+            node.includes = append(node.includes, indexOf(value));
+            return this;
+        }
+
+        /**
+         * Exclude the given path, and everything below it, from matching the value.
+         */
+        public Builder<T> exclude(String path, T value) {
+            Node node = node(path);
+            node.excludes = append(node.excludes, indexOf(value));
+            return this;
+        }
+
+        public PathTrie<T> build() {
+            return new PathTrie<>(root, Collections.unmodifiableList(values));
+        }
+
+        private int indexOf(T value) {
+            Integer i = index.get(value);
+            if (i == null) {
+                i = values.size();
+                values.add(value);
+                index.put(value, i);
+            }
+            return i;
+        }
+
+        private Node node(String path) {
+            Node node = root;
+            for (String segment : segments(path)) {
+                node = node.children.computeIfAbsent(segment, s -> new Node());
+            }
+            return node;
+        }
+
+        private static int[] append(int[] array, int value) {
+            int[] result = Arrays.copyOf(array, array.length + 1);
+            result[array.length] = value;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/******************************************************************
+ * File:        BackupManifest.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.store;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jena.atlas.json.JSON;
+import org.apache.jena.atlas.json.JsonArray;
+import org.apache.jena.atlas.json.JsonObject;
+import org.apache.jena.atlas.json.JsonValue;
+
+import com.epimorphics.util.EpiException;
+
+/**
+ * Describes a segmented backup, as written to the manifest file in its directory.
+ * A backup without a manifest is incomplete and is ignored.
+ */
+public class BackupManifest {
+    public static final String FULL = "full";
+    public static final String INCREMENTAL = "incremental";
+
+    protected static final int FORMAT = 1;
+
+    protected File dir;
+    protected String type;
+    protected long snapshot;
+    protected String base;
+    protected long since;
+    protected List<String> segments;
+    protected long quads;
+
+    /**
+     * @param dir the directory containing the backup
+     * @param type the type of the backup, {@link #FULL} or {@link #INCREMENTAL}
+     * @param snapshot the time at which the backed up state was current
+     * @param base the name of the backup directory an incremental backup is relative to
+     * @param since an incremental backup includes all graphs changed since this time
+     * @param segments the names of the files making up the backup
+     * @param quads the total number of triples and quads in the segments
+     */
+    public BackupManifest(File dir, String type, long snapshot, String base, long since, List<String> segments, long quads) {
+        this.dir = dir;
+        this.type = type;
+        this.snapshot = snapshot;
+        this.base = base;
+        this.since = since;
+        this.segments = segments;
+        this.quads = quads;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    public boolean isIncremental() {
+        return INCREMENTAL.equals(type);
+    }
+
+    public long getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Return the backup an incremental backup is relative to
+     */
+    public BackupManifest getBase() throws IOException {
+        if (base == null) return null;
+        BackupManifest manifest = read( new File(dir.getParentFile(), base) );
+        if (manifest == null) {
+            throw new EpiException("Missing or incomplete base backup: " + base);
+        }
+        return manifest;
+    }
+
+    public long getSince() {
+        return since;
+    }
+
+    public List<File> getSegments() {
+        List<File> files = new ArrayList<>(segments.size());
+        for (String segment : segments) {
+            files.add( new File(dir, segment) );
+        }
+        return files;
+    }
+
+    public File getGraphList() {
+        return new File(dir, BackupService.GRAPHS_FILE);
+    }
+
+    public long getQuads() {
+        return quads;
+    }
+
+    /**
+     * Write the manifest into the backup directory, replacing it atomically so that
+     * a backup is only ever seen as complete once all its segments are written
+     */
+    public void write() throws IOException {
+        JsonObject json = new JsonObject();
+        json.put("format", FORMAT);
+        json.put("type", type);
+        json.put("snapshot", snapshot);
+        if (base != null) {
+            json.put("base", base);
+            json.put("since", since);
+        }
+        JsonArray files = new JsonArray();
+        for (String segment : segments) {
+            files.add(segment);
+        }
+        json.put("segments", files);
+        json.put("quads", quads);
+
+        File temp = new File(dir, BackupService.MANIFEST + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            JSON.write(out, json);
+        }
+        Files.move(temp.toPath(), new File(dir, BackupService.MANIFEST).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Read the manifest of a backup, returns null if the backup is incomplete
+     */
+    public static BackupManifest read(File dir) throws IOException {
+        File file = new File(dir, BackupService.MANIFEST);
+        if (!file.exists()) return null;
+        JsonObject json;
+        try (InputStream in = new FileInputStream(file)) {
+            json = JSON.parse(in);
+        }
+        if (json.get("format").getAsNumber().value().intValue() != FORMAT) {
+            throw new EpiException("Unsupported backup format in " + file);
+        }
+        List<String> segments = new ArrayList<>();
+        for (JsonValue segment : json.get("segments").getAsArray()) {
+            segments.add( segment.getAsString().value() );
+        }
+        return new BackupManifest(dir,
+                json.get("type").getAsString().value(),
+                json.get("snapshot").getAsNumber().value().longValue(),
+                json.hasKey("base") ? json.get("base").getAsString().value() : null,
+                json.hasKey("since") ? json.get("since").getAsNumber().value().longValue() : -1,
+                segments,
+                json.get("quads").getAsNumber().value().longValue());
+    }
+
+    /**
+     * Find the most recent complete segmented backup in a backup directory, or null if there is none
+     */
+    public static BackupManifest findLatest(File backupDir) throws IOException {
+        BackupManifest latest = null;
+        File[] dirs = backupDir.listFiles();
+        if (dirs == null) return null;
+        for (File dir : dirs) {
+            if (dir.isDirectory()) {
+                BackupManifest manifest = read(dir);
+                if (manifest != null && (latest == null || manifest.snapshot > latest.snapshot)) {
+                    latest = manifest;
+                }
+            }
+        }
+        return latest;
+    }
+}
@@ -10,36 +10,86 @@
 package com.epimorphics.registry.store;
 
 import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPOutputStream;
 
+import org.apache.jena.datatypes.xsd.XSDDateTime;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.epimorphics.registry.vocab.Version;
+import com.epimorphics.util.EpiException;
 import com.epimorphics.util.FileUtil;
+import com.epimorphics.vocabs.Time;
 
 /**
  * Utility to perform backups on the data store.
  * This implementation is specific to the RDF-backed StoreBaseImpl.
+ * <p>
+ * With a single thread a full backup is written as one gzipped N-Quads file.
+ * With more threads the backup is written as a directory of gzipped segments, the
+ * default graph in one and the named graphs partitioned across the others, each
+ * written by its own worker in its own read transaction. The workers' transactions
+ * are all started while a write lock is held, so they see the same state of the store,
+ * and each finishes as soon as its segment is written.
+ * </p><p>
+ * An incremental backup is a segmented backup of the default graph plus just those
+ * named graphs whose versions started since the last segmented backup, together with
+ * the names of all the graphs present so that a restore can drop deleted ones.
+ * Each segmented backup has a manifest, written last, recording its type and the
+ * backup it is based on. Use {@link RestoreBackup} to restore either kind.
+ * </p>
  * 
  * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
  */
 public class BackupService {
     static final Logger log = LoggerFactory.getLogger( BackupService.class );
     public static final ExecutorService service = Executors.newFixedThreadPool(1) ;
-    
+
+    public static final String MANIFEST = "manifest.json";
+    public static final String GRAPHS_FILE = "graphs.txt.gz";
+    public static final String DEFAULT_SEGMENT = "default.nq.gz";
+    public static final String SEGMENT_FORMAT = "segment-%03d.nq.gz";
+
+    /** Graphs whose versions started this long before the previous backup are included again, covers timestamps taken just before a transaction starts */
+    public static final long DEFAULT_INCREMENTAL_MARGIN = 5 * 60 * 1000;
+
+    protected static final int BUFFER_SIZE = 64 * 1024;
+    protected static final String GRAPH_SUFFIX = "#graph";
+
     protected Store store;
     protected String backupDir;
     protected String status = "";
+    protected int threads = 1;
+    protected long incrementalMargin = DEFAULT_INCREMENTAL_MARGIN;
     
     public BackupService(String backupDir, Store store) {
         this.backupDir = backupDir;
@@ -47,8 +97,24 @@ public class BackupService {
         FileUtil.ensureDir(backupDir);
         log.info("Backup directory set to: " + backupDir);
     }
-    
+
+    /**
+     * Set the number of worker threads used to write the named graphs,
+     * if more than one then full backups are segmented
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public void setIncrementalMargin(long margin) {
+        this.incrementalMargin = margin;
+    }
+
     public void scheduleBackup() {
+        if (threads > 1) {
+            scheduleSegmentedBackup(false);
+            return;
+        }
         String timestamp =  new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date()) ;
         final String filename = backupDir + "/backup-" + timestamp + ".nq.gz";
         
@@ -62,8 +128,8 @@ public class BackupService {
                     store.lock();
                     try {
                         out = new FileOutputStream(filename) ;
-                        out = new GZIPOutputStream(out, 8*1024) ;
-                        out = new BufferedOutputStream(out) ;
+                        out = new GZIPOutputStream(out, BUFFER_SIZE) ;
+                        out = new BufferedOutputStream(out, BUFFER_SIZE) ;
                         
                         RDFDataMgr.write(out, store.asDataset().asDatasetGraph(), Lang.NQUADS) ;
                         out.close() ;
@@ -92,6 +158,207 @@ public class BackupService {
             log.info("Scheduled backup to " + filename);                
             service.submit(task) ;
     }
+
+    /**
+     * Schedule an incremental backup, relative to the most recent segmented backup.
+     * If there isn't one then a full segmented backup is made.
+     */
+    public void scheduleIncrementalBackup() {
+        scheduleSegmentedBackup(true);
+    }
+
+    protected void scheduleSegmentedBackup(final boolean incremental) {
+        String timestamp =  new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date()) ;
+        final File dir = new File(backupDir, "backup-" + timestamp + (incremental ? "-delta" : ""));
+        final Callable<Boolean> task = new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                try {
+                    backup(dir, incremental);
+                    return true;
+                } catch (Exception e) {
+                    log.warn("Exception during backup: ", e);
+                    setStatus("Backup failed: " + dir);
+                    return false;
+                }
+            }
+        };
+        setStatus("Backup scheduled: " + dir);
+        log.info("Scheduled backup to " + dir);
+        service.submit(task);
+    }
+
+    /**
+     * Write a segmented backup to the given directory.
+     * @param incremental if true only include named graphs changed since the most recent segmented backup
+     * @return the manifest of the backup
+     */
+    public BackupManifest backup(File dir, boolean incremental) throws IOException {
+        BackupManifest base = incremental ? BackupManifest.findLatest(new File(backupDir)) : null;
+        long since = base == null ? -1 : base.getSnapshot() - incrementalMargin;
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create backup directory " + dir);
+        }
+        setStatus("Backup in progress: " + dir);
+        log.info("Started " + (base == null ? "full" : "incremental") + " backup to " + dir);
+
+        int partitions = threads;
+        List<SegmentWriter> workers = new ArrayList<>();
+        workers.add( new SegmentWriter(new File(dir, DEFAULT_SEGMENT), -1, partitions, since) );
+        for (int i = 0; i < partitions; i++) {
+            workers.add( new SegmentWriter(new File(dir, String.format(SEGMENT_FORMAT, i)), i, partitions, since) );
+        }
+
+        // Every worker needs its own thread, so that all their transactions can be started together
+        ExecutorService pool = Executors.newFixedThreadPool(workers.size());
+        long snapshot;
+        List<Future<Long>> results = new ArrayList<>();
+        try {
+            // Hold off writers until all the workers have a read transaction, so they see the same state
+            CountDownLatch started = new CountDownLatch(workers.size());
+            store.lockWrite();
+            try {
+                snapshot = System.currentTimeMillis();
+                for (SegmentWriter worker : workers) {
+                    worker.started = started;
+                    results.add( pool.submit(worker) );
+                }
+                started.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EpiException(e);
+            } finally {
+                store.abort();
+                store.end();
+            }
+
+            long quads = 0;
+            for (Future<Long> result : results) {
+                quads += result.get();
+            }
+
+            List<String> segments = new ArrayList<>();
+            List<String> graphs = new ArrayList<>();
+            for (SegmentWriter worker : workers) {
+                segments.add( worker.file.getName() );
+                graphs.addAll( worker.graphs );
+            }
+            writeGraphList(new File(dir, GRAPHS_FILE), graphs);
+
+            BackupManifest manifest = new BackupManifest(dir, base == null ? BackupManifest.FULL : BackupManifest.INCREMENTAL,
+                    snapshot, base == null ? null : base.getDir().getName(), since, segments, quads);
+            manifest.write();
+            setStatus("Last backup: " + dir);
+            log.info("Finished backup to " + dir + ", " + quads + " quads");
+            return manifest;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EpiException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new EpiException(cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void writeGraphList(File file, List<String> graphs) throws IOException {
+        try (Writer out = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file), BUFFER_SIZE), StandardCharsets.UTF_8)) {
+            for (String graph : graphs) {
+                out.write(graph);
+                out.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Writes one segment of a backup, either the default graph or a partition of the named graphs.
+     */
+    class SegmentWriter implements Callable<Long> {
+        final File file;
+        final int partition;
+        final int partitions;
+        final long since;
+        final List<String> graphs = new ArrayList<>();
+        CountDownLatch started;
+
+        /**
+         * @param partition the partition of named graphs to write, -1 for the default graph
+         * @param partitions the number of partitions of the named graphs
+         * @param since only write named graphs whose version started after this time, -1 for all graphs
+         */
+        SegmentWriter(File file, int partition, int partitions, long since) {
+            this.file = file;
+            this.partition = partition;
+            this.partitions = partitions;
+            this.since = since;
+        }
+
+        @Override
+        public Long call() throws IOException {
+            try {
+                store.lock();
+            } finally {
+                started.countDown();
+            }
+            long count = 0;
+            try (OutputStream out = new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file), BUFFER_SIZE), BUFFER_SIZE)) {
+                StreamRDF stream = StreamRDFWriter.getWriterStream(out, RDFFormat.NQUADS);
+                stream.start();
+                DatasetGraph dsg = store.asDataset().asDatasetGraph();
+                if (partition == -1) {
+                    Iterator<Triple> i = dsg.getDefaultGraph().find(Node.ANY, Node.ANY, Node.ANY);
+                    while (i.hasNext()) {
+                        stream.triple( i.next() );
+                        count++;
+                    }
+                } else {
+                    Graph defaultGraph = dsg.getDefaultGraph();
+                    for (Iterator<Node> gi = dsg.listGraphNodes(); gi.hasNext();) {
+                        Node graph = gi.next();
+                        if (Math.floorMod(graph.hashCode(), partitions) != partition) continue;
+                        graphs.add( graph.getURI() );
+                        if (since != -1 && !changedSince(defaultGraph, graph, since)) continue;
+                        Iterator<Quad> i = dsg.find(graph, Node.ANY, Node.ANY, Node.ANY);
+                        while (i.hasNext()) {
+                            stream.quad( i.next() );
+                            count++;
+                        }
+                    }
+                }
+                stream.finish();
+            } finally {
+                store.end();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Test if a named graph might have been added since the given time. Graphs holding versioned
+     * entities are named after the version and so are dated by the start of the version's interval.
+     * Anything else is assumed to have changed.
+     */
+    protected static boolean changedSince(Graph defaultGraph, Node graph, long since) {
+        String uri = graph.getURI();
+        if (!uri.endsWith(GRAPH_SUFFIX)) return true;
+        Node version = NodeFactory.createURI( uri.substring(0, uri.length() - GRAPH_SUFFIX.length()) );
+        Node interval = object(defaultGraph, version, Version.interval.asNode());
+        Node start = interval == null ? null : object(defaultGraph, interval, Time.hasBeginning.asNode());
+        Node time = start == null ? null : object(defaultGraph, start, Time.inXSDDateTime.asNode());
+        if (time == null || !time.isLiteral() || !(time.getLiteralValue() instanceof XSDDateTime)) {
+            return true;
+        }
+        return ((XSDDateTime) time.getLiteralValue()).asCalendar().getTimeInMillis() >= since;
+    }
+
+    private static Node object(Graph graph, Node subject, Node property) {
+        Iterator<Triple> i = graph.find(subject, property, Node.ANY);
+        return i.hasNext() ? i.next().getObject() : null;
+    }
     
     public synchronized void setStatus(String status) {
         this.status = status;
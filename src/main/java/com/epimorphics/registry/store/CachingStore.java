@@ -21,9 +21,15 @@
 
 package com.epimorphics.registry.store;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.jena.riot.system.StreamRDF;
 
@@ -31,14 +37,24 @@ import com.epimorphics.registry.core.Description;
 import com.epimorphics.registry.core.ForwardingRecord;
 import com.epimorphics.registry.core.Register;
 import com.epimorphics.registry.core.RegisterItem;
+import com.epimorphics.registry.core.Status;
 import com.epimorphics.registry.util.DescriptionCache;
+import com.epimorphics.registry.util.ItemCache;
 import org.apache.jena.query.ResultSet;
 import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Resource;
 
 /**
- * Store wrapper that caches registers.
- * Could have a variant that caches individual descriptions though that seems less useful.
+ * Store wrapper that caches registers and, optionally, current item and
+ * entity descriptions.
+ * <p>
+ * The cache is stamped with a store-wide commit generation. Each read
+ * transaction notes the generation when it starts and only adds
+ * descriptions to the cache if nothing has been committed since. Write
+ * transactions bypass the cache altogether and record which resources
+ * they touch. Those resources are flushed once the transaction commits.
+ * </p>
  *
  * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
  */
@@ -46,45 +62,92 @@ public class CachingStore implements StoreAPI {
 
     protected StoreAPI store;
     protected DescriptionCache cache;
+    protected ItemCache itemCache;
+    protected long generation = 0;
+    protected final ThreadLocal<TransactionState> txstate = new ThreadLocal<TransactionState>() {
+        @Override
+        protected TransactionState initialValue() {
+            return new TransactionState();
+        }
+    };
 
     public CachingStore(StoreAPI store, int cachesize) {
+        this(store, cachesize, -1);
+    }
+
+    /**
+     * Construct a caching wrapper
+     * @param store the underlying store
+     * @param cachesize the number of registers to cache, caching of registers is disabled if less than 1
+     * @param itemCachesize the number of item and entity descriptions to cache, caching of these is disabled if less than 1
+     */
+    public CachingStore(StoreAPI store, int cachesize, int itemCachesize) {
         this.store = store;
-        cache = new DescriptionCache(cachesize);
+        if (cachesize > 0) {
+            cache = new DescriptionCache(cachesize);
+        }
+        if (itemCachesize > 0) {
+            itemCache = new ItemCache(itemCachesize);
+        }
     }
 
     @Override
     public void beginRead() {
+        startTransaction(false);
         store.beginRead();
     }
     
     @Override
     public void beginWrite() {
+        startTransaction(true);
         store.beginWrite();
     }
 
     @Override
     public void commit() {
         store.commit();
+        TransactionState state = txstate.get();
+        invalidate(state.touched, state.touchedAll);
+        state.clearTouched();
     }
 
     @Override
     public void abort() {
         store.abort();
+        txstate.get().clearTouched();
     }
     
     @Override
     public void end() {
         store.end();
+        TransactionState state = txstate.get();
+        state.active = false;
+        state.safeDepth = 0;
+        state.clearTouched();
     }
     
     @Override
-    public synchronized void beginSafeRead() {
+    public void beginSafeRead() {
+        TransactionState state = txstate.get();
+        if (!state.active) {
+            startTransaction(false);
+            state.safeDepth = 1;
+        } else if (state.safeDepth > 0) {
+            state.safeDepth++;
+        }
         store.beginSafeRead();
     }
     
     @Override
-    public synchronized void endSafeRead() {
+    public void endSafeRead() {
         store.endSafeRead();
+        TransactionState state = txstate.get();
+        if (state.safeDepth > 0) {
+            state.safeDepth--;
+            if (state.safeDepth == 0) {
+                state.active = false;
+            }
+        }
     }
 
     @Override
@@ -94,12 +157,16 @@ public class CachingStore implements StoreAPI {
 
     @Override
     public Description getCurrentVersion(String uri) {
-        Description d = cache.get(uri);
+        if (!cacheable()) {
+            return store.getCurrentVersion(uri);
+        }
+        Description d = getCachedRegister(uri);
+        if (d == null && itemCache != null) {
+            d = itemCache.get(uri, false, null);
+        }
         if (d == null) {
             d = store.getCurrentVersion(uri);
-            if (d instanceof Register) {
-                cache.cache(d);
-            }
+            cacheDescription(d);
         }
         return d;
     }
@@ -114,14 +181,37 @@ public class CachingStore implements StoreAPI {
         return store.getVersionAt(uri, time);
     }
 
+    @Override
+    public Map<String, Description> getVersionsAt(List<String> uris, long time) {
+        return store.getVersionsAt(uris, time);
+    }
+
     @Override
     public List<VersionInfo> listVersions(String uri) {
         return store.listVersions(uri);
     }
 
+    @Override
+    public VersionInfo getCurrentVersionInfo(String uri) {
+        return store.getCurrentVersionInfo(uri);
+    }
+
+    @Override
+    public long getMembershipChangeStamp(String registerURI) {
+        return store.getMembershipChangeStamp(registerURI);
+    }
+
     @Override
     public RegisterItem getItem(String uri, boolean withEntity) {
-        return store.getItem(uri, withEntity);
+        if (itemCache == null || !cacheable()) {
+            return store.getItem(uri, withEntity);
+        }
+        RegisterItem item = itemCache.getItem(uri, withEntity, null);
+        if (item == null) {
+            item = store.getItem(uri, withEntity);
+            cacheDescription(item);
+        }
+        return item;
     }
 
 //    @Override
@@ -144,45 +234,53 @@ public class CachingStore implements StoreAPI {
         return store.listMembers(register, filters);
     }
 
+    @Override
+    public MemberWindow listMembers(Register register, Status status, List<FilterSpec> filters, int offset, int length) {
+        return store.listMembers(register, status, filters, offset, length);
+    }
+
+    @Override
+    public MemberWindow listMembersAfter(Register register, Status status, List<FilterSpec> filters, String after, int length) {
+        return store.listMembersAfter(register, status, filters, after, length);
+    }
+
 
     @Override
     public void addToRegister(Register register, RegisterItem item) {
-        cache.flush(register.getRoot().getURI());
+        touchedBy(register, item);
         store.addToRegister(register, item);
     }
 
     @Override
     public void addToRegister(Register register, RegisterItem item,
             Calendar timestamp) {
-        cache.flush(register.getRoot().getURI());
+        touchedBy(register, item);
         store.addToRegister(register, item, timestamp);
     }
 
     @Override
     public String update(Register register) {
-        cache.flush(register.getRoot().getURI());
+        touch(register.getRoot().getURI());
         return store.update(register);
     }
 
     @Override
     public String update(Register register, Calendar timestamp) {
-        cache.flush(register.getRoot().getURI());
+        touch(register.getRoot().getURI());
         return store.update(register, timestamp);
     }
 
     @Override
     public String update(RegisterItem item, boolean withEntity) {
-        cache.flush(item.getRegisterURI());
-        if (withEntity && item.isRegister()) {
-            cache.flush(item.getEntity().getURI());
-        }
+        touchedBy(item, withEntity);
         return store.update(item, withEntity);
     }
 
     @Override
     public String update(RegisterItem item, boolean withEntity,
             Calendar timestamp) {
-        return update(item, withEntity, timestamp);
+        touchedBy(item, withEntity);
+        return store.update(item, withEntity, timestamp);
     }
 
     @Override
@@ -193,12 +291,68 @@ public class CachingStore implements StoreAPI {
     @Override
     public void loadBootstrap(String filename) {
         store.loadBootstrap(filename);
+        invalidate(Collections.<String>emptySet(), true);
     }
 
     @Override
     public List<RegisterItem> fetchAll(List<String> itemURIs,
             boolean withEntity) {
-        return store.fetchAll(itemURIs, withEntity);
+        // Preserve the contract that all the results share a single model
+        Model shared = ModelFactory.createDefaultModel();
+        return fetchAll(itemURIs, shared, withEntity ? shared : null);
+    }
+
+    @Override
+    public List<RegisterItem> fetchAll(List<String> itemURIs, Model itemModel, Model entityModel) {
+        if (itemCache == null || !cacheable()) {
+            return store.fetchAll(itemURIs, itemModel, entityModel);
+        }
+        boolean withEntity = entityModel != null;
+        List<RegisterItem> results = new ArrayList<RegisterItem>( itemURIs.size() );
+        List<String> misses = new ArrayList<>();
+        for (String uri : itemURIs) {
+            RegisterItem item = itemCache.getItem(uri, withEntity, itemModel, entityModel);
+            if (item == null) {
+                misses.add(uri);
+            }
+            results.add(item);
+        }
+        if (!misses.isEmpty()) {
+            // Fetch the rest in one batch. These are not cached since their
+            // descriptions are mixed together in the shared models.
+            Iterator<RegisterItem> fetched = store.fetchAll(misses, itemModel, entityModel).iterator();
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i) == null) {
+                    results.set(i, fetched.next());
+                }
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void fetchEntities(List<RegisterItem> items, Model entityModel) {
+        store.fetchEntities(items, entityModel);
+    }
+
+    @Override
+    public Model fetchAllCurrentVersions(List<String> uris, Model dest) {
+        if (!cacheable()) {
+            return store.fetchAllCurrentVersions(uris, dest);
+        }
+        List<String> misses = new ArrayList<>();
+        for (String uri : uris) {
+            Description d = getCachedRegister(uri);
+            if (d != null) {
+                dest.add( d.getRoot().getModel() );
+            } else if (itemCache == null || itemCache.get(uri, false, dest) == null) {
+                misses.add(uri);
+            }
+        }
+        if (!misses.isEmpty()) {
+            store.fetchAllCurrentVersions(misses, dest);
+        }
+        return dest;
     }
 
     @Override
@@ -211,6 +365,11 @@ public class CachingStore implements StoreAPI {
         return store.listEntityOccurences(uri);
     }
 
+    @Override
+    public Map<String, List<EntityInfo>> listEntityOccurences(List<String> uris) {
+        return store.listEntityOccurences(uris);
+    }
+
     @Override
     public List<String> search(SearchRequest request) {
         return store.search(request);
@@ -223,6 +382,8 @@ public class CachingStore implements StoreAPI {
 
     @Override
     public void storeGraph(String graphURI, Model model) {
+        // Named graphs are only used for annotations and for newly created entity
+        // versions, neither of which can be present in the cache
         store.storeGraph(graphURI, model);
     }
 
@@ -238,6 +399,7 @@ public class CachingStore implements StoreAPI {
 
     @Override
     public List<String> delete(String uri) {
+        touchAll();
         return store.delete(uri);
     }
 
@@ -248,9 +410,133 @@ public class CachingStore implements StoreAPI {
 
     @Override
     public StreamRDF importTree(String uri) {
+        touchAll();
         return store.importTree(uri);
     }
 
     @Override
     public Model findSimilar(Collection<RegisterItem> items, Boolean withEdits, Double similarity) { return store.findSimilar(items, withEdits, similarity); }
+
+    // ---- Cache management ------------------------------------------------------
+
+    /**
+     * Record of the transaction in progress on a thread, if any.
+     */
+    protected static class TransactionState {
+        boolean active = false;
+        boolean write = false;
+        int safeDepth = 0;
+        long generation;
+        boolean touchedAll = false;
+        Set<String> touched = new HashSet<>();
+
+        void clearTouched() {
+            touched.clear();
+            touchedAll = false;
+        }
+    }
+
+    protected synchronized long getGeneration() {
+        return generation;
+    }
+
+    protected void startTransaction(boolean write) {
+        TransactionState state = txstate.get();
+        state.active = true;
+        state.write = write;
+        state.safeDepth = 0;
+        state.generation = getGeneration();
+        state.clearTouched();
+    }
+
+    /**
+     * Only read transactions see exactly the committed state, so only they may use the cache.
+     */
+    protected boolean cacheable() {
+        TransactionState state = txstate.get();
+        return state.active && !state.write;
+    }
+
+    protected synchronized Description getCachedRegister(String uri) {
+        return cache == null ? null : cache.get(uri);
+    }
+
+    /**
+     * Add a freshly read description to the appropriate cache, so long as there
+     * has been no commit since the current transaction started. Otherwise
+     * the description might predate an invalidation we have already applied.
+     */
+    protected synchronized void cacheDescription(Description d) {
+        if (d == null || txstate.get().generation != generation) {
+            return;
+        }
+        if (d instanceof Register) {
+            if (cache != null) {
+                cache.cache(d);
+            }
+        } else if (itemCache != null) {
+            itemCache.cache(d);
+        }
+    }
+
+    /**
+     * Start a new cache generation and flush the given resources. 
+     */
+    protected synchronized void invalidate(Collection<String> uris, boolean all) {
+        generation++;
+        if (all) {
+            if (cache != null) cache.clear();
+            if (itemCache != null) itemCache.clear();
+        } else {
+            for (String uri : uris) {
+                if (cache != null) cache.flush(uri);
+                if (itemCache != null) itemCache.flush(uri);
+            }
+        }
+    }
+
+    protected void touch(String uri) {
+        if (uri == null) return;
+        TransactionState state = txstate.get();
+        if (state.active) {
+            state.touched.add(uri);
+        } else {
+            invalidate(Collections.singleton(uri), false);
+        }
+    }
+
+    protected void touchAll() {
+        TransactionState state = txstate.get();
+        if (state.active) {
+            state.touchedAll = true;
+        } else {
+            invalidate(Collections.<String>emptySet(), true);
+        }
+    }
+
+    protected void touchedBy(Register register, RegisterItem item) {
+        touch( register.getRoot().getURI() );
+        touch( item.getRoot().getURI() );
+        Resource entity = item.getEntity();
+        if (entity == null) {
+            entity = item.getEntitySpec();
+        }
+        if (entity != null) {
+            touch( entity.getURI() );
+        }
+    }
+
+    protected void touchedBy(RegisterItem item, boolean withEntity) {
+        touch( item.getRoot().getURI() );
+        touch( item.getRegisterURI() );
+        if (withEntity) {
+            Resource entity = item.getEntity();
+            if (entity == null) {
+                entity = item.getEntitySpec();
+            }
+            if (entity != null) {
+                touch( entity.getURI() );
+            }
+        }
+    }
 }
@@ -0,0 +1,267 @@
+/******************************************************************
+ * File:        EntityOccurrenceIndex.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.jena.rdf.model.ResourceFactory;
+
+/**
+ * Reverse index from entities to the register items which currently define them,
+ * so that entity lookups and validation need not query the store.
+ * <p>
+ * The index covers all items. The store loads it in one pass on a background
+ * thread, when it starts and again after bulk changes, and meanwhile answers lookups
+ * by querying. Once loaded the store stages the current state of each item changed
+ * by a write transaction and applies the changes on commit. Statuses are held as
+ * URIs and resolved when looked up, so changes to the status lifecycle are seen.
+ * </p>
+ * <p>
+ * As for the {@link MembershipIndex}, each commit advances a generation counter,
+ * which is odd while a commit is in progress, and a load computed by a transaction
+ * that started before the latest commit is not accepted.
+ * </p>
+ * <p>
+ * Memory use is a few hundred bytes per item, mostly the item and entity URIs.
+ * The number of items is limited (see {@link #setMaxItems(long)}). Since the index
+ * must be complete to be of use, if the items exceed the limit it is dropped, and
+ * not loaded again until the limit is changed, so lookups always query the store.
+ * </p>
+ */
+public class EntityOccurrenceIndex {
+
+    /** Default limit on the number of items indexed */
+    public static final long DEFAULT_MAX_ITEMS = 500000;
+
+    protected volatile boolean loaded = false;
+    protected volatile boolean full = false;
+    protected long maxItems = DEFAULT_MAX_ITEMS;
+    protected final Map<String, List<Occurrence>> byEntity = new ConcurrentHashMap<>();
+    protected final Map<String, Occurrence> byItem = new ConcurrentHashMap<>();
+    protected long generation = 0;
+
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Test if the index has been dropped because the items exceed the limit
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    /**
+     * Set the limit on the number of items held in the index
+     */
+    public synchronized void setMaxItems(long maxItems) {
+        this.maxItems = maxItems;
+        full = false;
+        checkLimit();
+    }
+
+    public synchronized long getMaxItems() {
+        return maxItems;
+    }
+
+    /**
+     * Return the current occurrences of an entity, only meaningful once the index is loaded.
+     */
+    public List<EntityInfo> get(String entityURI) {
+        List<Occurrence> occurrences = byEntity.get(entityURI);
+        if (occurrences == null) {
+            return new ArrayList<>();
+        }
+        List<EntityInfo> results = new ArrayList<>(occurrences.size());
+        for (Occurrence o : occurrences) {
+            results.add( o.asEntityInfo() );
+        }
+        return results;
+    }
+
+    /**
+     * Return the entity currently defined by an item, or null if not known
+     */
+    public String entityOf(String itemURI) {
+        Occurrence o = byItem.get(itemURI);
+        return o == null ? null : o.entityURI;
+    }
+
+    /**
+     * Offer the occurrences of all entities for indexing. This is accepted only
+     * if nothing has been committed since the given generation, and the
+     * index is dropped if there are more occurrences than the limit.
+     * @param asOf the index generation when the transaction that read the occurrences started
+     * @return true if the index is now loaded
+     */
+    public synchronized boolean load(Collection<Occurrence> occurrences, long asOf) {
+        if (asOf == generation && !loaded && !full) {
+            for (Occurrence o : occurrences) {
+                add(o);
+            }
+            loaded = true;
+            checkLimit();
+        }
+        return loaded;
+    }
+
+    /**
+     * Note that a transaction is about to commit, must be followed by a call to {@link #apply(Changes)}
+     */
+    public synchronized void startCommit() {
+        generation++;
+    }
+
+    /**
+     * Apply the changes staged by a committed transaction.
+     */
+    public synchronized void apply(Changes changes) {
+        generation++;
+        if (changes.clearAll) {
+            unload();
+            return;
+        }
+        if (!loaded) {
+            return;
+        }
+        for (Map.Entry<String, Occurrence> e : changes.items.entrySet()) {
+            Occurrence old = byItem.remove(e.getKey());
+            if (old != null) {
+                List<Occurrence> occurrences = new ArrayList<>( byEntity.get(old.entityURI) );
+                occurrences.remove(old);
+                if (occurrences.isEmpty()) {
+                    byEntity.remove(old.entityURI);
+                } else {
+                    byEntity.put(old.entityURI, Collections.unmodifiableList(occurrences));
+                }
+            }
+            if (e.getValue() != null) {
+                add(e.getValue());
+            }
+        }
+        checkLimit();
+    }
+
+    public synchronized void clear() {
+        // Advance by two so that the generation stays even outside commits
+        generation += 2;
+        full = false;
+        unload();
+    }
+
+    protected void checkLimit() {
+        if (loaded && byItem.size() > maxItems) {
+            unload();
+            full = true;
+        }
+    }
+
+    protected void unload() {
+        loaded = false;
+        byEntity.clear();
+        byItem.clear();
+    }
+
+    protected void add(Occurrence o) {
+        List<Occurrence> old = byEntity.get(o.entityURI);
+        List<Occurrence> occurrences = old == null ? new ArrayList<Occurrence>(1) : new ArrayList<>(old);
+        occurrences.add(o);
+        byEntity.put(o.entityURI, Collections.unmodifiableList(occurrences));
+        byItem.put(o.itemURI, o);
+    }
+
+    /**
+     * The current definition of an entity by a register item.
+     */
+    public static class Occurrence {
+        protected final String entityURI;
+        protected final String itemURI;
+        protected final String registerURI;
+        protected final String statusURI;
+
+        public Occurrence(String entityURI, String itemURI, String registerURI, String statusURI) {
+            this.entityURI = entityURI;
+            this.itemURI = itemURI;
+            this.registerURI = registerURI;
+            this.statusURI = statusURI;
+        }
+
+        public EntityInfo asEntityInfo() {
+            return new EntityInfo(ResourceFactory.createResource(entityURI), ResourceFactory.createResource(itemURI),
+                    ResourceFactory.createResource(registerURI), ResourceFactory.createResource(statusURI));
+        }
+    }
+
+    /**
+     * Item changes staged by a write transaction, to be applied if it commits.
+     */
+    public static class Changes {
+        protected Map<String, Occurrence> items = new LinkedHashMap<>();
+        protected Set<String> touched = new HashSet<>();
+        protected boolean clearAll = false;
+
+        /**
+         * Record the new state of an item
+         * @param itemURI the item
+         * @param occurrence the entity it now defines, or null if it has been removed
+         * @param oldEntityURI the entity it defined before the change, if known
+         */
+        public void update(String itemURI, Occurrence occurrence, String oldEntityURI) {
+            items.put(itemURI, occurrence);
+            if (occurrence != null) {
+                touched.add(occurrence.entityURI);
+            }
+            if (oldEntityURI != null) {
+                touched.add(oldEntityURI);
+            }
+        }
+
+        /**
+         * Record a change that cannot be tracked precisely, such as a bulk import
+         */
+        public void clearAll() {
+            clearAll = true;
+        }
+
+        /**
+         * Test if the staged changes might affect the occurrences of an entity
+         */
+        public boolean touches(String entityURI) {
+            return clearAll || touched.contains(entityURI);
+        }
+
+        public boolean isEmpty() {
+            return !clearAll && items.isEmpty();
+        }
+    }
+}
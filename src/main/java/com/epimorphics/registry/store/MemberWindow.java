@@ -0,0 +1,62 @@
+/******************************************************************
+ * File:        MemberWindow.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.store;
+
+import java.util.List;
+
+/**
+ * Struct used to return a window onto the ordered members of a register,
+ * together with an indication of whether there are further members beyond the window.
+ */
+public class MemberWindow {
+
+    protected List<RegisterEntryInfo> members;
+    protected boolean more;
+
+    public MemberWindow(List<RegisterEntryInfo> members, boolean more) {
+        this.members = members;
+        this.more = more;
+    }
+
+    /**
+     * Construct a window onto an already selected and ordered member list.
+     * @param offset the index of the first member to include
+     * @param length the maximum number of members to include, -1 for no limit
+     */
+    public static MemberWindow of(List<RegisterEntryInfo> selected, int offset, int length) {
+        int size = selected.size();
+        int start = Math.min(Math.max(offset, 0), size);
+        int end = (length < 0) ? size : (int) Math.min((long)start + length, size);
+        return new MemberWindow(selected.subList(start, end), end < size);
+    }
+
+    public List<RegisterEntryInfo> getMembers() {
+        return members;
+    }
+
+    /**
+     * Returns true if there are further members beyond the end of this window
+     */
+    public boolean hasMore() {
+        return more;
+    }
+
+}
@@ -0,0 +1,402 @@
+/******************************************************************
+ * File:        MembershipIndex.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jena.rdf.model.Literal;
+import org.apache.jena.sparql.expr.NodeValue;
+
+import com.epimorphics.registry.core.Status;
+
+/**
+ * Materialised index of register membership. For each register that has been
+ * listed it holds the member entries as an immutable list ordered by notation,
+ * in the same order as the SPARQL listing, so that a window onto the
+ * membership can be taken directly.
+ * <p>
+ * Registers are indexed lazily the first time they are listed. After that the
+ * store stages the changes made by each write transaction and applies them on
+ * commit. Lists are replaced copy-on-write, so readers need no locking.
+ * The members in each status category are derived from the full list on
+ * demand and memoised, so a status-filtered page is also a positional slice.
+ * </p>
+ * <p>
+ * Each commit advances a generation counter. A listing computed from a
+ * transaction that started before the latest commit is not added to the
+ * index, because it might miss that commit's changes. The counter is also
+ * advanced when a commit starts, so it is odd while a commit is in progress.
+ * </p>
+ * <p>
+ * The index also records when the membership of each register last changed,
+ * so that clients can tell if a cached view of a register is still current.
+ * </p>
+ * <p>
+ * Memory use is proportional to the number of entries held, typically a
+ * few hundred bytes per entry plus the memoised status categories. Entries hold
+ * plain nodes, not resources tied to the store. The total number of entries
+ * is limited (see {@link #setMaxEntries(long)}), when a load would exceed the limit
+ * the least recently used registers are dropped, and a register larger than
+ * the whole limit is never indexed.
+ * </p>
+ */
+public class MembershipIndex {
+
+    /** Default limit on the total number of entries indexed */
+    public static final long DEFAULT_MAX_ENTRIES = 500000;
+
+    protected final Map<String, Members> index = new ConcurrentHashMap<>();
+    protected long generation = 0;
+    protected long maxEntries = DEFAULT_MAX_ENTRIES;
+    protected long size = 0;
+    protected final AtomicLong clock = new AtomicLong();
+    protected final Map<String, Long> changeStamps = new ConcurrentHashMap<>();
+    protected long lastStamp = System.currentTimeMillis();
+    protected long clearedStamp = lastStamp;
+
+    /**
+     * Ordering used by SPARQL ORDER BY on the notation, with the item URI as a tie-break
+     */
+    public static final Comparator<RegisterEntryInfo> NOTATION_ORDER = new Comparator<RegisterEntryInfo>() {
+        @Override
+        public int compare(RegisterEntryInfo a, RegisterEntryInfo b) {
+            int c = compareNotations(a.getNotationLiteral(), b.getNotationLiteral());
+            return c != 0 ? c : a.getItemURI().compareTo(b.getItemURI());
+        }
+    };
+
+    /**
+     * Compare two notation literals in SPARQL ORDER BY order, a missing notation sorts first
+     */
+    public static int compareNotations(Literal na, Literal nb) {
+        if (na == null || nb == null) {
+            return (na == null ? 0 : 1) - (nb == null ? 0 : 1);
+        }
+        return NodeValue.compareAlways(NodeValue.makeNode(na.asNode()), NodeValue.makeNode(nb.asNode()));
+    }
+
+    /**
+     * Test if an entry follows a keyset cursor in notation order. The cursor is
+     * either a notation, or the item URI of a member which has no notation.
+     * @param notation the notation of the cursor, null if the cursor member has no notation
+     * @param itemURI the item URI of a cursor member with no notation, otherwise null
+     */
+    public static boolean follows(RegisterEntryInfo entry, Literal notation, String itemURI) {
+        int c = compareNotations(entry.getNotationLiteral(), notation);
+        if (c != 0) {
+            return c > 0;
+        }
+        return itemURI != null && entry.getItemURI().compareTo(itemURI) > 0;
+    }
+
+    /**
+     * Return the position of the first entry in an ordered member list which
+     * follows the given cursor, see {@link #follows(RegisterEntryInfo, Literal, String)}.
+     */
+    public static int positionAfter(List<RegisterEntryInfo> members, Literal notation, String itemURI) {
+        int low = 0;
+        int high = members.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (!follows(members.get(mid), notation, itemURI)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Set the limit on the total number of register entries held in the index
+     */
+    public synchronized void setMaxEntries(long maxEntries) {
+        this.maxEntries = maxEntries;
+        evict();
+    }
+
+    /**
+     * Return the total number of register entries held in the index
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Return the indexed, ordered membership of the register, or null if the
+     * register has not been indexed.
+     */
+    public List<RegisterEntryInfo> get(String registerURI) {
+        Members members = used( index.get(registerURI) );
+        return members == null ? null : members.all;
+    }
+
+    /**
+     * Return the indexed, ordered members of the register whose status is a
+     * specialization of the given status, or null if the register has not been indexed.
+     * @param status status category to select, null matches any status
+     */
+    public List<RegisterEntryInfo> get(String registerURI, Status status) {
+        Members members = used( index.get(registerURI) );
+        return members == null ? null : members.withStatus(status);
+    }
+
+    protected Members used(Members members) {
+        if (members != null) {
+            members.lastUsed = clock.incrementAndGet();
+        }
+        return members;
+    }
+
+    /**
+     * Offer a full membership listing for indexing. This is accepted only
+     * if nothing has been committed since the listing's generation.
+     * @param registerURI the register
+     * @param members the members in notation order
+     * @param asOf the index generation when the transaction that computed the listing started
+     * @return the listing as an immutable list
+     */
+    public synchronized List<RegisterEntryInfo> load(String registerURI, List<RegisterEntryInfo> members, long asOf) {
+        List<RegisterEntryInfo> list = Collections.unmodifiableList(members);
+        if (asOf == generation && list.size() <= maxEntries) {
+            put(registerURI, used( new Members(list) ));
+            evict();
+        }
+        return list;
+    }
+
+    protected void put(String registerURI, Members members) {
+        Members old = index.put(registerURI, members);
+        size += members.all.size() - (old == null ? 0 : old.all.size());
+    }
+
+    protected void remove(String registerURI) {
+        Members old = index.remove(registerURI);
+        if (old != null) {
+            size -= old.all.size();
+        }
+    }
+
+    /**
+     * Drop the least recently used registers until the index is within its size limit
+     */
+    protected void evict() {
+        while (size > maxEntries && !index.isEmpty()) {
+            String oldest = null;
+            long oldestUse = Long.MAX_VALUE;
+            for (Map.Entry<String, Members> e : index.entrySet()) {
+                if (e.getValue().lastUsed < oldestUse) {
+                    oldest = e.getKey();
+                    oldestUse = e.getValue().lastUsed;
+                }
+            }
+            remove(oldest);
+        }
+    }
+
+    /**
+     * Return a stamp for the last change to the membership of the register, see
+     * {@link StoreAPI#getMembershipChangeStamp(String)}.
+     * @param asOf the index generation when the calling transaction started
+     * @return the stamp, or -1 if there has been a commit since the transaction started
+     */
+    public synchronized long getChangeStamp(String registerURI, long asOf) {
+        if (asOf != generation || (asOf & 1) != 0) {
+            return -1;
+        }
+        Long stamp = changeStamps.get(registerURI);
+        return stamp == null ? clearedStamp : Math.max(stamp, clearedStamp);
+    }
+
+    /**
+     * Note that a transaction is about to commit, must be followed by a call to {@link #apply(Changes)}
+     */
+    public synchronized void startCommit() {
+        generation++;
+    }
+
+    /**
+     * Apply the changes staged by a committed transaction.
+     */
+    public synchronized void apply(Changes changes) {
+        generation++;
+        if (changes.isEmpty()) {
+            return;
+        }
+        lastStamp = Math.max(System.currentTimeMillis(), lastStamp + 1);
+        if (changes.clearAll) {
+            index.clear();
+            size = 0;
+            changeStamps.clear();
+            clearedStamp = lastStamp;
+            return;
+        }
+        for (String register : changes.dropped) {
+            remove(register);
+            changeStamps.put(register, lastStamp);
+        }
+        for (String register : changes.touched) {
+            changeStamps.put(register, lastStamp);
+        }
+        boolean lifecycleChanged = false;
+        for (Map.Entry<String, Map<String, RegisterEntryInfo>> e : changes.entries.entrySet()) {
+            changeStamps.put(e.getKey(), lastStamp);
+            Members old = index.get(e.getKey());
+            if (old != null) {
+                Members updated = new Members( Collections.unmodifiableList( update(old.all, e.getValue()) ) );
+                updated.lastUsed = old.lastUsed;
+                put(e.getKey(), updated);
+            }
+            if (e.getKey().endsWith(Status.LIFECYCLE_REGISTER)) {
+                lifecycleChanged = true;
+            }
+        }
+        if (lifecycleChanged) {
+            // The status hierarchy may have changed so the status categories are stale
+            clearedStamp = lastStamp;
+            for (Map.Entry<String, Members> e : index.entrySet()) {
+                Members refreshed = new Members(e.getValue().all);
+                refreshed.lastUsed = e.getValue().lastUsed;
+                e.setValue( refreshed );
+            }
+        }
+        evict();
+    }
+
+    public synchronized void clear() {
+        // Advance by two so that the generation stays even outside commits
+        generation += 2;
+        index.clear();
+        size = 0;
+    }
+
+    protected List<RegisterEntryInfo> update(List<RegisterEntryInfo> old, Map<String, RegisterEntryInfo> changed) {
+        List<RegisterEntryInfo> members = new ArrayList<>(old.size() + changed.size());
+        for (RegisterEntryInfo entry : old) {
+            if ( !changed.containsKey(entry.getItemURI()) ) {
+                members.add(entry);
+            }
+        }
+        for (RegisterEntryInfo entry : changed.values()) {
+            if (entry != null) {
+                int pos = Collections.binarySearch(members, entry, NOTATION_ORDER);
+                members.add(pos < 0 ? -pos - 1 : pos, entry);
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Indexed membership of a single register.
+     */
+    protected static class Members {
+        final List<RegisterEntryInfo> all;
+        final Map<Status, List<RegisterEntryInfo>> byStatus = new ConcurrentHashMap<>();
+        volatile long lastUsed;
+
+        Members(List<RegisterEntryInfo> all) {
+            this.all = all;
+        }
+
+        List<RegisterEntryInfo> withStatus(Status status) {
+            if (status == null || status.equals(Status.Any)) {
+                return all;
+            }
+            List<RegisterEntryInfo> selected = byStatus.get(status);
+            if (selected == null) {
+                selected = new ArrayList<>();
+                for (RegisterEntryInfo entry : all) {
+                    if (entry.getStatus().isA(status)) {
+                        selected.add(entry);
+                    }
+                }
+                selected = Collections.unmodifiableList(selected);
+                byStatus.put(status, selected);
+            }
+            return selected;
+        }
+    }
+
+    /**
+     * Membership changes staged by a write transaction, to be applied if it commits.
+     */
+    public static class Changes {
+        protected Map<String, Map<String, RegisterEntryInfo>> entries = new HashMap<>();
+        protected Set<String> dropped = new HashSet<>();
+        protected Set<String> touched = new HashSet<>();
+        protected boolean clearAll = false;
+
+        /**
+         * Record the new state of a register entry
+         * @param registerURI the register
+         * @param itemURI the item
+         * @param entry the new entry, or null if the item is no longer a member
+         */
+        public void update(String registerURI, String itemURI, RegisterEntryInfo entry) {
+            Map<String, RegisterEntryInfo> changed = entries.get(registerURI);
+            if (changed == null) {
+                changed = new HashMap<>();
+                entries.put(registerURI, changed);
+            }
+            changed.put(itemURI, entry);
+        }
+
+        /**
+         * Record that a register has been removed entirely
+         */
+        public void drop(String registerURI) {
+            dropped.add(registerURI);
+            entries.remove(registerURI);
+        }
+
+        /**
+         * Record that the view of a register has changed although its membership
+         * has not, such as when a member register is re-versioned
+         */
+        public void touch(String registerURI) {
+            touched.add(registerURI);
+        }
+
+        /**
+         * Record a change that cannot be tracked precisely, such as a bulk import
+         */
+        public void clearAll() {
+            clearAll = true;
+        }
+
+        public boolean isEmpty() {
+            return !clearAll && entries.isEmpty() && dropped.isEmpty() && touched.isEmpty();
+        }
+    }
+}
@@ -28,6 +28,8 @@ import java.util.Set;
 import com.epimorphics.registry.core.Status;
 import org.apache.jena.rdf.model.Literal;
 import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.impl.LiteralImpl;
+import org.apache.jena.rdf.model.impl.ResourceImpl;
 
 /**
  * Struct which provides a summary description of an entry in a register.
@@ -42,14 +44,16 @@ public class RegisterEntryInfo {
     protected Set<Literal> labels = new HashSet<Literal>();
     protected Set<Resource> types = new HashSet<Resource>();
     protected String notation;
+    protected Literal notationLiteral;
 
     public RegisterEntryInfo(Resource status, Resource item, Resource entity, Literal label, Resource type, Literal notation) {
         this.status = Status.forResource(status);
         this.itemURI = item.getURI();
         this.entityURI = entity.getURI();
-        this.labels.add( label );
-        this.types.add( type );
+        this.labels.add( detach(label) );
+        this.types.add( detach(type) );
         this.notation = notation == null ? null : notation.getLexicalForm();
+        this.notationLiteral = detach(notation);
     }
 
     public RegisterEntryInfo(Resource entity, Status status) {
@@ -58,11 +62,22 @@ public class RegisterEntryInfo {
     }
 
     public void addLabel(Literal label) {
-        labels.add(label);
+        labels.add( detach(label) );
     }
 
     public void addType(Resource type) {
-        types.add(type);
+        types.add( detach(type) );
+    }
+
+    // Entries may be held in the membership index, so must not retain
+    // references to the model of the transaction which found them
+
+    protected static Literal detach(Literal l) {
+        return l == null ? null : new LiteralImpl(l.asNode(), null);
+    }
+
+    protected static Resource detach(Resource r) {
+        return r == null ? null : new ResourceImpl(r.asNode(), null);
     }
 
     public Status getStatus() {
@@ -83,6 +98,22 @@ public class RegisterEntryInfo {
     public String getNotation() {
         return notation;
     }
+
+    /**
+     * Return the key from which a keyset listing resumes after this entry, this is the
+     * notation or, for an entry with no notation, the item URI.
+     * See {@link StoreAPI#listMembersAfter(com.epimorphics.registry.core.Register, Status, java.util.List, String, int)}.
+     */
+    public String getCursor() {
+        return notationLiteral != null ? notation : itemURI;
+    }
+
+    /**
+     * Return the notation as originally typed, which determines the ordering of register members
+     */
+    public Literal getNotationLiteral() {
+        return notationLiteral;
+    }
     
     public boolean hasLabel(String lexical) {
         for (Literal label : labels) {
@@ -0,0 +1,192 @@
+/******************************************************************
+ * File:        RestoreBackup.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.store;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.tdb.TDBFactory;
+
+import com.epimorphics.util.EpiException;
+
+/**
+ * Restore a backup made by the {@link BackupService} into an empty store.
+ * <p>
+ * Accepts either a single file backup or a segmented backup directory. An incremental
+ * backup is restored by first restoring the backups it is based on and then applying
+ * it, replacing the default graph and any named graphs it contains and dropping
+ * any named graphs which were no longer present. Each segment is loaded in its own
+ * transaction.
+ * </p>
+ * <pre>
+ *    RestoreBackup backup tdbDir
+ * </pre>
+ */
+public class RestoreBackup {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: RestoreBackup backup tdbDir");
+            System.exit(1);
+        }
+        Dataset dataset = TDBFactory.createDataset( args[1] );
+        try {
+            long quads = restore(new File(args[0]), dataset);
+            System.out.println("Restored " + quads + " quads");
+        } finally {
+            dataset.close();
+        }
+    }
+
+    /**
+     * Restore a backup into the dataset, which should be empty.
+     * @return the number of triples and quads loaded
+     */
+    public static long restore(File backup, Dataset dataset) throws IOException {
+        if (backup.isFile()) {
+            return load(backup, dataset, false);
+        }
+        BackupManifest manifest = BackupManifest.read(backup);
+        if (manifest == null) {
+            throw new EpiException("Not a complete backup: " + backup);
+        }
+        List<BackupManifest> chain = new ArrayList<>();
+        for (BackupManifest m = manifest; m != null; m = m.getBase()) {
+            chain.add(0, m);
+        }
+        long quads = 0;
+        for (BackupManifest m : chain) {
+            quads += apply(m, dataset);
+        }
+        return quads;
+    }
+
+    protected static long apply(BackupManifest manifest, Dataset dataset) throws IOException {
+        boolean incremental = manifest.isIncremental();
+        if (incremental) {
+            dataset.begin(ReadWrite.WRITE);
+            try {
+                dataset.asDatasetGraph().getDefaultGraph().clear();
+                dataset.commit();
+            } finally {
+                dataset.end();
+            }
+        }
+        long quads = 0;
+        for (File segment : manifest.getSegments()) {
+            quads += load(segment, dataset, incremental);
+        }
+        if (incremental) {
+            dropGraphs(readGraphList(manifest.getGraphList()), dataset);
+        }
+        return quads;
+    }
+
+    /**
+     * Load a gzipped N-Quads file in a single transaction.
+     * @param replace if true the previous contents of any named graph in the file are removed
+     */
+    protected static long load(File file, Dataset dataset, final boolean replace) throws IOException {
+        dataset.begin(ReadWrite.WRITE);
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file), 64 * 1024)) {
+            final DatasetGraph dsg = dataset.asDatasetGraph();
+            final long[] count = new long[1];
+            StreamRDF dest = new StreamRDFBase() {
+                Set<Node> seen = new HashSet<>();
+
+                @Override
+                public void triple(Triple triple) {
+                    dsg.add(Quad.defaultGraphIRI, triple.getSubject(), triple.getPredicate(), triple.getObject());
+                    count[0]++;
+                }
+
+                @Override
+                public void quad(Quad quad) {
+                    if (replace && !quad.isDefaultGraph() && seen.add(quad.getGraph())) {
+                        dsg.deleteAny(quad.getGraph(), Node.ANY, Node.ANY, Node.ANY);
+                    }
+                    dsg.add(quad);
+                    count[0]++;
+                }
+            };
+            RDFDataMgr.parse(dest, in, Lang.NQUADS);
+            dataset.commit();
+            return count[0];
+        } finally {
+            dataset.end();
+        }
+    }
+
+    protected static Set<String> readGraphList(File file) throws IOException {
+        Set<String> graphs = new HashSet<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    graphs.add(line);
+                }
+            }
+        }
+        return graphs;
+    }
+
+    protected static void dropGraphs(Set<String> keep, Dataset dataset) {
+        dataset.begin(ReadWrite.WRITE);
+        try {
+            DatasetGraph dsg = dataset.asDatasetGraph();
+            List<Node> drop = new ArrayList<>();
+            for (Iterator<Node> i = dsg.listGraphNodes(); i.hasNext();) {
+                Node graph = i.next();
+                if (!keep.contains(graph.getURI())) {
+                    drop.add(graph);
+                }
+            }
+            for (Node graph : drop) {
+                dsg.deleteAny(graph, Node.ANY, Node.ANY, Node.ANY);
+            }
+            dataset.commit();
+        } finally {
+            dataset.end();
+        }
+    }
+
+}
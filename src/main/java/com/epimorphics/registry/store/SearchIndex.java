@@ -0,0 +1,434 @@
+/******************************************************************
+ * File:        SearchIndex.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.epimorphics.registry.core.Registry;
+import com.epimorphics.registry.vocab.RegistryVocab;
+import com.epimorphics.util.EpiException;
+
+/**
+ * Lucene index of the current register items, used to answer free text searches
+ * without joining text matches back through the triple store.
+ * <p>
+ * There is one document per item. It stores the item, entity, register and status
+ * URIs and indexes the values of the store's text indexed properties on the entity
+ * (and on the current version of a versioned entity, such as a register) under the same
+ * field name and analyzer as the jena-text index, so the same Lucene query syntax applies.
+ * Matches are against all of the indexed values of an entity together. If
+ * {@link Registry#TEXT_INDEX_INCLUDES_HISTORY} is set then values from earlier versions
+ * of the entity are retained, so as with the jena-text index an item can be found by
+ * a name it used to have.
+ * </p><p>
+ * The store stages changes to the index within each write transaction and applies
+ * them once the transaction has committed. A rebuild writes a complete new set of
+ * entries which is only made visible, in a single Lucene commit, once it is finished.
+ * </p><p>
+ * Merged index segments are sorted by item URI, so that a page of results following
+ * a cursor can be found by skipping straight to the cursor in each such segment and
+ * stopping once the page is full, rather than collecting and sorting every match.
+ * Only the small, recently flushed segments which have not yet been merged are scanned.
+ * </p>
+ */
+public class SearchIndex {
+    static final Logger log = LoggerFactory.getLogger( SearchIndex.class );
+
+    public static final String MEMORY_LOCATION = "mem";
+
+    public static final String FIELD_ITEM = "item";
+    public static final String FIELD_ENTITY = "entity";
+    public static final String FIELD_REGISTER = "register";
+    public static final String FIELD_STATUS = "status";
+    public static final String FIELD_TEXT = "text";
+
+    protected final Directory directory;
+    protected final Analyzer analyzer = new StandardAnalyzer();
+    protected final IndexWriter writer;
+    protected final SearcherManager searchers;
+    protected Changes deferred;
+
+    /** Order in which the documents of each segment are held */
+    protected static final Sort ITEM_ORDER = new Sort( new SortField(FIELD_ITEM, SortField.Type.STRING) );
+
+    public SearchIndex(Directory directory) throws IOException {
+        this.directory = directory;
+        IndexWriter w;
+        try {
+            w = new IndexWriter(directory, new IndexWriterConfig(analyzer).setIndexSort(ITEM_ORDER));
+        } catch (IllegalArgumentException e) {
+            // Index was built without sorting, start afresh so it will be rebuilt
+            log.warn("Search index is not sorted by item, recreating it: " + e.getMessage());
+            w = new IndexWriter(directory, new IndexWriterConfig(analyzer).setIndexSort(ITEM_ORDER).setOpenMode(OpenMode.CREATE));
+        }
+        writer = w;
+        writer.commit();
+        searchers = new SearcherManager(writer, null);
+    }
+
+    /**
+     * Open an index in the given directory, or in memory if the location is "mem"
+     */
+    public static SearchIndex open(String location) {
+        try {
+            if (MEMORY_LOCATION.equals(location)) {
+                log.warn("Opening memory based search index, will not be preserved across restarts");
+                return new SearchIndex( new RAMDirectory() );
+            } else {
+                return new SearchIndex( FSDirectory.open( new File(location).toPath() ) );
+            }
+        } catch (IOException e) {
+            throw new EpiException("Failed to open search index at " + location, e);
+        }
+    }
+
+    /**
+     * Test if a search can be answered by this index. Searches over versions and searches
+     * with property filters need the triple store.
+     */
+    public static boolean supports(SearchRequest request) {
+        return !request.isSearchVersions() && request.getFilters().isEmpty();
+    }
+
+    /**
+     * Return the item URIs matching the search, in relevance order, or in item URI order if paging by cursor.
+     */
+    public List<String> search(SearchRequest request) throws IOException, ParseException {
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+        query.add( new QueryParser(FIELD_TEXT, analyzer).parse( request.getQuery() ), Occur.MUST );
+        if (request.getStatus() != null) {
+            String status = RegistryVocab.getURI() + "status" + StringUtils.capitalize( request.getStatus() );
+            query.add( new TermQuery( new Term(FIELD_STATUS, status) ), Occur.FILTER );
+        }
+        int offset = (request.getOffset() == null || request.getAfter() != null) ? 0 : request.getOffset();
+
+        IndexSearcher searcher = searchers.acquire();
+        try {
+            int n = request.getLimit() == null ? Math.max(1, searcher.getIndexReader().numDocs()) : request.getLimit();
+            if (request.getAfter() != null) {
+                return searchAfter(searcher, query.build(), request.getAfter(), n);
+            }
+            TopDocs top = searcher.search(query.build(), offset + n);
+            List<String> matches = new ArrayList<>(n);
+            for (int i = offset; i < top.scoreDocs.length; i++) {
+                ScoreDoc hit = top.scoreDocs[i];
+                matches.add( searcher.doc(hit.doc).get(FIELD_ITEM) );
+            }
+            return matches;
+        } finally {
+            searchers.release(searcher);
+        }
+    }
+
+    /**
+     * Return the first n matches whose item URI sorts after the cursor, in item order.
+     * In segments sorted by item the matches are read from the cursor onwards, at most n
+     * from each, other segments are scanned keeping the n lowest matches.
+     */
+    protected List<String> searchAfter(IndexSearcher searcher, Query query, String after, int n) throws IOException {
+        BytesRef cursor = new BytesRef(after);
+        Weight weight = searcher.createNormalizedWeight(query, false);
+        // Highest candidate at the head, so it can be dropped when a lower one is found
+        PriorityQueue<BytesRef> candidates = new PriorityQueue<>(Collections.reverseOrder());
+        for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+            LeafReader reader = leaf.reader();
+            Scorer scorer = weight.scorer(leaf);
+            if (scorer == null) continue;
+            SortedDocValues items = DocValues.getSorted(reader, FIELD_ITEM);
+            boolean sorted = ITEM_ORDER.equals( reader.getIndexSort() );
+            DocIdSetIterator matches = scorer.iterator();
+            Bits live = reader.getLiveDocs();
+            int doc = sorted ? matches.advance( firstDocAfter(items, reader.maxDoc(), cursor) ) : matches.nextDoc();
+            for (; doc != DocIdSetIterator.NO_MORE_DOCS; doc = matches.nextDoc()) {
+                if (live != null && !live.get(doc)) continue;
+                BytesRef item = items.get(doc);
+                if (item.compareTo(cursor) <= 0) continue;
+                if (candidates.size() < n) {
+                    candidates.add( BytesRef.deepCopyOf(item) );
+                } else if (item.compareTo(candidates.peek()) < 0) {
+                    candidates.poll();
+                    candidates.add( BytesRef.deepCopyOf(item) );
+                } else if (sorted) {
+                    // Rest of this segment sorts later still
+                    break;
+                }
+            }
+        }
+        List<BytesRef> ordered = new ArrayList<>(candidates);
+        Collections.sort(ordered);
+        List<String> results = new ArrayList<>( ordered.size() );
+        for (BytesRef item : ordered) {
+            results.add( item.utf8ToString() );
+        }
+        return results;
+    }
+
+    /**
+     * Return the first document in a segment sorted by item whose item sorts after the cursor
+     */
+    protected static int firstDocAfter(SortedDocValues items, int maxDoc, BytesRef cursor) {
+        int ord = items.lookupTerm(cursor);
+        int threshold = ord >= 0 ? ord + 1 : -ord - 1;
+        int low = 0;
+        int high = maxDoc;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (items.getOrd(mid) < threshold) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Apply a set of changes and make them visible to searches. During a rebuild
+     * the changes are held back and applied once the rebuilt index is complete.
+     */
+    public synchronized void apply(Changes changes) throws IOException {
+        if (changes.isEmpty()) return;
+        if (deferred != null) {
+            deferred.addAll(changes);
+            return;
+        }
+        write(changes, true);
+        writer.commit();
+        searchers.maybeRefresh();
+    }
+
+    /**
+     * Add the changes to the writer, without making them visible
+     * @param merge true if the text of the visible entries should be retained, when indexing history
+     */
+    protected void write(Changes changes, boolean merge) throws IOException {
+        IndexSearcher searcher = (merge && Registry.TEXT_INDEX_INCLUDES_HISTORY) ? searchers.acquire() : null;
+        try {
+            for (Map.Entry<String, Entry> change : changes.changes.entrySet()) {
+                Term id = new Term(FIELD_ITEM, change.getKey());
+                Entry entry = change.getValue();
+                if (entry == null) {
+                    writer.deleteDocuments(id);
+                } else {
+                    Set<String> text = new LinkedHashSet<>();
+                    if (searcher != null) {
+                        TopDocs previous = searcher.search(new TermQuery(id), 1);
+                        if (previous.totalHits > 0) {
+                            for (String value : searcher.doc(previous.scoreDocs[0].doc).getValues(FIELD_TEXT)) {
+                                text.add(value);
+                            }
+                        }
+                    }
+                    text.addAll( entry.text );
+                    writer.updateDocument(id, toDocument(entry, text));
+                }
+            }
+        } finally {
+            if (searcher != null) {
+                searchers.release(searcher);
+            }
+        }
+    }
+
+    /**
+     * Start rebuilding the index. Searches continue to see the existing index until
+     * {@link #finishRebuild()} swaps in the rebuilt one, and changes applied in the
+     * meantime are held back until then, so they take precedence over the rebuilt entries.
+     * The changes from which the new index is built are passed to {@link #rebuild(Changes)}.
+     */
+    public synchronized void startRebuild() throws IOException {
+        if (deferred != null) {
+            throw new EpiException("Search index is already being rebuilt");
+        }
+        deferred = new Changes();
+        writer.deleteAll();
+    }
+
+    /**
+     * Add a batch of entries to an index being rebuilt
+     */
+    public void rebuild(Changes changes) throws IOException {
+        if (deferred == null) {
+            throw new EpiException("Search index is not being rebuilt");
+        }
+        write(changes, false);
+    }
+
+    /**
+     * Apply any changes held back during the rebuild and make the rebuilt index visible.
+     * If the rebuild failed this still publishes what was built, the index will then need
+     * to be rebuilt again.
+     */
+    public synchronized void finishRebuild() throws IOException {
+        Changes changes = deferred;
+        deferred = null;
+        if (changes != null) {
+            write(changes, true);
+        }
+        writer.commit();
+        searchers.maybeRefresh();
+    }
+
+    protected Document toDocument(Entry entry, Collection<String> text) {
+        Document doc = new Document();
+        doc.add( new StringField(FIELD_ITEM, entry.itemURI, Field.Store.YES) );
+        doc.add( new SortedDocValuesField(FIELD_ITEM, new BytesRef(entry.itemURI)) );
+        doc.add( new StringField(FIELD_ENTITY, entry.entityURI, Field.Store.YES) );
+        doc.add( new StringField(FIELD_REGISTER, entry.registerURI, Field.Store.YES) );
+        if (entry.statusURI != null) {
+            doc.add( new StringField(FIELD_STATUS, entry.statusURI, Field.Store.YES) );
+        }
+        for (String value : text) {
+            doc.add( new TextField(FIELD_TEXT, value, Field.Store.YES) );
+        }
+        return doc;
+    }
+
+    /**
+     * Remove all entries
+     */
+    public synchronized void clear() throws IOException {
+        writer.deleteAll();
+        writer.commit();
+        searchers.maybeRefresh();
+    }
+
+    /**
+     * Return the number of items indexed
+     */
+    public int size() throws IOException {
+        IndexSearcher searcher = searchers.acquire();
+        try {
+            return searcher.getIndexReader().numDocs();
+        } finally {
+            searchers.release(searcher);
+        }
+    }
+
+    public synchronized void close() {
+        try {
+            searchers.close();
+            writer.close();
+            directory.close();
+        } catch (IOException e) {
+            log.warn("Problem closing search index", e);
+        }
+    }
+
+    /**
+     * The indexed state of a register item
+     */
+    public static class Entry {
+        protected final String itemURI;
+        protected final String entityURI;
+        protected final String registerURI;
+        protected final String statusURI;
+        protected final Collection<String> text;
+
+        /**
+         * @param statusURI the URI of the item's status, may be null
+         * @param text the values of the text indexed properties of the entity
+         */
+        public Entry(String itemURI, String entityURI, String registerURI, String statusURI, Collection<String> text) {
+            this.itemURI = itemURI;
+            this.entityURI = entityURI;
+            this.registerURI = registerURI;
+            this.statusURI = statusURI;
+            this.text = text;
+        }
+    }
+
+    /**
+     * A set of changes to the index, at most one per item.
+     */
+    public static class Changes {
+        protected final Map<String, Entry> changes = new LinkedHashMap<>();
+
+        public void update(Entry entry) {
+            changes.put(entry.itemURI, entry);
+        }
+
+        public void delete(String itemURI) {
+            changes.put(itemURI, null);
+        }
+
+        public void addAll(Changes other) {
+            changes.putAll(other.changes);
+        }
+
+        public boolean isEmpty() {
+            return changes.isEmpty();
+        }
+
+        public int size() {
+            return changes.size();
+        }
+    }
+}
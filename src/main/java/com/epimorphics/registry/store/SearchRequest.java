@@ -32,6 +32,7 @@ public class SearchRequest {
     protected String query;
     protected Integer offset;
     protected Integer limit;
+    protected String after;
     protected boolean searchVersions;
     protected String status;
     protected List<FilterSpec> filters = new ArrayList<>();
@@ -76,6 +77,23 @@ public class SearchRequest {
         return this;
     }
     
+    public String getAfter() {
+        return after;
+    }
+
+    /**
+     * Only return matches whose URI sorts after the given URI. Results are then
+     * returned in URI order so that successive pages can be fetched by passing
+     * the last URI of the previous page, in place of an offset.
+     * An empty string starts from the first match.
+     * This is only cheap when answered from a {@link SearchIndex}, a search
+     * of the triple store still has to order all the matches for each page.
+     */
+    public SearchRequest setAfter(String after) {
+        this.after = after;
+        return this;
+    }
+    
     public boolean isSearchVersions() {
         return searchVersions;
     }
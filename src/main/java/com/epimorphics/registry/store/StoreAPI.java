@@ -24,6 +24,7 @@ package com.epimorphics.registry.store;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.jena.riot.system.StreamRDF;
 
@@ -31,6 +32,7 @@ import com.epimorphics.registry.core.Description;
 import com.epimorphics.registry.core.ForwardingRecord;
 import com.epimorphics.registry.core.Register;
 import com.epimorphics.registry.core.RegisterItem;
+import com.epimorphics.registry.core.Status;
 import org.apache.jena.query.ResultSet;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.Resource;
@@ -117,6 +119,16 @@ public interface StoreAPI {
      */
     public Description getVersionAt(String uri, long time);
 
+    /**
+     * Return the versions of a set of versioned resources which were valid at a given time,
+     * resolved together which is much cheaper than calling {@link #getVersionAt(String, long)} for each.
+     * @param uris the uris of the base VersionedThings
+     * @param time the timestamp at which the desired versions were valid
+     * @return map from base uri to a Description merging the selected Version and the root VersionedThing,
+     * in the order of the given uris, omitting any resources with no version valid at that time
+     */
+    public Map<String, Description> getVersionsAt(List<String> uris, long time);
+
     /**
      * Return the effective timestamp of a versioned resource
      */
@@ -128,6 +140,26 @@ public interface StoreAPI {
      */
     public List<VersionInfo> listVersions(String uri);
 
+    /**
+     * Return information on the current version of a VersionedThing, without
+     * fetching its description. Cheap enough to use to validate cached copies.
+     * @param uri the uri of the base VersionedThing
+     * @return the version information, or null if the resource does not exist or is not versioned
+     */
+    public VersionInfo getCurrentVersionInfo(String uri);
+
+    /**
+     * Return a stamp for the most recent committed change to the members of a register,
+     * including status changes and updates to member items. Stamps are times in ms,
+     * no earlier than the store was started and strictly increasing across commits.
+     * Changes from before the store was started are not tracked, so callers should also
+     * take the version of the register itself into account.
+     * Must be called within a read transaction.
+     * @return the stamp, or -1 if it cannot be determined consistently with the
+     * current transaction, for example because a commit has happened since it started
+     */
+    public long getMembershipChangeStamp(String registerURI);
+
     // --- Methods for accessing linked register resources ---
 
     /**
@@ -163,6 +195,31 @@ public interface StoreAPI {
      */
     public List<RegisterItem> fetchAll(List<String> itemURIs, boolean withEntity);
 
+    /**
+     * Retrieve a set of RegisterItems in a single pass over the store, avoiding
+     * a separate retrieval for each item.
+     * @param itemURIs the URIs of the items to retrieve
+     * @param itemModel model into which the item descriptions should be added
+     * @param entityModel model into which the entity definitions should be added, may be the same as
+     * the itemModel, or null if the entities are not required
+     */
+    public List<RegisterItem> fetchAll(List<String> itemURIs, Model itemModel, Model entityModel);
+
+    /**
+     * Add the entities defined by a set of RegisterItems to a model, equivalent to
+     * calling getEntity on each but copying each source graph only once.
+     * @param items the items, which may be versions other than the current one
+     * @param entityModel model into which the entity definitions should be added
+     */
+    public void fetchEntities(List<RegisterItem> items, Model entityModel);
+
+    /**
+     * Add the descriptions of the current versions of a set of resources to a model,
+     * equivalent to calling getCurrentVersion on each.
+     * @return the destination model
+     */
+    public Model fetchAllCurrentVersions(List<String> uris, Model dest);
+
     /**
      * List all members of a register. This gives a low cost way to enumerate the core information
      * on the members without fetching and merging version and entity descriptions.
@@ -174,12 +231,44 @@ public interface StoreAPI {
      */
     public List<RegisterEntryInfo> listMembers(Register register, List<FilterSpec> filters);
 
+    /**
+     * Return a window onto the members of a register, in notation order, selecting
+     * just those members with a given status which pass the given filter criteria.
+     * @param register the register
+     * @param status only include members whose status is a specialization of this status, use null as a wildcard
+     * @param filters set of filters to apply to the member entities, may be null if no filtering needed
+     * @param offset number of matching members to skip
+     * @param length the maximum number of members to return, -1 for no limit
+     */
+    public MemberWindow listMembers(Register register, Status status, List<FilterSpec> filters, int offset, int length);
+
+    /**
+     * Return a window onto the members of a register which follow a given notation,
+     * in notation order. Since notations are unique within a register this allows
+     * pages to be fetched by key rather than by position, which costs the same
+     * however deep the page and is stable under concurrent additions and deletions.
+     * @param register the register
+     * @param status only include members whose status is a specialization of this status, use null as a wildcard
+     * @param filters set of filters to apply to the member entities, may be null if no filtering needed
+     * @param after cursor from the last member of the previous page, see {@link RegisterEntryInfo#getCursor()},
+     * null or empty to start from the first member
+     * @param length the maximum number of members to return, -1 for no limit
+     */
+    public MemberWindow listMembersAfter(Register register, Status status, List<FilterSpec> filters, String after, int length);
+
     /**
      * Find all places where the given entity is registered and return the URIs for the coresponding
      * item and the register it is in.
      */
     public List<EntityInfo> listEntityOccurences(String uri);
 
+    /**
+     * Find all places where each of a set of entities is registered, as for {@link #listEntityOccurences(String)}
+     * but much cheaper than looking up each in turn.
+     * @return map from each distinct entity URI, in the order given, to its occurrences, which may be empty
+     */
+    public Map<String, List<EntityInfo>> listEntityOccurences(List<String> uris);
+
     // --- Methods for updating information in the store ---
 
     /**
@@ -25,10 +25,14 @@ import static com.epimorphics.rdfutil.QueryUtil.createBindings;
 import static com.epimorphics.rdfutil.QueryUtil.selectAll;
 import static com.epimorphics.rdfutil.QueryUtil.selectFirstVar;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.jena.graph.Graph;
 import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.graph.Triple;
 import org.apache.jena.query.*;
 import org.apache.jena.rdf.model.*;
@@ -36,7 +40,9 @@ import org.apache.jena.riot.system.StreamRDF;
 import org.apache.jena.sparql.core.DatasetGraph;
 import org.apache.jena.sparql.core.Quad;
 import org.apache.jena.sparql.util.Closure;
+import org.apache.jena.sparql.util.FmtUtils;
 import org.apache.jena.util.FileManager;
+import org.apache.jena.util.iterator.ExtendedIterator;
 import org.apache.jena.vocabulary.DCTerms;
 import org.apache.jena.vocabulary.OWL;
 import org.apache.jena.vocabulary.RDF;
@@ -44,6 +50,7 @@ import org.apache.jena.vocabulary.SKOS;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.epimorphics.appbase.core.App;
 import com.epimorphics.appbase.core.ComponentBase;
 import com.epimorphics.rdfutil.QueryUtil;
 import com.epimorphics.rdfutil.RDFUtil;
@@ -73,6 +80,19 @@ import com.epimorphics.vocabs.Time;
  * parameter). The configured store should <strong>not</strong> use
  * union-default.
  * </p>
+ * <p>
+ * Optionally ("searchIndex" parameter) free text searches can be answered from a
+ * {@link SearchIndex} of the current items which is maintained as items are registered.
+ * </p>
+ * <p>
+ * Point in time lookups of versions are answered from a {@link VersionIntervalIndex},
+ * which can be disabled by setting "indexVersions" to false.
+ * </p>
+ * <p>
+ * Lookups of the items defining an entity are answered from an {@link EntityOccurrenceIndex},
+ * which can be disabled by setting "indexEntities" to false. The index is loaded on a
+ * background thread, lookups query the store until it is ready.
+ * </p>
  * 
  * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
  */
@@ -86,52 +106,148 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
     public static final String INDEXER_PARAMETER = "indexer";
 
     protected Store store;
-    protected boolean inTransaction = false;
-    protected int safeBlockCount = 0;
+    protected MembershipIndex membershipIndex = new MembershipIndex();
+    protected boolean indexMembership = true;
+    protected VersionIntervalIndex versionIndex = new VersionIntervalIndex();
+    protected boolean indexVersions = true;
+    protected EntityOccurrenceIndex entityIndex = new EntityOccurrenceIndex();
+    protected boolean indexEntities = true;
+    protected final AtomicBoolean entityIndexLoading = new AtomicBoolean(false);
+    protected SearchIndex searchIndex;
+    protected List<Property> searchProperties;
+
+    /**
+     * Transaction bookkeeping for the current thread. TDB transactions are
+     * themselves per-thread so there is no need for readers to share any state.
+     */
+    protected static class TransactionContext {
+        boolean inTransaction = false;
+        boolean write = false;
+        int safeBlockCount = 0;
+        long indexGeneration;
+        long versionGeneration;
+        long entityGeneration;
+        MembershipIndex.Changes indexChanges = new MembershipIndex.Changes();
+        VersionIntervalIndex.Changes versionChanges = new VersionIntervalIndex.Changes();
+        EntityOccurrenceIndex.Changes entityChanges = new EntityOccurrenceIndex.Changes();
+        SearchIndex.Changes searchChanges = new SearchIndex.Changes();
+    }
+
+    protected final ThreadLocal<TransactionContext> transaction = new ThreadLocal<TransactionContext>() {
+        @Override
+        protected TransactionContext initialValue() {
+            return new TransactionContext();
+        }
+    };
 
     @Override
-    public synchronized void beginRead() {
+    public void beginRead() {
+        TransactionContext tx = transaction.get();
+        tx.indexGeneration = membershipIndex.getGeneration();
+        tx.versionGeneration = versionIndex.getGeneration();
+        tx.entityGeneration = entityIndex.getGeneration();
         store.lock();
-        inTransaction = true;
+        tx.inTransaction = true;
+        tx.write = false;
     }
     
     @Override
-    public synchronized void beginWrite() {
+    public void beginWrite() {
+        TransactionContext tx = transaction.get();
         store.lockWrite();
-        inTransaction = true;
+        // The entity index can only serve a writer if it was loaded and up to date when the writer started
+        tx.entityGeneration = entityIndex.isLoaded() ? entityIndex.getGeneration() : -1;
+        tx.inTransaction = true;
+        tx.write = true;
     }
 
     @Override
     public void commit() {
-        store.commit();
+        TransactionContext tx = transaction.get();
+        MembershipIndex.Changes changes = tx.indexChanges;
+        tx.indexChanges = new MembershipIndex.Changes();
+        VersionIntervalIndex.Changes versionChanges = tx.versionChanges;
+        tx.versionChanges = new VersionIntervalIndex.Changes();
+        EntityOccurrenceIndex.Changes entityChanges = tx.entityChanges;
+        tx.entityChanges = new EntityOccurrenceIndex.Changes();
+        // Bracket the commit so readers can tell their snapshot may not match the index
+        membershipIndex.startCommit();
+        versionIndex.startCommit();
+        entityIndex.startCommit();
+        boolean entitiesLoaded = entityIndex.isLoaded();
+        try {
+            store.commit();
+        } catch (RuntimeException e) {
+            changes = new MembershipIndex.Changes();
+            versionChanges = new VersionIntervalIndex.Changes();
+            entityChanges = new EntityOccurrenceIndex.Changes();
+            throw e;
+        } finally {
+            membershipIndex.apply(changes);
+            versionIndex.apply(versionChanges);
+            entityIndex.apply(entityChanges);
+        }
+        if (!entityIndex.isLoaded()) {
+            if (entitiesLoaded && entityIndex.isFull()) {
+                log.warn("Entity index limit of " + entityIndex.getMaxItems() + " items exceeded, entity lookups will query the store");
+            }
+            // Bulk changes drop the entity index
+            scheduleEntityIndexLoad();
+        }
+        applySearchChanges(tx);
     }
     
     @Override
     public void abort() {
         store.abort();
+        transaction.get().indexChanges = new MembershipIndex.Changes();
+        transaction.get().versionChanges = new VersionIntervalIndex.Changes();
+        transaction.get().entityChanges = new EntityOccurrenceIndex.Changes();
+        transaction.get().searchChanges = new SearchIndex.Changes();
     }
     
     @Override
-    public synchronized void end() {
+    public void end() {
         store.end();
-        inTransaction = false;
+        TransactionContext tx = transaction.get();
+        tx.inTransaction = false;
+        tx.write = false;
+        if ( !tx.indexChanges.isEmpty() ) {
+            // Ended without commit so discard any staged changes
+            tx.indexChanges = new MembershipIndex.Changes();
+        }
+        if ( !tx.versionChanges.isEmpty() ) {
+            tx.versionChanges = new VersionIntervalIndex.Changes();
+        }
+        if ( !tx.entityChanges.isEmpty() ) {
+            tx.entityChanges = new EntityOccurrenceIndex.Changes();
+        }
+        if ( !tx.searchChanges.isEmpty() ) {
+            tx.searchChanges = new SearchIndex.Changes();
+        }
+        if (tx.safeBlockCount == 0) {
+            // Avoid leaving state attached to pooled container threads
+            transaction.remove();
+        }
     }
     
     @Override
-    public synchronized void beginSafeRead() {
-        if (!inTransaction) {
+    public void beginSafeRead() {
+        TransactionContext tx = transaction.get();
+        if (!tx.inTransaction) {
             beginRead();
-            safeBlockCount++;
-        } else if (safeBlockCount > 0) {
-            safeBlockCount++;
+            tx.safeBlockCount++;
+        } else if (tx.safeBlockCount > 0) {
+            tx.safeBlockCount++;
         }
     }
     
     @Override
-    public synchronized void endSafeRead() {
-        if (safeBlockCount > 0) {
-            safeBlockCount --;
-            if (safeBlockCount == 0) {
+    public void endSafeRead() {
+        TransactionContext tx = transaction.get();
+        if (tx.safeBlockCount > 0) {
+            tx.safeBlockCount --;
+            if (tx.safeBlockCount == 0) {
                 end();
             }
         }
@@ -145,6 +261,78 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
     public void setStore(Store store) {
         this.store = store;
     }
+
+    /**
+     * Set to false to disable the in-memory register membership index
+     * and always list members by querying the store.
+     */
+    public void setIndexMembership(boolean indexMembership) {
+        this.indexMembership = indexMembership;
+    }
+
+    /**
+     * Set the limit on the total number of register entries held in the membership index,
+     * least recently used registers are dropped beyond this.
+     */
+    public void setMembershipIndexLimit(long limit) {
+        membershipIndex.setMaxEntries(limit);
+    }
+
+    /**
+     * Set to false to disable the in-memory index of version intervals
+     * and always find the version valid at a given time by querying the store.
+     */
+    public void setIndexVersions(boolean indexVersions) {
+        this.indexVersions = indexVersions;
+    }
+
+    /**
+     * Set the limit on the total number of versions held in the version interval index,
+     * least recently used resources are dropped beyond this.
+     */
+    public void setVersionIndexLimit(long limit) {
+        versionIndex.setMaxVersions(limit);
+    }
+
+    /**
+     * Set to false to disable the in-memory index from entities to the items which define them
+     * and always look up entity occurrences by querying the store.
+     */
+    public void setIndexEntities(boolean indexEntities) {
+        this.indexEntities = indexEntities;
+    }
+
+    /**
+     * Set the limit on the number of items held in the entity index, beyond
+     * this the index is dropped and entity lookups query the store.
+     */
+    public void setEntityIndexLimit(long limit) {
+        entityIndex.setMaxItems(limit);
+    }
+
+    /**
+     * Set the location of a Lucene index of the current items to use for free text search,
+     * or "mem" for an in-memory index. If not set then searches query the store's jena-text index.
+     */
+    public void setSearchIndex(String location) {
+        searchIndex = SearchIndex.open( SearchIndex.MEMORY_LOCATION.equals(location) ? location : expandFileLocation(location) );
+    }
+
+    @Override
+    public void startup(App app) {
+        super.startup(app);
+        scheduleEntityIndexLoad();
+        if (searchIndex != null) {
+            try {
+                if (searchIndex.size() == 0) {
+                    log.info("Search index is empty, rebuilding");
+                    rebuildSearchIndex();
+                }
+            } catch (IOException e) {
+                throw new EpiException("Failed to access search index", e);
+            }
+        }
+    }
     
     @Override
     public void storeGraph(String graphURI,Model entityModel) {
@@ -199,14 +387,11 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
     }
 
     protected Resource doGetCurrentVersion(String uri, Model dest) {
-        Resource root = describe(uri, dest);
-        Resource version = root
-                .getPropertyResourceValue(Version.currentVersion);
-        if (version != null) {
-            Closure.closure(mod(version), false, root.getModel());
-            VersionUtil.flatten(root, version);
+        if (dest == null) {
+            dest = ModelFactory.createDefaultModel();
         }
-        return root;
+        copyCurrentVersion(getDefaultModel().getGraph(), NodeFactory.createURI(uri), dest.getGraph());
+        return dest.getResource(uri);
     }
 
     @Override
@@ -219,21 +404,30 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
     }
 
     protected Description doGetVersion(String uri, boolean flatten) {
-        Resource version = describe(uri, null);
-        Resource root = version.getPropertyResourceValue(DCTerms.isVersionOf);
-        if (root != null) {
-            Closure.closure(mod(root), false, version.getModel());
-            if (flatten)
-                VersionUtil.flatten(root, version);
-        } else {
+        Graph src = getDefaultModel().getGraph();
+        Node version = NodeFactory.createURI(uri);
+        Node root = firstObject(src, version, DCTerms.isVersionOf.asNode());
+        if (root == null) {
             throw new EpiException(
                     "Version requested on resource with no isVersionOf root");
         }
-        return asDescription(root);
+        Model dest = ModelFactory.createDefaultModel();
+        if (flatten) {
+            copyFlattened(src, root, version, dest.getGraph());
+        } else {
+            Set<Node> visited = new HashSet<>();
+            copyClosure(src, version, version, null, dest.getGraph(), visited);
+            copyClosure(src, root, root, null, dest.getGraph(), visited);
+        }
+        return asDescription( dest.getResource(root.getURI()) );
     }
 
     @Override
     public Description getVersionAt(String uri, long time) {
+        if (useVersionIndex()) {
+            String version = findVersionsAt(Collections.singletonList(uri), time).get(uri);
+            return version == null ? null : doGetVersion(version, true);
+        }
         RDFNode version = selectFirstVar("version", getDefaultModel(),
                 VERSION_AT_QUERY, Prefixes.getDefault(), "root",
                 ResourceFactory.createResource(uri), "time",
@@ -245,6 +439,62 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
         }
     }
 
+    @Override
+    public Map<String, Description> getVersionsAt(List<String> uris, long time) {
+        Map<String, Description> results = new LinkedHashMap<>();
+        if (useVersionIndex()) {
+            Map<String, String> versions = findVersionsAt(uris, time);
+            for (String uri : uris) {
+                String version = versions.get(uri);
+                if (version != null) {
+                    results.put(uri, doGetVersion(version, true));
+                }
+            }
+        } else {
+            for (String uri : uris) {
+                Description d = getVersionAt(uri, time);
+                if (d != null) {
+                    results.put(uri, d);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * The version index reflects committed state so a write transaction, which may
+     * have made new versions of its own, has to query the store.
+     */
+    protected boolean useVersionIndex() {
+        return indexVersions && !transaction.get().write;
+    }
+
+    /**
+     * Find the URIs of the versions of the given resources valid at the given time,
+     * from the version index, reading and indexing the versions of any resources
+     * not yet indexed. Must be called within a read transaction.
+     */
+    protected Map<String, String> findVersionsAt(List<String> uris, long time) {
+        TransactionContext tx = transaction.get();
+        Graph src = null;
+        Map<String, String> versions = new HashMap<>();
+        for (String uri : uris) {
+            VersionIntervalIndex.Intervals intervals = versionIndex.get(uri);
+            if (intervals == null) {
+                if (src == null) {
+                    src = getDefaultModel().getGraph();
+                }
+                intervals = VersionIntervalIndex.read(src, NodeFactory.createURI(uri));
+                versionIndex.load(uri, intervals, tx.versionGeneration);
+            }
+            String version = intervals.versionAt(time);
+            if (version != null) {
+                versions.put(uri, version);
+            }
+        }
+        return versions;
+    }
+
     static String VERSION_AT_QUERY = "SELECT ?version WHERE \n"
             + "{  \n"
             + "    ?version dct:isVersionOf ?root; \n"
@@ -274,6 +524,37 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
         return results;
     }
 
+    @Override
+    public VersionInfo getCurrentVersionInfo(String uri) {
+        Resource root = getDefaultModel().getResource(uri);
+        Resource version = root.getPropertyResourceValue(Version.currentVersion);
+        if (version == null) {
+            return null;
+        }
+        Statement info = version.getProperty(OWL.versionInfo);
+        if (info == null) {
+            return null;
+        }
+        Literal from = null;
+        Resource interval = version.getPropertyResourceValue(Version.interval);
+        if (interval != null) {
+            Resource beginning = interval.getPropertyResourceValue(Time.hasBeginning);
+            if (beginning != null && beginning.hasProperty(Time.inXSDDateTime)) {
+                from = beginning.getProperty(Time.inXSDDateTime).getLiteral();
+            }
+        }
+        return new VersionInfo(version, info.getLiteral(), from, null);
+    }
+
+    @Override
+    public long getMembershipChangeStamp(String registerURI) {
+        TransactionContext tx = transaction.get();
+        if (!tx.inTransaction || tx.write) {
+            return -1;
+        }
+        return membershipIndex.getChangeStamp(registerURI, tx.indexGeneration);
+    }
+
     static String VERSION_LIST_QUERY = "SELECT ?version ?info ?from ?to ?replaces WHERE \n"
             + "{  \n"
             + "    ?version dct:isVersionOf ?root; \n"
@@ -296,6 +577,130 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
 
     @Override
     public List<EntityInfo> listEntityOccurences(String uri) {
+        return listEntityOccurences(Collections.singletonList(uri)).get(uri);
+    }
+
+    @Override
+    public Map<String, List<EntityInfo>> listEntityOccurences(List<String> uris) {
+        TransactionContext tx = transaction.get();
+        boolean indexed = useEntityIndex(tx);
+        Map<String, List<EntityInfo>> results = new LinkedHashMap<>();
+        for (String uri : uris) {
+            if (results.containsKey(uri)) continue;
+            if (indexed && !tx.entityChanges.touches(uri)) {
+                results.put(uri, entityIndex.get(uri));
+            } else {
+                results.put(uri, queryEntityOccurences(uri));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Test if the entity index can answer lookups for this transaction, loading it if need be.
+     * Readers can load and use it. A writer can only use it if it was loaded and current
+     * when the writer started, and then only for entities the writer has not changed.
+     */
+    protected boolean useEntityIndex(TransactionContext tx) {
+        if (!indexEntities || !tx.inTransaction) {
+            return false;
+        }
+        if (tx.write) {
+            return tx.entityGeneration == entityIndex.getGeneration() && (tx.entityGeneration & 1) == 0;
+        }
+        if (!entityIndex.isLoaded()) {
+            scheduleEntityIndexLoad();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Start loading the entity index on a background thread, unless it is
+     * already loaded, being loaded or too large to load.
+     */
+    protected void scheduleEntityIndexLoad() {
+        if (!indexEntities || entityIndex.isLoaded() || entityIndex.isFull()
+                || !entityIndexLoading.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread( () -> {
+            try {
+                // A commit during the scan means it must be repeated, give up after
+                // a few attempts and leave it to a later lookup to try again
+                for (int attempt = 0; attempt < ENTITY_INDEX_LOAD_ATTEMPTS && !loadEntityIndex(); attempt++) {
+                    log.debug("Entity index load overtaken by a commit");
+                }
+            } catch (Exception e) {
+                log.error("Failed to load entity index", e);
+            } finally {
+                entityIndexLoading.set(false);
+            }
+        }, "entity-index-load");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    static final int ENTITY_INDEX_LOAD_ATTEMPTS = 3;
+
+    /**
+     * Load the entity index from a read transaction on the calling thread.
+     * @return false if a commit happened during the load, so that it must be repeated
+     */
+    public boolean loadEntityIndex() {
+        beginRead();
+        try {
+            if (entityIndex.isLoaded() || entityIndex.isFull()) {
+                return true;
+            }
+            long limit = entityIndex.getMaxItems();
+            List<EntityOccurrenceIndex.Occurrence> occurrences = new ArrayList<>();
+            for (ResIterator i = getDefaultModel().listSubjectsWithProperty(RegistryVocab.register); i.hasNext() && occurrences.size() <= limit;) {
+                EntityOccurrenceIndex.Occurrence o = entityOccurrence( i.next() );
+                if (o != null) {
+                    occurrences.add(o);
+                }
+            }
+            if (entityIndex.load(occurrences, transaction.get().entityGeneration)) {
+                log.info("Loaded entity index with " + occurrences.size() + " items");
+            } else if (entityIndex.isFull()) {
+                log.warn("Entity index limit of " + limit + " items exceeded, entity lookups will query the store");
+            }
+            return entityIndex.isLoaded() || entityIndex.isFull();
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * Stage an update to the entity index to reflect the current state of the item.
+     * Only used within write transactions.
+     */
+    protected void indexEntity(Resource item) {
+        transaction.get().entityChanges.update(item.getURI(), entityOccurrence(item), entityIndex.entityOf(item.getURI()));
+    }
+
+    /**
+     * Extract the entity defined by an item, as found by {@link #ENTITY_FIND_QUERY},
+     * returns null if it is not a complete item
+     */
+    protected EntityOccurrenceIndex.Occurrence entityOccurrence(Resource itemRef) {
+        Resource item = mod(itemRef);
+        Resource register = item.getPropertyResourceValue(RegistryVocab.register);
+        Resource version = item.getPropertyResourceValue(Version.currentVersion);
+        if (register == null || !register.isURIResource() || version == null) {
+            return null;
+        }
+        Resource status = version.getPropertyResourceValue(RegistryVocab.status);
+        Resource definition = version.getPropertyResourceValue(RegistryVocab.definition);
+        Resource entity = definition == null ? null : definition.getPropertyResourceValue(RegistryVocab.entity);
+        if (status == null || !status.isURIResource() || entity == null || !entity.isURIResource()) {
+            return null;
+        }
+        return new EntityOccurrenceIndex.Occurrence(entity.getURI(), item.getURI(), register.getURI(), status.getURI());
+    }
+
+    protected List<EntityInfo> queryEntityOccurences(String uri) {
         Resource entity = ResourceFactory.createResource(uri);
         ResultSet matches = QueryUtil.selectAll(getDefaultModel(),
                 ENTITY_FIND_QUERY, Prefixes.getDefault(), "entity", entity);
@@ -378,19 +783,124 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
     @Override
     public List<RegisterItem> fetchAll(List<String> itemURIs, boolean withEntity) {
         Model shared = ModelFactory.createDefaultModel();
-        List<RegisterItem> results = new ArrayList<RegisterItem>(
-                itemURIs.size());
+        return fetchAll(itemURIs, shared, withEntity ? shared : null);
+    }
+
+    @Override
+    public List<RegisterItem> fetchAll(List<String> itemURIs, Model itemModel, Model entityModel) {
+        Graph src = getDefaultModel().getGraph();
+        List<RegisterItem> results = new ArrayList<RegisterItem>(itemURIs.size());
         for (String uri : itemURIs) {
-            Resource itemRoot = doGetCurrentVersion(uri, shared);
-            RegisterItem item = new RegisterItem(itemRoot);
-            if (withEntity) {
-                doGetEntity(item, shared, true);
-            }
-            results.add(item);
+            Node root = NodeFactory.createURI(uri);
+            copyCurrentVersion(src, root, itemModel.getGraph());
+            results.add( new RegisterItem(itemModel.getResource(uri)) );
+        }
+        if (entityModel != null) {
+            fetchEntities(results, entityModel);
         }
         return results;
     }
 
+    @Override
+    public void fetchEntities(List<RegisterItem> items, Model entityModel) {
+        Graph src = getDefaultModel().getGraph();
+        // Items from the same submission share a source graph, only copy it once
+        Set<String> copiedGraphs = new HashSet<>();
+        for (RegisterItem item : items) {
+            Resource entityRef = item.getRoot().getPropertyResourceValue(RegistryVocab.definition);
+            if (entityRef == null) {
+                log.warn("Item requested had no entity reference: " + item.getRoot());
+                continue;
+            }
+            Resource entity = entityRef.getPropertyResourceValue(RegistryVocab.entity);
+            Resource srcGraph = entityRef.getPropertyResourceValue(RegistryVocab.sourceGraph);
+            if (srcGraph != null) {
+                if (copiedGraphs.add(srcGraph.getURI())) {
+                    entityModel.add(store.asDataset().getNamedModel(srcGraph.getURI()));
+                }
+            } else {
+                // Occurs for versioned things i.e. Registers
+                copyCurrentVersion(src, entity.asNode(), entityModel.getGraph());
+            }
+            item.setEntity( entity.inModel(entityModel) );
+        }
+    }
+
+    @Override
+    public Model fetchAllCurrentVersions(List<String> uris, Model dest) {
+        Graph src = getDefaultModel().getGraph();
+        for (String uri : uris) {
+            copyCurrentVersion(src, NodeFactory.createURI(uri), dest.getGraph());
+        }
+        return dest;
+    }
+
+    /**
+     * Copy the description of the current version of a resource, following blank nodes,
+     * directly from the store graph.
+     */
+    protected void copyCurrentVersion(Graph src, Node root, Graph dest) {
+        copyFlattened(src, root, firstObject(src, root, Version.currentVersion.asNode()), dest);
+    }
+
+    /**
+     * Copy the flattened description of a version of a resource directly from the store graph.
+     * Gives the same result as the closures of the root and the version followed by
+     * VersionUtil.flatten but builds the flattened triples as they are read, rather
+     * than copying the version into a temporary model and then renaming it.
+     * @param version the version to flatten onto the root, if null the root is copied unchanged
+     */
+    protected void copyFlattened(Graph src, Node root, Node version, Graph dest) {
+        Set<Node> visited = new HashSet<>();
+        copyClosure(src, root, root, version, dest, visited);
+        if (version != null) {
+            copyClosure(src, version, root, version, dest, visited);
+        }
+    }
+
+    private void copyClosure(Graph src, Node subject, Node root, Node version, Graph dest, Set<Node> visited) {
+        // The version properties of the root are dropped by the flattening
+        boolean isRoot = version != null && (subject.equals(root) || subject.equals(version));
+        Node target = isRoot ? root : subject;
+        List<Node> bnodes = new ArrayList<>();
+        ExtendedIterator<Triple> i = src.find(subject, Node.ANY, Node.ANY);
+        try {
+            while (i.hasNext()) {
+                Triple t = i.next();
+                Node p = t.getPredicate();
+                if (isRoot && FLATTENED_PROPS.contains(p)) {
+                    continue;
+                }
+                Node o = t.getObject();
+                if (version != null && o.equals(version)) {
+                    o = root;
+                }
+                dest.add( Triple.create(target, p, o) );
+                if (o.isBlank() && visited.add(o)) {
+                    bnodes.add(o);
+                }
+            }
+        } finally {
+            i.close();
+        }
+        for (Node bnode : bnodes) {
+            copyClosure(src, bnode, root, version, dest, visited);
+        }
+    }
+
+    private static Node firstObject(Graph src, Node subject, Node predicate) {
+        ExtendedIterator<Triple> i = src.find(subject, predicate, Node.ANY);
+        try {
+            return i.hasNext() ? i.next().getObject() : null;
+        } finally {
+            i.close();
+        }
+    }
+
+    static final Set<Node> FLATTENED_PROPS = new HashSet<>( Arrays.asList(
+            Version.currentVersion.asNode(), Version.interval.asNode(),
+            DCTerms.isVersionOf.asNode(), DCTerms.replaces.asNode() ) );
+
     // public List<RegisterItem> doFetchMembers(Register register, boolean
     // withEntity) {
     // lockStore();
@@ -429,13 +939,112 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
     
     @Override
     public List<RegisterEntryInfo> listMembers(Register register, List<FilterSpec> filters) {
+        TransactionContext tx = transaction.get();
+        if (indexMembership && (filters == null || filters.isEmpty()) && tx.inTransaction && !tx.write) {
+            // Write transactions must see their own changes so only readers use the index
+            String uri = register.getRoot().getURI();
+            List<RegisterEntryInfo> members = membershipIndex.get(uri);
+            if (members == null) {
+                members = membershipIndex.load(uri, queryMembers(register.getRoot(), null, filters), tx.indexGeneration);
+            }
+            return members;
+        }
+        return queryMembers(register.getRoot(), null, filters);
+    }
+
+    @Override
+    public MemberWindow listMembers(Register register, Status status, List<FilterSpec> filters, int offset, int length) {
+        List<RegisterEntryInfo> members = indexedMembers(register, status, filters);
+        if (members != null) {
+            return MemberWindow.of(members, offset, length);
+        }
+        // Only materialize as far as needed to know if there is more beyond the window
+        int max = length < 0 ? -1 : offset + length + 1;
+        return MemberWindow.of( queryMembers(register.getRoot(), null, filters, status, null, null, max), offset, length);
+    }
+
+    @Override
+    public MemberWindow listMembersAfter(Register register, Status status, List<FilterSpec> filters, String after, int length) {
+        Literal afterNotation = null;
+        String afterItem = null;
+        if (after != null && !after.isEmpty()) {
+            if (after.contains("/")) {
+                // Notations can't contain a slash so this is the item URI of a member with no notation
+                afterItem = after;
+            } else {
+                afterNotation = cursorNotation(register, after);
+            }
+        }
+        List<RegisterEntryInfo> members = indexedMembers(register, status, filters);
+        if (members != null) {
+            int start = (afterNotation == null && afterItem == null) ? 0 : MembershipIndex.positionAfter(members, afterNotation, afterItem);
+            return MemberWindow.of(members, start, length);
+        }
+        int max = length < 0 ? -1 : length + 1;
+        return MemberWindow.of( queryMembers(register.getRoot(), null, filters, status, afterNotation, afterItem, max), 0, length);
+    }
+
+    /**
+     * Return the notation literal for a keyset cursor. Notations are compared by value
+     * and type, so this is the literal actually stored for the cursor member if it
+     * still exists, which may differ from the encoding used for new items.
+     */
+    protected Literal cursorNotation(Register register, String notation) {
+        Resource item = getDefaultModel().getResource( NameUtils.stripLastSlash(register.getRoot().getURI()) + "/_" + notation );
+        Statement stored = item.getProperty(RegistryVocab.notation);
+        if (stored != null && stored.getObject().isLiteral()) {
+            return stored.getLiteral();
+        }
+        return RegisterItem.notationLiteral(notation);
+    }
+
+    /**
+     * Return the indexed members of the register with the given status, or null if
+     * the index cannot be used for this request.
+     */
+    protected List<RegisterEntryInfo> indexedMembers(Register register, Status status, List<FilterSpec> filters) {
+        TransactionContext tx = transaction.get();
+        if (indexMembership && (filters == null || filters.isEmpty()) && tx.inTransaction && !tx.write) {
+            String uri = register.getRoot().getURI();
+            List<RegisterEntryInfo> members = membershipIndex.get(uri, status);
+            if (members == null) {
+                membershipIndex.load(uri, queryMembers(register.getRoot(), null, filters), tx.indexGeneration);
+                members = membershipIndex.get(uri, status);
+            }
+            return members;
+        }
+        return null;
+    }
+
+    /**
+     * Find the member entries of a register by querying the store.
+     * @param register the register
+     * @param member if not null, only return the entry for this item
+     * @param filters optional filters on the entities
+     */
+    protected List<RegisterEntryInfo> queryMembers(Resource register, Resource member, List<FilterSpec> filters) {
+        return queryMembers(register, member, filters, null, null, null, -1);
+    }
+
+    /**
+     * Find the member entries of a register by querying the store.
+     * @param register the register
+     * @param member if not null, only return the entry for this item
+     * @param filters optional filters on the entities
+     * @param status only return entries whose status is a specialization of this status, null for any
+     * @param after if not null, only return entries whose notation sorts after this one
+     * @param afterItem if not null, only return entries which follow this member with no notation
+     * @param max the maximum number of entries to return, -1 for no limit
+     */
+    protected List<RegisterEntryInfo> queryMembers(Resource register, Resource member, List<FilterSpec> filters, Status status, Literal after, String afterItem, int max) {
         String query = REGISTER_LIST_QUERY;
         if (filters != null) {
             query = query.replace("#filtertag", FilterSpec.asQuery(filters, "entity"));
         }
         ResultSet rs = selectAll(getDefaultModel(), query,
                 Prefixes.getDefault(),
-                createBindings("register", register.getRoot()));
+                member == null ? createBindings("register", register)
+                               : createBindings("register", register, "item", member));
         List<RegisterEntryInfo> results = new ArrayList<RegisterEntryInfo>();
         Resource priorItem = null;
         RegisterEntryInfo prior = null;
@@ -444,15 +1053,27 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
             try {
                 Resource item = soln.getResource("item");
                 if (item.equals(priorItem)) {
-                    prior.addLabel(soln.getLiteral("label"));
-                    prior.addType(soln.getResource("type"));
+                    if (prior != null) {
+                        prior.addLabel(soln.getLiteral("label"));
+                        prior.addType(soln.getResource("type"));
+                    }
                 } else {
-                    prior = new RegisterEntryInfo(soln.getResource("status"),
+                    if (max >= 0 && results.size() >= max) {
+                        break;
+                    }
+                    RegisterEntryInfo entry = new RegisterEntryInfo(soln.getResource("status"),
                             item, soln.getResource("entity"),
                             soln.getLiteral("label"), soln.getResource("type"),
                             soln.getLiteral("notation"));
                     priorItem = item;
-                    results.add(prior);
+                    boolean selected = (status == null || entry.getStatus().isA(status))
+                            && ((after == null && afterItem == null) || MembershipIndex.follows(entry, after, afterItem));
+                    if (selected) {
+                        prior = entry;
+                        results.add(prior);
+                    } else {
+                        prior = null;
+                    }
                 }
             } catch (ClassCastException e) {
                 log.warn("Skipping ill-formed resource: " + soln.get("item"));
@@ -463,6 +1084,131 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
         return results;
     }
 
+    /**
+     * Stage an update to the membership index to reflect the current state of the item.
+     * Only used within write transactions.
+     */
+    protected void indexMember(Resource register, Resource item) {
+        List<RegisterEntryInfo> entries = queryMembers(register, item, null);
+        transaction.get().indexChanges.update(register.getURI(), item.getURI(), entries.isEmpty() ? null : entries.get(0));
+        indexEntity(item);
+        indexSearch(item);
+    }
+
+    /**
+     * Stage an update to the search index, if any, to reflect the current state of the item.
+     * Only used within write transactions.
+     */
+    protected void indexSearch(Resource item) {
+        if (searchIndex != null) {
+            SearchIndex.Entry entry = searchEntry(item);
+            if (entry != null) {
+                transaction.get().searchChanges.update(entry);
+            }
+        }
+    }
+
+    /**
+     * Extract the state of an item needed for the search index, returns null if it is not a complete item
+     */
+    protected SearchIndex.Entry searchEntry(Resource itemRef) {
+        Resource item = mod(itemRef);
+        Resource register = item.getPropertyResourceValue(RegistryVocab.register);
+        Resource version = item.getPropertyResourceValue(Version.currentVersion);
+        if (register == null || version == null) {
+            return null;
+        }
+        Resource definition = version.getPropertyResourceValue(RegistryVocab.definition);
+        Resource entity = definition == null ? null : definition.getPropertyResourceValue(RegistryVocab.entity);
+        if (entity == null || !entity.isURIResource()) {
+            return null;
+        }
+        Resource status = version.getPropertyResourceValue(RegistryVocab.status);
+
+        if (searchProperties == null) {
+            searchProperties = store.getIndexedProperties();
+        }
+        Set<String> text = new LinkedHashSet<>();
+        addText(entity, text);
+        Resource entityVersion = entity.getPropertyResourceValue(Version.currentVersion);
+        if (entityVersion != null) {
+            addText(entityVersion, text);
+        }
+        Resource graph = definition.getPropertyResourceValue(RegistryVocab.sourceGraph);
+        if (graph != null) {
+            // Entities registered as graphs are only held in their named graph
+            addText(entity.inModel( store.asDataset().getNamedModel(graph.getURI()) ), text);
+        }
+        return new SearchIndex.Entry(item.getURI(), entity.getURI(), register.getURI(),
+                status == null ? null : status.getURI(), text);
+    }
+
+    private void addText(Resource r, Set<String> text) {
+        for (Property p : searchProperties) {
+            for (StmtIterator i = r.listProperties(p); i.hasNext();) {
+                RDFNode value = i.next().getObject();
+                if (value.isLiteral()) {
+                    text.add( value.asLiteral().getLexicalForm() );
+                }
+            }
+        }
+    }
+
+    protected void applySearchChanges(TransactionContext tx) {
+        SearchIndex.Changes changes = tx.searchChanges;
+        tx.searchChanges = new SearchIndex.Changes();
+        if (searchIndex != null && !changes.isEmpty()) {
+            try {
+                searchIndex.apply(changes);
+            } catch (IOException e) {
+                log.error("Failed to update search index, it will need to be rebuilt", e);
+            }
+        }
+    }
+
+    /**
+     * Rebuild the search index, if any, from the current items in the store.
+     * Searches are answered from the existing index until the rebuild is complete.
+     * @return the number of items indexed
+     */
+    public synchronized long rebuildSearchIndex() {
+        if (searchIndex == null) {
+            return 0;
+        }
+        long count = 0;
+        try {
+            // Start before taking the snapshot so that no later commit can be missed
+            searchIndex.startRebuild();
+            try {
+                beginRead();
+                try {
+                    SearchIndex.Changes changes = new SearchIndex.Changes();
+                    for (ResIterator i = getDefaultModel().listSubjectsWithProperty(RDF.type, RegistryVocab.RegisterItem); i.hasNext();) {
+                        SearchIndex.Entry entry = searchEntry( i.next() );
+                        if (entry != null) {
+                            changes.update(entry);
+                            count++;
+                        }
+                        if (changes.size() >= SEARCH_REBUILD_BATCH) {
+                            searchIndex.rebuild(changes);
+                            changes = new SearchIndex.Changes();
+                        }
+                    }
+                    searchIndex.rebuild(changes);
+                } finally {
+                    end();
+                }
+            } finally {
+                searchIndex.finishRebuild();
+            }
+        } catch (IOException e) {
+            throw new EpiException("Failed to rebuild search index", e);
+        }
+        log.info("Rebuilt search index with " + count + " items");
+        return count;
+    }
+    static final int SEARCH_REBUILD_BATCH = 1000;
+
     static String REGISTER_LIST_QUERY = "SELECT * WHERE { "
             + "?item reg:register ?register; "
             + "      version:currentVersion ?itemVer; "
@@ -490,6 +1236,14 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
         beginWrite();
         try {
             getDefaultModel().add(bootmodel);
+            transaction.get().indexChanges.clearAll();
+            transaction.get().versionChanges.clearAll();
+            transaction.get().entityChanges.clearAll();
+            if (searchIndex != null) {
+                for (ResIterator i = bootmodel.listSubjectsWithProperty(RDF.type, RegistryVocab.RegisterItem); i.hasNext();) {
+                    indexSearch( i.next() );
+                }
+            }
             commit();
         } finally {
             end();
@@ -512,6 +1266,7 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
         if (entity.hasProperty(RDF.type, RegistryVocab.Register)) {
             modCurrent(register).addProperty(RegistryVocab.subregister, entity);
         }
+        indexMember(register.getRoot(), item.getRoot());
         // Don't automatically update register, we want the option to do batch
         // updates
         // modCurrent(register).removeAll(DCTerms.modified).addProperty(DCTerms.modified,
@@ -534,7 +1289,23 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
 
     @Override
     public String update(Register register, Calendar timestamp) {
-        return doUpdateRegister(register.getRoot(), timestamp).getURI();
+        String uri = doUpdateRegister(register.getRoot(), timestamp).getURI();
+        touchParentRegister(register.getRoot().getURI());
+        return uri;
+    }
+
+    /**
+     * Stage a change stamp for the register containing the given register, whose
+     * views embed the version of the register as a member.
+     * Only used within write transactions.
+     */
+    protected void touchParentRegister(String registerURI) {
+        String uri = NameUtils.stripLastSlash(registerURI);
+        String itemURI = NameUtils.splitBeforeLast(uri, "/") + "/_" + NameUtils.splitAfterLast(uri, "/");
+        Resource parent = getDefaultModel().getResource(itemURI).getPropertyResourceValue(RegistryVocab.register);
+        if (parent != null) {
+            transaction.get().indexChanges.touch(parent.getURI());
+        }
     }
 
     @Override
@@ -563,6 +1334,8 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
 
     protected Resource doUpdate(Resource root, Calendar cal, Property... rigids) {
         Resource newVersion = VersionUtil.nextVersion(root, cal, rigids);
+        transaction.get().versionChanges.addVersion(root.getURI(), newVersion.getURI(),
+                RDFUtil.getIntValue(newVersion, OWL.versionInfo, 0), cal.getTimeInMillis());
         Model st = getDefaultModel();
         root.inModel(st).removeAll(OWL.versionInfo)
                 .removeAll(Version.currentVersion);
@@ -587,7 +1360,12 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
     @Override
     public String update(RegisterItem item, boolean withEntity,
             Calendar timestamp) {
-        return doUpdateItem(item, withEntity, timestamp);
+        String version = doUpdateItem(item, withEntity, timestamp);
+        Resource register = mod(item).getPropertyResourceValue(RegistryVocab.register);
+        if (register != null) {
+            indexMember(register, item.getRoot());
+        }
+        return version;
     }
 
     @Override
@@ -681,11 +1459,27 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
 
     @Override
     public List<String> search(SearchRequest request) {
+        if (searchIndex != null && SearchIndex.supports(request)) {
+            try {
+                return searchIndex.search(request);
+            } catch (Exception e) {
+                log.error("Search failed on query " + request.getQuery(), e);
+                return Collections.emptyList();
+            }
+        }
         try {
             // SelectBuilder doesn't support property paths so use brute force
             // string bashing
             String query = request.isSearchVersions() ? QUERY_VERSION_TEMPLATE : QUERY_TEMPLATE;
             query = query.replace("?text", safeLiteral(request.getQuery()) );
+            String afterStr = "";
+            if (request.getAfter() != null) {
+                // Bound each text match as soon as ?item is known, so that the filters and
+                // ordering below only see items after the cursor. The text index itself
+                // can't be bounded on item URIs so still returns every match.
+                afterStr = String.format("FILTER(STR(?item) > %s)", FmtUtils.stringForString(request.getAfter()));
+            }
+            query = query.replace("#$AFTER$", afterStr);
             String filterStr = "";
             
             if (request.getStatus() != null) {
@@ -697,11 +1491,16 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
             filterStr += FilterSpec.asQuery(request.getFilters(), "entity");
             query = query.replace("#$FILTER$", filterStr);
 
+            if (request.getAfter() != null) {
+                // Keyset paging needs a stable order, offset is then redundant
+                query += " ORDER BY ?item ";
+            }
+
             if (request.getLimit() != null) {
                 query += "LIMIT " + request.getLimit() + " ";
             }
 
-            if (request.getOffset() != null) {
+            if (request.getOffset() != null && request.getAfter() == null) {
                 query +=  "OFFSET " + request.getOffset();
             }
 
@@ -765,9 +1564,11 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
             + "    {\n"
             + "        ?entity text:query '?text' .\n"
             + "        ?item version:currentVersion/reg:definition/reg:entity ?entity.\n"
+            + "        #$AFTER$\n"
             + "    } UNION {\n"
             + "        ?entity text:query '?text' .\n"
             + "        ?item version:currentVersion/reg:definition/reg:entity/version:currentVersion ?entity.\n"
+            + "        #$AFTER$\n"
             + "    }\n"
             + "    #$FILTER$\n"
             + "}";
@@ -781,6 +1582,7 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
             + "SELECT DISTINCT ?item WHERE {\n"
             + "    ?entity text:query '?text' .\n"
             + "    ?item ^dct:versionOf/reg:definition/reg:entity ?entity.\n"
+            + "    #$AFTER$\n"
             + "    #$FILTER$\n"
             + "}";
     
@@ -951,6 +1753,7 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
             if ( ! check.hasNext()) {
                 // No references so delete
                 graphs.addAll( scanAllVersions(entity, toModel(toDelete), null, false) );
+                transaction.get().versionChanges.remove(entity.getURI());
                 emitAll(toModel(toDelete), getDefaultModel().listStatements(null, RegistryVocab.subregister, entity));
             } else {
                 check.close();
@@ -961,6 +1764,21 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
             store.asDataset().removeNamedModel( graph.getURI() );
         }
 
+        MembershipIndex.Changes indexChanges = transaction.get().indexChanges;
+        String registerURI = item.getRegisterURI();
+        if (registerURI != null) {
+            indexChanges.update(registerURI, item.getRoot().getURI(), null);
+        }
+        if ( item.isRegister() ) {
+            Resource entity = item.getEntitySpec();
+            if (entity != null) {
+                indexChanges.drop(entity.getURI());
+            }
+        }
+        transaction.get().searchChanges.delete(item.getRoot().getURI());
+        transaction.get().versionChanges.remove(item.getRoot().getURI());
+        transaction.get().entityChanges.update(item.getRoot().getURI(), null, entityIndex.entityOf(item.getRoot().getURI()));
+
         deletedItems.add(item.getRoot().getURI());
         return deletedItems;
     }
@@ -1080,7 +1898,13 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
             delete(item);
         }
         
+        // Arbitrary content may follow so the membership, version and entity indexes can't be maintained incrementally
+        transaction.get().indexChanges.clearAll();
+        transaction.get().versionChanges.clearAll();
+        transaction.get().entityChanges.clearAll();
         final DatasetGraph dsg = store.asDataset().asDatasetGraph();
+        // Imported items are added to the search index once all of their content is in place
+        final Set<Node> items = new LinkedHashSet<>();
         
         return new StreamRDF() {
             @Override
@@ -1090,11 +1914,21 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
             @Override
             public void triple(Triple triple) {
                 dsg.add(Quad.defaultGraphIRI, triple.getSubject(), triple.getPredicate(), triple.getObject());
+                noteItem(triple.getSubject(), triple.getPredicate(), triple.getObject());
             }
 
             @Override
             public void quad(Quad quad) {
                 dsg.add(quad);
+                if (quad.isDefaultGraph()) {
+                    noteItem(quad.getSubject(), quad.getPredicate(), quad.getObject());
+                }
+            }
+
+            private void noteItem(Node s, Node p, Node o) {
+                if (p.equals(RDF.type.asNode()) && o.equals(RegistryVocab.RegisterItem.asNode())) {
+                    items.add(s);
+                }
             }
 
             @Override
@@ -1108,6 +1942,12 @@ public class StoreBaseImpl extends ComponentBase implements StoreAPI {
 
             @Override
             public void finish() {
+                if (searchIndex != null) {
+                    Model model = getDefaultModel();
+                    for (Node item : items) {
+                        indexSearch( model.wrapAsResource(item) );
+                    }
+                }
             }
         };
     }
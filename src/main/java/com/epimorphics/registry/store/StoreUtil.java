@@ -43,12 +43,13 @@ public class StoreUtil {
      */
     public static List<RegisterItem> fetchMembersAt(StoreAPI store, Register register, long time, boolean withEntity) {
         List<RegisterEntryInfo> members = store.listMembers(register);
-        List<RegisterItem> results = new ArrayList<RegisterItem>( members.size() );
+        List<String> itemURIs = new ArrayList<String>( members.size() );
         for (RegisterEntryInfo member : members) {
-            Description d = store.getVersionAt(member.getItemURI(), time);
-            if (d != null) {
-                results.add( d.asRegisterItem() );
-            }
+            itemURIs.add( member.getItemURI() );
+        }
+        List<RegisterItem> results = new ArrayList<RegisterItem>( members.size() );
+        for (Description d : store.getVersionsAt(itemURIs, time).values()) {
+            results.add( d.asRegisterItem() );
         }
         return results;
     }
@@ -0,0 +1,373 @@
+/******************************************************************
+ * File:        VersionIntervalIndex.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jena.datatypes.xsd.XSDDateTime;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.vocabulary.DCTerms;
+import org.apache.jena.vocabulary.OWL;
+
+import com.epimorphics.registry.vocab.Version;
+import com.epimorphics.vocabs.Time;
+
+/**
+ * Index of the validity intervals of the versions of each versioned resource,
+ * so that the version current at a given time can be found without querying
+ * the store.
+ * <p>
+ * For each indexed resource the versions are held as an immutable list ordered
+ * by start time. Resources are indexed lazily the first time they are looked up.
+ * After that the store stages each new version created by a write transaction,
+ * as made by {@link com.epimorphics.registry.util.VersionUtil#nextVersion}, and
+ * applies them on commit, closing the interval of the previous version.
+ * </p>
+ * <p>
+ * As for the {@link MembershipIndex}, each commit advances a generation counter
+ * and intervals read by a transaction that started before the latest commit are
+ * not added to the index.
+ * </p>
+ * <p>
+ * Memory use is proportional to the number of versions held, typically a couple of
+ * hundred bytes per version, mostly the version URI. The total number of versions is
+ * limited (see {@link #setMaxVersions(long)}). When a load exceeds the limit the least
+ * recently used resources are dropped, in a batch so as to leave some headroom, and
+ * are simply re-read from the store if they are looked up again.
+ * </p>
+ */
+public class VersionIntervalIndex {
+
+    /** End time of a version which has not been replaced */
+    public static final long OPEN = Long.MAX_VALUE;
+
+    /** Default limit on the total number of versions indexed */
+    public static final long DEFAULT_MAX_VERSIONS = 500000;
+
+    /** Fraction of the limit to which the index is reduced once it has been exceeded */
+    static final double EVICT_TO = 0.9;
+
+    protected final Map<String, Intervals> index = new ConcurrentHashMap<>();
+    protected long generation = 0;
+    protected long maxVersions = DEFAULT_MAX_VERSIONS;
+    protected long size = 0;
+    protected final AtomicLong clock = new AtomicLong();
+
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Set the limit on the total number of versions held in the index
+     */
+    public synchronized void setMaxVersions(long maxVersions) {
+        this.maxVersions = maxVersions;
+        evict();
+    }
+
+    /**
+     * Return the total number of versions held in the index
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Return the indexed versions of the resource, or null if it has not been indexed.
+     */
+    public Intervals get(String uri) {
+        Intervals intervals = index.get(uri);
+        if (intervals != null) {
+            intervals.lastUsed = clock.incrementAndGet();
+        }
+        return intervals;
+    }
+
+    /**
+     * Offer the versions of a resource for indexing. This is accepted only
+     * if nothing has been committed since the given generation.
+     * @param asOf the index generation when the transaction that read the versions started
+     */
+    public synchronized void load(String uri, Intervals intervals, long asOf) {
+        if (asOf == generation && intervals.intervals.size() <= maxVersions) {
+            intervals.lastUsed = clock.incrementAndGet();
+            put(uri, intervals);
+            evict();
+        }
+    }
+
+    protected void put(String uri, Intervals intervals) {
+        Intervals old = index.put(uri, intervals);
+        size += intervals.intervals.size() - (old == null ? 0 : old.intervals.size());
+    }
+
+    protected void remove(String uri) {
+        Intervals old = index.remove(uri);
+        if (old != null) {
+            size -= old.intervals.size();
+        }
+    }
+
+    /**
+     * If the index is over its size limit then drop the least recently used resources
+     * until it is comfortably within the limit
+     */
+    protected void evict() {
+        if (size <= maxVersions) return;
+        List<Map.Entry<String, Intervals>> entries = new ArrayList<>( index.entrySet() );
+        Collections.sort(entries, new Comparator<Map.Entry<String, Intervals>>() {
+            @Override
+            public int compare(Map.Entry<String, Intervals> a, Map.Entry<String, Intervals> b) {
+                return Long.compare(a.getValue().lastUsed, b.getValue().lastUsed);
+            }
+        });
+        long target = (long)(maxVersions * EVICT_TO);
+        for (Map.Entry<String, Intervals> e : entries) {
+            if (size <= target) break;
+            remove(e.getKey());
+        }
+    }
+
+    /**
+     * Note that a transaction is about to commit, must be followed by a call to {@link #apply(Changes)}
+     */
+    public synchronized void startCommit() {
+        generation++;
+    }
+
+    /**
+     * Apply the changes staged by a committed transaction.
+     */
+    public synchronized void apply(Changes changes) {
+        generation++;
+        if (changes.clearAll) {
+            index.clear();
+            size = 0;
+            return;
+        }
+        for (String uri : changes.removed) {
+            remove(uri);
+        }
+        for (Map.Entry<String, List<Interval>> e : changes.added.entrySet()) {
+            Intervals old = index.get(e.getKey());
+            if (old != null) {
+                Intervals updated = old.with(e.getValue());
+                updated.lastUsed = old.lastUsed;
+                put(e.getKey(), updated);
+            }
+        }
+        evict();
+    }
+
+    public synchronized void clear() {
+        // Advance by two so that the generation stays even outside commits
+        generation += 2;
+        index.clear();
+        size = 0;
+    }
+
+    /**
+     * Read the versions of a resource directly from the store graph.
+     */
+    public static Intervals read(Graph src, Node root) {
+        List<Interval> intervals = new ArrayList<>();
+        ExtendedIterator<Triple> versions = src.find(Node.ANY, DCTerms.isVersionOf.asNode(), root);
+        try {
+            while (versions.hasNext()) {
+                Node version = versions.next().getSubject();
+                Node interval = firstObject(src, version, Version.interval.asNode());
+                long start = timeOf(src, interval, Time.hasBeginning.asNode());
+                if (version.isURI() && start != -1) {
+                    long end = timeOf(src, interval, Time.hasEnd.asNode());
+                    Node info = firstObject(src, version, OWL.versionInfo.asNode());
+                    int number = (info != null && info.isLiteral() && info.getLiteralValue() instanceof Number)
+                            ? ((Number) info.getLiteralValue()).intValue() : 0;
+                    intervals.add( new Interval(version.getURI(), number, start, end == -1 ? OPEN : end) );
+                }
+            }
+        } finally {
+            versions.close();
+        }
+        return new Intervals(intervals);
+    }
+
+    private static long timeOf(Graph src, Node interval, Node bound) {
+        if (interval == null) return -1;
+        Node point = firstObject(src, interval, bound);
+        Node time = point == null ? null : firstObject(src, point, Time.inXSDDateTime.asNode());
+        if (time != null && time.isLiteral() && time.getLiteralValue() instanceof XSDDateTime) {
+            return ((XSDDateTime) time.getLiteralValue()).asCalendar().getTimeInMillis();
+        }
+        return -1;
+    }
+
+    private static Node firstObject(Graph src, Node subject, Node predicate) {
+        ExtendedIterator<Triple> i = src.find(subject, predicate, Node.ANY);
+        try {
+            return i.hasNext() ? i.next().getObject() : null;
+        } finally {
+            i.close();
+        }
+    }
+
+    /**
+     * The validity interval of a single version, start inclusive and end exclusive.
+     */
+    public static class Interval {
+        protected final String version;
+        protected final int number;
+        protected final long start;
+        protected final long end;
+
+        public Interval(String version, int number, long start, long end) {
+            this.version = version;
+            this.number = number;
+            this.start = start;
+            this.end = end;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+    }
+
+    static final Comparator<Interval> START_ORDER = new Comparator<Interval>() {
+        @Override
+        public int compare(Interval a, Interval b) {
+            int c = Long.compare(a.start, b.start);
+            return c != 0 ? c : Integer.compare(a.number, b.number);
+        }
+    };
+
+    /**
+     * The versions of a single resource, ordered by start time.
+     */
+    public static class Intervals {
+        protected final List<Interval> intervals;
+        volatile long lastUsed;
+
+        public Intervals(List<Interval> intervals) {
+            List<Interval> sorted = new ArrayList<>(intervals);
+            Collections.sort(sorted, START_ORDER);
+            this.intervals = Collections.unmodifiableList(sorted);
+        }
+
+        public List<Interval> getIntervals() {
+            return intervals;
+        }
+
+        /**
+         * Return the URI of the version valid at the given time, or null if there was none.
+         */
+        public String versionAt(long time) {
+            int low = 0;
+            int high = intervals.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (intervals.get(mid).start <= time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            if (low == 0) return null;
+            Interval candidate = intervals.get(low - 1);
+            return candidate.end > time ? candidate.version : null;
+        }
+
+        /**
+         * Return a copy extended by new versions, each closing the interval of the version before it.
+         */
+        protected Intervals with(List<Interval> added) {
+            List<Interval> updated = new ArrayList<>(intervals);
+            for (Interval next : added) {
+                for (int i = 0; i < updated.size(); i++) {
+                    Interval old = updated.get(i);
+                    if (old.end == OPEN) {
+                        updated.set(i, new Interval(old.version, old.number, old.start, next.start));
+                    }
+                }
+                updated.add(next);
+            }
+            return new Intervals(updated);
+        }
+    }
+
+    /**
+     * New versions staged by a write transaction, to be applied if it commits.
+     */
+    public static class Changes {
+        protected Map<String, List<Interval>> added = new LinkedHashMap<>();
+        protected Set<String> removed = new HashSet<>();
+        protected boolean clearAll = false;
+
+        /**
+         * Record a new version of a resource, which replaces its current version
+         */
+        public void addVersion(String uri, String version, int number, long start) {
+            List<Interval> versions = added.get(uri);
+            if (versions == null) {
+                versions = new ArrayList<>();
+                added.put(uri, versions);
+            }
+            versions.add( new Interval(version, number, start, OPEN) );
+        }
+
+        /**
+         * Record that a resource and all its versions have been deleted
+         */
+        public void remove(String uri) {
+            removed.add(uri);
+            added.remove(uri);
+        }
+
+        /**
+         * Record a change that cannot be tracked precisely, such as a bulk import
+         */
+        public void clearAll() {
+            clearAll = true;
+        }
+
+        public boolean isEmpty() {
+            return !clearAll && added.isEmpty() && removed.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/******************************************************************
+ * File:        SwappableTextIndex.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.store.impl;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.text.EntityDefinition;
+import org.apache.jena.query.text.Entity;
+import org.apache.jena.query.text.TextHit;
+import org.apache.jena.query.text.TextIndex;
+
+/**
+ * A text index which delegates to another index that can be replaced while the
+ * dataset using it stays open, as needed for an online reindex.
+ * <p>
+ * Each call counts itself as a user of the delegate it starts on. When the delegate
+ * is replaced by {@link #swap(TextIndex, Consumer)} it is handed back for closing only
+ * once the last call using it has finished, so a swap never waits for slow queries
+ * and never closes an index under them.
+ * While recording, the ids of all entities added, updated or deleted are noted
+ * so they can be replayed into a replacement index built from an earlier snapshot.
+ * The caller must ensure that no write transaction spans a swap.
+ * </p>
+ */
+public class SwappableTextIndex implements TextIndex {
+
+    protected volatile Delegate current;
+    protected volatile Set<String> changed;
+
+    public SwappableTextIndex(TextIndex index) {
+        this.current = new Delegate(index);
+    }
+
+    public TextIndex getIndex() {
+        return current.index;
+    }
+
+    /**
+     * Start recording the ids of changed entities
+     */
+    public void startRecording() {
+        changed = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Stop recording changes
+     */
+    public void stopRecording() {
+        changed = null;
+    }
+
+    /**
+     * Return a copy of the ids of the entities changed since recording started
+     */
+    public Set<String> getChanged() {
+        Set<String> c = changed;
+        return c == null ? Collections.<String>emptySet() : new HashSet<>(c);
+    }
+
+    /**
+     * Replace the delegate index and stop recording. Calls already using the
+     * previous index carry on with it.
+     * @param onRetired given the previous index once no call is using it, which
+     * may be immediately, and is responsible for closing it
+     */
+    public void swap(TextIndex replacement, Consumer<TextIndex> onRetired) {
+        Delegate old;
+        synchronized (this) {
+            old = current;
+            current = new Delegate(replacement);
+            changed = null;
+        }
+        old.retire(onRetired);
+    }
+
+    /**
+     * Return the current delegate, counted as in use until released
+     */
+    protected Delegate acquire() {
+        while (true) {
+            Delegate d = current;
+            d.users.incrementAndGet();
+            if (d == current) {
+                return d;
+            }
+            // Swapped meanwhile, let go of the old one and use the replacement
+            d.release();
+        }
+    }
+
+    protected void record(Entity entity) {
+        Set<String> c = changed;
+        if (c != null) {
+            c.add( entity.getId() );
+        }
+    }
+
+    @Override
+    public void prepareCommit() {
+        Delegate d = acquire();
+        try {
+            d.index.prepareCommit();
+        } finally {
+            d.release();
+        }
+    }
+
+    @Override
+    public void commit() {
+        Delegate d = acquire();
+        try {
+            d.index.commit();
+        } finally {
+            d.release();
+        }
+    }
+
+    @Override
+    public void rollback() {
+        Delegate d = acquire();
+        try {
+            d.index.rollback();
+        } finally {
+            d.release();
+        }
+    }
+
+    @Override
+    public void addEntity(Entity entity) {
+        Delegate d = acquire();
+        try {
+            record(entity);
+            d.index.addEntity(entity);
+        } finally {
+            d.release();
+        }
+    }
+
+    @Override
+    public void updateEntity(Entity entity) {
+        Delegate d = acquire();
+        try {
+            record(entity);
+            d.index.updateEntity(entity);
+        } finally {
+            d.release();
+        }
+    }
+
+    @Override
+    public void deleteEntity(Entity entity) {
+        Delegate d = acquire();
+        try {
+            record(entity);
+            d.index.deleteEntity(entity);
+        } finally {
+            d.release();
+        }
+    }
+
+    @Override
+    public Map<String, Node> get(String uri) {
+        Delegate d = acquire();
+        try {
+            return d.index.get(uri);
+        } finally {
+            d.release();
+        }
+    }
+
+    @Override
+    public List<TextHit> query(Node property, String qs, String graphURI, String lang, int limit) {
+        Delegate d = acquire();
+        try {
+            return d.index.query(property, qs, graphURI, lang, limit);
+        } finally {
+            d.release();
+        }
+    }
+
+    @Override
+    public List<TextHit> query(Node property, String qs, String graphURI, String lang) {
+        Delegate d = acquire();
+        try {
+            return d.index.query(property, qs, graphURI, lang);
+        } finally {
+            d.release();
+        }
+    }
+
+    @Override
+    public List<TextHit> query(Node property, String qs, String graphURI, String lang, int limit, String highlight) {
+        Delegate d = acquire();
+        try {
+            return d.index.query(property, qs, graphURI, lang, limit, highlight);
+        } finally {
+            d.release();
+        }
+    }
+
+    @Override
+    public EntityDefinition getDocDef() {
+        return current.index.getDocDef();
+    }
+
+    @Override
+    public void close() {
+        current.index.close();
+    }
+
+    /**
+     * A delegate index together with a count of the calls using it
+     */
+    protected static class Delegate {
+        protected final TextIndex index;
+        protected final AtomicInteger users = new AtomicInteger();
+        protected final AtomicBoolean finished = new AtomicBoolean(false);
+        protected volatile Consumer<TextIndex> onRetired;
+
+        public Delegate(TextIndex index) {
+            this.index = index;
+        }
+
+        public void release() {
+            if (users.decrementAndGet() == 0 && onRetired != null) {
+                finish();
+            }
+        }
+
+        public void retire(Consumer<TextIndex> onRetired) {
+            this.onRetired = onRetired;
+            if (users.get() == 0) {
+                finish();
+            }
+        }
+
+        protected void finish() {
+            if (finished.compareAndSet(false, true)) {
+                onRetired.accept(index);
+            }
+        }
+    }
+
+}
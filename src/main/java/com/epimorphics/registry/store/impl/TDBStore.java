@@ -23,7 +23,17 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import com.epimorphics.appbase.webapi.WebApiException;
@@ -34,6 +44,7 @@ import org.apache.jena.query.text.Entity;
 import org.apache.jena.query.text.EntityDefinition;
 import org.apache.jena.query.text.TextDatasetFactory;
 import org.apache.jena.query.text.TextIndex;
+import org.apache.jena.query.text.TextIndexLucene;
 import org.apache.jena.query.text.TextQueryFuncs;
 import org.apache.jena.rdf.model.Property;
 import org.apache.jena.rdf.model.ResourceFactory;
@@ -42,6 +53,8 @@ import org.apache.jena.riot.RDFLanguages;
 import org.apache.jena.shared.PrefixMapping;
 import org.apache.jena.tdb.StoreConnection;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.RAMDirectory;
@@ -62,6 +75,7 @@ import org.apache.jena.query.ARQ;
 import org.apache.jena.query.Dataset;
 import org.apache.jena.query.ReadWrite;
 import org.apache.jena.rdf.model.Model;
+import org.apache.jena.sparql.core.DatasetGraph;
 import org.apache.jena.sparql.core.Quad;
 import org.apache.jena.tdb.TDB;
 import org.apache.jena.tdb.TDBFactory;
@@ -82,6 +96,12 @@ import javax.ws.rs.core.Response;
  *
  * <p>Set "ep={ds}" to register a fuseki query endpoint /ds/query.</p>
  *
+ * <p>The text index can be rebuilt while the store stays in use by {@link #startOnlineReindex()}.
+ * A fresh index is built alongside the live one and then swapped in. Set "reindexThreads"
+ * to the number of threads used to build it, default is the number of processors.
+ * When the index is on disc the directory currently in use is recorded in a "{index}.current"
+ * file next to the configured index directory.</p>
+ *
  * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
  */
 // This obsolete code, based on a poor store abstraction
@@ -108,6 +128,14 @@ public class TDBStore extends ComponentBase implements Store {
     protected File textIndex;      
     protected String indexSpec = null;
     protected Directory dir;
+    protected Dataset suspendedDataset;   // Text dataset while indexing is suspended
+    protected SwappableTextIndex liveIndex;
+    protected int reindexThreads = Runtime.getRuntime().availableProcessors();
+    protected final AtomicBoolean reindexing = new AtomicBoolean(false);
+    protected volatile String reindexStatus = "No online reindex has been run";
+
+    /** Number of quads handed to each indexing task during an online reindex */
+    protected static final int REINDEX_BATCH = 1000;
 
     public void setEp(String endpoint) {
         qEndpoint = endpoint;
@@ -147,6 +175,13 @@ public class TDBStore extends ComponentBase implements Store {
         backupDir = asFile(loc);
     }
         
+    /**
+     * Set the number of threads used to build the index during an online reindex
+     */
+    public void setReindexThreads(long threads) {
+        reindexThreads = (int) Math.max(1, threads);
+    }
+
     public void setUnionDefault(boolean flag) {
         isUnionDefault = flag;
     }
@@ -215,10 +250,11 @@ public class TDBStore extends ComponentBase implements Store {
                 log.warn("Opening memory based text index, will not preserved across restarts");
                 dir = new RAMDirectory(); 
             } else {
-                dir = FSDirectory.open(textIndex.toPath());
+                dir = FSDirectory.open(currentIndexDir().toPath());
             }
             EntityDefinition entDef = makeEntityDef();
-            dataset = TextDatasetFactory.createLucene(baseDataset, dir, entDef, new StandardAnalyzer()) ;
+            liveIndex = new SwappableTextIndex( TextDatasetFactory.createLuceneIndex(dir, entDef, new StandardAnalyzer()) );
+            dataset = TextDatasetFactory.create(baseDataset, liveIndex, true) ;
         } catch (IOException e) {
             throw new EpiException("Failed to create jena-text lucence index area", e);
         }
@@ -413,45 +449,381 @@ public class TDBStore extends ComponentBase implements Store {
         if (textIndex != null || indexSpec != null) {
             dataset.close();
 
-            if (textIndex != null) {
-                try {
-                    org.apache.tomcat.util.http.fileupload.FileUtils.deleteDirectory(textIndex);
-                } catch (IOException e) {
-                    log.warn("Problem deleting old textindex, continuing anyway", e);
-                }
-            }
+            deleteTextIndex();
 
             // Reset the StoreConnection cache to remove references to the previous text index.
             StoreConnection.reset();
             makeBaseDataset();
             makeTextDataset();
+            if (qEndpoint != null) {
+                bindFusekiRef();
+            }
+
+            count = indexAll();
+        }
+        return count;
+    }
+
+    /**
+     * Stop maintaining the text index, so that a large load need not update it
+     * triple by triple. Should only be called while there are no other users of the store.
+     * Must be followed by {@link #resumeTextIndex()} which rebuilds the index.
+     */
+    public synchronized void suspendTextIndex() {
+        if (suspendedDataset == null && dataset != baseDataset) {
+            log.info("Suspending text indexing");
+            suspendedDataset = dataset;
+            dataset = baseDataset;
+        }
+    }
+
+    /**
+     * Restart text indexing after {@link #suspendTextIndex()}, rebuilding the index from the store.
+     * @return the number of entities indexed
+     */
+    public synchronized long resumeTextIndex() {
+        if (suspendedDataset == null) {
+            return 0;
+        }
+        // Release the old index, and its write lock, without closing the underlying store
+        ((DatasetGraphText) suspendedDataset.asDatasetGraph()).getTextIndex().close();
+        suspendedDataset = null;
+        if (tdbDir != null) {
+            return textReindex();
+        }
+
+        // An in-memory store can't be reopened so index it in place
+        deleteTextIndex();
+        makeTextDataset();
+        if (qEndpoint != null) {
             bindFusekiRef();
+        }
+        return indexAll();
+    }
 
-            DatasetGraphText ds = (DatasetGraphText) dataset.asDatasetGraph();
-            TextIndex index = ds.getTextIndex();
-            EntityDefinition entDef = makeEntityDef();
-            
-            try {
-                ds.begin(ReadWrite.READ);
-                for ( Node property : getIndexedProperties(entDef) )
+    /**
+     * Add all the indexed properties in the dataset to the text index.
+     */
+    private long indexAll() {
+        long count = 0;
+        DatasetGraphText ds = (DatasetGraphText) dataset.asDatasetGraph();
+        TextIndex index = ds.getTextIndex();
+        EntityDefinition entDef = makeEntityDef();
+
+        try {
+            ds.begin(ReadWrite.READ);
+            for ( Node property : getIndexedProperties(entDef) )
+            {
+                Iterator<Quad> quadIter = ds.find( Node.ANY, Node.ANY, property, Node.ANY );
+                for (; quadIter.hasNext(); )
                 {
-                    Iterator<Quad> quadIter = ds.find( Node.ANY, Node.ANY, property, Node.ANY );
-                    for (; quadIter.hasNext(); )
+                    Quad quad = quadIter.next();
+                    Entity entity = TextQueryFuncs.entityFromQuad( entDef, quad );
+                    if ( entity != null )
                     {
-                        Quad quad = quadIter.next();
-                        Entity entity = TextQueryFuncs.entityFromQuad( entDef, quad );
-                        if ( entity != null )
-                        {
-                            index.addEntity( entity );
-                            count++;
+                        index.addEntity( entity );
+                        count++;
+                    }
+                }
+            }
+            index.commit();
+        } finally {
+            ds.end();
+        }
+        return count;
+    }
+
+    /**
+     * Start rebuilding the text index in the background, leaving the store available throughout.
+     * Progress can be followed by {@link #getReindexStatus()}.
+     * @return false if there is no text index, or a rebuild is already running
+     */
+    public boolean startOnlineReindex() {
+        return startOnlineReindex(null);
+    }
+
+    /**
+     * Start rebuilding the text index in the background, leaving the store available throughout,
+     * then run the given task, such as rebuilding other indexes derived from the store so that
+     * they stay in step with the text index. Progress can be followed by {@link #getReindexStatus()}.
+     * @param followOn task to run once the text index has been rebuilt, may be null
+     * @return false if there is no text index, or a rebuild is already running
+     */
+    public boolean startOnlineReindex(final Runnable followOn) {
+        if (liveIndex == null) {
+            reindexStatus = "No text index configured";
+            return false;
+        }
+        if (!reindexing.compareAndSet(false, true)) {
+            return false;
+        }
+        reindexStatus = "Online reindex starting";
+        Thread thread = new Thread( () -> {
+            try {
+                onlineReindex();
+                if (followOn != null) {
+                    String status = reindexStatus;
+                    reindexStatus = status + ", rebuilding dependent indexes";
+                    followOn.run();
+                    reindexStatus = status + ", dependent indexes rebuilt";
+                }
+            } catch (Exception e) {
+                log.error("Online text reindex failed", e);
+                reindexStatus = "Online reindex failed: " + e.getMessage();
+            } finally {
+                reindexing.set(false);
+            }
+        }, "text-reindex");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Return a description of the progress of the current or last online reindex
+     */
+    public String getReindexStatus() {
+        return reindexStatus;
+    }
+
+    /**
+     * Rebuild the text index while the store stays in use.
+     * <p>
+     * A fresh index is built, in parallel, from a read transaction. Changes to indexed
+     * entities made meanwhile are recorded by the live index and are replayed into the
+     * fresh index while holding a write transaction, which also blocks other writers while
+     * the fresh index is swapped in. The old index is closed, and its directory removed, once
+     * the last query still using it has finished.
+     * </p>
+     * @return the number of entities indexed
+     */
+    public synchronized long onlineReindex() {
+        if (liveIndex == null) {
+            throw new EpiException("No text index configured");
+        }
+        if (suspendedDataset != null) {
+            throw new EpiException("Text indexing is suspended");
+        }
+        long start = System.currentTimeMillis();
+        EntityDefinition entDef = makeEntityDef();
+        File newDir = null;
+        TextIndex fresh;
+        try {
+            Directory directory;
+            if (textIndex == null) {
+                directory = new RAMDirectory();
+            } else {
+                newDir = new File(textIndex.getAbsoluteFile().getParentFile(), textIndex.getName() + "-" + start);
+                directory = FSDirectory.open(newDir.toPath());
+            }
+            fresh = TextDatasetFactory.createLuceneIndex(directory, entDef, new StandardAnalyzer());
+        } catch (IOException e) {
+            throw new EpiException("Failed to create jena-text lucene index area", e);
+        }
+
+        boolean swapped = false;
+        try {
+            liveIndex.startRecording();
+            // Let any writer which began before recording started finish, so its changes are in the snapshot
+            baseDataset.begin(ReadWrite.WRITE);
+            baseDataset.abort();
+            baseDataset.end();
+
+            long count = buildIndex(fresh, entDef);
+            fresh.commit();
+            long built = System.currentTimeMillis();
+
+            int replayed;
+            File oldDir = textIndex == null ? null : currentIndexDir();
+            File freshDir = newDir;
+            reindexStatus = String.format("Online reindex replaying changes, %d entries indexed", count);
+            baseDataset.begin(ReadWrite.WRITE);
+            try {
+                Set<String> changed = liveIndex.getChanged();
+                replayed = changed.size();
+                replay(fresh, entDef, changed);
+                fresh.commit();
+                if (newDir != null) {
+                    setCurrentIndexDir(newDir);
+                }
+                liveIndex.swap(fresh, old -> {
+                    closeIndex(old);
+                    if (oldDir != null && !oldDir.equals(freshDir)) {
+                        deleteDirectory(oldDir);
+                    }
+                });
+                swapped = true;
+            } finally {
+                baseDataset.abort();
+                baseDataset.end();
+            }
+
+            long end = System.currentTimeMillis();
+            reindexStatus = String.format("Online reindex complete, %d entries indexed in %dms, %d changed entities replayed in %dms",
+                    count, end - start, replayed, end - built);
+            log.info(reindexStatus);
+            return count;
+        } finally {
+            if (!swapped) {
+                liveIndex.stopRecording();
+                closeIndex(fresh);
+                if (newDir != null) {
+                    deleteDirectory(newDir);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add all the indexed properties to the given index, reading from a single read transaction
+     * and building documents on a pool of threads.
+     */
+    private long buildIndex(TextIndex index, EntityDefinition entDef) {
+        ExecutorService workers = Executors.newFixedThreadPool(reindexThreads);
+        Semaphore slots = new Semaphore(reindexThreads * 2);
+        AtomicLong count = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        try {
+            baseDataset.begin(ReadWrite.READ);
+            try {
+                for (Node property : getIndexedProperties(entDef)) {
+                    if (failure.get() != null) {
+                        break;
+                    }
+                    Iterator<Quad> quadIter = baseDataset.asDatasetGraph().find(Node.ANY, Node.ANY, property, Node.ANY);
+                    while (quadIter.hasNext() && failure.get() == null) {
+                        List<Quad> batch = new ArrayList<>(REINDEX_BATCH);
+                        while (quadIter.hasNext() && batch.size() < REINDEX_BATCH) {
+                            batch.add( quadIter.next() );
                         }
+                        slots.acquire();
+                        workers.execute( () -> {
+                            try {
+                                for (Quad quad : batch) {
+                                    Entity entity = TextQueryFuncs.entityFromQuad(entDef, quad);
+                                    if (entity != null) {
+                                        index.addEntity(entity);
+                                        count.incrementAndGet();
+                                    }
+                                }
+                                reindexStatus = String.format("Online reindex in progress, %d entries indexed", count.get());
+                            } catch (Throwable t) {
+                                failure.compareAndSet(null, t);
+                            } finally {
+                                slots.release();
+                            }
+                        } );
                     }
                 }
-                index.commit();
             } finally {
-                ds.end();
+                baseDataset.end();
             }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EpiException("Interrupted during text reindex", e);
+        } finally {
+            workers.shutdownNow();
+        }
+        if (failure.get() != null) {
+            throw new EpiException("Failed to build text index", failure.get());
+        }
+        return count.get();
+    }
+
+    /**
+     * Reindex the given entities from the current state of the store,
+     * must be called within a transaction.
+     */
+    private void replay(TextIndex index, EntityDefinition entDef, Set<String> ids) {
+        IndexWriter writer = ((TextIndexLucene) index).getIndexWriter();
+        DatasetGraph dsg = baseDataset.asDatasetGraph();
+        Set<Node> properties = getIndexedProperties(entDef);
+        try {
+            for (String id : ids) {
+                writer.deleteDocuments( new Term(entDef.getEntityField(), id) );
+                Node subject = TextQueryFuncs.stringToNode(id);
+                for (Node property : properties) {
+                    Iterator<Quad> quadIter = dsg.find(Node.ANY, subject, property, Node.ANY);
+                    while (quadIter.hasNext()) {
+                        Entity entity = TextQueryFuncs.entityFromQuad(entDef, quadIter.next());
+                        if (entity != null) {
+                            index.addEntity(entity);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new EpiException("Failed to replay changes into text index", e);
+        }
+    }
+
+    private void closeIndex(TextIndex index) {
+        try {
+            index.close();
+            if (index instanceof TextIndexLucene) {
+                ((TextIndexLucene) index).getDirectory().close();
+            }
+        } catch (Exception e) {
+            log.warn("Problem closing text index", e);
+        }
+    }
+
+    /**
+     * The directory holding the text index in use, which differs from the configured
+     * location after an online reindex.
+     */
+    private File currentIndexDir() {
+        File pointer = currentIndexPointer();
+        if (pointer.exists()) {
+            try {
+                String location = new String(Files.readAllBytes(pointer.toPath()), StandardCharsets.UTF_8).trim();
+                File current = new File(textIndex.getAbsoluteFile().getParentFile(), location);
+                if (current.isDirectory()) {
+                    return current;
+                }
+                log.warn("Text index " + current + " recorded in " + pointer + " not found, using " + textIndex);
+            } catch (IOException e) {
+                log.warn("Problem reading " + pointer + ", using " + textIndex, e);
+            }
+        }
+        return textIndex;
+    }
+
+    private void setCurrentIndexDir(File dir) {
+        File pointer = currentIndexPointer();
+        File tmp = new File(pointer.getPath() + ".tmp");
+        try {
+            Files.write(tmp.toPath(), dir.getName().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), pointer.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new EpiException("Failed to record text index location in " + pointer, e);
+        }
+    }
+
+    private File currentIndexPointer() {
+        return new File(textIndex.getAbsoluteFile().getParentFile(), textIndex.getName() + ".current");
+    }
+
+    /**
+     * Remove the text index in use, and any record of it, so that a new one is built at the configured location.
+     */
+    private void deleteTextIndex() {
+        if (textIndex != null) {
+            File current = currentIndexDir();
+            deleteDirectory(current);
+            if (!current.equals(textIndex)) {
+                currentIndexPointer().delete();
+            }
+        }
+    }
+
+    private void deleteDirectory(File dir) {
+        try {
+            org.apache.tomcat.util.http.fileupload.FileUtils.deleteDirectory(dir);
+        } catch (IOException e) {
+            log.warn("Problem deleting old textindex, continuing anyway", e);
         }
-        return count;
     }
 }
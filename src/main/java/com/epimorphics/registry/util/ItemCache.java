@@ -0,0 +1,204 @@
+/******************************************************************
+ * File:        ItemCache.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.collections.map.LRUMap;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+
+import com.epimorphics.registry.core.Description;
+import com.epimorphics.registry.core.RegisterItem;
+import com.epimorphics.registry.vocab.RegistryVocab;
+
+/**
+ * Bounded cache of current item and entity descriptions, keyed by URI.
+ * <p>
+ * Entries are immutable snapshots. The description models are copied on
+ * the way in and again on the way out so callers are free to modify
+ * whatever they are handed. Items may be cached with or without their
+ * entity. Flushing an entity URI also flushes any cached items which
+ * carry that entity.
+ * </p>
+ */
+public class ItemCache {
+    static final int DEFAULT_SIZE = 1000;
+
+    protected LRUMap cache;
+    protected Map<String, Set<String>> dependents = new HashMap<>();
+
+    public ItemCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    @SuppressWarnings("serial")
+    public ItemCache(int size) {
+        cache = new LRUMap(size) {
+            @Override
+            protected boolean removeLRU(LinkEntry entry) {
+                removeDependency( (CacheEntry)entry.getValue() );
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Cache a snapshot of the given description. If the description is
+     * a RegisterItem with an attached entity then the entity is cached along with it.
+     */
+    public synchronized void cache(Description d) {
+        CacheEntry entry = new CacheEntry(d);
+        CacheEntry old = (CacheEntry) cache.put(entry.uri, entry);
+        if (old != null) {
+            removeDependency(old);
+        }
+        if (entry.entityURI != null) {
+            Set<String> items = dependents.get(entry.entityURI);
+            if (items == null) {
+                items = new HashSet<>();
+                dependents.put(entry.entityURI, items);
+            }
+            items.add(entry.uri);
+        }
+    }
+
+    /**
+     * Return a fresh copy of the cached description of the given resource, or null
+     * if there is no suitable cache entry.
+     * @param uri the resource to look up
+     * @param withEntity if true only return an item which has its entity attached
+     * @param dest model into which the description should be copied, if null a new model will be used
+     */
+    public synchronized Description get(String uri, boolean withEntity, Model dest) {
+        CacheEntry entry = (CacheEntry) cache.get(uri);
+        if (entry == null || (withEntity && entry.entity == null)) {
+            return null;
+        }
+        return entry.asDescription(withEntity, dest, dest);
+    }
+
+    /**
+     * Return a fresh copy of the cached item, or null if there is no suitable
+     * cache entry or the cached resource is not a register item.
+     */
+    public synchronized RegisterItem getItem(String uri, boolean withEntity, Model dest) {
+        return getItem(uri, withEntity, dest, dest);
+    }
+
+    /**
+     * Return a fresh copy of the cached item, with the item and entity copied
+     * into separate models, or null if there is no suitable cache entry.
+     */
+    public synchronized RegisterItem getItem(String uri, boolean withEntity, Model dest, Model entityDest) {
+        CacheEntry entry = (CacheEntry) cache.get(uri);
+        if (entry == null || !entry.isItem || (withEntity && entry.entity == null)) {
+            return null;
+        }
+        return (RegisterItem) entry.asDescription(withEntity, dest, entityDest);
+    }
+
+    /**
+     * Remove the description of the given resource and of any items which include it as their entity.
+     */
+    public synchronized void flush(String uri) {
+        CacheEntry old = (CacheEntry) cache.remove(uri);
+        if (old != null) {
+            removeDependency(old);
+        }
+        Set<String> items = dependents.remove(uri);
+        if (items != null) {
+            for (String item : items) {
+                cache.remove(item);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+        dependents.clear();
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    private void removeDependency(CacheEntry entry) {
+        if (entry.entityURI != null) {
+            Set<String> items = dependents.get(entry.entityURI);
+            if (items != null) {
+                items.remove(entry.uri);
+                if (items.isEmpty()) {
+                    dependents.remove(entry.entityURI);
+                }
+            }
+        }
+    }
+
+    static class CacheEntry {
+        final String uri;
+        final Model model;
+        final boolean isItem;
+        final String entityURI;
+        final Resource entity;
+
+        CacheEntry(Description d) {
+            Resource root = d.getRoot();
+            uri = root.getURI();
+            model = copy(root.getModel(), null);
+            isItem = root.hasProperty(RDF.type, RegistryVocab.RegisterItem);
+            Resource e = (d instanceof RegisterItem) ? ((RegisterItem)d).getEntity() : null;
+            if (e != null) {
+                entityURI = e.getURI();
+                entity = e.inModel( copy(e.getModel(), null) );
+            } else {
+                entityURI = null;
+                entity = null;
+            }
+        }
+
+        Description asDescription(boolean withEntity, Model dest, Model entityDest) {
+            Resource root = model.getResource(uri).inModel( copy(model, dest) );
+            if (isItem) {
+                RegisterItem item = new RegisterItem(root);
+                if (withEntity && entity != null) {
+                    item.setEntity( entity.inModel( copy(entity.getModel(), entityDest) ) );
+                }
+                return item;
+            } else {
+                return new Description(root);
+            }
+        }
+
+        static Model copy(Model src, Model dest) {
+            if (dest == null) {
+                dest = ModelFactory.createDefaultModel();
+            }
+            dest.add(src);
+            return dest;
+        }
+    }
+}
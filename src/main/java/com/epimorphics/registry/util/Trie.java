@@ -22,6 +22,7 @@
 package com.epimorphics.registry.util;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,22 +32,56 @@ import java.util.function.Predicate;
  * Trie structure for matching URI prefixes. The trie is based on matching URI segments
  * rather then individual characters (unlike arq lib Trie) and does not support
  * path parameter patterns (unlike Modal TrieMatcher). Terminals can only appear on ends of paths.
+ * <p>
+ * The nodes are immutable. Registration changes copy the nodes along the changed path
+ * and publish the new root, so matching needs no locks and always sees a consistent
+ * version of the trie. Changes are serialized.
+ * </p>
  *
  * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
  */
 public class Trie<T> {
-    protected TrieNode<T> root = new TrieBranch<T>();
+    protected volatile TrieBranch<T> root = new TrieBranch<T>(Collections.<String, TrieNode<T>>emptyMap());
 
-    public void register(String path, T match) {
-        root.register(split(path), 0, match);
+    public synchronized void register(String path, T match) {
+        root = root.register(split(path), 0, match);
     }
 
-    public void unregister(String path) {
-        root.unregister(split(path), 0);
+    public synchronized void unregister(String path) {
+        root = root.unregister(split(path), 0);
     }
 
+    /**
+     * Find the terminal on the path of the given URI, if any. Walks the segments
+     * of the URI in place rather than splitting it.
+     */
     public MatchResult<T> match(String uri) {
-        return root.match(split(uri), 0);
+        int start = uri.startsWith("/") ? 1 : 0;
+        int end = uri.length();
+        while (end > start && uri.charAt(end - 1) == '/') {
+            end--;     // trailing empty segments are ignored
+        }
+        if (start == end) return null;
+
+        TrieNode<T> node = root;
+        int pos = start;
+        while (node instanceof TrieBranch) {
+            if (pos > end) return null;     // path exhausted before reaching a terminal
+            int split = uri.indexOf('/', pos);
+            if (split == -1 || split > end) {
+                split = end;
+            }
+            node = ((TrieBranch<T>)node).branches.get( uri.substring(pos, split) );
+            if (node == null) return null;
+            pos = split + 1;
+        }
+
+        int from = pos;
+        while (from < end && uri.charAt(from) == '/') {
+            from++;    // leading empty segments of the remainder are ignored
+        }
+        String remainder = from < end ? uri.substring(from, end) : "";
+        return new MatchResult<T>( ((TrieTerminal<T>)node).match, remainder );
     }
 
     public List<T> findAll(String path, Predicate<T> filter) {
@@ -66,13 +101,9 @@ public class Trie<T> {
     public static class MatchResult<T> {
         protected T match;
         protected String remainder;
-        protected MatchResult(T match, String[] path, int index) {
+        protected MatchResult(T match, String remainder) {
             this.match = match;
-            remainder = "";
-            for (int i = index; i < path.length; i ++) {
-                if (!remainder.isEmpty()) remainder += "/";
-                remainder += path[i];
-            }
+            this.remainder = remainder;
         }
 
         public T getMatch() {
@@ -85,33 +116,15 @@ public class Trie<T> {
     }
 
     static interface TrieNode<T> {
-        public MatchResult<T> match(String[] path, int index);
-
-        public void register(String[] path, int index, T match);
-
-        public void unregister(String[] path, int index);
-
         public void findAll(String[] path, int index, Predicate<T> filter, List<T> results);
     }
 
-    static class TrieTerminal<T> implements TrieNode<T> {
-        protected T match;
+    static final class TrieTerminal<T> implements TrieNode<T> {
+        protected final T match;
         protected TrieTerminal(T match) {
             this.match = match;
         }
 
-        public MatchResult<T> match(String[] path, int index) {
-            return new MatchResult<T>(match, path, index);
-        }
-
-        @Override
-        public void register(String[] path, int index, T match) {
-        }
-
-        @Override
-        public void unregister(String[] path, int index) {
-        }
-
         @Override
         public void findAll(String[] path, int index, Predicate<T> filter, List<T> results) {
             if (index >= path.length -1) {
@@ -122,45 +135,57 @@ public class Trie<T> {
         }
     }
 
-    static class TrieBranch<T> implements TrieNode<T> {
-        protected Map<String, TrieNode<T>> branches = new HashMap<String, TrieNode<T>>();
+    static final class TrieBranch<T> implements TrieNode<T> {
+        protected final Map<String, TrieNode<T>> branches;
 
-        public MatchResult<T> match(String[] path, int index) {
-            if (index >= path.length) return null;   // can "never" happen?
-            TrieNode<T> next = branches.get(path[index]);
-            if (next == null) {
-                return null;
-            } else {
-                return next.match(path, index + 1);
-            }
+        protected TrieBranch(Map<String, TrieNode<T>> branches) {
+            this.branches = branches;
         }
 
-        public void register(String[] path, int index, T match) {
+        /**
+         * Return a copy of this branch with the match registered
+         */
+        public TrieBranch<T> register(String[] path, int index, T match) {
             String segment = path[index];
             if (index >= path.length-1) {
                 // end of path
-                branches.put(segment, new TrieTerminal<T>(match));
+                return with(segment, new TrieTerminal<T>(match));
             } else {
                 TrieNode<T> node = branches.get(segment);
                 if (node == null) {
-                    node = new TrieBranch<T>();
-                    branches.put(segment, node);
+                    node = new TrieBranch<T>(Collections.<String, TrieNode<T>>emptyMap());
+                } else if (node instanceof TrieTerminal) {
+                    // Can't register below a terminal
+                    return this;
                 }
-                node.register(path, index + 1, match);
+                return with(segment, ((TrieBranch<T>)node).register(path, index + 1, match));
             }
         }
 
-        @Override
-        public void unregister(String[] path, int index) {
+        /**
+         * Return a copy of this branch with the match unregistered, or this branch if there was no such match
+         */
+        public TrieBranch<T> unregister(String[] path, int index) {
             String segment = path[index];
+            TrieNode<T> node = branches.get(segment);
             if (index >= path.length-1) {
-                branches.remove(segment);
+                return node == null ? this : with(segment, null);
+            } else if (node instanceof TrieBranch) {
+                TrieBranch<T> branch = (TrieBranch<T>)node;
+                TrieBranch<T> updated = branch.unregister(path, index + 1);
+                return updated == branch ? this : with(segment, updated);
+            }
+            return this;
+        }
+
+        private TrieBranch<T> with(String segment, TrieNode<T> node) {
+            Map<String, TrieNode<T>> copy = new HashMap<String, TrieNode<T>>(branches);
+            if (node == null) {
+                copy.remove(segment);
             } else {
-                TrieNode<T> node = branches.get(segment);
-                if (node != null) {
-                    node.unregister(path, index + 1);
-                }
+                copy.put(segment, node);
             }
+            return new TrieBranch<T>(copy);
         }
 
         @Override
@@ -174,8 +199,8 @@ public class Trie<T> {
                 }
             } else {
                 // End of match path, accumulate everything
-                for (String key : branches.keySet()) {
-                    branches.get(key).findAll(path, index, filter, results);
+                for (TrieNode<T> node : branches.values()) {
+                    node.findAll(path, index, filter, results);
                 }
             }
         }
@@ -16,6 +16,7 @@ import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Response;
 
 import com.epimorphics.registry.core.Registry;
@@ -24,8 +25,12 @@ import com.epimorphics.registry.core.Registry;
 public class Backup {
 
     @POST
-    public Response startBackup() throws URISyntaxException {
-        Registry.get().getBackupService().scheduleBackup();
+    public Response startBackup(@QueryParam("incremental") boolean incremental) throws URISyntaxException {
+        if (incremental) {
+            Registry.get().getBackupService().scheduleIncrementalBackup();
+        } else {
+            Registry.get().getBackupService().scheduleBackup();
+        }
         URI redirect = new URI("/ui/backups");
         return Response.seeOther(redirect).build();
     }
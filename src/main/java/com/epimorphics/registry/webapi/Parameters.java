@@ -51,6 +51,7 @@ public class Parameters {
     public static final String COLLECTION_METADATA_ONLY = "non-member-properties";
     public static final String FIRST_PAGE = "firstPage";
     public static final String PAGE_NUMBER = "_page";
+    public static final String PAGE_AFTER = "_after";
 
     public static final String STATUS = "status";
     public static final String SUCCESSOR = "successor";
@@ -0,0 +1,80 @@
+/******************************************************************
+ * File:        Reindex.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.webapi;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.subject.Subject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.epimorphics.appbase.core.AppConfig;
+import com.epimorphics.registry.security.RegAuthorizationInfo;
+import com.epimorphics.registry.store.StoreBaseImpl;
+import com.epimorphics.registry.store.impl.TDBStore;
+
+/**
+ * Rebuild the text index in the background while the registry stays available,
+ * unlike system/text-reindex which takes the store offline, followed by the search
+ * index if one is configured. GET reports progress.
+ */
+@Path("/system/reindex")
+public class Reindex {
+    static final Logger log = LoggerFactory.getLogger( Reindex.class );
+
+    @POST
+    @Produces("text/plain")
+    public Response startReindex() {
+        Subject subject = SecurityUtils.getSubject();
+        if (subject.isAuthenticated() && subject.hasRole(RegAuthorizationInfo.ADMINSTRATOR_ROLE)) {
+            TDBStore store = AppConfig.getApp().getA(TDBStore.class);
+            if (store == null) {
+                log.warn("Attempted online reindex but no Lucene index found");
+                return Response.status(Status.BAD_REQUEST).entity("No text index found").build();
+            }
+            // Keep the search index, if any, in step with the rebuilt text index
+            final StoreBaseImpl storeapi = AppConfig.getApp().getA(StoreBaseImpl.class);
+            Runnable followOn = storeapi == null ? null : () -> storeapi.rebuildSearchIndex();
+            if (store.startOnlineReindex(followOn)) {
+                log.info("Online text reindex started by " + subject.getPrincipal());
+                return Response.accepted(store.getReindexStatus()).build();
+            } else {
+                return Response.status(Status.CONFLICT).entity("Reindex not started: " + store.getReindexStatus()).build();
+            }
+        } else {
+            log.error("Attempted online reindex by unauthorized user: " + subject.getPrincipal());
+            return Response.status(Status.UNAUTHORIZED).build();
+        }
+    }
+
+    @GET
+    @Produces("text/plain")
+    public String getReindexStatus() {
+        TDBStore store = AppConfig.getApp().getA(TDBStore.class);
+        return store == null ? "No text index found" : store.getReindexStatus();
+    }
+}
@@ -28,6 +28,7 @@ import com.epimorphics.appbase.templates.VelocityRender;
 import com.epimorphics.appbase.webapi.BaseEndpoint;
 import com.epimorphics.appbase.webapi.WebApiException;
 import com.epimorphics.registry.commands.CommandUpdate;
+import com.epimorphics.registry.commands.CommandValidate;
 import com.epimorphics.registry.core.*;
 import com.epimorphics.registry.core.Command.Operation;
 import com.epimorphics.registry.core.ForwardingRecord.Type;
@@ -65,12 +66,19 @@ import javax.ws.rs.*;
 import javax.ws.rs.core.*;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.lang.annotation.Annotation;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Supplier;
 
 import static com.epimorphics.webapi.marshalling.RDFXMLMarshaller.FULL_MIME_RDFXML;
 import static com.epimorphics.webapi.marshalling.RDFXMLMarshaller.MIME_RDFXML;
@@ -94,6 +102,9 @@ public class RequestProcessor extends BaseEndpoint {
     private static final String SYSTEM_QUERY = "system/query";
     private static final String LANGUAGE_COOKIE = "registry-pref-lang";
 
+    @Context protected Request jaxrsRequest;
+    @Context protected Providers providers;
+
     @GET
     @Produces("text/html")
     public Response htmlrender() {        
@@ -125,6 +136,9 @@ public class RequestProcessor extends BaseEndpoint {
             if (format.equals("ttl")) {
                 mime = FULL_MIME_TURTLE;
                 extension = "ttl";
+            } else if (format.equals("nt")) {
+                mime = RegisterViewStream.MIME_NTRIPLES;
+                extension = "nt";
             } else if (format.equals("jsonld")) {
                 mime = JSONLDSupport.FULL_MIME_JSONLD;
                 extension = "json";
@@ -135,17 +149,29 @@ public class RequestProcessor extends BaseEndpoint {
                 mime = RdfXmlRorMarshaller.MIME_TYPE;
                 extension = "ror";
             }
-            return readAsRDF(result, mime, extension);
+            if (result != null) {
+                return readAsRDF(result, mime, extension);
+            }
+            final String type = mime, ext = extension;
+            return cachedResponse(type, null, () -> readAsRDF(null, type, ext));
         } else if (parameters.containsKey(Parameters.ANNOTATION)) {
             return readAsRDF(result, FULL_MIME_TURTLE, "ttl");
         } else if (parameters.containsKey(Parameters.EXPORT_TREE)) {
             return export();
+        } else if (result != null || isAuthenticated()) {
+            // Pages for logged in users are personalized so aren't shared via the response cache
+            return renderMain();
         } else {
-            try {
-                return render("main.vm", uriInfo, context, request);
-            } catch (Exception e) {
-                throw new WebApiException(Status.INTERNAL_SERVER_ERROR, "Template rendering problem: " + e);
-            }
+            String language = getRequestLanguage(Registry.get().getLanguageManager(), request);
+            return cachedResponse("text/html;charset=utf-8", language, this::renderMain);
+        }
+    }
+
+    private Response renderMain() {
+        try {
+            return render("main.vm", uriInfo, context, request);
+        } catch (Exception e) {
+            throw new WebApiException(Status.INTERNAL_SERVER_ERROR, "Template rendering problem: " + e);
         }
     }
 
@@ -153,7 +179,8 @@ public class RequestProcessor extends BaseEndpoint {
         Response response = doRead(ptr, mime);
         if (response.getStatus() != 200) return response;
         Object location = response.getMetadata().getFirst(HttpHeaders.LOCATION);
-        ResponseBuilder builder = Response.ok().type(mime).entity(response.getEntity());
+        ResponseBuilder builder = Response.ok().type(mime).entity(response.getEntity())
+                .tag(response.getEntityTag()).lastModified(response.getLastModified());
         if (location != null) {
             String fname = NameUtils.lastSegment(location.toString());
             builder.header(CONTENT_DISPOSITION_HEADER, String.format(CONTENT_DISPOSITION_FMT, fname, ext));
@@ -254,16 +281,35 @@ public class RequestProcessor extends BaseEndpoint {
     }
 
     @GET
-    @Produces({FULL_MIME_TURTLE, FULL_MIME_RDFXML, JSONLDSupport.FULL_MIME_JSONLD, RdfXmlRorMarshaller.MIME_TYPE})
+    @Produces({FULL_MIME_TURTLE, FULL_MIME_RDFXML, JSONLDSupport.FULL_MIME_JSONLD, RdfXmlRorMarshaller.MIME_TYPE, RegisterViewStream.MIME_NTRIPLES})
     public Response read() {
         if (inlineConnegRequest()) return htmlrender();
         PassThroughResult result = checkForPassThrough();
         if (result != null && result.isDone()) {
             return result.getResponse();
+        } else if (result != null) {
+            return doRead(result, null, negotiatedType());
         } else {
-            return doRead(result, null);
+            String type = negotiatedType();
+            return cachedResponse(type, null, () -> doRead(null, null, type));
         }
     }
+
+    private static final List<Variant> READ_VARIANTS = Variant.mediaTypes(
+            MediaType.valueOf(FULL_MIME_TURTLE),
+            MediaType.valueOf(MIME_RDFXML),
+            MediaType.valueOf(JSONLDSupport.FULL_MIME_JSONLD),
+            MediaType.valueOf(RdfXmlRorMarshaller.MIME_TYPE),
+            MediaType.valueOf(RegisterViewStream.MIME_NTRIPLES) ).build();
+
+    /**
+     * Determine the media type Jersey will negotiate for the RDF read, used to select
+     * streamed serialization of large register views and to distinguish validators
+     */
+    private String negotiatedType() {
+        Variant variant = jaxrsRequest.selectVariant(READ_VARIANTS);
+        return variant == null ? null : variant.getMediaType().toString();
+    }
     
     @GET
     @Produces({"application/n-quads;qs=0.3"})
@@ -292,8 +338,85 @@ public class RequestProcessor extends BaseEndpoint {
         PassThroughResult result = checkForPassThrough();
         if (result != null && result.isDone()) {
             return result.getResponse();
-        } else {
+        } else if (result != null) {
             return doRead(result, RDFCSVUtil.MEDIA_TYPE);
+        } else {
+            return cachedResponse(RDFCSVUtil.MEDIA_TYPE, null, () -> doRead(null, RDFCSVUtil.MEDIA_TYPE));
+        }
+    }
+
+    /**
+     * Answer a read from the response cache, if there is one, otherwise compute the
+     * response and, if it is a successful response of modest size, cache it.
+     * @param mediaType the media type of the response, if null the response is not cached
+     * @param language the language of the response, null if not language dependent
+     * @param compute computes the response on a cache miss
+     */
+    private Response cachedResponse(String mediaType, String language, Supplier<Response> compute) {
+        ResponseCache cache = Registry.get().getResponseCache();
+        String path = uriInfo.getPath();
+        if (cache == null || mediaType == null || path.startsWith(SYSTEM_QUERY) || path.startsWith(UI_PATH)) {
+            return compute.get();
+        }
+        MultivaluedMap<String, String> parameters = uriInfo.getQueryParameters();
+        String key = ResponseCache.key(path, parameters, mediaType, language, isAuthenticated());
+        ResponseCache.Entry entry = cache.get(key);
+        if (entry != null) {
+            return entry.toResponse(jaxrsRequest);
+        }
+
+        long generation = cache.getGeneration();
+        Response response = compute.get();
+        Object entity = response.getEntity();
+        if (response.getStatus() != Status.OK.getStatusCode() || entity == null || entity instanceof RegisterViewStream) {
+            // Streamed views are too large to be worth caching
+            return response;
+        }
+        if (response.getMediaType() == null) {
+            response = Response.fromResponse(response).type(mediaType).build();
+        }
+        byte[] body = serialize(entity, response.getMediaType());
+        if (body == null) {
+            return response;
+        }
+        // Searches and entity lookups can be affected by changes anywhere
+        boolean global = parameters.containsKey(Parameters.QUERY) || parameters.containsKey(Parameters.ENTITY_LOOKUP);
+        entry = new ResponseCache.Entry(Registry.get().getBaseURI() + "/" + path, global, body, response);
+        cache.put(key, entry, generation);
+        return entry.toResponse(null);
+    }
+
+    /**
+     * Serialize a response entity using the same providers Jersey would use, returns null if there is no suitable provider
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private byte[] serialize(Object entity, MediaType type) {
+        try {
+            if (entity instanceof String) {
+                return ((String)entity).getBytes(StandardCharsets.UTF_8);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (entity instanceof StreamingOutput) {
+                ((StreamingOutput)entity).write(out);
+            } else {
+                Annotation[] annotations = new Annotation[0];
+                MessageBodyWriter writer = providers.getMessageBodyWriter(entity.getClass(), entity.getClass(), annotations, type);
+                if (writer == null) {
+                    return null;
+                }
+                writer.writeTo(entity, entity.getClass(), entity.getClass(), annotations, type, new MultivaluedHashMap<String, Object>(), out);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new WebApiException(Status.INTERNAL_SERVER_ERROR, "Failed to serialize response: " + e);
+        }
+    }
+
+    private static boolean isAuthenticated() {
+        try {
+            return SecurityUtils.getSubject().isAuthenticated();
+        } catch (UnavailableSecurityManagerException e) {
+            return false;
         }
     }
     
@@ -314,6 +437,14 @@ public class RequestProcessor extends BaseEndpoint {
     }
 
     private Response doRead(PassThroughResult ptr, String mediaType) {
+        return doRead(ptr, mediaType, mediaType);
+    }
+
+    /**
+     * @param mediaType media type explicitly requested, which may select a different command
+     * @param responseType media type of the response, if known
+     */
+    private Response doRead(PassThroughResult ptr, String mediaType, String responseType) {
         String path = uriInfo.getPath();
         if (path.startsWith(SYSTEM_QUERY) || path.startsWith(UI_PATH) ) {
             // Will chain through to file serving/fuseki
@@ -330,9 +461,10 @@ public class RequestProcessor extends BaseEndpoint {
             if (ptr != null) {
                 command.setDelegation(ptr.getRecord());
             }
-            if (mediaType != null) {
-                command.setMediaType(mediaType);
+            if (responseType != null) {
+                command.setMediaType(responseType);
             }
+            command.setRequest(jaxrsRequest);
         }
         return command.execute();
     }
@@ -400,13 +532,18 @@ public class RequestProcessor extends BaseEndpoint {
 
     private Response doValidate(InputStream body) {
         MultivaluedMap<String, String> parameters = new MultivaluedStringMap( uriInfo.getQueryParameters() );
-        if (body != null) {
+        // Streamed validation reads the URI list incrementally rather than all at once
+        boolean streaming = CommandValidate.isStreamingFormat( parameters.getFirst(Parameters.FORMAT) );
+        if (body != null && !streaming) {
             for (String uri : FileManager.get().readWholeFileAsUTF8(body).split("\\s")) {
                 parameters.add(Parameters.VALIDATE, uri);
             }
         }
         Command command = Registry.get().make(Operation.Validate, uriInfo.getPath(), parameters);
         command.setRequestor(getRequestor(request));
+        if (streaming) {
+            command.setPayloadStream(body);
+        }
         return command.execute();
     }
 
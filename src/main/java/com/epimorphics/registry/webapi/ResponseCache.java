@@ -0,0 +1,307 @@
+/******************************************************************
+ * File:        ResponseCache.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.webapi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+
+import org.apache.commons.collections.map.LRUMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.epimorphics.registry.message.Message;
+import com.epimorphics.registry.message.MessagingService;
+
+/**
+ * Bounded cache of fully rendered GET responses, so that popular pages and
+ * register views need not be re-read and re-serialized on every request.
+ * <p>
+ * Entries are keyed by path, query parameters, media type, language and
+ * whether the requestor is logged in. Each entry records the URI of the
+ * resource it describes. The cache is registered as a listener on the
+ * registry's messaging service and any change notification drops the
+ * entries for the changed resource, for the registers above it and for
+ * anything below it. Entries for searches and entity lookups, and any
+ * entry if a change is made to one of the configured global targets
+ * (such as the prefix register), are dropped on every change.
+ * </p><p>
+ * Entries are only accepted if no invalidation has occurred since the request
+ * which produced them started, so a response computed from a superseded
+ * state of the store can't be left in the cache. An optional time to live
+ * bounds the staleness of any view whose dependence on other resources
+ * is not captured by that scheme.
+ * </p>
+ */
+public class ResponseCache implements MessagingService.Process {
+    static final Logger log = LoggerFactory.getLogger( ResponseCache.class );
+
+    public static final int DEFAULT_SIZE = 500;
+    public static final int DEFAULT_MAX_ENTRY_SIZE = 1024 * 1024;
+
+    protected LRUMap cache;
+    protected long ttl = -1;
+    protected int maxEntrySize = DEFAULT_MAX_ENTRY_SIZE;
+    protected List<String> globalTargets = new ArrayList<>();
+    protected long generation = 0;
+    protected Set<Message> applied = Collections.newSetFromMap( new WeakHashMap<Message, Boolean>() );
+
+    protected final AtomicLong hits = new AtomicLong();
+    protected final AtomicLong misses = new AtomicLong();
+    protected final AtomicLong invalidations = new AtomicLong();
+
+    public ResponseCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    public ResponseCache(int size) {
+        cache = new LRUMap(size);
+    }
+
+    /**
+     * Set the time, in milliseconds, after which entries expire regardless of change notifications, -1 for no expiry
+     */
+    public void setTTL(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Set the size, in bytes, of the largest response body to cache
+     */
+    public void setMaxEntrySize(int maxEntrySize) {
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    /**
+     * Add a URI such that changes to it, or anything below it, invalidate the whole cache
+     */
+    public synchronized void addGlobalTarget(String target) {
+        globalTargets.add( normalize(target) );
+    }
+
+    /**
+     * Construct a cache key for a request
+     * @param path the request path
+     * @param parameters the request query parameters
+     * @param mediaType the media type of the response
+     * @param language the language of the response, or null if not language dependent
+     * @param authenticated true if the requestor is logged in
+     */
+    public static String key(String path, MultivaluedMap<String, String> parameters, String mediaType, String language, boolean authenticated) {
+        StringBuilder key = new StringBuilder();
+        key.append(mediaType).append('|').append(language).append('|').append(authenticated ? "auth" : "anon").append('|').append(path);
+        // Sort the parameters so that reordering the query string still hits
+        char sep = '?';
+        for (Map.Entry<String, List<String>> param : new TreeMap<>(parameters).entrySet()) {
+            for (String value : param.getValue()) {
+                key.append(sep).append(param.getKey()).append('=').append(value);
+                sep = '&';
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Return the cached entry for a key, or null if there is none or it has expired.
+     */
+    public synchronized Entry get(String key) {
+        Entry entry = (Entry) cache.get(key);
+        if (entry != null && ttl > 0 && System.currentTimeMillis() - entry.created > ttl) {
+            cache.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * Return a stamp to be passed to {@link #put(String, Entry, long)}, should be
+     * taken before the request which produces the response starts reading the store.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Cache an entry unless it is too large or there has been an invalidation since the given generation.
+     * @return true if the entry was cached
+     */
+    public synchronized boolean put(String key, Entry entry, long generation) {
+        if (generation != this.generation || entry.body.length > maxEntrySize) {
+            return false;
+        }
+        cache.put(key, entry);
+        return true;
+    }
+
+    /**
+     * Drop any entries which might be affected by a change to the given resource.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void invalidate(String target) {
+        generation++;
+        invalidations.incrementAndGet();
+        String changed = normalize(target);
+        for (String global : globalTargets) {
+            if (isWithin(changed, global)) {
+                log.debug("Clearing response cache following change to " + target);
+                cache.clear();
+                return;
+            }
+        }
+        for (Iterator<Entry> i = cache.values().iterator(); i.hasNext();) {
+            Entry entry = i.next();
+            if (entry.global || isWithin(changed, entry.target) || isWithin(entry.target, changed)) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Apply a change notification from this node synchronously, as soon as
+     * the change has been committed. The same message, when later delivered
+     * through the messaging service, is then ignored.
+     */
+    public synchronized void invalidate(Message message) {
+        invalidate( message.getTarget() );
+        applied.add(message);
+    }
+
+    public synchronized void clear() {
+        generation++;
+        invalidations.incrementAndGet();
+        cache.clear();
+    }
+
+    @Override
+    public synchronized void processMessage(Message message) {
+        if ( ! applied.remove(message) ) {
+            invalidate( message.getTarget() );
+        }
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ResponseCache[size=%d, hits=%d, misses=%d, invalidations=%d]",
+                size(), getHits(), getMisses(), getInvalidations());
+    }
+
+    /**
+     * Item and entity URIs differ only in the "_" prefix to the last segment, so treat them as the same resource
+     */
+    protected static String normalize(String uri) {
+        String n = uri.replace("/_", "/");
+        return n.endsWith("/") ? n.substring(0, n.length() - 1) : n;
+    }
+
+    protected static boolean isWithin(String uri, String ancestor) {
+        return uri.startsWith(ancestor) &&
+                (uri.length() == ancestor.length() || uri.charAt(ancestor.length()) == '/');
+    }
+
+    /**
+     * A cached response. Only successful responses are cached.
+     */
+    public static class Entry {
+        protected final String target;
+        protected final boolean global;
+        protected final byte[] body;
+        protected final List<Object[]> headers = new ArrayList<>();
+        protected final EntityTag tag;
+        protected final Date lastModified;
+        protected final long created = System.currentTimeMillis();
+
+        /**
+         * @param target the URI of the resource described by the response
+         * @param global true if the response might be affected by a change to any resource
+         * @param body the serialized response body
+         * @param response the response whose headers should be replayed
+         */
+        public Entry(String target, boolean global, byte[] body, Response response) {
+            this.target = normalize(target);
+            this.global = global;
+            this.body = body;
+            for (Map.Entry<String, List<Object>> header : response.getMetadata().entrySet()) {
+                for (Object value : header.getValue()) {
+                    headers.add( new Object[]{ header.getKey(), value } );
+                }
+            }
+            this.tag = response.getEntityTag();
+            this.lastModified = response.getLastModified();
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * Build a response from the cached entry. If the entry has a validator and the request is
+         * conditional then this may be a 304 Not Modified response.
+         * @param request the request being answered, may be null
+         */
+        public Response toResponse(Request request) {
+            if (request != null && tag != null) {
+                ResponseBuilder notModified = (lastModified == null) ? request.evaluatePreconditions(tag) : request.evaluatePreconditions(lastModified, tag);
+                if (notModified != null) {
+                    return notModified.header(RequestProcessor.VARY_HEADER, "Accept").build();
+                }
+            }
+            ResponseBuilder builder = Response.ok(body);
+            for (Object[] header : headers) {
+                builder.header((String)header[0], header[1]);
+            }
+            return builder.build();
+        }
+    }
+}
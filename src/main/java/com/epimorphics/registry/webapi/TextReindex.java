@@ -28,6 +28,7 @@ import org.slf4j.LoggerFactory;
 
 import com.epimorphics.appbase.core.AppConfig;
 import com.epimorphics.registry.security.RegAuthorizationInfo;
+import com.epimorphics.registry.store.StoreBaseImpl;
 import com.epimorphics.registry.store.impl.TDBStore;
 
 /**
@@ -49,6 +50,10 @@ public class TextReindex {
             } else {
                 long indexed = store.textReindex();
                 log.info("Indexed " + indexed + " entries");
+                StoreBaseImpl storeapi = AppConfig.getApp().getA(StoreBaseImpl.class);
+                if (storeapi != null) {
+                    storeapi.rebuildSearchIndex();
+                }
                 return Response.ok("Indexed " + indexed + " entries").build();
             }
         } else {
@@ -0,0 +1,127 @@
+/******************************************************************
+ * File:        TestBulkLoader.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.epimorphics.registry.store.RegisterEntryInfo;
+import com.epimorphics.registry.store.SearchRequest;
+import com.epimorphics.registry.store.StoreAPI;
+import com.epimorphics.registry.store.StoreBaseImpl;
+import com.epimorphics.registry.store.impl.TDBStore;
+
+public class TestBulkLoader {
+    static final String WEBAPP = "src/test/webapp-security/WEB-INF/";
+    static final String BOOT_DIR = WEBAPP + "boot";
+    static final String ROOT_REGISTER = "http://location.data.gov.uk";
+
+    static final String[] REGISTERS = new String[]{ "/open", "/open/colours", "/secure", "/secure/reg1", "/secure/reg2/colours" };
+
+    @Test
+    public void testMatchesNormalLoad() {
+        Registry normal = startRegistry(false);
+        Registry bulk = startRegistry(true);
+        for (String register : REGISTERS) {
+            Set<String> members = listMembers(normal.getStore(), ROOT_REGISTER + register);
+            assertTrue( members.size() > 0 );
+            assertEquals( members, listMembers(bulk.getStore(), ROOT_REGISTER + register) );
+        }
+        StoreAPI store = bulk.getStore();
+        store.beginRead();
+        try {
+            RegisterItem red = store.getItem(ROOT_REGISTER + "/open/colours/_red", true);
+            assertNotNull( red );
+            assertEquals( Status.Stable, red.getStatus() );
+        } finally {
+            store.end();
+        }
+        assertTrue( search(store, "red").contains(ROOT_REGISTER + "/open/colours/red") );
+    }
+
+    @Test
+    public void testBatches() {
+        Registry registry = startRegistry(false, null);
+        BulkLoader loader = new BulkLoader(registry);
+        loader.setBaseStore( registry.getStore() );
+        loader.setBatchSize(2);
+        loader.setThreads(2);
+        int loaded = loader.load( Collections.singletonList(new File(BOOT_DIR)) );
+        assertTrue( loaded > 2 );
+        assertEquals( 3, listMembers(registry.getStore(), ROOT_REGISTER + "/open/colours").size() );
+        assertTrue( search(registry.getStore(), "blue").contains(ROOT_REGISTER + "/open/colours/blue") );
+    }
+
+    private Registry startRegistry(boolean bulkLoad) {
+        return startRegistry(bulkLoad, BOOT_DIR);
+    }
+
+    private Registry startRegistry(boolean bulkLoad, String bootdir) {
+        TDBStore basestore = new TDBStore();
+        basestore.setTextIndex("default");
+        basestore.startup(null);
+        StoreBaseImpl store = new StoreBaseImpl();
+        store.setStore(basestore);
+
+        Registry registry = new Registry();
+        registry.setBaseUri(ROOT_REGISTER + "/");
+        registry.setStore(store);
+        registry.setBootSpec(WEBAPP + "root-register.ttl|" + WEBAPP + "registry.ttl");
+        if (bootdir != null) {
+            registry.setSystemBoot(bootdir);
+        }
+        registry.setBulkLoad(bulkLoad);
+        registry.startup(null);
+        return registry;
+    }
+
+    private Set<String> listMembers(StoreAPI store, String registerURI) {
+        Set<String> members = new TreeSet<>();
+        store.beginRead();
+        try {
+            Register register = store.getCurrentVersion(registerURI).asRegister();
+            for (RegisterEntryInfo info : store.listMembers(register)) {
+                members.add( info.getEntityURI() );
+            }
+        } finally {
+            store.end();
+        }
+        return members;
+    }
+
+    private List<String> search(StoreAPI store, String text) {
+        store.beginRead();
+        try {
+            return store.search( new SearchRequest(text) );
+        } finally {
+            store.end();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/******************************************************************
+ * File:        TestDelegationCache.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.epimorphics.appbase.webapi.WebApiException;
+import com.epimorphics.registry.core.ForwardingRecord.Type;
+
+public class TestDelegationCache {
+    static final String ENDPOINT = "http://example.com/sparql";
+    static final String NS = "http://example.com/def/";
+
+    Model remote;
+    DelegationCache cache;
+    LocalDelegation delegation;
+
+    /**
+     * Delegation which queries a local model in place of the remote endpoint
+     */
+    class LocalDelegation extends DelegationRecord {
+        AtomicInteger queries = new AtomicInteger();
+        volatile long delay = 0;
+        volatile boolean fail = false;
+
+        public LocalDelegation() {
+            super("/def/colours", ENDPOINT, Type.DELEGATE);
+        }
+
+        @Override
+        protected QueryExecution createExecution(String query) {
+            queries.incrementAndGet();
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            if (fail) {
+                throw new RuntimeException("Endpoint unavailable");
+            }
+            return QueryExecutionFactory.create(query, remote);
+        }
+    }
+
+    @Before
+    public void setup() {
+        remote = ModelFactory.createDefaultModel();
+        Resource colour = remote.createResource(NS + "Colour");
+        for (String name : new String[]{ "red", "green", "blue" }) {
+            remote.createResource(NS + name)
+                .addProperty(RDF.type, colour)
+                .addProperty(RDFS.label, name);
+        }
+        cache = new DelegationCache();
+        delegation = new LocalDelegation();
+        delegation.setPredicate(RDF.type);
+        delegation.setObject(colour);
+        delegation.setCache(cache);
+    }
+
+    @After
+    public void teardown() {
+        cache.shutdown();
+    }
+
+    @Test
+    public void testCaching() {
+        List<Resource> members = delegation.listMembers();
+        assertEquals(3, members.size());
+        assertEquals(NS + "blue", members.get(0).getURI());
+        assertEquals(members, delegation.listMembers());
+        assertEquals(1, delegation.queries.get());
+
+        Model red = delegation.describeMember(members.get(2));
+        assertTrue( red.contains(members.get(2), RDFS.label, "red") );
+        delegation.describeMember(members.get(2));
+        assertEquals(2, delegation.queries.get());
+
+        // Changes to a returned description don't affect the cache
+        red.removeAll();
+        assertEquals(2, delegation.describeMember(members.get(2)).size());
+
+        Model view = ModelFactory.createDefaultModel();
+        delegation.fetchMembers(view, members.subList(0, 2));
+        delegation.fetchMembers(view, members.subList(0, 2));
+        assertEquals(2, view.listSubjects().toList().size());
+        assertEquals(3, delegation.queries.get());
+        assertEquals(3, cache.getMisses());
+        assertEquals(4, cache.getHits());
+    }
+
+    @Test
+    public void testTimeout() throws InterruptedException {
+        cache.setTimeout(50);
+        delegation.delay = 300;
+        try {
+            delegation.listMembers();
+            fail("Expected timeout");
+        } catch (WebApiException e) {
+            assertEquals(504, e.getResponse().getStatus());
+        }
+        assertNull( delegation.describeMember(remote.getResource(NS + "red")) );
+
+        // The fetches complete in the background and serve later requests
+        for (int i = 0; i < 500 && cache.size() < 2; i++) {
+            Thread.sleep(10);
+        }
+        delegation.delay = 0;
+        assertEquals(3, delegation.listMembers().size());
+        assertEquals(2, delegation.queries.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getTimeouts());
+    }
+
+    @Test
+    public void testRefresh() throws InterruptedException {
+        cache.refresh = 0;
+        delegation.listMembers();
+        remote.createResource(NS + "yellow").addProperty(RDF.type, remote.createResource(NS + "Colour"));
+
+        // Returns the old list and refreshes in the background
+        assertEquals(3, delegation.listMembers().size());
+        waitForQueries(2);
+        assertEquals(4, delegation.listMembers().size());
+        assertTrue(cache.getRefreshes() >= 1);
+    }
+
+    @Test
+    public void testStaleOnFailure() throws InterruptedException {
+        cache.ttl = 0;
+        assertEquals(3, delegation.listMembers().size());
+        delegation.fail = true;
+        assertEquals(3, delegation.listMembers().size());
+        assertEquals(1, cache.getStaleServed());
+
+        cache.clear();
+        try {
+            delegation.listMembers();
+            fail("Expected failure");
+        } catch (RuntimeException e) {
+            assertEquals("Endpoint unavailable", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testFailuresNotCached() throws InterruptedException {
+        Resource red = remote.getResource(NS + "red");
+        delegation.fail = true;
+        assertNull( delegation.describeMember(red) );
+        assertEquals(0, cache.size());
+        delegation.fail = false;
+        assertEquals(2, delegation.describeMember(red).size());
+
+        // A failed background refresh leaves the previous description in place
+        cache.refresh = 0;
+        delegation.fail = true;
+        assertEquals(2, delegation.describeMember(red).size());
+        waitForQueries(3);
+        assertEquals(2, delegation.describeMember(red).size());
+        waitForQueries(4);
+
+        // A member with no description is cached as empty
+        delegation.fail = false;
+        cache.refresh = DelegationCache.DEFAULT_REFRESH * 1000L;
+        int queries = delegation.queries.get();
+        assertTrue( delegation.describeMember(remote.getResource(NS + "purple")).isEmpty() );
+        assertTrue( delegation.describeMember(remote.getResource(NS + "purple")).isEmpty() );
+        assertEquals(queries + 1, delegation.queries.get());
+    }
+
+    @Test
+    public void testSharedFetch() throws InterruptedException {
+        delegation.delay = 100;
+        Thread[] readers = new Thread[5];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread() {
+                @Override
+                public void run() {
+                    delegation.listMembers();
+                }
+            };
+            readers[i].start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(1, delegation.queries.get());
+    }
+
+    @Test
+    public void testEndpointTimeouts() {
+        cache.setEndpointTimeouts("http://example.com/sparql=500, http://example.org/query?x=y = 2000");
+        assertEquals(500, cache.getTimeout(ENDPOINT));
+        assertEquals(2000, cache.getTimeout("http://example.org/query?x=y"));
+        assertEquals(DelegationCache.DEFAULT_TIMEOUT, cache.getTimeout("http://example.net/sparql"));
+
+        // Remote queries are allowed longer than requests wait for them
+        assertEquals(DelegationCache.DEFAULT_FETCH_TIMEOUT, cache.getFetchTimeout(ENDPOINT));
+        cache.setEndpointTimeouts("http://example.com/sparql=90000");
+        assertEquals(90000, cache.getFetchTimeout(ENDPOINT));
+    }
+
+    private void waitForQueries(int expected) throws InterruptedException {
+        for (int i = 0; i < 500 && (delegation.queries.get() < expected || !cache.inflight.isEmpty()); i++) {
+            Thread.sleep(10);
+        }
+    }
+}
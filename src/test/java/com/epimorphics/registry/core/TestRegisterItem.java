@@ -21,6 +21,8 @@
 
 package com.epimorphics.registry.core;
 
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.rdf.model.Literal;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -36,6 +38,17 @@ public class TestRegisterItem {
         check("bad:1", false);   // This is a legal pchar* but not a legal notation   
     }
     
+    @Test
+    public void testNotationLiteral() {
+        Literal numeric = RegisterItem.notationLiteral("42");
+        assertEquals(XSDDatatype.XSDlong.getURI(), numeric.getDatatypeURI());
+        assertEquals(42L, numeric.getLong());
+        Literal large = RegisterItem.notationLiteral("12345678901");
+        assertEquals("12345678901", large.getLexicalForm());
+        assertEquals("", large.getLanguage());
+        assertEquals(XSDDatatype.XSDstring.getURI(), large.getDatatypeURI());
+    }
+
     private void check(String target, boolean expected) {
         assertEquals(target, expected, RegisterItem.LEGAL_NOTATION.matcher(target).matches());
     }
@@ -0,0 +1,173 @@
+/******************************************************************
+ * File:        TestRegisterViewStream.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.epimorphics.appbase.core.ComponentBase;
+import com.epimorphics.rdfutil.RDFUtil;
+import com.epimorphics.registry.csv.RDFCSVUtil;
+import com.epimorphics.registry.store.Store;
+import com.epimorphics.registry.store.StoreBaseImpl;
+import com.epimorphics.registry.store.impl.TDBStore;
+import com.epimorphics.registry.util.JSONLDSupport;
+import com.epimorphics.registry.util.Prefixes;
+import com.epimorphics.util.NameUtils;
+
+public class TestRegisterViewStream {
+    static final String BOOTSTRAP_FILE = "src/test/webapp/WEB-INF/root-register.ttl";
+    static final String ROOT_REGISTER = "http://location.data.gov.uk/";
+    static final String REG1 = ROOT_REGISTER + "reg1";
+
+    StoreBaseImpl store;
+
+    @Before
+    public void setup() {
+        Store basestore = new TDBStore();
+        ((ComponentBase)basestore).startup(null);
+
+        store = new StoreBaseImpl();
+        store.setStore(basestore);
+        store.loadBootstrap(BOOTSTRAP_FILE);
+
+        store.beginWrite();
+        try {
+            addEntry("file:test/reg1.ttl", ROOT_REGISTER);
+            addEntry("file:test/red.ttl", REG1);
+            addEntry("file:test/blue.ttl", REG1);
+            addEntry("file:test/green.ttl", REG1);
+            store.commit();
+        } finally {
+            store.end();
+        }
+    }
+
+    @Test
+    public void testStreamedRDF() throws IOException {
+        for (boolean withMetadata : new boolean[]{ false, true }) {
+            Model expected = ModelFactory.createDefaultModel();
+            RegisterViewStream stream = makeStream(withMetadata, "text/turtle; charset=UTF-8", expected);
+            assertTrue( expected.isIsomorphicWith( read(stream, Lang.TURTLE) ) );
+
+            stream = makeStream(withMetadata, RegisterViewStream.MIME_NTRIPLES, null);
+            assertTrue( expected.isIsomorphicWith( read(stream, Lang.NTRIPLES) ) );
+
+            stream = makeStream(withMetadata, JSONLDSupport.FULL_MIME_JSONLD, null);
+            Model jsonld = JSONLDSupport.readModel(REG1, new ByteArrayInputStream( write(stream).getBytes(StandardCharsets.UTF_8) ));
+            assertTrue( expected.isIsomorphicWith(jsonld) );
+        }
+    }
+
+    @Test
+    public void testStreamedCSV() throws IOException {
+        String csv = write( makeStream(true, RDFCSVUtil.MEDIA_TYPE, null) );
+        String[] lines = csv.split("\r\n");
+        assertEquals(4, lines.length);
+        assertTrue( lines[0].contains(RDFCSVUtil.NOTATION_HEADER) );
+        assertTrue( lines[1].contains("<" + REG1 + "/blue>") );
+        assertTrue( lines[3].contains("<" + REG1 + "/red>") );
+    }
+
+    @Test
+    public void testSelectedWhenWritten() throws IOException {
+        RegisterViewStream stream = makeStream(false, RegisterViewStream.MIME_NTRIPLES, null);
+        store.beginWrite();
+        try {
+            store.delete(REG1 + "/_green");
+            store.commit();
+        } finally {
+            store.end();
+        }
+        // Reflects the commit made after the stream was constructed
+        Model written = read(stream, Lang.NTRIPLES);
+        assertTrue( written.containsResource( written.getResource(REG1 + "/blue") ) );
+        assertFalse( written.containsResource( written.getResource(REG1 + "/green") ) );
+    }
+
+    /**
+     * Make a stream over all the members of reg1, fetched one at a time.
+     * @param expected if not null, filled in with the equivalent in-memory view
+     */
+    private RegisterViewStream makeStream(boolean withMetadata, String mediaType, Model expected) {
+        store.beginRead();
+        try {
+            Register register = store.getCurrentVersion(REG1).asRegister();
+            if (expected != null) {
+                register.constructView(expected, withMetadata, store.listMembers(register, Status.Any, null, 0, -1), null);
+            }
+            RegisterViewStream stream = new RegisterViewStream(store, register,
+                    () -> store.listMembers(register, Status.Any, null, 0, -1),
+                    window -> {
+                        Model header = ModelFactory.createDefaultModel();
+                        header.add( register.getRoot().getModel() );
+                        header.setNsPrefixes( Prefixes.get() );
+                        return header;
+                    },
+                    withMetadata, mediaType);
+            stream.setChunkSize(1);
+            return stream;
+        } finally {
+            store.end();
+        }
+    }
+
+    private String write(RegisterViewStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        stream.write(out);
+        return out.toString(StandardCharsets.UTF_8.name());
+    }
+
+    private Model read(RegisterViewStream stream, Lang lang) throws IOException {
+        Model m = ModelFactory.createDefaultModel();
+        RDFDataMgr.read(m, new ByteArrayInputStream( write(stream).getBytes(StandardCharsets.UTF_8) ), lang);
+        return m;
+    }
+
+    private void addEntry(String defFile, String parentURI) {
+        Register parent = store.getCurrentVersion(parentURI).asRegister();
+        String target = NameUtils.stripLastSlash(parentURI);
+        String base = NameUtils.ensureLastSlash(parentURI);
+        Model entityM = ModelFactory.createDefaultModel();
+        entityM.read(defFile, base, FileUtils.langTurtle);
+        Resource entityR = RDFUtil.findRoot( entityM );
+
+        Calendar now = Calendar.getInstance();
+        RegisterItem item = RegisterItem.fromEntityRequest(entityR, target, true, now);
+        store.addToRegister(parent, item, now);
+    }
+}
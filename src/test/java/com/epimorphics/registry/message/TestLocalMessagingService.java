@@ -0,0 +1,230 @@
+/******************************************************************
+ * File:        TestLocalMessagingService.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestLocalMessagingService {
+    static final int N = 200;
+
+    LocalMessagingService service;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setup() {
+        service = new LocalMessagingService();
+        service.setThreads(4);
+    }
+
+    @After
+    public void teardown() {
+        service.shutdown();
+    }
+
+    @Test
+    public void testSubscriberOrdering() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2 * N);
+        List<String> fast = Collections.synchronizedList(new ArrayList<>());
+        List<String> slow = Collections.synchronizedList(new ArrayList<>());
+        service.processMessages( m -> { fast.add(m.getTarget()); done.countDown(); } );
+        service.processMessages( m -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            slow.add(m.getTarget());
+            done.countDown();
+        } );
+        for (int i = 0; i < N; i++) {
+            service.sendMessage( message("http://example.com/reg/_" + (i % 7) + "/" + i) );
+        }
+
+        // The blocked subscriber doesn't hold up the other one
+        long deadline = System.currentTimeMillis() + 5000;
+        while (service.getQueueDepth() > N && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(N, service.getQueueDepth());
+        assertEquals(N, fast.size());
+        assertTrue(slow.isEmpty());
+
+        release.countDown();
+        assertTrue( done.await(5, TimeUnit.SECONDS) );
+        for (int i = 0; i < N; i++) {
+            assertTrue( fast.get(i).endsWith("/" + i) );
+            assertTrue( slow.get(i).endsWith("/" + i) );
+        }
+        waitForDelivery(2 * N);
+        assertTrue(service.getMaxQueueDepth() >= N);
+    }
+
+    @Test
+    public void testFailingSubscriber() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(N);
+        service.setOrdering(LocalMessagingService.ORDER_BY_TARGET);
+        service.processMessages( m -> { throw new RuntimeException("Test failure"); } );
+        service.processMessages( m -> done.countDown() );
+        for (int i = 0; i < N; i++) {
+            service.sendMessage( message("http://example.com/reg/_" + i) );
+        }
+        assertTrue( done.await(5, TimeUnit.SECONDS) );
+        long deadline = System.currentTimeMillis() + 5000;
+        while (service.getQueueDepth() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(N, service.getFailures());
+    }
+
+    @Test
+    public void testBlockOnOverflow() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Message> received = blockedSubscriber(release);
+        service.setCapacity(2);
+        Thread sender = new Thread( () -> {
+            for (int i = 0; i < 5; i++) {
+                service.sendMessage( message("http://example.com/reg/_" + i) );
+            }
+        } );
+        sender.start();
+        sender.join(200);
+        assertTrue( sender.isAlive() );
+        assertTrue( service.getQueueDepth() <= 2 );
+        release.countDown();
+        sender.join(5000);
+        assertFalse( sender.isAlive() );
+        waitForDelivery(5);
+        assertEquals(5, received.size());
+    }
+
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Message> received = blockedSubscriber(release);
+        service.setCapacity(5);
+        service.setOverflow(LocalMessagingService.OVERFLOW_DROP_OLDEST);
+        for (int i = 0; i < 20; i++) {
+            service.sendMessage( message("http://example.com/reg/_" + i) );
+        }
+        release.countDown();
+        waitForDelivery(20 - service.getDropped());
+        assertTrue( received.size() <= 6 );
+        assertEquals(20, received.size() + service.getDropped());
+        assertEquals("http://example.com/reg/_19", received.get(received.size() - 1).getTarget());
+    }
+
+    @Test
+    public void testSpill() throws InterruptedException, IOException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Message> received = blockedSubscriber(release);
+        service.setCapacity(5);
+        service.setOverflow(LocalMessagingService.OVERFLOW_SPILL);
+        service.setSpillDir( folder.newFolder().getPath() );
+        for (int i = 0; i < N; i++) {
+            Message message = message("http://example.com/reg/_" + i);
+            message.setMessage( payload(i) );
+            service.sendMessage(message);
+        }
+        assertTrue( service.getSpillDepth() > 0 );
+        release.countDown();
+        waitForDelivery(N);
+        assertEquals(N, received.size());
+        assertEquals(0, service.getSpillDepth());
+        for (int i = 0; i < N; i++) {
+            Message message = received.get(i);
+            assertEquals("http://example.com/reg/_" + i, message.getTarget());
+            assertTrue( payload(i).isIsomorphicWith( message.getMessageAsModel() ) );
+        }
+    }
+
+    @Test
+    public void testCoalesce() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Message> received = blockedSubscriber(release);
+        service.setCoalesce(true);
+        for (int i = 0; i < 10; i++) {
+            Message message = message("http://example.com/reg/_" + (i % 2));
+            message.setMessage("" + i);
+            service.sendMessage(message);
+        }
+        release.countDown();
+        waitForDelivery(10 - service.getCoalesced());
+        assertTrue( received.size() <= 3 );
+        assertEquals(10, received.size() + service.getCoalesced());
+        assertEquals("9", received.get(received.size() - 1).getMessageAsString());
+        assertEquals("8", received.get(received.size() - 2).getMessageAsString());
+    }
+
+    private List<Message> blockedSubscriber(CountDownLatch release) {
+        List<Message> received = Collections.synchronizedList(new ArrayList<>());
+        service.processMessages( m -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            received.add(m);
+        } );
+        return received;
+    }
+
+    private void waitForDelivery(long n) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (service.getDelivered() < n && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(n, service.getDelivered());
+    }
+
+    private Model payload(int i) {
+        Model model = ModelFactory.createDefaultModel();
+        model.createResource("http://example.com/reg/" + i).addProperty(RDFS.label, "Item " + i);
+        return model;
+    }
+
+    private Message message(String target) {
+        Message message = new Message();
+        message.setTarget(target);
+        message.setOperation("Update");
+        return message;
+    }
+}
@@ -0,0 +1,76 @@
+package com.epimorphics.registry.notification;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.epimorphics.registry.notification.NotificationLogTest.notification;
+import static org.junit.Assert.*;
+
+public class BacklogNotificationAgentTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> sent = new ArrayList<>();
+    private boolean failing = true;
+    private final NotificationAgent target = n -> {
+        if (failing) throw new IOException("Broker unavailable");
+        sent.add(n.getTarget());
+    };
+
+    @Test
+    public void backlogSurvivesRestartAndDrainsInOrder() throws Exception {
+        File dir = folder.newFolder();
+        BacklogNotificationAgent agent = makeAgent(dir);
+        for (int i = 0; i < 5; i++) {
+            try {
+                agent.send(notification(i));
+                fail("Expected send to fail");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        assertEquals(5, agent.getBacklogDepth());
+        agent.shutdown();
+
+        agent = makeAgent(dir);
+        assertEquals(5, agent.getBacklogDepth());
+        failing = false;
+        agent.send(notification(5));
+        assertEquals(0, agent.getBacklogDepth());
+        assertEquals(6, sent.size());
+        for (int i = 0; i < 6; i++) {
+            assertEquals("http://example.com/reg/_" + i, sent.get(i));
+        }
+        agent.shutdown();
+    }
+
+    @Test
+    public void respectsLimit() throws Exception {
+        BacklogNotificationAgent agent = makeAgent(folder.newFolder());
+        agent.setLimit(2L);
+        for (int i = 0; i < 5; i++) {
+            try {
+                agent.send(notification(i));
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        assertEquals(2, agent.getBacklogDepth());
+        agent.shutdown();
+    }
+
+    private BacklogNotificationAgent makeAgent(File dir) {
+        BacklogNotificationAgent agent = new BacklogNotificationAgent();
+        agent.setLocation(dir.getPath());
+        agent.setBatchSize(2L);
+        agent.setAgent(target);
+        agent.startup(null);
+        return agent;
+    }
+}
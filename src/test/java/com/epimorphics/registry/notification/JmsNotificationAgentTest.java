@@ -0,0 +1,88 @@
+package com.epimorphics.registry.notification;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jms.*;
+import java.util.Arrays;
+
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class JmsNotificationAgentTest {
+    private TopicConnectionFactory connectionFct = mock(TopicConnectionFactory.class);
+    private TopicConnection connection = mock(TopicConnection.class);
+    private TopicSession session = mock(TopicSession.class);
+    private TopicPublisher publisher = mock(TopicPublisher.class);
+    private JmsNotificationAgent agent = new JmsNotificationAgent();
+
+    @Before
+    public void before() throws JMSException {
+        when(connectionFct.createTopicConnection()).thenReturn(connection);
+        when(connection.createTopicSession(anyBoolean(), anyInt())).thenReturn(session);
+        when(session.createPublisher(any(Topic.class))).thenReturn(publisher);
+        when(session.createTextMessage(anyString())).thenAnswer(inv -> mock(TextMessage.class));
+        agent.setConnectionFactory(connectionFct);
+    }
+
+    @Test
+    public void reusesConnectionAndPublishers() throws Exception {
+        agent.send(notification("http://example.com/reg/_a"));
+        agent.send(notification("http://example.com/reg/_b"));
+
+        verify(connectionFct, times(1)).createTopicConnection();
+        verify(connection, times(1)).createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+        verify(session, times(2)).createPublisher(any(Topic.class));
+        verify(publisher, times(4)).publish(any(Message.class));
+    }
+
+    @Test
+    public void reconnectsOnFailure() throws Exception {
+        doThrow(new JMSException("broken")).doNothing().when(publisher).publish(any(Message.class));
+        agent.send(notification("http://example.com/reg/_a"));
+
+        verify(connection).close();
+        verify(connectionFct, times(2)).createTopicConnection();
+        verify(publisher, times(3)).publish(any(Message.class));
+    }
+
+    @Test
+    public void publishesBatchesInTransaction() throws Exception {
+        agent.setBatchSize(3L);
+        agent.setBatchInterval(60000L);
+        for (int i = 0; i < 3; i++) {
+            agent.send(notification("http://example.com/reg/_" + i));
+        }
+        verify(session, timeout(5000)).commit();
+        verify(connection).createTopicSession(true, Session.SESSION_TRANSACTED);
+        verify(publisher, times(6)).publish(any(Message.class));
+
+        // A failed batch is retried with the next one
+        doThrow(new JMSException("broken")).when(session).commit();
+        agent.send(notification("http://example.com/reg/_3"));
+        agent.flush();
+        verify(session, times(2)).rollback();
+        doNothing().when(session).commit();
+        agent.send(notification("http://example.com/reg/_4"));
+        agent.shutdown();
+        verify(session, times(4)).commit();
+        verify(publisher, times(6 + 2 + 2 + 4)).publish(any(Message.class));
+    }
+
+    @Test
+    public void holdsBatchesAfterShutdown() throws Exception {
+        agent.setBatchSize(1L);
+        agent.setBatchInterval(60000L);
+        agent.send(notification("http://example.com/reg/_a"));
+        verify(session, timeout(5000)).commit();
+        agent.shutdown();
+
+        agent.send(notification("http://example.com/reg/_b"));
+        verify(session, times(1)).commit();
+        verify(publisher, times(2)).publish(any(Message.class));
+    }
+
+    private Notification notification(String target) {
+        return new Notification.Base(Arrays.asList("topic1", "topic2"), "content", target, "Update");
+    }
+}
@@ -0,0 +1,140 @@
+package com.epimorphics.registry.notification;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class NotificationLogTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsInOrderAcrossSegments() throws IOException {
+        File dir = folder.newFolder();
+        NotificationLog backlog = new NotificationLog(dir, 200);
+        for (int i = 0; i < 20; i++) {
+            backlog.append(notification(i));
+        }
+        assertEquals(20, backlog.size());
+        assertTrue(segments(dir).size() > 2);
+
+        NotificationLog.Batch batch = backlog.read(7);
+        assertTargets(batch, 0, 7);
+        // Reading doesn't consume
+        assertTargets(backlog.read(7), 0, 7);
+        backlog.consume(batch);
+        assertEquals(13, backlog.size());
+        assertTargets(backlog.read(100), 7, 20);
+
+        backlog.consume(backlog.read(100));
+        assertTrue(backlog.isEmpty());
+        assertEquals(1, segments(dir).size());
+        backlog.close();
+    }
+
+    @Test
+    public void survivesRestart() throws IOException {
+        File dir = folder.newFolder();
+        NotificationLog backlog = new NotificationLog(dir, 300);
+        for (int i = 0; i < 10; i++) {
+            backlog.append(notification(i));
+        }
+        backlog.consume(backlog.read(4));
+        backlog.close();
+
+        backlog = new NotificationLog(dir, 300);
+        assertEquals(6, backlog.size());
+        NotificationLog.Batch batch = backlog.read(100);
+        assertTargets(batch, 4, 10);
+        Notification n = batch.notifications.get(0);
+        assertEquals(Arrays.asList("topic1", "topic2"), n.getTopics());
+        assertEquals("Update", n.getOperation());
+        assertEquals("message 4", n.getMessage());
+        backlog.close();
+    }
+
+    @Test
+    public void discardsPartialRecord() throws IOException {
+        File dir = folder.newFolder();
+        NotificationLog backlog = new NotificationLog(dir);
+        for (int i = 0; i < 3; i++) {
+            backlog.append(notification(i));
+        }
+        backlog.close();
+        File segment = segments(dir).get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 5);
+        }
+
+        backlog = new NotificationLog(dir);
+        assertEquals(2, backlog.size());
+        backlog.append(notification(3));
+        NotificationLog.Batch batch = backlog.read(100);
+        assertEquals(3, batch.notifications.size());
+        assertEquals("http://example.com/reg/_3", batch.notifications.get(2).getTarget());
+        backlog.close();
+    }
+
+    @Test
+    public void skipsCorruptRecordInEarlierSegment() throws IOException {
+        File dir = folder.newFolder();
+        NotificationLog backlog = new NotificationLog(dir, 200);
+        for (int i = 0; i < 10; i++) {
+            backlog.append(notification(i));
+        }
+        backlog.close();
+        File segment = segments(dir).get(0);
+        long length = segment.length();
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(length - 1);
+            file.write('#');
+        }
+
+        backlog = new NotificationLog(dir, 200);
+        assertEquals(9, backlog.size());
+        assertEquals(length, segment.length());
+        File copy = new File(dir, segment.getName() + NotificationLog.CORRUPT_SUFFIX);
+        assertTrue(copy.exists());
+
+        NotificationLog.Batch batch = backlog.read(100);
+        assertEquals(9, batch.notifications.size());
+        assertEquals("http://example.com/reg/_0", batch.notifications.get(0).getTarget());
+        assertEquals("http://example.com/reg/_9", batch.notifications.get(8).getTarget());
+        backlog.consume(batch);
+        assertTrue(backlog.isEmpty());
+        assertTrue(copy.exists());
+        backlog.close();
+    }
+
+    private void assertTargets(NotificationLog.Batch batch, int from, int to) {
+        assertEquals(to - from, batch.notifications.size());
+        for (int i = from; i < to; i++) {
+            assertEquals("http://example.com/reg/_" + i, batch.notifications.get(i - from).getTarget());
+        }
+    }
+
+    private List<File> segments(File dir) {
+        List<File> segments = new ArrayList<>();
+        for (File f : dir.listFiles()) {
+            if (f.getName().startsWith(NotificationLog.SEGMENT_PREFIX) && f.getName().endsWith(NotificationLog.SEGMENT_SUFFIX)) {
+                segments.add(f);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    static Notification notification(int i) {
+        return new Notification.Base(Arrays.asList("topic1", "topic2"), "message " + i, "http://example.com/reg/_" + i, "Update");
+    }
+}
@@ -0,0 +1,94 @@
+package com.epimorphics.registry.notification;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PathTrieTest {
+    private static final String BASE = "http://example.com/registry";
+
+    @Test
+    public void matchesIncludedPaths() {
+        PathTrie<String> trie = new PathTrie.Builder<String>()
+                .include(BASE + "/reg1", "a")
+                .exclude(BASE + "/reg1/sub", "a")
+                .include(BASE + "/reg1/sub", "b")
+                .include(BASE, "c")
+                .exclude(BASE + "/reg1", "c")
+                .build();
+
+        assertEquals(Arrays.asList("a"), trie.match(BASE + "/reg1"));
+        assertEquals(Arrays.asList("a"), trie.match(BASE + "/_reg1"));
+        assertEquals(Arrays.asList("a"), trie.match(BASE + "/reg1/_item"));
+        assertEquals(Arrays.asList("b"), trie.match(BASE + "/reg1/sub/_item"));
+        assertEquals(Arrays.asList("b"), trie.match(BASE + "/reg1/_sub"));
+        assertEquals(Arrays.asList("c"), trie.match(BASE + "/reg10"));
+        assertEquals(Arrays.asList("c"), trie.match(BASE + "/reg2/_item"));
+        assertTrue(trie.match("http://example.com/other").isEmpty());
+    }
+
+    @Test
+    public void agreesWithLinearScan() {
+        Random random = new Random(42);
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            paths.add(randomPath(random));
+        }
+        List<Spec> specs = new ArrayList<>();
+        PathTrie.Builder<Spec> builder = new PathTrie.Builder<>();
+        for (int i = 0; i < 50; i++) {
+            Spec spec = new Spec(paths.get(random.nextInt(paths.size())));
+            builder.include(spec.register, spec);
+            for (int j = random.nextInt(3); j > 0; j--) {
+                String exclude = paths.get(random.nextInt(paths.size()));
+                spec.excludes.add(exclude);
+                builder.exclude(exclude, spec);
+            }
+            specs.add(spec);
+        }
+        PathTrie<Spec> trie = builder.build();
+
+        for (int i = 0; i < 2000; i++) {
+            String target = randomPath(random);
+            if (random.nextBoolean()) {
+                int split = target.lastIndexOf('/');
+                target = target.substring(0, split + 1) + "_" + target.substring(split + 1);
+            }
+            List<Spec> expected = new ArrayList<>();
+            for (Spec spec : specs) {
+                if (spec.monitors(target)) {
+                    expected.add(spec);
+                }
+            }
+            assertEquals(target, expected, trie.match(target));
+        }
+    }
+
+    private String randomPath(Random random) {
+        StringBuilder path = new StringBuilder(BASE);
+        for (int depth = 1 + random.nextInt(4); depth > 0; depth--) {
+            path.append("/r").append(random.nextInt(4));
+        }
+        return path.toString();
+    }
+
+    // The original linear implementation of monitor matching
+    private static class Spec {
+        final String register;
+        final List<String> excludes = new ArrayList<>();
+
+        Spec(String register) {
+            this.register = register;
+        }
+
+        boolean monitors(String targetUri) {
+            return isSubRegister(register, targetUri) && excludes.stream().noneMatch(exclude -> isSubRegister(exclude, targetUri));
+        }
+
+        private boolean isSubRegister(String parent, String child) {
+            return child.equals(parent) || child.startsWith(parent + "/") || child.replace("/_", "/").equals(parent);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/******************************************************************
+ * File:        TestBackupService.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.util.FileUtils;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.epimorphics.appbase.core.ComponentBase;
+import com.epimorphics.rdfutil.RDFUtil;
+import com.epimorphics.registry.core.Register;
+import com.epimorphics.registry.core.RegisterItem;
+import com.epimorphics.registry.store.impl.TDBStore;
+import com.epimorphics.util.NameUtils;
+
+public class TestBackupService {
+    static final String ROOT_REGISTER = TestStoreImpl.ROOT_REGISTER;
+    static final String REG1 = TestStoreImpl.REG1;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Store basestore;
+    StoreBaseImpl store;
+    BackupService backup;
+
+    @Before
+    public void setup() throws IOException {
+        basestore = new TDBStore();
+        ((ComponentBase)basestore).startup(null);
+
+        store = new StoreBaseImpl();
+        store.setStore(basestore);
+        store.loadBootstrap(TestStoreImpl.BOOTSTRAP_FILE);
+
+        store.beginWrite();
+        try {
+            addEntry("file:test/reg1.ttl", ROOT_REGISTER);
+            addEntry("file:test/red.ttl", REG1);
+            addEntry("file:test/blue.ttl", REG1);
+            store.commit();
+        } finally {
+            store.end();
+        }
+        backup = new BackupService(folder.newFolder("backup").getPath(), basestore);
+        backup.setIncrementalMargin(0);
+    }
+
+    @Test
+    public void testSegmentedBackup() throws IOException {
+        backup.setThreads(3);
+        BackupManifest manifest = backup.backup(new File(folder.getRoot(), "backup/full"), false);
+        assertFalse( manifest.isIncremental() );
+        assertEquals(4, manifest.getSegments().size());
+
+        manifest = BackupManifest.read( manifest.getDir() );
+        assertNotNull(manifest);
+        assertEquals(size(null) + size(graphNames()), manifest.getQuads());
+        assertRestores(manifest.getDir());
+    }
+
+    @Test
+    public void testIncrementalBackup() throws Exception {
+        backup.setThreads(2);
+        BackupManifest full = backup.backup(new File(folder.getRoot(), "backup/full"), true);
+        assertFalse( full.isIncremental() );
+
+        // Add a new entity version, and a new entity, after the full backup
+        Set<String> before = graphNames();
+        Thread.sleep(10);
+        store.beginWrite();
+        try {
+            RegisterItem ri = store.getItem(REG1 + "/_red", true);
+            ri.getEntity().addProperty(RDFS.comment, "Updated");
+            store.update(ri, true);
+            addEntry("file:test/green.ttl", REG1);
+            store.commit();
+        } finally {
+            store.end();
+        }
+        BackupManifest delta = backup.backup(new File(folder.getRoot(), "backup/delta1"), true);
+        assertTrue( delta.isIncremental() );
+        assertEquals( full.getDir(), delta.getBase().getDir() );
+        assertRestores(delta.getDir());
+
+        // Named graphs which were already backed up are not written again
+        Set<String> added = graphNames();
+        added.removeAll(before);
+        assertEquals(2, added.size());
+        assertEquals(size(null) + size(added), delta.getQuads());
+
+        // Dropped graphs are dropped on restore
+        basestore.lockWrite();
+        try {
+            Iterator<String> names = basestore.asDataset().listNames();
+            String drop = names.next();
+            basestore.asDataset().removeNamedModel(drop);
+            basestore.commit();
+        } finally {
+            basestore.end();
+        }
+        BackupManifest delta2 = backup.backup(new File(folder.getRoot(), "backup/delta2"), true);
+        assertEquals( delta.getDir(), delta2.getBase().getDir() );
+        assertEquals(size(null), delta2.getQuads());
+        assertRestores(delta2.getDir());
+    }
+
+    @Test
+    public void testIncomplete() throws IOException {
+        File dir = folder.newFolder("backup", "incomplete");
+        assertNull( BackupManifest.read(dir) );
+        assertNull( BackupManifest.findLatest(dir.getParentFile()) );
+    }
+
+    private void assertRestores(File backupDir) throws IOException {
+        Dataset restored = DatasetFactory.createTxnMem();
+        RestoreBackup.restore(backupDir, restored);
+
+        Dataset original = basestore.asDataset();
+        basestore.lock();
+        restored.begin(ReadWrite.READ);
+        try {
+            assertTrue( original.getDefaultModel().isIsomorphicWith( restored.getDefaultModel() ) );
+            Set<String> names = new HashSet<>();
+            original.listNames().forEachRemaining(names::add);
+            Set<String> restoredNames = new HashSet<>();
+            restored.listNames().forEachRemaining(restoredNames::add);
+            assertEquals(names, restoredNames);
+            for (String name : names) {
+                assertTrue( original.getNamedModel(name).isIsomorphicWith( restored.getNamedModel(name) ) );
+            }
+        } finally {
+            restored.end();
+            basestore.end();
+        }
+    }
+
+    private Set<String> graphNames() {
+        basestore.lock();
+        try {
+            Set<String> names = new HashSet<>();
+            basestore.asDataset().listNames().forEachRemaining(names::add);
+            return names;
+        } finally {
+            basestore.end();
+        }
+    }
+
+    /**
+     * Total size of the given named graphs, or the default graph if null
+     */
+    private long size(Set<String> names) {
+        basestore.lock();
+        try {
+            Dataset dataset = basestore.asDataset();
+            if (names == null) {
+                return dataset.getDefaultModel().size();
+            }
+            long size = 0;
+            for (String name : names) {
+                size += dataset.getNamedModel(name).size();
+            }
+            return size;
+        } finally {
+            basestore.end();
+        }
+    }
+
+    private void addEntry(String defFile, String parentURI) {
+        Register parent = store.getCurrentVersion(parentURI).asRegister();
+        String target = NameUtils.stripLastSlash(parentURI);
+        String base = NameUtils.ensureLastSlash(parentURI);
+        Model entityM = ModelFactory.createDefaultModel();
+        entityM.read(defFile, base, FileUtils.langTurtle);
+        Resource entityR = RDFUtil.findRoot( entityM );
+
+        Calendar now = Calendar.getInstance();
+        RegisterItem item = RegisterItem.fromEntityRequest(entityR, target, true, now);
+        store.addToRegister(parent, item, now);
+    }
+}
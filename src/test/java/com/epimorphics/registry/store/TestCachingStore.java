@@ -0,0 +1,164 @@
+/******************************************************************
+ * File:        TestCachingStore.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.util.FileUtils;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.epimorphics.appbase.core.ComponentBase;
+import com.epimorphics.rdfutil.RDFUtil;
+import com.epimorphics.registry.core.Register;
+import com.epimorphics.registry.core.RegisterItem;
+import com.epimorphics.registry.store.impl.TDBStore;
+import com.epimorphics.registry.vocab.RegistryVocab;
+import com.epimorphics.util.NameUtils;
+
+public class TestCachingStore {
+    static final String ROOT_REGISTER = TestStoreImpl.ROOT_REGISTER;
+    static final String REG1 = TestStoreImpl.REG1;
+    static final String RED_ITEM = REG1 + "/_red";
+    static final String BLUE_ITEM = REG1 + "/_blue";
+
+    CachingStore store;
+
+    @Before
+    public void setup() {
+        Store basestore = new TDBStore();
+        ((ComponentBase)basestore).startup(null);
+
+        StoreBaseImpl base = new StoreBaseImpl();
+        base.setStore(basestore);
+        store = new CachingStore(base, 10, 100);
+        store.loadBootstrap(TestStoreImpl.BOOTSTRAP_FILE);
+
+        store.beginWrite();
+        try {
+            addEntry("file:test/reg1.ttl", ROOT_REGISTER);
+            addEntry("file:test/red.ttl", REG1);
+            addEntry("file:test/blue.ttl", REG1);
+            store.commit();
+        } finally {
+            store.end();
+        }
+    }
+
+    @Test
+    public void testCachedItemsAreIsolated() {
+        store.beginRead();
+        try {
+            RegisterItem ri = store.getItem(RED_ITEM, true);
+            assertEquals("red", RDFUtil.getStringValue(ri.getEntity(), RDFS.label));
+            ri.getEntity().removeAll(RDFS.label).addProperty(RDFS.label, "changed");
+        } finally {
+            store.end();
+        }
+        assertEquals(1, store.itemCache.size());
+
+        store.beginRead();
+        try {
+            RegisterItem ri = store.getItem(RED_ITEM, true);
+            assertEquals("red", RDFUtil.getStringValue(ri.getEntity(), RDFS.label));
+        } finally {
+            store.end();
+        }
+    }
+
+    @Test
+    public void testInvalidationOnCommit() {
+        readStatus(RED_ITEM);
+
+        store.beginWrite();
+        try {
+            RegisterItem ri = store.getItem(RED_ITEM, false);
+            ri.setProperty(RegistryVocab.status, RegistryVocab.statusAccepted);
+            store.update(ri, false);
+            store.abort();
+        } finally {
+            store.end();
+        }
+        assertEquals(RegistryVocab.statusSubmitted, readStatus(RED_ITEM));
+
+        store.beginWrite();
+        try {
+            RegisterItem ri = store.getItem(RED_ITEM, false);
+            ri.setProperty(RegistryVocab.status, RegistryVocab.statusAccepted);
+            store.update(ri, false);
+            store.commit();
+        } finally {
+            store.end();
+        }
+        assertEquals(RegistryVocab.statusAccepted, readStatus(RED_ITEM));
+    }
+
+    @Test
+    public void testFetchAllSharesModel() {
+        readStatus(RED_ITEM);
+
+        store.beginRead();
+        try {
+            List<RegisterItem> items = store.fetchAll(Arrays.asList(RED_ITEM, BLUE_ITEM), true);
+            assertEquals(2, items.size());
+            Model shared = items.get(0).getRoot().getModel();
+            assertSame(shared, items.get(1).getRoot().getModel());
+            assertSame(shared, items.get(1).getEntity().getModel());
+            assertTrue(shared.contains(ResourceFactory.createResource(REG1 + "/red"), RDFS.label, "red"));
+            assertTrue(shared.contains(ResourceFactory.createResource(REG1 + "/blue"), RDFS.label, "blue"));
+        } finally {
+            store.end();
+        }
+    }
+
+    private Resource readStatus(String uri) {
+        store.beginRead();
+        try {
+            return store.getItem(uri, true).getRoot().getPropertyResourceValue(RegistryVocab.status);
+        } finally {
+            store.end();
+        }
+    }
+
+    private void addEntry(String defFile, String parentURI) {
+        Register parent = store.getCurrentVersion(parentURI).asRegister();
+        String target = NameUtils.stripLastSlash(parentURI);
+        String base = NameUtils.ensureLastSlash(parentURI);
+        Model entityM = ModelFactory.createDefaultModel();
+        entityM.read(defFile, base, FileUtils.langTurtle);
+        Resource entityR = RDFUtil.findRoot( entityM );
+
+        Calendar now = Calendar.getInstance();
+        RegisterItem item = RegisterItem.fromEntityRequest(entityR, target, true, now);
+        store.addToRegister(parent, item, now);
+    }
+}
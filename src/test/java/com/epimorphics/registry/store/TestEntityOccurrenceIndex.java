@@ -0,0 +1,190 @@
+/******************************************************************
+ * File:        TestEntityOccurrenceIndex.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.util.FileUtils;
+import org.junit.Test;
+
+import com.epimorphics.appbase.core.ComponentBase;
+import com.epimorphics.rdfutil.RDFUtil;
+import com.epimorphics.registry.core.Register;
+import com.epimorphics.registry.core.RegisterItem;
+import com.epimorphics.registry.core.Status;
+import com.epimorphics.registry.store.EntityOccurrenceIndex.Occurrence;
+import com.epimorphics.registry.store.impl.TDBStore;
+import com.epimorphics.registry.vocab.RegistryVocab;
+import com.epimorphics.util.NameUtils;
+
+public class TestEntityOccurrenceIndex {
+    static final String ROOT_REGISTER = TestStoreImpl.ROOT_REGISTER;
+    static final String REG1 = TestStoreImpl.REG1;
+    static final String STABLE = RegistryVocab.statusStable.getURI();
+
+    @Test
+    public void testIndex() {
+        EntityOccurrenceIndex index = new EntityOccurrenceIndex();
+        long asOf = index.getGeneration();
+        assertTrue( index.load(Arrays.asList( occurrence("red", "red"), occurrence("blue", "blue") ), asOf) );
+        assertEquals(1, index.get(REG1 + "/red").size());
+        assertTrue( index.get(REG1 + "/green").isEmpty() );
+        assertEquals(REG1 + "/blue", index.entityOf(REG1 + "/_blue"));
+
+        // Item redefined and another deleted
+        EntityOccurrenceIndex.Changes changes = new EntityOccurrenceIndex.Changes();
+        changes.update(REG1 + "/_red", occurrence("red", "crimson"), index.entityOf(REG1 + "/_red"));
+        changes.update(REG1 + "/_blue", null, index.entityOf(REG1 + "/_blue"));
+        assertTrue( changes.touches(REG1 + "/red") );
+        assertTrue( changes.touches(REG1 + "/crimson") );
+        assertFalse( changes.touches(REG1 + "/green") );
+        index.startCommit();
+        index.apply(changes);
+        assertTrue( index.get(REG1 + "/red").isEmpty() );
+        assertTrue( index.get(REG1 + "/blue").isEmpty() );
+        assertEquals(REG1 + "/_red", index.get(REG1 + "/crimson").get(0).getItemURI());
+
+        // Stale loads are refused, bulk changes unload the index
+        changes = new EntityOccurrenceIndex.Changes();
+        changes.clearAll();
+        index.apply(changes);
+        assertFalse( index.isLoaded() );
+        assertFalse( index.load(Collections.<Occurrence>emptyList(), asOf) );
+    }
+
+    @Test
+    public void testSizeLimit() {
+        EntityOccurrenceIndex index = new EntityOccurrenceIndex();
+        index.setMaxItems(1);
+        assertFalse( index.load(Arrays.asList( occurrence("red", "red"), occurrence("blue", "blue") ), index.getGeneration()) );
+        assertTrue( index.isFull() );
+        assertFalse( index.load(Collections.singletonList( occurrence("red", "red") ), index.getGeneration()) );
+
+        // Raising the limit allows a load, growing beyond it drops the index
+        index.setMaxItems(2);
+        assertFalse( index.isFull() );
+        assertTrue( index.load(Arrays.asList( occurrence("red", "red"), occurrence("blue", "blue") ), index.getGeneration()) );
+        EntityOccurrenceIndex.Changes changes = new EntityOccurrenceIndex.Changes();
+        changes.update(REG1 + "/_green", occurrence("green", "green"), null);
+        index.startCommit();
+        index.apply(changes);
+        assertFalse( index.isLoaded() );
+        assertTrue( index.isFull() );
+        assertTrue( index.get(REG1 + "/red").isEmpty() );
+    }
+
+    @Test
+    public void testStoreLookups() {
+        Store basestore = new TDBStore();
+        ((ComponentBase)basestore).startup(null);
+        StoreBaseImpl store = new StoreBaseImpl();
+        store.setStore(basestore);
+        store.loadBootstrap(TestStoreImpl.BOOTSTRAP_FILE);
+
+        store.beginWrite();
+        try {
+            addEntry(store, "file:test/reg1.ttl", ROOT_REGISTER);
+            addEntry(store, "file:test/red.ttl", REG1);
+            addEntry(store, "file:test/blue.ttl", REG1);
+            store.commit();
+        } finally {
+            store.end();
+        }
+        String red = REG1 + "/red";
+        String blue = REG1 + "/blue";
+        String green = REG1 + "/green";
+        // Lookups query the store until the index is loaded
+        checkOccurrences(store, red, blue, green);
+        assertTrue( store.loadEntityIndex() );
+        assertTrue( store.entityIndex.isLoaded() );
+        checkOccurrences(store, red, blue, green);
+
+        // Status change and deletion are followed by the index
+        store.beginWrite();
+        try {
+            RegisterItem ri = store.getItem(REG1 + "/_red", false);
+            ri.setProperty(RegistryVocab.status, RegistryVocab.statusStable);
+            store.update(ri, false);
+            // Writers see their own changes
+            assertEquals(Status.Stable, store.listEntityOccurences(red).get(0).getStatus());
+            store.delete(REG1 + "/_blue");
+            assertTrue( store.listEntityOccurences(blue).isEmpty() );
+            store.commit();
+        } finally {
+            store.end();
+        }
+        Map<String, List<EntityInfo>> found = checkOccurrences(store, red, blue, green);
+        assertEquals(Status.Stable, found.get(red).get(0).getStatus());
+        assertTrue( found.get(blue).isEmpty() );
+    }
+
+    /**
+     * Check that the indexed lookups agree with querying the store
+     */
+    private Map<String, List<EntityInfo>> checkOccurrences(StoreBaseImpl store, String...uris) {
+        store.beginRead();
+        try {
+            Map<String, List<EntityInfo>> found = store.listEntityOccurences(Arrays.asList(uris));
+            assertEquals(uris.length, found.size());
+            for (String uri : uris) {
+                List<EntityInfo> expected = store.queryEntityOccurences(uri);
+                List<EntityInfo> actual = found.get(uri);
+                assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.get(i).getItemURI(), actual.get(i).getItemURI());
+                    assertEquals(expected.get(i).getRegisterURI(), actual.get(i).getRegisterURI());
+                    assertEquals(expected.get(i).getStatus(), actual.get(i).getStatus());
+                }
+            }
+            return found;
+        } finally {
+            store.end();
+        }
+    }
+
+    private Occurrence occurrence(String item, String entity) {
+        return new Occurrence(REG1 + "/" + entity, REG1 + "/_" + item, REG1, STABLE);
+    }
+
+    private void addEntry(StoreAPI store, String defFile, String parentURI) {
+        Register parent = store.getCurrentVersion(parentURI).asRegister();
+        String target = NameUtils.stripLastSlash(parentURI);
+        String base = NameUtils.ensureLastSlash(parentURI);
+        Model entityM = ModelFactory.createDefaultModel();
+        entityM.read(defFile, base, FileUtils.langTurtle);
+        Resource entityR = RDFUtil.findRoot( entityM );
+
+        Calendar now = Calendar.getInstance();
+        RegisterItem item = RegisterItem.fromEntityRequest(entityR, target, true, now);
+        store.addToRegister(parent, item, now);
+    }
+}
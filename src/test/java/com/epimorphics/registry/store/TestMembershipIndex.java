@@ -0,0 +1,372 @@
+/******************************************************************
+ * File:        TestMembershipIndex.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.epimorphics.appbase.core.ComponentBase;
+import com.epimorphics.rdfutil.RDFUtil;
+import com.epimorphics.registry.core.Register;
+import com.epimorphics.registry.core.RegisterItem;
+import com.epimorphics.registry.core.Status;
+import com.epimorphics.registry.store.impl.TDBStore;
+import com.epimorphics.registry.vocab.RegistryVocab;
+import com.epimorphics.util.NameUtils;
+
+public class TestMembershipIndex {
+    static final String ROOT_REGISTER = TestStoreImpl.ROOT_REGISTER;
+    static final String REG1 = TestStoreImpl.REG1;
+
+    StoreBaseImpl store;
+
+    @Before
+    public void setup() {
+        Store basestore = new TDBStore();
+        ((ComponentBase)basestore).startup(null);
+
+        store = new StoreBaseImpl();
+        store.setStore(basestore);
+        store.loadBootstrap(TestStoreImpl.BOOTSTRAP_FILE);
+
+        store.beginWrite();
+        try {
+            addEntry("file:test/reg1.ttl", ROOT_REGISTER);
+            addEntry("file:test/red.ttl", REG1);
+            addEntry("file:test/blue.ttl", REG1);
+            store.commit();
+        } finally {
+            store.end();
+        }
+    }
+
+    @Test
+    public void testIndexMaintenance() {
+        checkMembers("blue", "red");
+        assertNotNull( store.membershipIndex.get(REG1) );
+
+        // Addition
+        store.beginWrite();
+        try {
+            addEntry("file:test/green.ttl", REG1);
+            store.commit();
+        } finally {
+            store.end();
+        }
+        checkMembers("blue", "green", "red");
+
+        // Status change
+        store.beginWrite();
+        try {
+            RegisterItem ri = store.getItem(REG1 + "/_green", false);
+            ri.setProperty(RegistryVocab.status, RegistryVocab.statusAccepted);
+            store.update(ri, false);
+            store.commit();
+        } finally {
+            store.end();
+        }
+        List<RegisterEntryInfo> members = checkMembers("blue", "green", "red");
+        assertEquals(Status.Accepted, members.get(1).getStatus());
+
+        // Aborted changes are not applied
+        store.beginWrite();
+        try {
+            store.delete(REG1 + "/_red");
+            store.abort();
+        } finally {
+            store.end();
+        }
+        checkMembers("blue", "green", "red");
+
+        // Deletion
+        store.beginWrite();
+        try {
+            store.delete(REG1 + "/_red");
+            store.commit();
+        } finally {
+            store.end();
+        }
+        checkMembers("blue", "green");
+
+        // Deleting a register drops its index
+        store.beginWrite();
+        try {
+            store.delete(ROOT_REGISTER + "_reg1");
+            store.commit();
+        } finally {
+            store.end();
+        }
+        assertNull( store.membershipIndex.get(REG1) );
+    }
+
+    @Test
+    public void testSizeLimit() {
+        MembershipIndex index = new MembershipIndex();
+        index.setMaxEntries(3);
+        index.load("r1", entries(2), index.getGeneration());
+        index.load("r2", entries(1), index.getGeneration());
+        assertNotNull( index.get("r1") );
+
+        // Least recently used register is dropped to make room
+        index.load("r3", entries(1), index.getGeneration());
+        assertNull( index.get("r2") );
+        assertNotNull( index.get("r1") );
+        assertNotNull( index.get("r3") );
+        assertEquals(3, index.size());
+
+        // Too large to index at all
+        index.load("r4", entries(4), index.getGeneration());
+        assertNull( index.get("r4") );
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    public void testCursors() {
+        // Members with no notation sort first, by item URI
+        List<RegisterEntryInfo> members = new ArrayList<>();
+        members.add( entry("a", null) );
+        members.add( entry("b", null) );
+        members.add( entry("c", "2") );
+        members.add( entry("d", "10") );
+        assertEquals(REG1 + "/_b", members.get(1).getCursor());
+        assertEquals("2", members.get(2).getCursor());
+        assertEquals(1, MembershipIndex.positionAfter(members, null, REG1 + "/_a"));
+        assertEquals(2, MembershipIndex.positionAfter(members, null, REG1 + "/_b"));
+        assertEquals(3, MembershipIndex.positionAfter(members, RegisterItem.notationLiteral("2"), null));
+        assertEquals(4, MembershipIndex.positionAfter(members, RegisterItem.notationLiteral("10"), null));
+    }
+
+    private RegisterEntryInfo entry(String name, String notation) {
+        RegisterEntryInfo entry = new RegisterEntryInfo(ResourceFactory.createResource(REG1 + "/" + name), Status.Any);
+        entry.itemURI = REG1 + "/_" + name;
+        entry.notation = notation;
+        entry.notationLiteral = notation == null ? null : RegisterItem.notationLiteral(notation);
+        return entry;
+    }
+
+    private List<RegisterEntryInfo> entries(int n) {
+        List<RegisterEntryInfo> entries = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            entries.add( new RegisterEntryInfo(ResourceFactory.createResource("http://example.com/e" + i), Status.Any) );
+        }
+        return entries;
+    }
+
+    @Test
+    public void testWindow() {
+        store.beginRead();
+        try {
+            Register reg = store.getCurrentVersion(REG1).asRegister();
+            checkWindow( store.listMembers(reg, Status.Any, null, 0, 1), true, "blue" );
+            checkWindow( store.listMembers(reg, Status.Any, null, 1, 1), false, "red" );
+            checkWindow( store.listMembers(reg, null, null, 0, -1), false, "blue", "red" );
+            checkWindow( store.listMembers(reg, Status.Submitted, null, 1, 5), false, "red" );
+            checkWindow( store.listMembers(reg, Status.Accepted, null, 0, 5), false );
+            checkWindow( store.listMembers(reg, Status.Any, null, 5, 5), false );
+        } finally {
+            store.end();
+        }
+
+        // Write transactions bypass the index
+        store.beginWrite();
+        try {
+            Register reg = store.getCurrentVersion(REG1).asRegister();
+            checkWindow( store.listMembers(reg, Status.Any, null, 0, 1), true, "blue" );
+            checkWindow( store.listMembers(reg, Status.NotAccepted, null, 1, 1), false, "red" );
+        } finally {
+            store.end();
+        }
+    }
+
+    @Test
+    public void testKeysetWindow() {
+        store.beginWrite();
+        try {
+            addEntry("file:test/green.ttl", REG1);
+            store.commit();
+        } finally {
+            store.end();
+        }
+
+        store.beginRead();
+        try {
+            Register reg = store.getCurrentVersion(REG1).asRegister();
+            checkWindow( store.listMembersAfter(reg, Status.Any, null, null, 2), true, "blue", "green" );
+            checkWindow( store.listMembersAfter(reg, Status.Any, null, "green", 2), false, "red" );
+            checkWindow( store.listMembersAfter(reg, Status.Any, null, "cyan", 1), true, "green" );
+            checkWindow( store.listMembersAfter(reg, Status.Any, null, "red", 2), false );
+        } finally {
+            store.end();
+        }
+
+        // Query path should agree with the index
+        store.beginWrite();
+        try {
+            Register reg = store.getCurrentVersion(REG1).asRegister();
+            checkWindow( store.listMembersAfter(reg, Status.Any, null, "", 2), true, "blue", "green" );
+            checkWindow( store.listMembersAfter(reg, Status.Any, null, "cyan", 1), true, "green" );
+            checkWindow( store.listMembersAfter(reg, Status.Any, null, "green", 2), false, "red" );
+        } finally {
+            store.end();
+        }
+    }
+
+    @Test
+    public void testChangeStamps() {
+        long regStamp = changeStamp(REG1);
+        long rootStamp = changeStamp(ROOT_REGISTER);
+        VersionInfo before = versionInfo(REG1 + "/_red");
+        assertTrue( regStamp > 0 );
+        assertEquals( regStamp, changeStamp(REG1) );
+
+        // Status change of a member changes the stamp of just that register
+        store.beginWrite();
+        try {
+            RegisterItem ri = store.getItem(REG1 + "/_red", false);
+            ri.setProperty(RegistryVocab.status, RegistryVocab.statusAccepted);
+            store.update(ri, false);
+            store.commit();
+        } finally {
+            store.end();
+        }
+        assertTrue( changeStamp(REG1) > regStamp );
+        assertEquals( rootStamp, changeStamp(ROOT_REGISTER) );
+        VersionInfo after = versionInfo(REG1 + "/_red");
+        assertEquals( before.getVersion() + 1, after.getVersion() );
+        assertTrue( after.getFromTime() >= before.getFromTime() );
+
+        // Re-versioning a register changes the stamp of its parent, whose views embed it
+        regStamp = changeStamp(REG1);
+        store.beginWrite();
+        try {
+            Register reg = store.getCurrentVersion(REG1).asRegister();
+            store.update(reg);
+            store.commit();
+        } finally {
+            store.end();
+        }
+        assertTrue( changeStamp(ROOT_REGISTER) > rootStamp );
+        assertEquals( regStamp, changeStamp(REG1) );
+
+        // Not available once there has been a commit since the transaction started
+        store.beginRead();
+        try {
+            long generation = store.membershipIndex.getGeneration();
+            store.membershipIndex.startCommit();
+            store.membershipIndex.apply( new MembershipIndex.Changes() );
+            assertEquals( generation + 2, store.membershipIndex.getGeneration() );
+            assertEquals( -1, store.getMembershipChangeStamp(REG1) );
+        } finally {
+            store.end();
+        }
+        assertNull( versionInfo(REG1 + "/red") );
+    }
+
+    private long changeStamp(String registerURI) {
+        store.beginRead();
+        try {
+            return store.getMembershipChangeStamp(registerURI);
+        } finally {
+            store.end();
+        }
+    }
+
+    private VersionInfo versionInfo(String uri) {
+        store.beginRead();
+        try {
+            return store.getCurrentVersionInfo(uri);
+        } finally {
+            store.end();
+        }
+    }
+
+    private void checkWindow(MemberWindow window, boolean more, String...notations) {
+        assertEquals(more, window.hasMore());
+        assertEquals(notations.length, window.getMembers().size());
+        for (int i = 0; i < notations.length; i++) {
+            assertEquals(notations[i], window.getMembers().get(i).getNotation());
+        }
+    }
+
+    @Test
+    public void testStaleListingNotIndexed() {
+        long generation = store.membershipIndex.getGeneration();
+        store.membershipIndex.clear();
+        store.beginRead();
+        try {
+            Register reg = store.getCurrentVersion(REG1).asRegister();
+            List<RegisterEntryInfo> members = store.queryMembers(reg.getRoot(), null, null);
+            store.membershipIndex.load(REG1, members, generation);
+        } finally {
+            store.end();
+        }
+        assertNull( store.membershipIndex.get(REG1) );
+    }
+
+    private List<RegisterEntryInfo> checkMembers(String...notations) {
+        store.beginRead();
+        try {
+            Register reg = store.getCurrentVersion(REG1).asRegister();
+            List<RegisterEntryInfo> members = store.listMembers(reg);
+            assertEquals(notations.length, members.size());
+            for (int i = 0; i < notations.length; i++) {
+                assertEquals(notations[i], members.get(i).getNotation());
+            }
+            // Should agree with a direct query
+            List<RegisterEntryInfo> queried = store.queryMembers(reg.getRoot(), null, null);
+            assertEquals(queried.size(), members.size());
+            for (int i = 0; i < queried.size(); i++) {
+                assertEquals(queried.get(i).getItemURI(), members.get(i).getItemURI());
+                assertEquals(queried.get(i).getStatus(), members.get(i).getStatus());
+            }
+            return members;
+        } finally {
+            store.end();
+        }
+    }
+
+    private void addEntry(String defFile, String parentURI) {
+        Register parent = store.getCurrentVersion(parentURI).asRegister();
+        String target = NameUtils.stripLastSlash(parentURI);
+        String base = NameUtils.ensureLastSlash(parentURI);
+        Model entityM = ModelFactory.createDefaultModel();
+        entityM.read(defFile, base, FileUtils.langTurtle);
+        Resource entityR = RDFUtil.findRoot( entityM );
+
+        Calendar now = Calendar.getInstance();
+        RegisterItem item = RegisterItem.fromEntityRequest(entityR, target, true, now);
+        store.addToRegister(parent, item, now);
+    }
+}
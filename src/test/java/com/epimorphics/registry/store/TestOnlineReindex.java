@@ -0,0 +1,157 @@
+/******************************************************************
+ * File:        TestOnlineReindex.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.text.DatasetGraphText;
+import org.apache.jena.query.text.TextIndex;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.epimorphics.registry.store.impl.SwappableTextIndex;
+import com.epimorphics.registry.store.impl.TDBStore;
+
+public class TestOnlineReindex {
+    static final String NS = "http://example.com/test/";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReindexInMemory() throws Exception {
+        TDBStore store = new TDBStore();
+        store.setTextIndex("default");
+        store.setReindexThreads(4);
+        store.startup(null);
+        TextIndex before = textIndex(store);
+        addConcepts(store, "alpha", 0, 2500);
+        assertEquals(2500, countMatches(store, "alpha"));
+
+        // Writes land while the rebuild runs
+        Thread writer = new Thread( () -> addConcepts(store, "beta", 0, 50) );
+        writer.start();
+        long count = store.onlineReindex();
+        writer.join();
+        assertTrue( count >= 2500 );
+        assertTrue( store.getReindexStatus().startsWith("Online reindex complete") );
+        assertEquals(2500, countMatches(store, "alpha"));
+        assertEquals(50, countMatches(store, "beta"));
+
+        // Swapped without reopening the dataset
+        assertTrue( textIndex(store) == before );
+        addConcepts(store, "gamma", 0, 10);
+        assertEquals(10, countMatches(store, "gamma"));
+    }
+
+    @Test
+    public void testReindexOnDisc() throws Exception {
+        File index = new File(folder.getRoot(), "index");
+        TDBStore store = new TDBStore();
+        store.setIndex(index.getPath());
+        store.setTextIndex("default");
+        store.startup(null);
+        addConcepts(store, "alpha", 0, 20);
+
+        assertTrue( store.startOnlineReindex() );
+        while (!store.getReindexStatus().startsWith("Online reindex complete")) {
+            assertFalse( store.getReindexStatus().startsWith("Online reindex failed") );
+            Thread.sleep(10);
+        }
+        assertFalse( index.exists() );
+        File pointer = new File(folder.getRoot(), "index.current");
+        assertTrue( pointer.exists() );
+        assertEquals(20, countMatches(store, "alpha"));
+
+        store.onlineReindex();
+        assertEquals(1, folder.getRoot().list( (dir, name) -> name.startsWith("index-") ).length);
+        assertEquals(20, countMatches(store, "alpha"));
+    }
+
+    @Test
+    public void testSwapWaitsForQueries() throws Exception {
+        TextIndex old = mock(TextIndex.class);
+        TextIndex fresh = mock(TextIndex.class);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        when(old.query(any(Node.class), anyString(), anyString(), anyString(), anyInt())).thenAnswer( invocation -> {
+            started.countDown();
+            finish.await();
+            return Collections.emptyList();
+        } );
+        SwappableTextIndex index = new SwappableTextIndex(old);
+        Thread query = new Thread( () -> index.query(RDFS.label.asNode(), "alpha", null, null, 10) );
+        query.start();
+        started.await();
+
+        // The old index is only retired once the query using it has finished
+        List<TextIndex> retired = Collections.synchronizedList(new ArrayList<TextIndex>());
+        index.swap(fresh, retired::add);
+        assertTrue( retired.isEmpty() );
+        index.query(RDFS.label.asNode(), "beta", null, null, 10);
+        verify(fresh).query(RDFS.label.asNode(), "beta", null, null, 10);
+        verify(old, never()).query(RDFS.label.asNode(), "beta", null, null, 10);
+        finish.countDown();
+        query.join();
+        assertEquals(Collections.singletonList(old), retired);
+
+        // With nothing in flight the replaced index is retired at once
+        index.swap(old, retired::add);
+        assertEquals(2, retired.size());
+        assertTrue( retired.get(1) == fresh );
+    }
+
+    private TextIndex textIndex(TDBStore store) {
+        return ((DatasetGraphText) store.asDataset().asDatasetGraph()).getTextIndex();
+    }
+
+    private int countMatches(TDBStore store, String text) {
+        return textIndex(store).query(RDFS.label.asNode(), text, null, null, 10000).size();
+    }
+
+    private void addConcepts(TDBStore store, String name, int from, int to) {
+        Model model = ModelFactory.createDefaultModel();
+        for (int i = from; i < to; i++) {
+            model.createResource(NS + name + i).addProperty(RDFS.label, name + " concept " + i);
+        }
+        store.addGraph(NS + "graph/" + name, model);
+    }
+}
@@ -0,0 +1,262 @@
+/******************************************************************
+ * File:        TestSearchIndex.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.util.FileUtils;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+import com.epimorphics.appbase.core.ComponentBase;
+import com.epimorphics.rdfutil.RDFUtil;
+import com.epimorphics.registry.core.Register;
+import com.epimorphics.registry.core.RegisterItem;
+import com.epimorphics.registry.store.impl.TDBStore;
+import com.epimorphics.registry.vocab.RegistryVocab;
+import com.epimorphics.util.NameUtils;
+
+public class TestSearchIndex {
+    static final String ROOT_REGISTER = TestStoreImpl.ROOT_REGISTER;
+    static final String REG1 = TestStoreImpl.REG1;
+
+    static final String STABLE = RegistryVocab.statusStable.getURI();
+    static final String SUBMITTED = RegistryVocab.statusSubmitted.getURI();
+
+    @Test
+    public void testIndex() throws Exception {
+        SearchIndex index = new SearchIndex( new RAMDirectory() );
+        SearchIndex.Changes changes = new SearchIndex.Changes();
+        changes.update( entry("red", STABLE, "red", "A concept for the colour red") );
+        changes.update( entry("blue", SUBMITTED, "blue", "A concept for the colour blue") );
+        changes.update( entry("green", STABLE, "green") );
+        index.apply(changes);
+        assertEquals(3, index.size());
+
+        checkSearch(index, new SearchRequest("red"), "red");
+        checkSearch(index, new SearchRequest("colour"), "blue", "red");
+        checkSearch(index, new SearchRequest("red blue"), "blue", "red");
+        checkSearch(index, new SearchRequest("colour").setStatus("stable"), "red");
+        checkSearch(index, new SearchRequest("red OR blue OR green").setAfter(""), "blue", "green", "red");
+        checkSearch(index, new SearchRequest("red OR blue OR green").setAfter(REG1 + "/_blue").setLimit(1), "green");
+        assertEquals(1, index.search( new SearchRequest("red OR blue OR green").setOffset(2).setLimit(2) ).size());
+
+        // Earlier names are retained
+        changes = new SearchIndex.Changes();
+        changes.update( entry("red", STABLE, "crimson") );
+        changes.delete( REG1 + "/_green" );
+        index.apply(changes);
+        checkSearch(index, new SearchRequest("crimson"), "red");
+        checkSearch(index, new SearchRequest("red"), "red");
+        checkSearch(index, new SearchRequest("green"));
+
+        index.clear();
+        assertEquals(0, index.size());
+        index.close();
+    }
+
+    @Test
+    public void testCursorPaging() throws Exception {
+        SearchIndex index = new SearchIndex( new RAMDirectory() );
+        // Added in interleaved batches so the matches are spread over several segments
+        List<String> expected = new ArrayList<>();
+        for (int batch = 0; batch < 5; batch++) {
+            SearchIndex.Changes changes = new SearchIndex.Changes();
+            for (int i = 0; i < 20; i++) {
+                String name = String.format("c%03d", i * 5 + (4 - batch));
+                changes.update( entry(name, STABLE, "concept " + name) );
+            }
+            index.apply(changes);
+            if (batch == 2) {
+                // Merged segments are sorted, later ones are not
+                index.writer.forceMerge(1);
+            }
+        }
+        SearchIndex.Changes changes = new SearchIndex.Changes();
+        changes.delete(REG1 + "/_c050");
+        index.apply(changes);
+        for (int i = 0; i < 100; i++) {
+            if (i != 50) {
+                expected.add( String.format("%s/_c%03d", REG1, i) );
+            }
+        }
+
+        List<String> paged = new ArrayList<>();
+        String after = "";
+        while (true) {
+            List<String> page = index.search( new SearchRequest("concept").setAfter(after).setLimit(7) );
+            if (page.isEmpty()) break;
+            assertTrue( page.size() <= 7 );
+            paged.addAll(page);
+            after = page.get(page.size() - 1);
+        }
+        assertEquals(expected, paged);
+        index.close();
+    }
+
+    @Test
+    public void testRebuild() throws Exception {
+        SearchIndex index = new SearchIndex( new RAMDirectory() );
+        SearchIndex.Changes changes = new SearchIndex.Changes();
+        changes.update( entry("red", STABLE, "red") );
+        changes.update( entry("blue", STABLE, "blue") );
+        index.apply(changes);
+
+        index.startRebuild();
+        changes = new SearchIndex.Changes();
+        changes.update( entry("red", STABLE, "red") );
+        changes.update( entry("green", STABLE, "green") );
+        index.rebuild(changes);
+        // Searches see the old index until the rebuild is finished
+        checkSearch(index, new SearchRequest("blue"), "blue");
+        checkSearch(index, new SearchRequest("green"));
+        changes = new SearchIndex.Changes();
+        changes.delete( REG1 + "/_red" );
+        index.apply(changes);
+        checkSearch(index, new SearchRequest("red"), "red");
+
+        // Changes made during the rebuild win over the rebuilt entries
+        index.finishRebuild();
+        checkSearch(index, new SearchRequest("blue"));
+        checkSearch(index, new SearchRequest("green"), "green");
+        checkSearch(index, new SearchRequest("red"));
+        assertEquals(1, index.size());
+        index.close();
+    }
+
+    @Test
+    public void testSupports() {
+        assertTrue( SearchIndex.supports( new SearchRequest("red").setStatus("stable") ) );
+        assertFalse( SearchIndex.supports( new SearchRequest("red").setSearchVersions(true) ) );
+        assertFalse( SearchIndex.supports( new SearchRequest("red").addFilter("http://www.w3.org/2000/01/rdf-schema#label", "red") ) );
+    }
+
+    @Test
+    public void testStoreMaintenance() {
+        Store basestore = new TDBStore();
+        ((ComponentBase)basestore).startup(null);
+        StoreBaseImpl store = new StoreBaseImpl();
+        store.setStore(basestore);
+        store.setSearchIndex(SearchIndex.MEMORY_LOCATION);
+        store.loadBootstrap(TestStoreImpl.BOOTSTRAP_FILE);
+
+        store.beginWrite();
+        try {
+            addEntry(store, "file:test/reg1.ttl", ROOT_REGISTER);
+            addEntry(store, "file:test/red.ttl", REG1);
+            addEntry(store, "file:test/blue.ttl", REG1);
+            store.commit();
+        } finally {
+            store.end();
+        }
+        assertEquals( Collections.singletonList(REG1 + "/_red"), store.search(new SearchRequest("red")) );
+        assertEquals( Collections.singletonList(ROOT_REGISTER + "_reg1"), store.search(new SearchRequest("register")) );
+
+        // Entity update
+        store.beginWrite();
+        try {
+            RegisterItem ri = store.getItem(REG1 + "/_red", true);
+            Model entityM = ModelFactory.createDefaultModel();
+            entityM.read("file:test/red1.ttl", REG1 + "/", FileUtils.langTurtle);
+            ri.setEntity( RDFUtil.findRoot(entityM) );
+            store.update(ri, true);
+            store.commit();
+        } finally {
+            store.end();
+        }
+        assertEquals( Collections.singletonList(REG1 + "/_red"), store.search(new SearchRequest("red1")) );
+
+        // Status change
+        store.beginWrite();
+        try {
+            RegisterItem ri = store.getItem(REG1 + "/_blue", false);
+            ri.setProperty(RegistryVocab.status, RegistryVocab.statusStable);
+            store.update(ri, false);
+            store.commit();
+        } finally {
+            store.end();
+        }
+        assertEquals( Collections.singletonList(REG1 + "/_blue"), store.search(new SearchRequest("blue").setStatus("stable")) );
+
+        // Aborted and committed deletion
+        store.beginWrite();
+        try {
+            store.delete(REG1 + "/_blue");
+            store.abort();
+        } finally {
+            store.end();
+        }
+        assertEquals( 1, store.search(new SearchRequest("blue")).size() );
+        store.beginWrite();
+        try {
+            store.delete(REG1 + "/_blue");
+            store.commit();
+        } finally {
+            store.end();
+        }
+        assertTrue( store.search(new SearchRequest("blue")).isEmpty() );
+
+        // Rebuilding drops history but otherwise agrees
+        store.rebuildSearchIndex();
+        assertEquals( Collections.singletonList(REG1 + "/_red"), store.search(new SearchRequest("red1")) );
+        assertTrue( store.search(new SearchRequest("blue")).isEmpty() );
+    }
+
+    private SearchIndex.Entry entry(String name, String status, String...text) {
+        return new SearchIndex.Entry(REG1 + "/_" + name, REG1 + "/" + name, REG1, status, Arrays.asList(text));
+    }
+
+    private void checkSearch(SearchIndex index, SearchRequest request, String...names) throws Exception {
+        List<String> matches = index.search(request);
+        String[] expected = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            expected[i] = REG1 + "/_" + names[i];
+        }
+        if (request.getAfter() == null) {
+            Collections.sort(matches);
+        }
+        assertEquals( Arrays.asList(expected), matches );
+    }
+
+    private void addEntry(StoreBaseImpl store, String defFile, String parentURI) {
+        Register parent = store.getCurrentVersion(parentURI).asRegister();
+        String target = NameUtils.stripLastSlash(parentURI);
+        String base = NameUtils.ensureLastSlash(parentURI);
+        Model entityM = ModelFactory.createDefaultModel();
+        entityM.read(defFile, base, FileUtils.langTurtle);
+        Resource entityR = RDFUtil.findRoot( entityM );
+
+        Calendar now = Calendar.getInstance();
+        RegisterItem item = RegisterItem.fromEntityRequest(entityR, target, true, now);
+        store.addToRegister(parent, item, now);
+    }
+}
@@ -34,6 +34,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
 
@@ -53,6 +54,7 @@ import com.epimorphics.registry.core.RegisterItem;
 import com.epimorphics.registry.core.Status;
 import com.epimorphics.registry.store.impl.TDBStore;
 import com.epimorphics.registry.util.Prefixes;
+import com.epimorphics.registry.util.VersionUtil;
 import com.epimorphics.registry.vocab.RegistryVocab;
 import com.epimorphics.registry.vocab.Version;
 import com.epimorphics.util.NameUtils;
@@ -66,6 +68,7 @@ import org.apache.jena.rdf.model.ResIterator;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.ResourceFactory;
 import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.sparql.util.Closure;
 import org.apache.jena.util.FileUtils;
 import org.apache.jena.vocabulary.DCTerms;
 import org.apache.jena.vocabulary.OWL;
@@ -263,6 +266,68 @@ public class TestStoreImpl {
         assertEquals(1, submitters.size());
     }
 
+    @Test
+    public void testBatchFetch() {
+        addEntry("file:test/reg1.ttl", ROOT_REGISTER);
+        addEntry("file:test/blue.ttl", REG1);
+        addEntry("file:test/red.ttl", REG1);
+        doUpdate(REG1 + "/_red", "reddish");
+
+        List<String> itemURIs = Arrays.asList(REG1 + "/_red", REG1 + "/_blue", ROOT_REGISTER + "_reg1");
+        Model expectedItems = ModelFactory.createDefaultModel();
+        Model expectedEntities = ModelFactory.createDefaultModel();
+        for (String uri : itemURIs) {
+            RegisterItem ri = store.getItem(uri, true);
+            expectedItems.add( ri.getRoot().getModel() );
+            expectedEntities.add( ri.getEntity().getModel() );
+        }
+
+        Model items = ModelFactory.createDefaultModel();
+        Model entities = ModelFactory.createDefaultModel();
+        List<RegisterItem> fetched = store.fetchAll(itemURIs, items, entities);
+        assertEquals(3, fetched.size());
+        assertEquals(REG1 + "/red", fetched.get(0).getEntity().getURI());
+        assertEquals("reddish", RDFUtil.getStringValue(fetched.get(0).getEntity(), RDFS.label));
+        assertTrue( items.isIsomorphicWith(expectedItems) );
+        assertTrue( entities.isIsomorphicWith(expectedEntities) );
+
+        Model current = store.fetchAllCurrentVersions(Arrays.asList(REG1, REG1 + "/red"), ModelFactory.createDefaultModel());
+        Model expected = ModelFactory.createDefaultModel();
+        expected.add( store.getCurrentVersion(REG1).getRoot().getModel() );
+        expected.add( store.getCurrentVersion(REG1 + "/red").getRoot().getModel() );
+        assertTrue( current.isIsomorphicWith(expected) );
+    }
+
+    @Test
+    public void testFlattenedReads() {
+        addEntry("file:test/reg1.ttl", ROOT_REGISTER);
+        addEntry("file:test/red.ttl", REG1);
+        doUpdate(REG1 + "/_red", "reddish");
+        doUpdate(REG1 + "/_red", "redder");
+
+        for (String uri : new String[]{REG1 + "/_red", REG1, ROOT_REGISTER + "_reg1"}) {
+            Model m = store.getCurrentVersion(uri).getRoot().getModel();
+            Resource root = basestore.asDataset().getDefaultModel().getResource(uri);
+            Resource version = root.getPropertyResourceValue(Version.currentVersion);
+            assertTrue( m.isIsomorphicWith( referenceFlatten(root, version) ) );
+        }
+
+        Resource root = basestore.asDataset().getDefaultModel().getResource(REG1 + "/_red");
+        Resource version = basestore.asDataset().getDefaultModel().getResource(REG1 + "/_red:2");
+        Description d = store.getVersion(version.getURI(), false);
+        assertEquals(root.getURI(), d.getRoot().getURI());
+        assertEquals("reddish", RDFUtil.getStringValue(d.getRoot(), RDFS.label));
+        assertTrue( d.getRoot().getModel().isIsomorphicWith( referenceFlatten(root, version) ) );
+    }
+
+    // The original closure, copy and rename implementation of a flattened read
+    private Model referenceFlatten(Resource root, Resource version) {
+        Model m = Closure.closure(root, false);
+        Closure.closure(version, false, m);
+        VersionUtil.flatten(root.inModel(m), version.inModel(m));
+        return m;
+    }
+
     private List<RegisterItem> members(Register reg, boolean withEntity) {
         List<String> itemURIs = new ArrayList<String>();
         for (RegisterEntryInfo info : store.listMembers(reg)) {
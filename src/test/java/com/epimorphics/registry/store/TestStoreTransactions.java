@@ -0,0 +1,109 @@
+/******************************************************************
+ * File:        TestStoreTransactions.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.store;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check that transaction bookkeeping is kept per thread, so that readers
+ * are not held up by a waiting writer or by each other's nesting.
+ */
+public class TestStoreTransactions {
+    Store basestore;
+    StoreBaseImpl store;
+
+    @Before
+    public void setup() {
+        basestore = mock(Store.class);
+        store = new StoreBaseImpl();
+        store.setStore(basestore);
+    }
+
+    @Test
+    public void testReadersNotBlockedByWaitingWriter() throws Exception {
+        CountDownLatch writerWaiting = new CountDownLatch(1);
+        CountDownLatch writeLockFree = new CountDownLatch(1);
+        doAnswer( invocation -> {
+            writerWaiting.countDown();
+            writeLockFree.await();
+            return null;
+        } ).when(basestore).lockWrite();
+        Thread writer = new Thread( () -> {
+            store.beginWrite();
+            store.end();
+        } );
+        writer.start();
+        try {
+            assertTrue( writerWaiting.await(5, TimeUnit.SECONDS) );
+            CountDownLatch read = new CountDownLatch(1);
+            Thread reader = new Thread( () -> {
+                store.beginRead();
+                store.end();
+                read.countDown();
+            } );
+            reader.start();
+            assertTrue( read.await(5, TimeUnit.SECONDS) );
+        } finally {
+            writeLockFree.countDown();
+            writer.join();
+        }
+    }
+
+    @Test
+    public void testSafeReadsNestPerThread() throws Exception {
+        CountDownLatch inRead = new CountDownLatch(1);
+        CountDownLatch otherDone = new CountDownLatch(1);
+        Thread holder = new Thread( () -> {
+            store.beginSafeRead();
+            inRead.countDown();
+            try {
+                otherDone.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            store.endSafeRead();
+        } );
+        holder.start();
+        assertTrue( inRead.await(5, TimeUnit.SECONDS) );
+
+        // Another thread's safe read is its own transaction, and ending it leaves the first one open
+        store.beginSafeRead();
+        store.beginSafeRead();
+        store.endSafeRead();
+        verify(basestore, times(0)).end();
+        store.endSafeRead();
+        verify(basestore, times(1)).end();
+        otherDone.countDown();
+        holder.join();
+        verify(basestore, times(2)).lock();
+        verify(basestore, times(2)).end();
+    }
+}
@@ -0,0 +1,250 @@
+/******************************************************************
+ * File:        TestVersionIntervalIndex.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.util.FileUtils;
+import org.apache.jena.vocabulary.OWL;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.Test;
+
+import com.epimorphics.appbase.core.ComponentBase;
+import com.epimorphics.rdfutil.RDFUtil;
+import com.epimorphics.registry.core.Description;
+import com.epimorphics.registry.core.Register;
+import com.epimorphics.registry.core.RegisterItem;
+import com.epimorphics.registry.store.impl.TDBStore;
+import com.epimorphics.registry.util.VersionUtil;
+import com.epimorphics.util.NameUtils;
+
+public class TestVersionIntervalIndex {
+    static final String ROOT_REGISTER = TestStoreImpl.ROOT_REGISTER;
+    static final String REG1 = TestStoreImpl.REG1;
+    static final String THING = "http://example.com/thing";
+
+    @Test
+    public void testIntervals() {
+        VersionIntervalIndex index = new VersionIntervalIndex();
+        VersionIntervalIndex.Changes changes = new VersionIntervalIndex.Changes();
+        changes.addVersion(THING, THING + ":1", 1, 100);
+        index.apply(changes);
+        // Not indexed until loaded
+        assertNull( index.get(THING) );
+
+        index.load(THING, new VersionIntervalIndex.Intervals(Collections.<VersionIntervalIndex.Interval>emptyList()), index.getGeneration());
+        changes = new VersionIntervalIndex.Changes();
+        changes.addVersion(THING, THING + ":1", 1, 100);
+        changes.addVersion(THING, THING + ":2", 2, 200);
+        index.apply(changes);
+        changes = new VersionIntervalIndex.Changes();
+        changes.addVersion(THING, THING + ":3", 3, 300);
+        index.apply(changes);
+
+        VersionIntervalIndex.Intervals intervals = index.get(THING);
+        assertNull( intervals.versionAt(99) );
+        assertEquals( THING + ":1", intervals.versionAt(100) );
+        assertEquals( THING + ":1", intervals.versionAt(199) );
+        assertEquals( THING + ":2", intervals.versionAt(200) );
+        assertEquals( THING + ":3", intervals.versionAt(1000) );
+
+        // Loads from before a commit are stale
+        long asOf = index.getGeneration();
+        index.startCommit();
+        index.apply( new VersionIntervalIndex.Changes() );
+        index.load("http://example.com/other", intervals, asOf);
+        assertNull( index.get("http://example.com/other") );
+
+        changes = new VersionIntervalIndex.Changes();
+        changes.remove(THING);
+        index.apply(changes);
+        assertNull( index.get(THING) );
+    }
+
+    @Test
+    public void testSizeLimit() {
+        VersionIntervalIndex index = new VersionIntervalIndex();
+        index.setMaxVersions(10);
+        for (int i = 0; i < 5; i++) {
+            index.load(THING + i, versions(THING + i, 2), index.getGeneration());
+        }
+        assertEquals(10, index.size());
+        index.get(THING + 0);
+
+        // Exceeding the limit drops the least recently used resources
+        index.load(THING + 5, versions(THING + 5, 2), index.getGeneration());
+        assertTrue( index.size() <= 9 );
+        assertNotNull( index.get(THING + 0) );
+        assertNull( index.get(THING + 1) );
+        assertNotNull( index.get(THING + 5) );
+
+        // New versions count towards the limit
+        long size = index.size();
+        VersionIntervalIndex.Changes changes = new VersionIntervalIndex.Changes();
+        changes.addVersion(THING + 0, THING + "0:3", 3, 300);
+        index.apply(changes);
+        assertEquals(size + 1, index.size());
+
+        // Resources with more versions than the whole limit are not indexed
+        index.load(THING + 6, versions(THING + 6, 11), index.getGeneration());
+        assertNull( index.get(THING + 6) );
+
+        index.clear();
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testRead() {
+        Model model = ModelFactory.createDefaultModel();
+        Resource thing = model.createResource(THING).addProperty(RDFS.label, "thing");
+        Calendar t1 = Calendar.getInstance();
+        t1.setTimeInMillis(1000000);
+        model.add( VersionUtil.nextVersion(thing, t1).getModel() );
+        Calendar t2 = Calendar.getInstance();
+        t2.setTimeInMillis(2000000);
+        thing.addLiteral(OWL.versionInfo, 1);
+        model.add( VersionUtil.nextVersion(thing, t2).getModel() );
+
+        VersionIntervalIndex.Intervals intervals = VersionIntervalIndex.read(model.getGraph(), NodeFactory.createURI(THING));
+        assertEquals(2, intervals.getIntervals().size());
+        assertNull( intervals.versionAt(999999) );
+        assertEquals( THING + ":1", intervals.versionAt(1500000) );
+        assertEquals( THING + ":2", intervals.versionAt(2000000) );
+    }
+
+    @Test
+    public void testStoreLookups() throws InterruptedException {
+        Store basestore = new TDBStore();
+        ((ComponentBase)basestore).startup(null);
+        StoreBaseImpl store = new StoreBaseImpl();
+        store.setStore(basestore);
+        store.loadBootstrap(TestStoreImpl.BOOTSTRAP_FILE);
+
+        store.beginWrite();
+        try {
+            addEntry(store, "file:test/reg1.ttl", ROOT_REGISTER);
+            store.commit();
+        } finally {
+            store.end();
+        }
+        long ts0 = System.currentTimeMillis();
+        long ts1 = write(store, () -> addEntry(store, "file:test/red.ttl", REG1));
+        long ts2 = write(store, () -> addEntry(store, "file:test/blue.ttl", REG1));
+        String red = REG1 + "/_red";
+        String blue = REG1 + "/_blue";
+        long ts3 = write(store, () -> doUpdate(store, red, "red1"));
+
+        // Indexes both items, then the index has to follow later updates
+        checkVersionsAt(store, ts2, red, "red", blue, "blue");
+        long ts4 = write(store, () -> doUpdate(store, red, "red2"));
+        checkVersionsAt(store, ts0, red, null, blue, null);
+        checkVersionsAt(store, ts1, red, "red", blue, null);
+        checkVersionsAt(store, ts3, red, "red1", blue, "blue");
+        checkVersionsAt(store, ts4, red, "red2", blue, "blue");
+
+        // Agrees with a store which has no index
+        store.setIndexVersions(false);
+        checkVersionsAt(store, ts3, red, "red1", blue, "blue");
+        checkVersionsAt(store, ts4, red, "red2", blue, "blue");
+    }
+
+    private void checkVersionsAt(StoreAPI store, long time, String item1, String label1, String item2, String label2) {
+        store.beginRead();
+        try {
+            List<String> items = Arrays.asList(item1, item2);
+            Map<String, Description> versions = store.getVersionsAt(items, time);
+            checkLabel(versions.get(item1), label1);
+            checkLabel(versions.get(item2), label2);
+            checkLabel(store.getVersionAt(item1, time), label1);
+        } finally {
+            store.end();
+        }
+    }
+
+    private void checkLabel(Description d, String label) {
+        if (label == null) {
+            assertNull(d);
+        } else {
+            assertEquals(label, RDFUtil.getStringValue(d.getRoot(), RDFS.label));
+        }
+    }
+
+    /**
+     * Run an update in its own transaction, returning a time after it but before any later update.
+     */
+    private long write(StoreAPI store, Runnable action) throws InterruptedException {
+        Thread.sleep(10);
+        store.beginWrite();
+        try {
+            action.run();
+            store.commit();
+        } finally {
+            store.end();
+        }
+        long after = System.currentTimeMillis();
+        Thread.sleep(10);
+        return after;
+    }
+
+    private void doUpdate(StoreAPI store, String item, String label) {
+        RegisterItem ri = store.getItem(item, true);
+        Resource e = ri.getEntity();
+        e.removeAll(RDFS.label).addProperty(RDFS.label, label);
+        Calendar now = Calendar.getInstance();
+        ri.updateForEntity(false, now);
+        store.update(ri, true, now);
+    }
+
+    private void addEntry(StoreAPI store, String defFile, String parentURI) {
+        Register parent = store.getCurrentVersion(parentURI).asRegister();
+        String target = NameUtils.stripLastSlash(parentURI);
+        String base = NameUtils.ensureLastSlash(parentURI);
+        Model entityM = ModelFactory.createDefaultModel();
+        entityM.read(defFile, base, FileUtils.langTurtle);
+        Resource entityR = RDFUtil.findRoot( entityM );
+
+        Calendar now = Calendar.getInstance();
+        RegisterItem item = RegisterItem.fromEntityRequest(entityR, target, true, now);
+        store.addToRegister(parent, item, now);
+    }
+
+    private VersionIntervalIndex.Intervals versions(String uri, int n) {
+        List<VersionIntervalIndex.Interval> intervals = new ArrayList<>();
+        for (int i = 1; i <= n; i++) {
+            intervals.add( new VersionIntervalIndex.Interval(uri + ":" + i, i, i * 100, i == n ? VersionIntervalIndex.OPEN : (i + 1) * 100) );
+        }
+        return new VersionIntervalIndex.Intervals(intervals);
+    }
+}
@@ -23,7 +23,9 @@ package com.epimorphics.registry.util;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Predicate;
 
 import org.junit.Test;
@@ -73,4 +75,51 @@ public class TestTrie {
         assertEquals("1", trie.match("a/b/d/foo/bar").getMatch());
         
     }
+
+    @Test
+    public void testRemainders() {
+        Trie<String> trie = new Trie<String>();
+        trie.register("/a/b", "1");
+        trie.register("a//c", "2");
+
+        assertEquals("", trie.match("a/b").getPathRemainder());
+        assertEquals("", trie.match("/a/b/").getPathRemainder());
+        assertEquals("x/y", trie.match("/a/b/x/y/").getPathRemainder());
+        assertEquals("x//y", trie.match("a/b//x//y//").getPathRemainder());
+        assertEquals("2", trie.match("a//c/x").getMatch());
+        assertNull(trie.match("a"));
+        assertNull(trie.match("a/"));
+        assertNull(trie.match(""));
+        assertNull(trie.match("/"));
+
+        // Can't register below a terminal
+        trie.register("a/b/c", "3");
+        assertEquals("1", trie.match("a/b/c").getMatch());
+    }
+
+    @Test
+    public void testConcurrentUpdate() throws InterruptedException {
+        final Trie<String> trie = new Trie<String>();
+        trie.register("fixed/path", "fixed");
+        final AtomicBoolean ok = new AtomicBoolean(true);
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 100000; i++) {
+                    Trie.MatchResult<String> mr = trie.match("fixed/path/x");
+                    if (mr == null || !"fixed".equals(mr.getMatch())) {
+                        ok.set(false);
+                    }
+                }
+            }
+        };
+        reader.start();
+        for (int i = 0; i < 1000; i++) {
+            trie.register("fixed/other" + i, "o" + i);
+            trie.unregister("fixed/other" + (i - 1));
+        }
+        reader.join();
+        assertTrue(ok.get());
+        assertEquals(1, trie.findAll("fixed/other999", null).size());
+    }
 }
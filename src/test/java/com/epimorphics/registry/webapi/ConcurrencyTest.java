@@ -41,6 +41,10 @@ import com.epimorphics.vocabs.SKOS;
 /**
  * Test for concurrency issues by hammering a test instance with parallel reads and interspersed writes.
  * Not run as part of routine unit tests - used for soak testing.
+ * <p>
+ * Running main with the argument "throughput" instead measures read throughput
+ * for increasing numbers of reader threads, to check that reads scale.
+ * </p>
  */
 public class ConcurrencyTest extends TomcatTestBase {
     static final String REG1 = BASE_URL + "reg1";
@@ -62,6 +66,10 @@ public class ConcurrencyTest extends TomcatTestBase {
     }
 
     public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("throughput")) {
+            throughput(new int[]{1, 2, 4, 8, 16}, 2000, 50);
+            return;
+        }
         int nthreads = 10;
         int nreads = 10000;
         int nwrites = 200;
@@ -79,6 +87,34 @@ public class ConcurrencyTest extends TomcatTestBase {
         }
     }
     
+    /**
+     * Measure read throughput for each of the given thread counts.
+     * @param threadCounts the numbers of concurrent reader threads to try
+     * @param nreads the total number of register reads to issue for each thread count
+     * @param nitems the number of items to register before starting
+     */
+    public static void throughput(int[] threadCounts, int nreads, int nitems) throws Exception {
+        ConcurrencyTest test = new ConcurrencyTest();
+        test.containerStart();
+        try {
+            Tester setup = test.createTester(1);
+            setup.initRegister();
+            for (int i = 0; i < nitems; i++) {
+                setup.registerItem(i);
+            }
+            // Warm up
+            setup.timeReads(nreads / 10);
+
+            System.out.println("threads, reads, ms, reads/s");
+            for (int nthreads : threadCounts) {
+                long duration = test.createTester(nthreads).timeReads(nreads);
+                System.out.println( String.format("%d, %d, %d, %.1f", nthreads, nreads, duration, nreads * 1000.0 / Math.max(duration, 1)) );
+            }
+        } finally {
+            test.containerStop();
+        }
+    }
+
     public Tester createTester(int nthreads) {
         return new Tester(nthreads);
     }
@@ -124,6 +160,25 @@ public class ConcurrencyTest extends TomcatTestBase {
 
         }
     
+        /**
+         * Issue the given total number of register reads, split evenly across
+         * the reader threads with no delay between reads.
+         * @return elapsed time in ms
+         */
+        public long timeReads(int nreads) throws InterruptedException {
+            for (int t = 0; t < nthreads; t++) {
+                readThreads[t] = new Thread( new ReadWorker(nreads / nthreads, 0) );
+            }
+            long start = System.currentTimeMillis();
+            for (int t = 0; t < nthreads; t++) {
+                readThreads[t].start();
+            }
+            for (int t = 0; t < nthreads; t++) {
+                readThreads[t].join();
+            }
+            return System.currentTimeMillis() - start;
+        }
+
         protected void initRegister() {
             Response response = postFile("test/reg1.ttl", BASE_URL, "text/turtle");
             assertEquals("Register a register", 201, response.getStatus());
@@ -170,7 +225,7 @@ public class ConcurrencyTest extends TomcatTestBase {
             @Override
             public void run() {
                 for (int i = 0; i < iterations; i++) {
-                    if ( !skewedDelay(delay) ) return;
+                    if ( delay > 0 && !skewedDelay(delay) ) return;
                     assertTrue( registerList() > 0 );
                 }
             }
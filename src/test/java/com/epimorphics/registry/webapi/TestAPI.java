@@ -36,6 +36,9 @@ import java.util.Calendar;
 import java.util.List;
 import java.util.Map;
 
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 
 import org.apache.jena.riot.Lang;
@@ -137,8 +140,12 @@ public class TestAPI extends TomcatTestBase {
         // List versions
         doListVersionsTest();
 
+        // Conditional reads, the register tag should change as member status changes
+        EntityTag registerTag = doConditionalGetTest();
+
         // Check some status transitions
         doStatusTransitionsTest();
+        assertEquals(200, conditionalGet(REG1 + "?status=any", "text/turtle", registerTag).getStatus());
 
         // Checking of legal relative URIs in registration payload
         assertEquals(400, postFileStatus("test/bad-green.ttl", REG1));
@@ -520,6 +527,22 @@ public class TestAPI extends TomcatTestBase {
         assertEquals(200, response.getStatus());
         assertEquals("http://location.data.gov.uk/collection/item1 is http://location.data.gov.uk/collection/_item1", response.readEntity(String.class).trim());
 
+        // Streamed validation returns a result per URI
+        response = postFile("test/validation-request2.txt", BASE_URL + "?validate&_format=ndjson", "text/plain");
+        assertEquals(200, response.getStatus());
+        String[] lines = response.readEntity(String.class).trim().split("\n");
+        assertEquals(4, lines.length);
+        assertTrue( lines[0].contains("\"result\":\"valid\"") && lines[0].contains("http://location.data.gov.uk/collection/_item1") );
+        assertTrue( lines[2].contains("\"valid\":false") && lines[2].contains("\"result\":\"not-found\"") );
+        assertEquals("{\"count\":3,\"invalid\":1,\"valid\":false}", lines[3]);
+
+        response = postFile("test/validation-request1.txt", BASE_URL + "?validate&_format=csv", "text/plain");
+        assertEquals(200, response.getStatus());
+        lines = response.readEntity(String.class).trim().split("\r\n");
+        assertEquals("uri,valid,result,item", lines[0]);
+        assertEquals("http://location.data.gov.uk/collection/item2,true,valid,http://location.data.gov.uk/collection/_item2", lines[2]);
+        assertEquals(404, post(BASE_URL + "foo?validate&_format=csv").getStatus());
+        assertEquals(400, post(BASE_URL + "?validate&_format=ndjson").getStatus());
     }
 
     // Assumes reg1/red exists and has go through update (to red1) and patch (to red1b) and status change
@@ -553,6 +576,29 @@ public class TestAPI extends TomcatTestBase {
         assertEquals(204, post(REG1 + "/_blue?update&status=invalid").getStatus());
     }
 
+    private EntityTag doConditionalGetTest() {
+        Response response = getResponse(REG1 + "/_blue");
+        EntityTag itemTag = response.getEntityTag();
+        assertNotNull(itemTag);
+        assertNotNull(response.getLastModified());
+        assertEquals(304, conditionalGet(REG1 + "/_blue", "text/turtle", itemTag).getStatus());
+        assertEquals(200, conditionalGet(REG1 + "/_blue", JSONLDSupport.MIME_JSONLD, itemTag).getStatus());
+
+        response = getResponse(REG1 + "?status=any");
+        EntityTag registerTag = response.getEntityTag();
+        assertNotNull(registerTag);
+        assertEquals(304, conditionalGet(REG1 + "?status=any", "text/turtle", registerTag).getStatus());
+        assertEquals(304, c.target(REG1).queryParam("status", "any").request("text/turtle")
+                .header(HttpHeaders.IF_MODIFIED_SINCE, response.getHeaderString(HttpHeaders.LAST_MODIFIED))
+                .get().getStatus());
+        return registerTag;
+    }
+
+    private Response conditionalGet(String uri, String mime, EntityTag tag) {
+        WebTarget r = c.target( uri );
+        return r.request(mime).header(HttpHeaders.IF_NONE_MATCH, tag.toString()).get();
+    }
+
     protected static final String PROXY_CONFIG = "/var/opt/ldregistry/proxy-registry.conf";
     
     // Set up a namespace forward to EA data and checks can access it
@@ -0,0 +1,152 @@
+/******************************************************************
+ * File:        TestResponseCache.java
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *****************************************************************/
+
+package com.epimorphics.registry.webapi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.epimorphics.registry.message.Message;
+
+public class TestResponseCache {
+    static final String BASE = "http://location.data.gov.uk";
+
+    ResponseCache cache;
+
+    @Before
+    public void setup() {
+        cache = new ResponseCache(10);
+        cache.addGlobalTarget(BASE + "/system/prefixes");
+    }
+
+    @Test
+    public void testKeys() {
+        MultivaluedMap<String, String> p1 = new MultivaluedHashMap<>();
+        p1.add("status", "any");
+        p1.add("_view", "with_metadata");
+        MultivaluedMap<String, String> p2 = new MultivaluedHashMap<>();
+        p2.add("_view", "with_metadata");
+        p2.add("status", "any");
+        String key = ResponseCache.key("reg1", p1, "text/turtle", null, false);
+        assertEquals(key, ResponseCache.key("reg1", p2, "text/turtle", null, false));
+        assertFalse(key.equals( ResponseCache.key("reg1", p1, "text/turtle", null, true) ));
+        assertFalse(key.equals( ResponseCache.key("reg1", p1, "text/csv", null, false) ));
+        assertFalse(key.equals( ResponseCache.key("reg1", p1, "text/turtle", "cy", false) ));
+    }
+
+    @Test
+    public void testPutGet() {
+        assertTrue( put("reg1", false) );
+        ResponseCache.Entry entry = cache.get("reg1");
+        assertNotNull(entry);
+        assertArrayEquals("reg1".getBytes(StandardCharsets.UTF_8), entry.getBody());
+        assertNull( cache.get("reg2") );
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // Responses computed across an invalidation are not cached
+        long generation = cache.getGeneration();
+        cache.invalidate(BASE + "/reg2/_item");
+        assertFalse( cache.put("reg2", entry("reg2", false), generation) );
+        assertNull( cache.get("reg2") );
+    }
+
+    @Test
+    public void testInvalidation() {
+        put("", false);
+        put("reg1", false);
+        put("reg1/red", false);
+        put("reg1/_blue", false);
+        put("reg2", false);
+        put("reg10", false);
+        put("reg2/search", true);
+
+        cache.invalidate(BASE + "/reg1/_red");
+        assertNull( cache.get("") );
+        assertNull( cache.get("reg1") );
+        assertNull( cache.get("reg1/red") );
+        assertNull( cache.get("reg2/search") );
+        assertNotNull( cache.get("reg1/_blue") );
+        assertNotNull( cache.get("reg2") );
+        assertNotNull( cache.get("reg10") );
+
+        // Change to a register drops its members
+        cache.invalidate(BASE + "/_reg1");
+        assertNull( cache.get("reg1/_blue") );
+        assertNotNull( cache.get("reg10") );
+
+        cache.invalidate(BASE + "/system/prefixes/_skos");
+        assertEquals(0, cache.size());
+        assertEquals(3, cache.getInvalidations());
+    }
+
+    @Test
+    public void testLocalChanges() {
+        put("reg1", false);
+        Message local = message(BASE + "/reg1/_red");
+        cache.invalidate(local);
+        assertNull( cache.get("reg1") );
+
+        // Delivery of the message already applied does not drop later entries
+        put("reg1", false);
+        cache.processMessage(local);
+        assertNotNull( cache.get("reg1") );
+
+        // Notifications from elsewhere are still applied
+        cache.processMessage( message(BASE + "/reg1/_red") );
+        assertNull( cache.get("reg1") );
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        cache.setTTL(10);
+        put("reg1", false);
+        Thread.sleep(50);
+        assertNull( cache.get("reg1") );
+    }
+
+    private boolean put(String path, boolean global) {
+        return cache.put(path, entry(path, global), cache.getGeneration());
+    }
+
+    private Message message(String target) {
+        Message message = new Message();
+        message.setTarget(target);
+        return message;
+    }
+
+    private ResponseCache.Entry entry(String path, boolean global) {
+        byte[] body = path.getBytes(StandardCharsets.UTF_8);
+        return new ResponseCache.Entry(BASE + "/" + path, global, body, Response.ok(body).type("text/plain").build());
+    }
+}